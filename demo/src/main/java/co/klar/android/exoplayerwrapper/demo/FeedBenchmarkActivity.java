@@ -0,0 +1,96 @@
+package co.klar.android.exoplayerwrapper.demo;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.os.Handler;
+import android.util.Log;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import co.klar.android.exoplayerwrapper.FeedPlayer;
+import co.klar.android.exoplayerwrapper.Video;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Simulates scrolling through a feed with a {@link FeedPlayer}: the next item is activated every
+ * few seconds, and the start latencies of preloaded and cold items are logged. Whether preloaded
+ * items start within 200 ms is still to be measured with it on devices.
+ * <p/>
+ * Start with {@code adb shell am start -n
+ * co.klar.android.exoplayerwrapper.demo/.FeedBenchmarkActivity} and read the results with
+ * {@code adb logcat -s FeedBenchmarkActivity}.
+ */
+public class FeedBenchmarkActivity extends Activity implements SurfaceHolder.Callback, Runnable {
+
+    private static final String TAG = FeedBenchmarkActivity.class.getSimpleName();
+
+    private static final int SCROLL_INTERVAL_MS = 3000;
+
+    private final Handler handler = new Handler();
+
+    private SurfaceView surfaceView;
+    private FeedPlayer feedPlayer;
+    private List<Video> videos;
+    private int index;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        surfaceView = new SurfaceView(this);
+        setContentView(surfaceView);
+        surfaceView.getHolder().addCallback(this);
+
+        videos = new ArrayList<>();
+        addVideos(Samples.YOUTUBE_DASH_MP4);
+        addVideos(Samples.SMOOTHSTREAMING);
+        addVideos(Samples.HLS);
+        addVideos(Samples.MISC);
+        feedPlayer = new FeedPlayer(this);
+        feedPlayer.setVideos(videos);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        handler.removeCallbacks(this);
+        feedPlayer.release();
+        Log.d(TAG, "Feed benchmark: " + feedPlayer);
+    }
+
+    // SurfaceHolder.Callback
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        handler.post(this);
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        // Do nothing.
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        handler.removeCallbacks(this);
+        feedPlayer.pause();
+    }
+
+    // Runnable
+
+    @Override
+    public void run() {
+        feedPlayer.setActiveItem(index, surfaceView.getHolder().getSurface());
+        Log.d(TAG, "Item " + index + ": " + feedPlayer);
+        index = (index + 1) % videos.size();
+        handler.postDelayed(this, SCROLL_INTERVAL_MS);
+    }
+
+    private void addVideos(Samples.Sample[] samples) {
+        for (Samples.Sample sample : samples) {
+            videos.add(new Video(sample.uri, sample.type));
+        }
+    }
+
+}
@@ -2,6 +2,7 @@ package co.klar.android.exoplayerwrapper.demo;
 
 import android.app.Application;
 
+import co.klar.android.exoplayerwrapper.util.PlayerInitializer;
 import timber.log.Timber;
 
 /**
@@ -12,6 +13,7 @@ public class MyApplication extends Application {
     public void onCreate() {
         super.onCreate();
         Timber.plant(new Timber.DebugTree());
-
+        PlayerInitializer.initialize(this, new String[] {
+                "http://www.youtube.com/", "http://playready.directtaps.net/"});
     }
 }
@@ -0,0 +1,331 @@
+package co.klar.android.exoplayerwrapper;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.view.Surface;
+
+import com.google.android.exoplayer.ExoPlayer;
+
+import co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper;
+import co.klar.android.exoplayerwrapper.extractor.PlayerConfiguration;
+import co.klar.android.exoplayerwrapper.upstream.DataSourceFactory;
+import co.klar.android.exoplayerwrapper.upstream.PooledDataSourceFactory;
+import co.klar.android.exoplayerwrapper.util.LatencyHistogram;
+import co.klar.android.exoplayerwrapper.util.PlayerInitializer;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Plays the items of a scrolling video feed with a few reused {@link ExoPlayerWrapper}s.
+ * <p/>
+ * The app reports the most visible item and its surface with {@link #setActiveItem(int, Surface)},
+ * for example from a scroll listener. The player of that item is attached to the surface and
+ * played. The items within the preload distance before and after it are prepared without a
+ * surface and with their audio track disabled, so their manifest and first video segments are
+ * loaded but no decoder is created. Until an item is played, its player loads at most
+ * {@link #DEFAULT_PRELOAD_BUFFER_MS} of media, or the duration required to start playback if that
+ * is longer. Scrolling to a preloaded item then only has to create the decoders and load the
+ * first audio segment. Players are reused for new items through
+ * {@link ExoPlayerWrapper#replaceRenderBuilder}, so the number of players, playback threads and
+ * buffers is fixed.
+ * <p/>
+ * The time from activating an item until it plays is recorded separately for preloaded and for
+ * cold items. Whether preloaded items start within the 200 ms target has not been measured on
+ * devices yet; the demo's FeedBenchmarkActivity logs both histograms for that purpose. Must be
+ * used on the main thread.
+ */
+public final class FeedPlayer {
+
+    public static final int DEFAULT_PRELOAD_DISTANCE = 1;
+    public static final int DEFAULT_PRELOAD_BUFFER_MS = 2000;
+
+    private static final long STARTUP_RAMP_MS = 5000;
+
+    private final Context context;
+    private final DataSourceFactory dataSourceFactory;
+    private final PlayerConfiguration configuration;
+    private final PreloadWindow window;
+    private final Slot[] slots;
+    private final LatencyHistogram preloadedStartHistogram;
+    private final LatencyHistogram coldStartHistogram;
+
+    private List<Video> videos;
+    private int activeIndex;
+
+    public FeedPlayer(Context context) {
+        this(context, new PooledDataSourceFactory(context,
+                PlayerInitializer.getUserAgent(context)), PlayerConfiguration.FAST_START,
+                DEFAULT_PRELOAD_DISTANCE);
+    }
+
+    /**
+     * @param context           A context.
+     * @param dataSourceFactory The factory of the data sources of all players.
+     * @param configuration     The configuration of all players, for example
+     *                          {@link PlayerConfiguration#PREVIEW} for a feed of inline previews.
+     *                          Its buffer applies once an item plays.
+     * @param preloadDistance   The number of items preloaded before and after the active item.
+     */
+    public FeedPlayer(Context context, DataSourceFactory dataSourceFactory,
+                      PlayerConfiguration configuration, int preloadDistance) {
+        this.context = context.getApplicationContext();
+        this.dataSourceFactory = dataSourceFactory;
+        this.configuration = capStartupBuffer(configuration, DEFAULT_PRELOAD_BUFFER_MS);
+        window = new PreloadWindow(preloadDistance);
+        slots = new Slot[window.getSlotCount()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot();
+        }
+        preloadedStartHistogram = new LatencyHistogram();
+        coldStartHistogram = new LatencyHistogram();
+        videos = Collections.emptyList();
+        activeIndex = -1;
+    }
+
+    /**
+     * Sets the items of the feed. Players of previous items are stopped.
+     */
+    public void setVideos(List<Video> videos) {
+        this.videos = videos;
+        activeIndex = -1;
+        for (int i = 0; i < slots.length; i++) {
+            unbind(i);
+        }
+    }
+
+    /**
+     * Plays an item on a surface, pauses the previously active item and preloads the neighbors of
+     * the item. Calling it again for the active item only updates its surface.
+     *
+     * @param index   The index of the item.
+     * @param surface The surface of the item's view.
+     */
+    public void setActiveItem(int index, Surface surface) {
+        if (index < 0 || index >= videos.size()) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (index == activeIndex) {
+            // Scroll listeners report the same item repeatedly. Re-activating it would restart
+            // the measurement of its start time.
+            getSlot(index).setSurface(surface);
+            return;
+        }
+        // Free the slots of items outside the preload window.
+        for (int i = 0; i < slots.length; i++) {
+            int slotIndex = window.getIndex(i);
+            if (slotIndex != -1 && !window.contains(index, slotIndex)) {
+                unbind(i);
+            }
+        }
+        Slot previousSlot = activeIndex == -1 ? null : getSlot(activeIndex);
+        if (previousSlot != null) {
+            previousSlot.deactivate();
+        }
+        activeIndex = index;
+
+        Slot slot = getSlot(index);
+        boolean preloaded = slot != null;
+        if (slot == null) {
+            slot = bind(index);
+        }
+        slot.activationTimeMs = SystemClock.elapsedRealtime();
+        slot.activatedPreloaded = preloaded;
+        slot.activate(surface);
+
+        for (int i = window.getFirstIndex(index); i <= window.getLastIndex(index, videos.size());
+             i++) {
+            if (getSlot(i) == null) {
+                bind(i);
+            }
+        }
+    }
+
+    /**
+     * Returns the player of the active item, or null if there is none.
+     */
+    public ExoPlayerWrapper getActivePlayer() {
+        Slot slot = activeIndex == -1 ? null : getSlot(activeIndex);
+        return slot == null ? null : slot.wrapper;
+    }
+
+    /**
+     * Pauses the active item.
+     */
+    public void pause() {
+        ExoPlayerWrapper player = getActivePlayer();
+        if (player != null) {
+            player.setPlayWhenReady(false);
+        }
+    }
+
+    /**
+     * Releases all players.
+     */
+    public void release() {
+        for (Slot slot : slots) {
+            slot.release();
+        }
+        window.clear();
+        activeIndex = -1;
+    }
+
+    /**
+     * Returns the histogram of the time from activating a preloaded item until it played.
+     */
+    public LatencyHistogram getPreloadedStartHistogram() {
+        return preloadedStartHistogram;
+    }
+
+    /**
+     * Returns the histogram of the time from activating an item that was not preloaded until it
+     * played.
+     */
+    public LatencyHistogram getColdStartHistogram() {
+        return coldStartHistogram;
+    }
+
+    @Override
+    public String toString() {
+        return "preloaded [" + preloadedStartHistogram + "], cold [" + coldStartHistogram + "]";
+    }
+
+    /**
+     * Returns a configuration that loads at most the given duration of media until playback
+     * starts, and then ramps up to the buffer of the given configuration.
+     */
+    private static PlayerConfiguration capStartupBuffer(PlayerConfiguration configuration,
+                                                        int maxStartupBufferMs) {
+        int startupMaxBufferMs = Math.max(configuration.bufferForPlaybackMs,
+                Math.min(configuration.startupMaxBufferMs, maxStartupBufferMs));
+        long startupRampMs = configuration.startupRampMs > 0 ? configuration.startupRampMs
+                : STARTUP_RAMP_MS;
+        return new PlayerConfiguration(configuration.minBufferMs, configuration.maxBufferMs,
+                configuration.bufferForPlaybackMs, configuration.bufferForPlaybackAfterRebufferMs,
+                configuration.allowedJoiningTimeMs, configuration.maxDroppedFrameCountToNotify,
+                startupMaxBufferMs, startupRampMs, configuration.previewDurationMs);
+    }
+
+    private Slot getSlot(int index) {
+        int slot = window.getSlot(index);
+        return slot == -1 ? null : slots[slot];
+    }
+
+    private Slot bind(int index) {
+        Slot slot = slots[window.bind(index)];
+        slot.bind(videos.get(index));
+        return slot;
+    }
+
+    private void unbind(int slot) {
+        if (window.getIndex(slot) != -1) {
+            window.unbind(slot);
+            slots[slot].unbind();
+        }
+    }
+
+    private final class Slot implements ExoPlayerWrapper.Listener {
+
+        public ExoPlayerWrapper wrapper;
+        public long activationTimeMs;
+        public boolean activatedPreloaded;
+
+        private int audioTrackToRestore;
+        private Surface surface;
+
+        public Slot() {
+            activationTimeMs = -1;
+            audioTrackToRestore = ExoPlayerWrapper.TRACK_DEFAULT;
+        }
+
+        public void bind(Video video) {
+            activationTimeMs = -1;
+            ExoPlayerWrapper.RendererBuilder rendererBuilder =
+                    SimpleVideoPlayer.createRendererBuilder(context, dataSourceFactory, video);
+            // The tracks of the previous item may not exist in this one.
+            audioTrackToRestore = ExoPlayerWrapper.TRACK_DEFAULT;
+            if (wrapper == null) {
+                wrapper = new ExoPlayerWrapper(rendererBuilder, configuration);
+                wrapper.addListener(this);
+                wrapper.selectTrack(ExoPlayerWrapper.TYPE_AUDIO, ExoPlayerWrapper.DISABLED_TRACK);
+                wrapper.prepare();
+            } else {
+                wrapper.selectTrack(ExoPlayerWrapper.TYPE_AUDIO, ExoPlayerWrapper.DISABLED_TRACK);
+                wrapper.seekTo(0);
+                wrapper.replaceRenderBuilder(rendererBuilder);
+            }
+        }
+
+        public void activate(Surface surface) {
+            wrapper.selectTrack(ExoPlayerWrapper.TYPE_AUDIO, audioTrackToRestore);
+            setSurface(surface);
+            wrapper.setPlayWhenReady(true);
+        }
+
+        public void setSurface(Surface surface) {
+            if (this.surface != surface) {
+                this.surface = surface;
+                wrapper.setSurface(surface);
+            }
+        }
+
+        public void deactivate() {
+            wrapper.setPlayWhenReady(false);
+            // Releases the video decoder of the item.
+            surface = null;
+            wrapper.blockingClearSurface();
+            disableAudio();
+        }
+
+        public void unbind() {
+            activationTimeMs = -1;
+            deactivate();
+            wrapper.stop();
+        }
+
+        public void release() {
+            activationTimeMs = -1;
+            surface = null;
+            if (wrapper != null) {
+                wrapper.release();
+                wrapper = null;
+            }
+        }
+
+        /**
+         * Disables the audio track, which releases the audio decoder and buffer of the item.
+         */
+        private void disableAudio() {
+            int audioTrack = wrapper.getSelectedTrackIndex(ExoPlayerWrapper.TYPE_AUDIO);
+            if (audioTrack != ExoPlayerWrapper.DISABLED_TRACK) {
+                audioTrackToRestore = audioTrack;
+            }
+            wrapper.selectTrack(ExoPlayerWrapper.TYPE_AUDIO, ExoPlayerWrapper.DISABLED_TRACK);
+        }
+
+        // ExoPlayerWrapper.Listener
+
+        @Override
+        public void onStateChanged(boolean playWhenReady, int playbackState) {
+            if (activationTimeMs != -1 && playWhenReady && playbackState == ExoPlayer.STATE_READY) {
+                long startTimeMs = SystemClock.elapsedRealtime() - activationTimeMs;
+                (activatedPreloaded ? preloadedStartHistogram : coldStartHistogram)
+                        .record(startTimeMs);
+                activationTimeMs = -1;
+            }
+        }
+
+        @Override
+        public void onError(Exception e) {
+            activationTimeMs = -1;
+        }
+
+        @Override
+        public void onVideoSizeChanged(int width, int height, int unappliedRotationDegrees,
+                                       float pixelWidthHeightRatio) {
+            // Do nothing.
+        }
+
+    }
+
+}
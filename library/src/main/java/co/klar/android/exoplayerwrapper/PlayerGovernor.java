@@ -0,0 +1,317 @@
+package co.klar.android.exoplayerwrapper;
+
+import com.google.android.exoplayer.util.Clock;
+import com.google.android.exoplayer.util.SystemClock;
+
+import co.klar.android.exoplayerwrapper.util.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Arbitrates decoders and buffer memory between several players, such as
+ * {@link SimpleVideoPlayer}s, for example in a feed.
+ * <p/>
+ * Players are ranked by visibility and priority. At most {@link #getMaxActiveDecoders()} visible
+ * players are granted decoders. The others are demoted to a warm state: they are paused and their
+ * audio and video tracks are disabled. This releases their decoders, and also their audio and
+ * video buffers, because disabling a track of a chunk source clears its sample queue and trims the
+ * allocator. A demoted player keeps its playback thread, its manifest and its position, so it
+ * only has to reload the media when it is granted decoders again, and resumes from the same
+ * position. The time until it is ready again is recorded as the re-acquisition latency.
+ * <p/>
+ * If the buffers of all players together exceed {@link #getMaxBufferBytes()}, the lowest ranked
+ * players without decoders that still hold buffers, for example of a text track, are evicted,
+ * which releases them entirely. Players holding decoders are never evicted. The buffers of a
+ * demoted player are only freed once its playback thread has disabled the tracks, so a player is
+ * neither counted against the budget nor evicted in the pass that demotes it. The budget is
+ * checked again on the next change, for example when the next player becomes ready.
+ * <p/>
+ * Must be used on the main thread.
+ */
+public final class PlayerGovernor {
+
+    /**
+     * A player governed by a {@link PlayerGovernor}.
+     */
+    public interface GovernedPlayer {
+
+        /**
+         * Invoked when the player is registered with a governor, and with null when it is
+         * unregistered. The player must invoke {@link #onPlayerReady(GovernedPlayer)} on the
+         * governor when it becomes ready.
+         */
+        void setGovernor(PlayerGovernor governor);
+
+        /**
+         * Pauses the player and releases its decoders, keeping it warm.
+         */
+        void releaseDecoders();
+
+        /**
+         * Restores the state before {@link #releaseDecoders()}.
+         */
+        void acquireDecoders();
+
+        /**
+         * Releases the player to free its buffers. Only invoked while the decoders are released.
+         */
+        void evict();
+
+        /**
+         * Returns the number of bytes currently allocated for the player's buffers.
+         */
+        long getAllocatedBytes();
+
+    }
+
+    public static final int DEFAULT_MAX_ACTIVE_DECODERS = 2;
+    public static final long DEFAULT_MAX_BUFFER_BYTES = 32 * 1024 * 1024;
+
+    private static PlayerGovernor defaultInstance;
+
+    private final int maxActiveDecoders;
+    private final long maxBufferBytes;
+    private final Clock clock;
+    private final List<Entry> entries;
+    private final Comparator<Entry> rankComparator;
+    private final LatencyHistogram reacquisitionLatencyHistogram;
+
+    private int demotionCount;
+    private int evictionCount;
+
+    /**
+     * Returns the process wide governor.
+     */
+    public static synchronized PlayerGovernor getDefault() {
+        if (defaultInstance == null) {
+            defaultInstance = new PlayerGovernor(DEFAULT_MAX_ACTIVE_DECODERS,
+                    DEFAULT_MAX_BUFFER_BYTES);
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * @param maxActiveDecoders The maximum number of players holding decoders at any time.
+     * @param maxBufferBytes    The maximum number of bytes buffered by all players together.
+     */
+    public PlayerGovernor(int maxActiveDecoders, long maxBufferBytes) {
+        this(maxActiveDecoders, maxBufferBytes, new SystemClock());
+    }
+
+    /**
+     * @param maxActiveDecoders The maximum number of players holding decoders at any time.
+     * @param maxBufferBytes    The maximum number of bytes buffered by all players together.
+     * @param clock             The clock measuring the re-acquisition latency.
+     */
+    public PlayerGovernor(int maxActiveDecoders, long maxBufferBytes, Clock clock) {
+        this.maxActiveDecoders = maxActiveDecoders;
+        this.maxBufferBytes = maxBufferBytes;
+        this.clock = clock;
+        entries = new ArrayList<>();
+        rankComparator = new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                boolean lhsVisible = lhs.visibleFraction > 0;
+                boolean rhsVisible = rhs.visibleFraction > 0;
+                if (lhsVisible != rhsVisible) {
+                    return lhsVisible ? -1 : 1;
+                }
+                if (lhs.priority != rhs.priority) {
+                    return lhs.priority > rhs.priority ? -1 : 1;
+                }
+                return Float.compare(rhs.visibleFraction, lhs.visibleFraction);
+            }
+        };
+        reacquisitionLatencyHistogram = new LatencyHistogram();
+    }
+
+    public int getMaxActiveDecoders() {
+        return maxActiveDecoders;
+    }
+
+    public long getMaxBufferBytes() {
+        return maxBufferBytes;
+    }
+
+    /**
+     * Starts governing a player. Until its visibility is set, the player is considered invisible.
+     */
+    public void register(GovernedPlayer player) {
+        if (getEntry(player) != null) {
+            return;
+        }
+        entries.add(new Entry(player));
+        player.setGovernor(this);
+        rebalance();
+    }
+
+    /**
+     * Stops governing a player. If it was demoted, it is granted its decoders back.
+     */
+    public void unregister(GovernedPlayer player) {
+        Entry entry = getEntry(player);
+        if (entry == null) {
+            return;
+        }
+        entries.remove(entry);
+        player.setGovernor(null);
+        if (!entry.granted) {
+            player.acquireDecoders();
+        }
+        rebalance();
+    }
+
+    /**
+     * Sets how much of a player is visible on screen.
+     *
+     * @param visibleFraction The visible fraction of the player's view, from 0 to 1.
+     */
+    public void setVisibility(GovernedPlayer player, float visibleFraction) {
+        Entry entry = getEntry(player);
+        if (entry != null && entry.visibleFraction != visibleFraction) {
+            entry.visibleFraction = visibleFraction;
+            rebalance();
+        }
+    }
+
+    /**
+     * Sets the priority of a player. Among visible players, those with a higher priority are
+     * granted decoders first.
+     */
+    public void setPriority(GovernedPlayer player, int priority) {
+        Entry entry = getEntry(player);
+        if (entry != null && entry.priority != priority) {
+            entry.priority = priority;
+            rebalance();
+        }
+    }
+
+    /**
+     * Returns whether a registered player is currently granted decoders.
+     */
+    public boolean isGranted(GovernedPlayer player) {
+        Entry entry = getEntry(player);
+        return entry != null && entry.granted;
+    }
+
+    /**
+     * Returns the number of times a player granted decoders was demoted to the warm state. Players
+     * that are not visible when they are registered are demoted without being counted.
+     */
+    public int getDemotionCount() {
+        return demotionCount;
+    }
+
+    /**
+     * Returns the number of times a player was released to respect the buffer budget.
+     */
+    public int getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns the histogram of the time from granting decoders to a demoted or evicted player
+     * until it was ready to play again. This includes reloading its media, and for an evicted
+     * player, the manifest.
+     */
+    public LatencyHistogram getReacquisitionLatencyHistogram() {
+        return reacquisitionLatencyHistogram;
+    }
+
+    @Override
+    public String toString() {
+        return "demotions=" + demotionCount + ", evictions=" + evictionCount + ", reacquisition ["
+                + reacquisitionLatencyHistogram + "]";
+    }
+
+    /**
+     * Invoked by a governed player when it becomes ready to play.
+     */
+    public void onPlayerReady(GovernedPlayer player) {
+        Entry entry = getEntry(player);
+        if (entry != null && entry.grantTimeMs != -1) {
+            reacquisitionLatencyHistogram.record(clock.elapsedRealtime() - entry.grantTimeMs);
+            entry.grantTimeMs = -1;
+        }
+        rebalance();
+    }
+
+    private void rebalance() {
+        Collections.sort(entries, rankComparator);
+        int grantedCount = 0;
+        long bufferBytes = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            entry.demotedInPass = false;
+            boolean grant = entry.visibleFraction > 0 && grantedCount < maxActiveDecoders;
+            if (grant) {
+                grantedCount++;
+                if (!entry.granted) {
+                    entry.granted = true;
+                    entry.grantTimeMs = clock.elapsedRealtime();
+                    entry.player.acquireDecoders();
+                }
+            } else if (entry.granted) {
+                entry.granted = false;
+                entry.grantTimeMs = -1;
+                entry.player.releaseDecoders();
+                entry.demotedInPass = true;
+                if (!entry.registering) {
+                    demotionCount++;
+                }
+            }
+            entry.registering = false;
+            if (!entry.demotedInPass) {
+                // The allocation of a player demoted just now has not been trimmed yet.
+                bufferBytes += entry.player.getAllocatedBytes();
+            }
+        }
+        // Evict the lowest ranked players without decoders until the buffers fit the budget.
+        for (int i = entries.size() - 1; i >= 0 && bufferBytes > maxBufferBytes; i--) {
+            Entry entry = entries.get(i);
+            long allocatedBytes = entry.player.getAllocatedBytes();
+            if (!entry.granted && !entry.demotedInPass && allocatedBytes > 0) {
+                entry.player.evict();
+                bufferBytes -= allocatedBytes;
+                evictionCount++;
+            }
+        }
+    }
+
+    private Entry getEntry(GovernedPlayer player) {
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (entry.player == player) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private static final class Entry {
+
+        public final GovernedPlayer player;
+
+        public float visibleFraction;
+        public int priority;
+        // Players start granted, as they are when not governed.
+        public boolean granted;
+        public long grantTimeMs;
+        // Whether the entry has not been ranked yet, so that demoting it is not a demotion.
+        public boolean registering;
+        // Whether the entry was demoted in the current pass of rebalance().
+        public boolean demotedInPass;
+
+        public Entry(GovernedPlayer player) {
+            this.player = player;
+            granted = true;
+            grantTimeMs = -1;
+            registering = true;
+        }
+
+    }
+
+}
@@ -0,0 +1,102 @@
+package co.klar.android.exoplayerwrapper;
+
+/**
+ * Tracks which items of a {@link FeedPlayer} are bound to its player slots, and which items lie
+ * within the preload window around the active item.
+ * <p/>
+ * There are enough slots for the active item and the preload distance before and after it, so
+ * an item in the window always finds a free slot once the items outside it are unbound.
+ */
+/* package */ final class PreloadWindow {
+
+    private final int preloadDistance;
+    private final int[] slotIndices;
+
+    /**
+     * @param preloadDistance The number of items preloaded before and after the active item.
+     */
+    public PreloadWindow(int preloadDistance) {
+        this.preloadDistance = preloadDistance;
+        slotIndices = new int[2 * preloadDistance + 1];
+        clear();
+    }
+
+    public int getSlotCount() {
+        return slotIndices.length;
+    }
+
+    /**
+     * Returns the index of the item bound to a slot, or -1 if the slot is free.
+     */
+    public int getIndex(int slot) {
+        return slotIndices[slot];
+    }
+
+    /**
+     * Returns the slot an item is bound to, or -1 if it is not bound.
+     */
+    public int getSlot(int index) {
+        for (int i = 0; i < slotIndices.length; i++) {
+            if (slotIndices[i] == index) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Binds an item to the first free slot.
+     *
+     * @return The slot.
+     * @throws IllegalStateException If no slot is free.
+     */
+    public int bind(int index) {
+        int slot = getSlot(-1);
+        if (slot == -1) {
+            throw new IllegalStateException();
+        }
+        slotIndices[slot] = index;
+        return slot;
+    }
+
+    /**
+     * Frees a slot.
+     */
+    public void unbind(int slot) {
+        slotIndices[slot] = -1;
+    }
+
+    /**
+     * Frees all slots.
+     */
+    public void clear() {
+        for (int i = 0; i < slotIndices.length; i++) {
+            slotIndices[i] = -1;
+        }
+    }
+
+    /**
+     * Returns whether an item lies within the preload window around the active item.
+     */
+    public boolean contains(int activeIndex, int index) {
+        return Math.abs(index - activeIndex) <= preloadDistance;
+    }
+
+    /**
+     * Returns the first item of the preload window around the active item.
+     */
+    public int getFirstIndex(int activeIndex) {
+        return Math.max(0, activeIndex - preloadDistance);
+    }
+
+    /**
+     * Returns the last item of the preload window around the active item.
+     *
+     * @param activeIndex The index of the active item.
+     * @param itemCount   The number of items in the feed.
+     */
+    public int getLastIndex(int activeIndex, int itemCount) {
+        return Math.min(itemCount - 1, activeIndex + preloadDistance);
+    }
+
+}
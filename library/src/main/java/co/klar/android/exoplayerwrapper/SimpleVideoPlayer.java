@@ -39,9 +39,29 @@ import co.klar.android.exoplayerwrapper.extractor.DashRendererBuilder;
 import co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper;
 import co.klar.android.exoplayerwrapper.extractor.ExtractorRendererBuilder;
 import co.klar.android.exoplayerwrapper.extractor.HlsRendererBuilder;
+import co.klar.android.exoplayerwrapper.extractor.PlayerConfiguration;
 import co.klar.android.exoplayerwrapper.extractor.SmoothStreamingRendererBuilder;
+import co.klar.android.exoplayerwrapper.upstream.BackBuffer;
+import co.klar.android.exoplayerwrapper.upstream.BackBufferDataSourceFactory;
+import co.klar.android.exoplayerwrapper.upstream.DataSourceFactory;
+import co.klar.android.exoplayerwrapper.upstream.DownloadScheduler;
+import co.klar.android.exoplayerwrapper.upstream.PooledDataSourceFactory;
+import co.klar.android.exoplayerwrapper.upstream.ScheduledDataSourceFactory;
+import co.klar.android.exoplayerwrapper.util.BufferHealthSampler;
+import co.klar.android.exoplayerwrapper.util.CodecCountersSampler;
 import co.klar.android.exoplayerwrapper.util.EventLogger;
+import co.klar.android.exoplayerwrapper.util.EventRecorder;
+import co.klar.android.exoplayerwrapper.util.FlightRecorder;
+import co.klar.android.exoplayerwrapper.util.HarRecorder;
+import co.klar.android.exoplayerwrapper.util.JankMonitor;
+import co.klar.android.exoplayerwrapper.util.LoadLatencyTracker;
+import co.klar.android.exoplayerwrapper.util.PlayerInitializer;
+import co.klar.android.exoplayerwrapper.util.QoeCollector;
+import co.klar.android.exoplayerwrapper.util.QoeSummary;
+import co.klar.android.exoplayerwrapper.util.StallClassifier;
+import co.klar.android.exoplayerwrapper.util.StartupTraceAggregator;
 import co.klar.android.exoplayerwrapper.util.ViewGroupUtils;
+import co.klar.android.exoplayerwrapper.widget.DebugOverlayView;
 import co.klar.android.exoplayerwrapper.widget.VideoControllerView;
 
 /**
@@ -49,7 +69,8 @@ import co.klar.android.exoplayerwrapper.widget.VideoControllerView;
  */
 public class SimpleVideoPlayer implements SurfaceHolder.Callback,
         ExoPlayerWrapper.Listener, ExoPlayerWrapper.CaptionListener,
-        ExoPlayerWrapper.Id3MetadataListener, AudioCapabilitiesReceiver.Listener {
+        ExoPlayerWrapper.Id3MetadataListener, AudioCapabilitiesReceiver.Listener,
+        PlayerGovernor.GovernedPlayer {
 
 
     private static final String TAG = "SimpleVideoPlayer";
@@ -66,14 +87,38 @@ public class SimpleVideoPlayer implements SurfaceHolder.Callback,
     private boolean autoplay;
 
     private EventLogger eventLogger;
+    private QoeCollector qoeCollector;
+    private QoeSummary lastQoeSummary;
+    private LoadLatencyTracker loadLatencyTracker;
+    private LoadLatencyTracker lastLoadLatencyTracker;
+    private BufferHealthSampler bufferHealthSampler;
+    private CodecCountersSampler codecCountersSampler;
+    private StallClassifier stallClassifier;
+    private FlightRecorder flightRecorder;
+    private HarRecorder harRecorder;
+    private JankMonitor jankMonitor;
     private VideoControllerView mediaController;
     private View shutterView;
     private AspectRatioFrameLayout videoFrame;
     private SurfaceView surfaceView;
     private SubtitleLayout subtitleLayout;
+    private DebugOverlayView debugOverlay;
+    private boolean debugOverlayEnabled;
+    private boolean metricsEnabled;
 
     private ExoPlayerWrapper wrapper;
+    private PlayerConfiguration playerConfiguration = PlayerConfiguration.DEFAULT;
+    private PooledDataSourceFactory pooledDataSourceFactory;
+    private DownloadScheduler downloadScheduler;
+    private DataSourceFactory dataSourceFactory;
+    private BackBuffer backBuffer;
     private boolean playerNeedsPrepare;
+    private boolean videoChanged;
+
+    private PlayerGovernor governor;
+    private boolean decodersReleased;
+    private boolean playWhenReadyToRestore;
+    private int audioTrackToRestore;
 
     private long playerPosition;
     private final boolean autoAspectRatio;
@@ -138,6 +183,7 @@ public class SimpleVideoPlayer implements SurfaceHolder.Callback,
         surfaceView.getHolder().addCallback(this);
 
         subtitleLayout = (SubtitleLayout) root.findViewById(R.id.subtitles);
+        debugOverlay = (DebugOverlayView) root.findViewById(R.id.debug_overlay);
 
         mediaController = new VideoControllerView(activity, false);
         mediaController.setAnchorView(root);
@@ -163,7 +209,7 @@ public class SimpleVideoPlayer implements SurfaceHolder.Callback,
         audioCapabilitiesReceiver.register();
         if (wrapper == null) {
             preparePlayer(autoplay);
-        } else {
+        } else if (!decodersReleased) {
             wrapper.setBackgrounded(false);
         }
     }
@@ -189,10 +235,94 @@ public class SimpleVideoPlayer implements SurfaceHolder.Callback,
     }
 
 
+    /**
+     * Sets the buffering profile used from the next time the player is created, for example
+     * {@link PlayerConfiguration#FAST_START} for feeds, {@link PlayerConfiguration#DEEP_BUFFER}
+     * for long-form content or {@link PlayerConfiguration#PREVIEW} for muted inline previews.
+     */
+    public void setPlayerConfiguration(PlayerConfiguration playerConfiguration) {
+        this.playerConfiguration = playerConfiguration;
+    }
+
+    /**
+     * Enables retaining recently played segments in memory, so that backward seeks and replays are
+     * served without the network. Takes effect from the next time the player is created.
+     *
+     * @param backBuffer The back-buffer, or null to disable it.
+     */
+    public void setBackBuffer(BackBuffer backBuffer) {
+        this.backBuffer = backBuffer;
+        dataSourceFactory = null;
+    }
+
+    /**
+     * Enables scheduling the loads of the player by how soon their data is needed, so that the
+     * audio and near deadline segments are not slowed down by loads that are needed later. Takes
+     * effect from the next time the player is created.
+     *
+     * @param downloadScheduler The scheduler, or null to load without scheduling.
+     */
+    public void setDownloadScheduler(DownloadScheduler downloadScheduler) {
+        this.downloadScheduler = downloadScheduler;
+        dataSourceFactory = null;
+    }
+
+    /**
+     * Sets a flight recorder to which the events of the player are written, so they can be
+     * inspected after a stall or a crash. Takes effect from the next time the player is created.
+     *
+     * @param flightRecorder The flight recorder, or null to disable recording.
+     */
+    public void setFlightRecorder(FlightRecorder flightRecorder) {
+        this.flightRecorder = flightRecorder;
+    }
+
+    /**
+     * Sets a recorder to which the http(s) requests of the player are reported, so they can be
+     * exported in the HAR format. Takes effect from the next time the player is created.
+     *
+     * @param harRecorder The recorder, or null to disable recording.
+     */
+    public void setHarRecorder(HarRecorder harRecorder) {
+        this.harRecorder = harRecorder;
+    }
+
+    /**
+     * Enables collecting playback metrics: the quality of experience summary, load latency
+     * histograms, buffer health and codec counter samples, stall classification and startup
+     * traces. Sampling polls the player on the main thread, so metrics are disabled by default.
+     * Takes effect from the next time the player is created.
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        metricsEnabled = enabled;
+    }
+
+    /**
+     * Shows or hides a performance overlay with the video format, the bandwidth estimate, the
+     * buffered-ahead duration, dropped frames and the decoders in use.
+     */
+    public void setDebugOverlayEnabled(boolean enabled) {
+        debugOverlayEnabled = enabled;
+        debugOverlay.setVisibility(enabled ? View.VISIBLE : View.GONE);
+        debugOverlay.setPlayer(enabled ? wrapper : null);
+    }
+
+    /**
+     * Sets a monitor that detects long frames on the main thread while the player is active, and
+     * attributes them to the player events delivered during those frames. Takes effect from the
+     * next time the player is created.
+     *
+     * @param jankMonitor The monitor, or null to disable monitoring.
+     */
+    public void setJankMonitor(JankMonitor jankMonitor) {
+        this.jankMonitor = jankMonitor;
+    }
+
     // AudioCapabilitiesReceiver.Listener methods
 
     @Override
     public void onAudioCapabilitiesChanged(AudioCapabilities audioCapabilities) {
+        PlayerInitializer.onAudioCapabilitiesChanged(audioCapabilities);
         if (wrapper == null) {
             return;
         }
@@ -205,19 +335,40 @@ public class SimpleVideoPlayer implements SurfaceHolder.Callback,
 
     // Internal methods
 
+    private DataSourceFactory getDataSourceFactory() {
+        if (dataSourceFactory == null) {
+            String userAgent = PlayerInitializer.getUserAgent(activity);
+            pooledDataSourceFactory = new PooledDataSourceFactory(activity, userAgent);
+            dataSourceFactory = pooledDataSourceFactory;
+            if (downloadScheduler != null) {
+                dataSourceFactory = new ScheduledDataSourceFactory(dataSourceFactory,
+                        downloadScheduler);
+            }
+            if (backBuffer != null) {
+                dataSourceFactory = new BackBufferDataSourceFactory(dataSourceFactory, backBuffer);
+            }
+        }
+        return dataSourceFactory;
+    }
+
     private ExoPlayerWrapper.RendererBuilder getRendererBuilder() {
-        String userAgent = Util.getUserAgent(activity, "ExoPlayerDemo");
+        return createRendererBuilder(activity, getDataSourceFactory(), video);
+    }
+
+    /* package */ static ExoPlayerWrapper.RendererBuilder createRendererBuilder(Context context,
+            DataSourceFactory dataSourceFactory, Video video) {
         switch (video.getVideoType()) {
             case Video.SS:
-                return new SmoothStreamingRendererBuilder(activity, userAgent, video.getUrl(),
+                return new SmoothStreamingRendererBuilder(context, dataSourceFactory, video.getUrl(),
                         null);
             case Video.DASH:
-                return new DashRendererBuilder(activity, userAgent, video.getUrl(),
+                return new DashRendererBuilder(context, dataSourceFactory, video.getUrl(),
                         null);
             case Video.HLS:
-                return new HlsRendererBuilder(activity, userAgent, video.getUrl());
+                return new HlsRendererBuilder(context, dataSourceFactory, video.getUrl());
             case Video.OTHER:
-                return new ExtractorRendererBuilder(activity, userAgent, Uri.parse(video.getUrl()));
+                return new ExtractorRendererBuilder(context, dataSourceFactory,
+                        Uri.parse(video.getUrl()));
             default:
                 throw new IllegalStateException("Unsupported type: " + video.getVideoType());
         }
@@ -227,24 +378,151 @@ public class SimpleVideoPlayer implements SurfaceHolder.Callback,
         if (wrapper == null) {
             createNewWrapper();
         }
+        if (decodersReleased) {
+            // Keep the new player warm until the governor grants it decoders.
+            playWhenReadyToRestore = playWhenReady;
+            demoteWrapper();
+            return;
+        }
         wrapper.setSurface(surfaceView.getHolder().getSurface());
         wrapper.setPlayWhenReady(playWhenReady);
     }
 
+    @Override
+    public void setGovernor(PlayerGovernor governor) {
+        this.governor = governor;
+    }
+
+    /**
+     * Pauses the player and disables its audio and video tracks, which releases its decoders and
+     * their buffered media. The player keeps its manifest and position. Invoked by the
+     * {@link PlayerGovernor}.
+     */
+    @Override
+    public void releaseDecoders() {
+        if (decodersReleased) {
+            return;
+        }
+        decodersReleased = true;
+        if (wrapper != null) {
+            playWhenReadyToRestore = wrapper.getPlayWhenReady();
+            demoteWrapper();
+        }
+    }
+
+    /**
+     * Restores the state before {@link #releaseDecoders()}, which reloads the media of the enabled
+     * tracks, or prepares a new player if it was evicted in the meantime. Invoked by the
+     * {@link PlayerGovernor}.
+     */
+    @Override
+    public void acquireDecoders() {
+        if (!decodersReleased) {
+            return;
+        }
+        decodersReleased = false;
+        if (wrapper == null) {
+            preparePlayer(playWhenReadyToRestore);
+            return;
+        }
+        wrapper.selectTrack(ExoPlayerWrapper.TYPE_AUDIO, audioTrackToRestore);
+        wrapper.setBackgrounded(false);
+        wrapper.setSurface(surfaceView.getHolder().getSurface());
+        wrapper.setPlayWhenReady(playWhenReadyToRestore);
+    }
+
+    /**
+     * Releases the player to free its buffers. Invoked by the {@link PlayerGovernor} while the
+     * decoders are released.
+     */
+    @Override
+    public void evict() {
+        releasePlayer();
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return wrapper == null ? 0 : wrapper.getAllocatedBytes();
+    }
+
+    private void demoteWrapper() {
+        wrapper.setPlayWhenReady(false);
+        wrapper.setBackgrounded(true);
+        audioTrackToRestore = wrapper.getSelectedTrackIndex(ExoPlayerWrapper.TYPE_AUDIO);
+        wrapper.selectTrack(ExoPlayerWrapper.TYPE_AUDIO, ExoPlayerWrapper.DISABLED_TRACK);
+    }
+
     private void createNewWrapper() {
-        wrapper = new ExoPlayerWrapper(getRendererBuilder());
+        wrapper = new ExoPlayerWrapper(getRendererBuilder(), playerConfiguration);
+        wrapper.setSourceSwitch(videoChanged);
+        videoChanged = false;
+        wrapper.setDownloadScheduler(downloadScheduler);
         wrapper.addListener(this);
         wrapper.setCaptionListener(this);
         wrapper.setMetadataListener(this);
         wrapper.seekTo(playerPosition);
         playerNeedsPrepare = true;
         mediaController.setMediaPlayer(wrapper.getPlayerControl());
+        if (debugOverlayEnabled) {
+            debugOverlay.setPlayer(wrapper);
+        }
         mediaController.setEnabled(true);
         eventLogger = new EventLogger();
         eventLogger.startSession();
         wrapper.addListener(eventLogger);
-        wrapper.setInfoListener(eventLogger);
-        wrapper.setInternalErrorListener(eventLogger);
+        wrapper.addInfoListener(eventLogger);
+        wrapper.addSeekListener(eventLogger);
+        wrapper.addInternalErrorListener(eventLogger);
+        wrapper.addStartupListener(eventLogger);
+        pooledDataSourceFactory.getConnectionPool().addEventListener(eventLogger);
+        if (metricsEnabled) {
+            wrapper.addStartupListener(StartupTraceAggregator.getDefault());
+            qoeCollector = new QoeCollector();
+            wrapper.addListener(qoeCollector);
+            wrapper.addInfoListener(qoeCollector);
+            wrapper.addSeekListener(qoeCollector);
+            wrapper.addInternalErrorListener(qoeCollector);
+            loadLatencyTracker = new LoadLatencyTracker();
+            wrapper.addInfoListener(loadLatencyTracker);
+            bufferHealthSampler = new BufferHealthSampler(wrapper);
+            bufferHealthSampler.start();
+            codecCountersSampler = new CodecCountersSampler(wrapper);
+            codecCountersSampler.setListener(eventLogger);
+            codecCountersSampler.start();
+            stallClassifier = new StallClassifier(wrapper);
+            stallClassifier.setListener(eventLogger);
+            wrapper.addListener(stallClassifier);
+            wrapper.addInfoListener(stallClassifier);
+            wrapper.addSeekListener(stallClassifier);
+            wrapper.addInternalErrorListener(stallClassifier);
+        }
+        if (flightRecorder != null) {
+            flightRecorder.startSession();
+            wrapper.addListener(flightRecorder);
+            wrapper.addInfoListener(flightRecorder);
+            wrapper.addSeekListener(flightRecorder);
+            wrapper.addInternalErrorListener(flightRecorder);
+        }
+        if (harRecorder != null) {
+            pooledDataSourceFactory.getConnectionPool().addEventListener(harRecorder);
+        }
+        if (backBuffer != null) {
+            final ExoPlayerWrapper positionWrapper = wrapper;
+            backBuffer.setPositionProvider(new BackBuffer.PositionProvider() {
+                @Override
+                public long getCurrentPosition() {
+                    return positionWrapper.getCurrentPosition();
+                }
+            });
+            wrapper.addInfoListener(backBuffer);
+        }
+        if (jankMonitor != null) {
+            jankMonitor.setListener(eventLogger);
+            wrapper.addListener(jankMonitor);
+            wrapper.addInfoListener(jankMonitor);
+            wrapper.addSeekListener(jankMonitor);
+            jankMonitor.start();
+        }
         if (playerNeedsPrepare) {
             wrapper.prepare();
             playerNeedsPrepare = false;
@@ -252,25 +530,52 @@ public class SimpleVideoPlayer implements SurfaceHolder.Callback,
     }
 
     public void changeVideo(Video video, long playerPosition, boolean playWhenReady) {
+        // Release the current player first, so that its decoders are released before those of the
+        // next video are created. Devices often support few concurrent decoder instances.
+        releasePlayer();
         this.video = video;
         this.playerPosition = playerPosition;
-        createNewWrapper();
-        if (playerNeedsPrepare) {
-            wrapper.prepare();
-            playerNeedsPrepare = false;
-        }
-        wrapper.setSurface(surfaceView.getHolder().getSurface());
-        wrapper.setPlayWhenReady(playWhenReady);
-
+        videoChanged = true;
+        preparePlayer(playWhenReady);
     }
 
     public void releasePlayer() {
         if (wrapper != null) {
             playerPosition = wrapper.getCurrentPosition();
+            if (bufferHealthSampler != null) {
+                bufferHealthSampler.stop();
+                bufferHealthSampler = null;
+            }
+            if (codecCountersSampler != null) {
+                codecCountersSampler.stop();
+                codecCountersSampler = null;
+            }
+            if (jankMonitor != null) {
+                jankMonitor.stop();
+                jankMonitor.setListener(null);
+            }
+            stallClassifier = null;
+            if (backBuffer != null) {
+                backBuffer.setPositionProvider(null);
+            }
+            debugOverlay.setPlayer(null);
             wrapper.release();
             wrapper = null;
+            pooledDataSourceFactory.getConnectionPool().removeEventListener(eventLogger);
+            if (harRecorder != null) {
+                pooledDataSourceFactory.getConnectionPool().removeEventListener(harRecorder);
+            }
             eventLogger.endSession();
             eventLogger = null;
+            if (qoeCollector != null) {
+                lastQoeSummary = qoeCollector.getSummary();
+                qoeCollector = null;
+            }
+            if (loadLatencyTracker != null) {
+                LoadLatencyTracker.getDefault().mergeSources(loadLatencyTracker);
+                lastLoadLatencyTracker = loadLatencyTracker;
+                loadLatencyTracker = null;
+            }
         }
     }
 
@@ -292,6 +597,49 @@ public class SimpleVideoPlayer implements SurfaceHolder.Callback,
         wrapper.setPlayWhenReady(false);
     }
 
+    /**
+     * Returns the quality of experience metrics of the current playback session, or of the last
+     * one if the player has been released. Returns null if there has been no session with metrics
+     * enabled.
+     */
+    public QoeSummary getQoeSummary() {
+        return qoeCollector != null ? qoeCollector.getSummary() : lastQoeSummary;
+    }
+
+    /**
+     * Returns the load latency and throughput histograms of the current playback session, or of the
+     * last one if the player has been released. Returns null if there has been no session with
+     * metrics enabled. {@link LoadLatencyTracker#getDefault()} aggregates the per source histograms
+     * of all released sessions.
+     */
+    public LoadLatencyTracker getLoadLatencyTracker() {
+        return loadLatencyTracker != null ? loadLatencyTracker : lastLoadLatencyTracker;
+    }
+
+    /**
+     * Returns the buffer health sampler of the current player, or null if there is no player or metrics
+     * are disabled.
+     */
+    public BufferHealthSampler getBufferHealthSampler() {
+        return bufferHealthSampler;
+    }
+
+    /**
+     * Returns the codec counters sampler of the current player, or null if there is no player or metrics
+     * are disabled.
+     */
+    public CodecCountersSampler getCodecCountersSampler() {
+        return codecCountersSampler;
+    }
+
+    /**
+     * Returns the stall classifier of the current player, or null if there is no player or metrics
+     * are disabled.
+     */
+    public StallClassifier getStallClassifier() {
+        return stallClassifier;
+    }
+
     /**
      * Returns the current playback position in milliseconds.
      */
@@ -305,6 +653,8 @@ public class SimpleVideoPlayer implements SurfaceHolder.Callback,
     public void onStateChanged(boolean playWhenReady, int playbackState) {
         if (playbackState == ExoPlayer.STATE_ENDED) {
             showControls();
+        } else if (playbackState == ExoPlayer.STATE_READY && governor != null) {
+            governor.onPlayerReady(this);
         }
         String text = "playWhenReady=" + playWhenReady + ", playbackState=";
         switch (playbackState) {
@@ -372,6 +722,9 @@ public class SimpleVideoPlayer implements SurfaceHolder.Callback,
 
     @Override
     public void onCues(List<Cue> cues) {
+        if (jankMonitor != null) {
+            jankMonitor.onEvent(EventRecorder.EVENT_CUES);
+        }
         subtitleLayout.setCues(cues);
     }
 
@@ -1,5 +1,10 @@
 package co.klar.android.exoplayerwrapper;
 
+import android.content.Context;
+
+import co.klar.android.exoplayerwrapper.upstream.HttpConnectionPool;
+import co.klar.android.exoplayerwrapper.util.PlayerInitializer;
+
 /**
  * Created by cklar on 22.09.15.
  */
@@ -43,4 +48,16 @@ public class Video {
     public int getVideoType() {
         return videoType;
     }
+
+    /**
+     * Hints that the video is likely to be played soon, for example because its thumbnail became
+     * visible in a list. Resolves the host of the video and opens a keep-alive connection to it in
+     * the {@link HttpConnectionPool#getDefault() default pool}, so that the manifest request can
+     * skip the DNS lookup and the TCP and TLS handshakes.
+     *
+     * @param context A context.
+     */
+    public void hint(Context context) {
+        HttpConnectionPool.getDefault().hint(url, PlayerInitializer.getUserAgent(context));
+    }
 }
\ No newline at end of file
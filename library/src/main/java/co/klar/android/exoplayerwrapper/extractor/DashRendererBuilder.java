@@ -6,13 +6,10 @@ import android.media.MediaCodec;
 import android.os.Handler;
 import android.util.Log;
 
-import com.google.android.exoplayer.DefaultLoadControl;
 import com.google.android.exoplayer.LoadControl;
 import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
-import com.google.android.exoplayer.MediaCodecSelector;
 import com.google.android.exoplayer.MediaCodecVideoTrackRenderer;
 import com.google.android.exoplayer.TrackRenderer;
-import com.google.android.exoplayer.audio.AudioCapabilities;
 import com.google.android.exoplayer.chunk.ChunkSampleSource;
 import com.google.android.exoplayer.chunk.ChunkSource;
 import com.google.android.exoplayer.chunk.FormatEvaluator;
@@ -32,13 +29,18 @@ import com.google.android.exoplayer.text.TextTrackRenderer;
 import com.google.android.exoplayer.upstream.DataSource;
 import com.google.android.exoplayer.upstream.DefaultAllocator;
 import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
-import com.google.android.exoplayer.upstream.DefaultUriDataSource;
 import com.google.android.exoplayer.upstream.UriDataSource;
 import com.google.android.exoplayer.util.ManifestFetcher;
 import com.google.android.exoplayer.util.Util;
 
 import java.io.IOException;
 
+import co.klar.android.exoplayerwrapper.util.StartupTrace;
+import co.klar.android.exoplayerwrapper.upstream.DataSourceFactory;
+import co.klar.android.exoplayerwrapper.upstream.LazyDataSource;
+import co.klar.android.exoplayerwrapper.upstream.PooledDataSourceFactory;
+import co.klar.android.exoplayerwrapper.util.PlayerInitializer;
+
 /**
  * Created by cklar on 22.09.15.
  */
@@ -50,14 +52,20 @@ public class DashRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
     private static final int VIDEO_BUFFER_SEGMENTS = 200;
     private static final int AUDIO_BUFFER_SEGMENTS = 54;
     private static final int TEXT_BUFFER_SEGMENTS = 2;
+    private static final int PREVIEW_VIDEO_BUFFER_SEGMENTS = 16;
     private static final int LIVE_EDGE_LATENCY_MS = 30000;
 
     private static final int SECURITY_LEVEL_UNKNOWN = -1;
     private static final int SECURITY_LEVEL_1 = 1;
     private static final int SECURITY_LEVEL_3 = 3;
 
+    // The security level is fixed for a device, so it is only queried once per process.
+    // A level other than L1 and L3 stays unknown, so whether it was queried is tracked separately.
+    private static boolean widevineSecurityLevelQueried;
+    private static int widevineSecurityLevel = SECURITY_LEVEL_UNKNOWN;
+
     private final Context context;
-    private final String userAgent;
+    private final DataSourceFactory dataSourceFactory;
     private final String url;
     private final MediaDrmCallback drmCallback;
 
@@ -65,15 +73,21 @@ public class DashRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
 
     public DashRendererBuilder(Context context, String userAgent, String url,
                                MediaDrmCallback drmCallback) {
+        this(context, new PooledDataSourceFactory(context, userAgent), url, drmCallback);
+    }
+
+    public DashRendererBuilder(Context context, DataSourceFactory dataSourceFactory, String url,
+                               MediaDrmCallback drmCallback) {
         this.context = context;
-        this.userAgent = userAgent;
+        this.dataSourceFactory = dataSourceFactory;
         this.url = url;
         this.drmCallback = drmCallback;
     }
 
     @Override
     public void buildRenderers(ExoPlayerWrapper player) {
-        currentAsyncBuilder = new AsyncRendererBuilder(context, userAgent, url, drmCallback, player);
+        currentAsyncBuilder = new AsyncRendererBuilder(context, dataSourceFactory, url, drmCallback,
+                player);
         currentAsyncBuilder.init();
     }
 
@@ -89,7 +103,8 @@ public class DashRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
             implements ManifestFetcher.ManifestCallback<MediaPresentationDescription>, UtcTimingCallback {
 
         private final Context context;
-        private final String userAgent;
+        private final DataSourceFactory dataSourceFactory;
+        private final String url;
         private final MediaDrmCallback drmCallback;
         private final ExoPlayerWrapper player;
         private final ManifestFetcher<MediaPresentationDescription> manifestFetcher;
@@ -99,14 +114,16 @@ public class DashRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
         private MediaPresentationDescription manifest;
         private long elapsedRealtimeOffset;
 
-        public AsyncRendererBuilder(Context context, String userAgent, String url,
+        public AsyncRendererBuilder(Context context, DataSourceFactory dataSourceFactory, String url,
                                     MediaDrmCallback drmCallback, ExoPlayerWrapper player) {
             this.context = context;
-            this.userAgent = userAgent;
+            this.dataSourceFactory = dataSourceFactory;
+            this.url = url;
             this.drmCallback = drmCallback;
             this.player = player;
             MediaPresentationDescriptionParser parser = new MediaPresentationDescriptionParser();
-            manifestDataSource = new DefaultUriDataSource(context, userAgent);
+            manifestDataSource = dataSourceFactory.createDataSource(ExoPlayerWrapper.TYPE_MANIFEST,
+                    null);
             manifestFetcher = new ManifestFetcher<>(url, manifestDataSource, parser);
         }
 
@@ -125,6 +142,7 @@ public class DashRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
             }
 
             this.manifest = manifest;
+            player.onManifestLoaded();
             if (manifest.dynamic && manifest.utcTiming != null) {
                 UtcTimingElementResolver.resolveTimingElement(manifestDataSource, manifest.utcTiming,
                         manifestFetcher.getManifestLoadCompleteTimestamp(), this);
@@ -149,6 +167,7 @@ public class DashRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
             }
 
             this.elapsedRealtimeOffset = elapsedRealtimeOffset;
+            player.markStartupPhase(StartupTrace.PHASE_TIMING_RESOLVED);
             buildRenderers();
         }
 
@@ -159,6 +178,7 @@ public class DashRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
             }
 
             Log.e(TAG, "Failed to resolve UtcTiming element [" + utcTiming + "]", e);
+            player.markStartupPhase(StartupTrace.PHASE_TIMING_RESOLVED);
             // Be optimistic and continue in the hope that the device clock is correct.
             buildRenderers();
         }
@@ -166,7 +186,8 @@ public class DashRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
         private void buildRenderers() {
             Period period = manifest.getPeriod(0);
             Handler mainHandler = player.getMainHandler();
-            LoadControl loadControl = new DefaultLoadControl(new DefaultAllocator(BUFFER_SEGMENT_SIZE));
+            PlayerConfiguration configuration = player.getConfiguration();
+            LoadControl loadControl = player.createLoadControl(new DefaultAllocator(BUFFER_SEGMENT_SIZE));
             DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(mainHandler, player);
 
             boolean hasContentProtection = false;
@@ -177,40 +198,61 @@ public class DashRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
                 }
             }
 
-            // Check drm support if necessary.
+            // Check drm support if necessary, reusing the session of a previous prepare.
             boolean filterHdContent = false;
-            StreamingDrmSessionManager drmSessionManager = null;
+            RetainedDrmSessionManager drmSessionManager = null;
             if (hasContentProtection) {
                 if (Util.SDK_INT < 18) {
                     player.onRenderersError(
                             new UnsupportedDrmException(UnsupportedDrmException.REASON_UNSUPPORTED_SCHEME));
                     return;
                 }
-                try {
-                    drmSessionManager = StreamingDrmSessionManager.newWidevineInstance(
-                            player.getPlaybackLooper(), drmCallback, null, player.getMainHandler(), player);
-                    filterHdContent = getWidevineSecurityLevel(drmSessionManager) != SECURITY_LEVEL_1;
-                } catch (UnsupportedDrmException e) {
-                    player.onRenderersError(e);
-                    return;
+                drmSessionManager = player.getRetainedDrmSessionManager(url);
+                if (drmSessionManager == null) {
+                    try {
+                        drmSessionManager = new RetainedDrmSessionManager(url,
+                                StreamingDrmSessionManager.newWidevineInstance(
+                                        player.getPlaybackLooper(), drmCallback, null,
+                                        player.getMainHandler(), player));
+                    } catch (UnsupportedDrmException e) {
+                        player.onRenderersError(e);
+                        return;
+                    }
                 }
+                filterHdContent = getWidevineSecurityLevel(drmSessionManager.getSessionManager())
+                        != SECURITY_LEVEL_1;
             }
+            player.setRetainedDrmSessionManager(drmSessionManager);
 
             // Build the video renderer.
-            DataSource videoDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+            boolean preview = configuration.isPreview();
+            DataSource videoDataSource = dataSourceFactory.createDataSource(ExoPlayerWrapper.TYPE_VIDEO,
+                    bandwidthMeter);
+            FormatEvaluator videoFormatEvaluator = preview ? new LowestBitrateEvaluator()
+                    : new FormatEvaluator.AdaptiveEvaluator(bandwidthMeter);
             ChunkSource videoChunkSource = new DashChunkSource(manifestFetcher,
                     DefaultDashTrackSelector.newVideoInstance(context, true, filterHdContent),
-                    videoDataSource, new FormatEvaluator.AdaptiveEvaluator(bandwidthMeter), LIVE_EDGE_LATENCY_MS,
+                    videoDataSource, videoFormatEvaluator, LIVE_EDGE_LATENCY_MS,
                     elapsedRealtimeOffset, mainHandler, player, ExoPlayerWrapper.TYPE_VIDEO);
             ChunkSampleSource videoSampleSource = new ChunkSampleSource(videoChunkSource, loadControl,
-                    VIDEO_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
-                    ExoPlayerWrapper.TYPE_VIDEO);
+                    (preview ? PREVIEW_VIDEO_BUFFER_SEGMENTS : VIDEO_BUFFER_SEGMENTS)
+                            * BUFFER_SEGMENT_SIZE, mainHandler, player, ExoPlayerWrapper.TYPE_VIDEO);
             TrackRenderer videoRenderer = new MediaCodecVideoTrackRenderer(context, videoSampleSource,
-                    MediaCodecSelector.DEFAULT, MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT, 5000,
-                    drmSessionManager, true, mainHandler, player, 50);
+                    DecoderCache.getDefault(), MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT,
+                    configuration.allowedJoiningTimeMs, drmSessionManager, true, mainHandler, player,
+                    configuration.maxDroppedFrameCountToNotify);
+
+            TrackRenderer[] renderers = new TrackRenderer[ExoPlayerWrapper.RENDERER_COUNT];
+            renderers[ExoPlayerWrapper.TYPE_VIDEO] = videoRenderer;
+            if (preview) {
+                // Previews are muted and have no captions.
+                player.onRenderers(renderers, bandwidthMeter);
+                return;
+            }
 
             // Build the audio renderer.
-            DataSource audioDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+            DataSource audioDataSource = dataSourceFactory.createDataSource(ExoPlayerWrapper.TYPE_AUDIO,
+                    bandwidthMeter);
             ChunkSource audioChunkSource = new DashChunkSource(manifestFetcher,
                     DefaultDashTrackSelector.newAudioInstance(), audioDataSource, null, LIVE_EDGE_LATENCY_MS,
                     elapsedRealtimeOffset, mainHandler, player, ExoPlayerWrapper.TYPE_AUDIO);
@@ -218,32 +260,42 @@ public class DashRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
                     AUDIO_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
                     ExoPlayerWrapper.TYPE_AUDIO);
             TrackRenderer audioRenderer = new MediaCodecAudioTrackRenderer(audioSampleSource,
-                    MediaCodecSelector.DEFAULT, drmSessionManager, true, mainHandler, player,
-                    AudioCapabilities.getCapabilities(context), AudioManager.STREAM_MUSIC);
-
-            // Build the text renderer.
-            DataSource textDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
-            ChunkSource textChunkSource = new DashChunkSource(manifestFetcher,
-                    DefaultDashTrackSelector.newTextInstance(), textDataSource, null, LIVE_EDGE_LATENCY_MS,
-                    elapsedRealtimeOffset, mainHandler, player, ExoPlayerWrapper.TYPE_TEXT);
-            ChunkSampleSource textSampleSource = new ChunkSampleSource(textChunkSource, loadControl,
-                    TEXT_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
-                    ExoPlayerWrapper.TYPE_TEXT);
-            TrackRenderer textRenderer = new TextTrackRenderer(textSampleSource, player,
-                    mainHandler.getLooper());
+                    DecoderCache.getDefault(), drmSessionManager, true, mainHandler, player,
+                    PlayerInitializer.getAudioCapabilities(context), AudioManager.STREAM_MUSIC);
+
+            // Build the text renderer, only if the period has text tracks. Text is disabled until
+            // selected, so its data source is only created on the first text load.
+            TrackRenderer textRenderer = null;
+            if (period.getAdaptationSetIndex(AdaptationSet.TYPE_TEXT) != -1) {
+                DataSource textDataSource = new LazyDataSource(dataSourceFactory,
+                        ExoPlayerWrapper.TYPE_TEXT, bandwidthMeter);
+                ChunkSource textChunkSource = new DashChunkSource(manifestFetcher,
+                        DefaultDashTrackSelector.newTextInstance(), textDataSource, null,
+                        LIVE_EDGE_LATENCY_MS, elapsedRealtimeOffset, mainHandler, player,
+                        ExoPlayerWrapper.TYPE_TEXT);
+                ChunkSampleSource textSampleSource = new ChunkSampleSource(textChunkSource,
+                        loadControl, TEXT_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
+                        ExoPlayerWrapper.TYPE_TEXT);
+                textRenderer = new TextTrackRenderer(textSampleSource, player,
+                        mainHandler.getLooper());
+            }
 
             // Invoke the callback.
-            TrackRenderer[] renderers = new TrackRenderer[ExoPlayerWrapper.RENDERER_COUNT];
-            renderers[ExoPlayerWrapper.TYPE_VIDEO] = videoRenderer;
             renderers[ExoPlayerWrapper.TYPE_AUDIO] = audioRenderer;
             renderers[ExoPlayerWrapper.TYPE_TEXT] = textRenderer;
             player.onRenderers(renderers, bandwidthMeter);
         }
 
-        private static int getWidevineSecurityLevel(StreamingDrmSessionManager sessionManager) {
-            String securityLevelProperty = sessionManager.getPropertyString("securityLevel");
-            return securityLevelProperty.equals("L1") ? SECURITY_LEVEL_1 : securityLevelProperty
-                    .equals("L3") ? SECURITY_LEVEL_3 : SECURITY_LEVEL_UNKNOWN;
+        private static synchronized int getWidevineSecurityLevel(
+                StreamingDrmSessionManager sessionManager) {
+            if (!widevineSecurityLevelQueried) {
+                String securityLevelProperty = sessionManager.getPropertyString("securityLevel");
+                widevineSecurityLevel = securityLevelProperty.equals("L1") ? SECURITY_LEVEL_1
+                        : securityLevelProperty.equals("L3") ? SECURITY_LEVEL_3
+                        : SECURITY_LEVEL_UNKNOWN;
+                widevineSecurityLevelQueried = true;
+            }
+            return widevineSecurityLevel;
         }
 
     }
@@ -0,0 +1,192 @@
+package co.klar.android.exoplayerwrapper.extractor;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.MediaCodec;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer.DecoderInfo;
+import com.google.android.exoplayer.MediaCodecSelector;
+import com.google.android.exoplayer.MediaCodecUtil;
+import com.google.android.exoplayer.util.MimeTypes;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A {@link MediaCodecSelector} that caches the decoders selected by
+ * {@link MediaCodecSelector#DEFAULT}, and persists them per OS build fingerprint.
+ * <p/>
+ * Querying the platform for decoders enumerates all codecs of the device, which takes hundreds of
+ * milliseconds on low-end devices the first time it is done in a process. Once {@link #load}
+ * has been called, decoders selected in a previous process on the same OS build are returned
+ * without querying the platform. The track selectors of the renderer builders still query the
+ * platform through {@link MediaCodecUtil} to filter the video formats the device can decode.
+ * {@link #warmUp} therefore also primes {@link MediaCodecUtil} for the given MIME types on a
+ * background thread, and can instantiate and release the decoders once so that the codec
+ * components are loaded before the first {@link ExoPlayerWrapper#prepare()}.
+ * <p/>
+ * All renderer builders select decoders through {@link #getDefault()}.
+ */
+public final class DecoderCache implements MediaCodecSelector {
+
+    private static final String TAG = "DecoderCache";
+
+    private static final String PREFERENCES_NAME = "co.klar.android.exoplayerwrapper.decoders";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_PREFIX = "decoder:";
+    private static final String SECURE_SUFFIX = ":secure";
+    private static final String NO_DECODER = "";
+
+    private static DecoderCache defaultInstance;
+
+    private final Map<String, DecoderInfo> decoderInfos;
+
+    private SharedPreferences preferences;
+    private ExecutorService warmUpExecutor;
+
+    /**
+     * Returns the process wide cache, used by the renderer builders.
+     */
+    public static synchronized DecoderCache getDefault() {
+        if (defaultInstance == null) {
+            defaultInstance = new DecoderCache();
+        }
+        return defaultInstance;
+    }
+
+    private DecoderCache() {
+        decoderInfos = new HashMap<>();
+    }
+
+    /**
+     * Loads the decoders persisted by a previous process, if it ran on the same OS build, and
+     * persists decoders selected from now on. Does nothing if already loaded.
+     */
+    public synchronized void load(Context context) {
+        if (preferences != null) {
+            return;
+        }
+        preferences = context.getApplicationContext().getSharedPreferences(PREFERENCES_NAME,
+                Context.MODE_PRIVATE);
+        if (!Build.FINGERPRINT.equals(preferences.getString(KEY_FINGERPRINT, null))) {
+            // The decoders may have changed with the OS build.
+            preferences.edit().clear().putString(KEY_FINGERPRINT, Build.FINGERPRINT).apply();
+            return;
+        }
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            String key = entry.getKey();
+            if (key.startsWith(KEY_PREFIX) && !decoderInfos.containsKey(key)) {
+                decoderInfos.put(key, parseDecoderInfo((String) entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Loads the cache and queries the decoders of the given MIME types on a background thread.
+     *
+     * @param context     A context.
+     * @param mimeTypes   The MIME types of the media likely to be played, for example
+     *                    {@link MimeTypes#VIDEO_H264} and {@link MimeTypes#AUDIO_AAC}.
+     * @param instantiate Whether to also create and release each decoder once, which loads its
+     *                    codec component ahead of the first playback.
+     */
+    public synchronized void warmUp(final Context context, final String[] mimeTypes,
+                                    final boolean instantiate) {
+        if (warmUpExecutor == null) {
+            warmUpExecutor = Executors.newSingleThreadExecutor();
+        }
+        warmUpExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                blockingWarmUp(context, mimeTypes, instantiate);
+            }
+        });
+    }
+
+    /**
+     * Like {@link #warmUp}, but warms up on the calling thread, which must not be the main thread.
+     */
+    public void blockingWarmUp(Context context, String[] mimeTypes, boolean instantiate) {
+        long startTimeMs = SystemClock.elapsedRealtime();
+        load(context);
+        for (String mimeType : mimeTypes) {
+            DecoderInfo decoderInfo;
+            try {
+                decoderInfo = getDecoderInfo(mimeType, false);
+                // The track selectors check the supported video sizes through MediaCodecUtil, which
+                // enumerates the codecs on its first query whatever this cache holds: on API 21+
+                // for any video type, and before through the maximum H.264 frame size.
+                if (MimeTypes.isVideo(mimeType)) {
+                    MediaCodecUtil.getDecoderInfo(mimeType, false);
+                }
+                if (MimeTypes.VIDEO_H264.equals(mimeType)) {
+                    MediaCodecUtil.maxH264DecodableFrameSize();
+                }
+            } catch (MediaCodecUtil.DecoderQueryException e) {
+                Log.w(TAG, "Failed to query decoder for " + mimeType, e);
+                continue;
+            }
+            if (instantiate && decoderInfo != null) {
+                instantiate(decoderInfo.name);
+            }
+        }
+        Log.d(TAG, "Warmed up in " + (SystemClock.elapsedRealtime() - startTimeMs) + " ms");
+    }
+
+    @Override
+    public DecoderInfo getDecoderInfo(String mimeType, boolean requiresSecureDecoder)
+            throws MediaCodecUtil.DecoderQueryException {
+        String key = KEY_PREFIX + mimeType + (requiresSecureDecoder ? SECURE_SUFFIX : "");
+        synchronized (this) {
+            if (decoderInfos.containsKey(key)) {
+                return decoderInfos.get(key);
+            }
+        }
+        DecoderInfo decoderInfo = MediaCodecSelector.DEFAULT.getDecoderInfo(mimeType,
+                requiresSecureDecoder);
+        synchronized (this) {
+            decoderInfos.put(key, decoderInfo);
+            if (preferences != null) {
+                preferences.edit().putString(key, formatDecoderInfo(decoderInfo)).apply();
+            }
+        }
+        return decoderInfo;
+    }
+
+    @Override
+    public DecoderInfo getPassthroughDecoderInfo() throws MediaCodecUtil.DecoderQueryException {
+        return MediaCodecSelector.DEFAULT.getPassthroughDecoderInfo();
+    }
+
+    private static void instantiate(String decoderName) {
+        MediaCodec codec = null;
+        try {
+            codec = MediaCodec.createByCodecName(decoderName);
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to instantiate " + decoderName, e);
+        } finally {
+            if (codec != null) {
+                codec.release();
+            }
+        }
+    }
+
+    /* package */ static String formatDecoderInfo(DecoderInfo decoderInfo) {
+        return decoderInfo == null ? NO_DECODER : decoderInfo.name + "|" + decoderInfo.adaptive;
+    }
+
+    /* package */ static DecoderInfo parseDecoderInfo(String value) {
+        int separatorIndex = value.lastIndexOf('|');
+        if (separatorIndex == -1) {
+            return null;
+        }
+        return new DecoderInfo(value.substring(0, separatorIndex),
+                Boolean.parseBoolean(value.substring(separatorIndex + 1)));
+    }
+
+}
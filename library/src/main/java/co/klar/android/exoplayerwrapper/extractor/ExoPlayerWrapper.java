@@ -3,12 +3,15 @@ package co.klar.android.exoplayerwrapper.extractor;
 import android.media.MediaCodec;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.view.Surface;
 
+import com.google.android.exoplayer.C;
 import com.google.android.exoplayer.CodecCounters;
 import com.google.android.exoplayer.DummyTrackRenderer;
 import com.google.android.exoplayer.ExoPlaybackException;
 import com.google.android.exoplayer.ExoPlayer;
+import com.google.android.exoplayer.LoadControl;
 import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
 import com.google.android.exoplayer.MediaCodecTrackRenderer;
 import com.google.android.exoplayer.MediaCodecVideoTrackRenderer;
@@ -16,6 +19,7 @@ import com.google.android.exoplayer.MediaFormat;
 import com.google.android.exoplayer.TimeRange;
 import com.google.android.exoplayer.TrackRenderer;
 import com.google.android.exoplayer.audio.AudioTrack;
+import com.google.android.exoplayer.chunk.Chunk;
 import com.google.android.exoplayer.chunk.ChunkSampleSource;
 import com.google.android.exoplayer.chunk.Format;
 import com.google.android.exoplayer.dash.DashChunkSource;
@@ -25,6 +29,7 @@ import com.google.android.exoplayer.metadata.MetadataTrackRenderer;
 import com.google.android.exoplayer.metadata.id3.Id3Frame;
 import com.google.android.exoplayer.text.Cue;
 import com.google.android.exoplayer.text.TextRenderer;
+import com.google.android.exoplayer.upstream.Allocator;
 import com.google.android.exoplayer.upstream.BandwidthMeter;
 import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer.util.DebugTextViewHelper;
@@ -36,6 +41,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+import co.klar.android.exoplayerwrapper.upstream.DownloadScheduler;
+import co.klar.android.exoplayerwrapper.util.StartupTrace;
+
 /**
  * Created by cklar on 22.09.15.
  */
@@ -130,6 +138,41 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
         void onAvailableRangeChanged(int sourceId, TimeRange availableRange);
     }
 
+    /**
+     * A listener for seeks requested through {@link #seekTo(long)}.
+     */
+    public interface SeekListener {
+        void onSeek(long positionMs);
+    }
+
+    /**
+     * A listener for changes of the media buffered ahead of the playback position.
+     */
+    public interface BufferListener {
+        /**
+         * Invoked when the player is prepared, including after
+         * {@link #replaceRenderBuilder(RendererBuilder)}. All media buffered before is gone.
+         */
+        void onBufferReset();
+
+        /**
+         * Invoked when media at the end of the buffer of a source has been discarded, for example
+         * to reload it in a higher quality.
+         */
+        void onUpstreamDiscarded(int sourceId, long mediaStartTimeMs, long mediaEndTimeMs);
+    }
+
+    /**
+     * A listener for the startup of playback.
+     */
+    public interface StartupListener {
+        /**
+         * Invoked once per {@link #prepare()}, when the player is ready and, if it renders video
+         * to a surface, the first frame has been drawn. The trace is not modified afterwards.
+         */
+        void onStartupTrace(StartupTrace trace);
+    }
+
     /**
      * A listener for receiving notifications of timed text.
      */
@@ -161,25 +204,44 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
     public static final int TYPE_AUDIO = 1;
     public static final int TYPE_TEXT = 2;
     public static final int TYPE_METADATA = 3;
+    // Source id of manifest and playlist loads. Not a renderer index.
+    public static final int TYPE_MANIFEST = 4;
 
     private static final int RENDERER_BUILDING_STATE_IDLE = 1;
     private static final int RENDERER_BUILDING_STATE_BUILDING = 2;
     private static final int RENDERER_BUILDING_STATE_BUILT = 3;
 
     private RendererBuilder rendererBuilder;
+    private final PlayerConfiguration configuration;
     private final ExoPlayer player;
     private final PlayerControl playerControl;
     private final Handler mainHandler;
     private final CopyOnWriteArrayList<Listener> listeners;
+    private final CopyOnWriteArrayList<InfoListener> infoListeners;
+    private final CopyOnWriteArrayList<InternalErrorListener> internalErrorListeners;
+    private final CopyOnWriteArrayList<StartupListener> startupListeners;
+    private final CopyOnWriteArrayList<SeekListener> seekListeners;
+    private final CopyOnWriteArrayList<BufferListener> bufferListeners;
+    private final Runnable previewLoopRunnable;
 
     private int rendererBuildingState;
     private int lastReportedPlaybackState;
     private boolean lastReportedPlayWhenReady;
 
+    private StartupLoadControl startupLoadControl;
+    private volatile Allocator allocator;
+    private StartupTrace startupTrace;
+    private boolean startupTraceDispatched;
+    private long startupLatencyMs;
+    private boolean seeking;
+    private boolean sourceSwitch;
+
     private Surface surface;
     private TrackRenderer videoRenderer;
     private TrackRenderer audioRenderer;
     private CodecCounters codecCounters;
+    private CodecCounters videoCodecCounters;
+    private CodecCounters audioCodecCounters;
     private Format videoFormat;
     private int videoTrackToRestore;
 
@@ -187,30 +249,63 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
     private int[] selectedTracks;
     private boolean backgrounded;
 
-    private CaptionListener captionListener;
-    private Id3MetadataListener id3MetadataListener;
     private InternalErrorListener internalErrorListener;
     private InfoListener infoListener;
+    private CaptionListener captionListener;
+    private Id3MetadataListener id3MetadataListener;
+    private DownloadScheduler downloadScheduler;
+    private RetainedDrmSessionManager retainedDrmSessionManager;
 
 
     public ExoPlayerWrapper(RendererBuilder rendererBuilder) {
+        this(rendererBuilder, PlayerConfiguration.DEFAULT);
+    }
+
+    public ExoPlayerWrapper(RendererBuilder rendererBuilder, PlayerConfiguration configuration) {
         this.rendererBuilder = rendererBuilder;
-        player = ExoPlayer.Factory.newInstance(RENDERER_COUNT, 1000, 5000);
+        this.configuration = configuration;
+        player = ExoPlayer.Factory.newInstance(RENDERER_COUNT, configuration.bufferForPlaybackMs,
+                configuration.bufferForPlaybackAfterRebufferMs);
         player.addListener(this);
-        playerControl = new PlayerControl(player);
+        playerControl = new PlayerControl(player) {
+            @Override
+            public void seekTo(int timeMillis) {
+                // Route seeks from the media controller through the wrapper, so they are reported.
+                onSeek(timeMillis);
+                super.seekTo(timeMillis);
+            }
+        };
         mainHandler = new Handler();
         listeners = new CopyOnWriteArrayList<>();
+        infoListeners = new CopyOnWriteArrayList<>();
+        internalErrorListeners = new CopyOnWriteArrayList<>();
+        startupListeners = new CopyOnWriteArrayList<>();
+        seekListeners = new CopyOnWriteArrayList<>();
+        bufferListeners = new CopyOnWriteArrayList<>();
+        previewLoopRunnable = new Runnable() {
+            @Override
+            public void run() {
+                updatePreviewLoop();
+            }
+        };
         lastReportedPlaybackState = STATE_IDLE;
         rendererBuildingState = RENDERER_BUILDING_STATE_IDLE;
+        startupLatencyMs = -1;
         selectedTracks = new int[RENDERER_COUNT];
-        // Disable text initially.
+        // Disable text initially. The player enables the default track of every renderer unless
+        // told otherwise, which would load the text track from the start.
         selectedTracks[TYPE_TEXT] = DISABLED_TRACK;
+        player.setSelectedTrack(TYPE_TEXT, DISABLED_TRACK);
     }
 
     public PlayerControl getPlayerControl() {
         return playerControl;
     }
 
+    public PlayerConfiguration getConfiguration() {
+        return configuration;
+    }
+
     public void addListener(Listener listener) {
         listeners.add(listener);
     }
@@ -219,12 +314,74 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
         listeners.remove(listener);
     }
 
+    public void addStartupListener(StartupListener listener) {
+        startupListeners.add(listener);
+    }
+
+    public void removeStartupListener(StartupListener listener) {
+        startupListeners.remove(listener);
+    }
+
+    public void addInternalErrorListener(InternalErrorListener listener) {
+        internalErrorListeners.add(listener);
+    }
+
+    public void removeInternalErrorListener(InternalErrorListener listener) {
+        internalErrorListeners.remove(listener);
+    }
+
+    public void addInfoListener(InfoListener listener) {
+        infoListeners.add(listener);
+    }
+
+    public void removeInfoListener(InfoListener listener) {
+        infoListeners.remove(listener);
+    }
+
+    public void addSeekListener(SeekListener listener) {
+        seekListeners.add(listener);
+    }
+
+    public void removeSeekListener(SeekListener listener) {
+        seekListeners.remove(listener);
+    }
+
+    public void addBufferListener(BufferListener listener) {
+        bufferListeners.add(listener);
+    }
+
+    public void removeBufferListener(BufferListener listener) {
+        bufferListeners.remove(listener);
+    }
+
+    /**
+     * @deprecated Use {@link #addInternalErrorListener(InternalErrorListener)}. Replaces the
+     * listener previously set through this method, leaving added listeners in place.
+     */
+    @Deprecated
     public void setInternalErrorListener(InternalErrorListener listener) {
+        if (internalErrorListener != null) {
+            internalErrorListeners.remove(internalErrorListener);
+        }
         internalErrorListener = listener;
+        if (listener != null) {
+            internalErrorListeners.add(listener);
+        }
     }
 
+    /**
+     * @deprecated Use {@link #addInfoListener(InfoListener)}. Replaces the listener previously set
+     * through this method, leaving added listeners in place.
+     */
+    @Deprecated
     public void setInfoListener(InfoListener listener) {
+        if (infoListener != null) {
+            infoListeners.remove(infoListener);
+        }
         infoListener = listener;
+        if (listener != null) {
+            infoListeners.add(listener);
+        }
     }
 
     public void setCaptionListener(CaptionListener listener) {
@@ -235,9 +392,20 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
         id3MetadataListener = listener;
     }
 
+    /**
+     * Sets the scheduler arbitrating the loads of the renderers' data sources. The player keeps it
+     * informed about the buffer state and the deadlines of the loads in progress.
+     *
+     * @param scheduler The scheduler, or null.
+     */
+    public void setDownloadScheduler(DownloadScheduler scheduler) {
+        downloadScheduler = scheduler;
+    }
+
     public void setSurface(Surface surface) {
         this.surface = surface;
         pushSurface(false);
+        maybeDispatchStartupTrace();
     }
 
     public Surface getSurface() {
@@ -247,6 +415,7 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
     public void blockingClearSurface() {
         surface = null;
         pushSurface(true);
+        maybeDispatchStartupTrace();
     }
 
     public int getTrackCount(int type) {
@@ -270,7 +439,7 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
             return;
         }
         selectedTracks[type] = index;
-        pushTrackSelection(true);
+        player.setSelectedTrack(type, index);
         if (type == TYPE_TEXT && index == DISABLED_TRACK && captionListener != null) {
             captionListener.onCues(Collections.<Cue>emptyList());
         }
@@ -295,6 +464,15 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
     }
 
 
+    /**
+     * Sets whether the next {@link #prepare()} switches from another source that was played just
+     * before, so that its {@link StartupTrace} is counted as a source switch.
+     * {@link #replaceRenderBuilder(RendererBuilder)} always does.
+     */
+    public void setSourceSwitch(boolean sourceSwitch) {
+        this.sourceSwitch = sourceSwitch;
+    }
+
     public void prepare() {
         if (rendererBuildingState == RENDERER_BUILDING_STATE_BUILT) {
             player.stop();
@@ -302,6 +480,17 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
         rendererBuilder.cancel();
         videoFormat = null;
         videoRenderer = null;
+        startupLoadControl = null;
+        allocator = null;
+        startupTrace = new StartupTrace(sourceSwitch);
+        startupTrace.mark(StartupTrace.PHASE_PREPARE, SystemClock.elapsedRealtime());
+        sourceSwitch = false;
+        startupTraceDispatched = false;
+        startupLatencyMs = -1;
+        seeking = false;
+        for (BufferListener listener : bufferListeners) {
+            listener.onBufferReset();
+        }
         rendererBuildingState = RENDERER_BUILDING_STATE_BUILDING;
         maybeReportPlayerState();
         rendererBuilder.buildRenderers(this);
@@ -324,11 +513,13 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
         // Complete preparation.
         this.videoRenderer = renderers[TYPE_VIDEO];
         this.audioRenderer = renderers[TYPE_AUDIO];
-        this.codecCounters = videoRenderer instanceof MediaCodecTrackRenderer
-                ? ((MediaCodecTrackRenderer) videoRenderer).codecCounters
-                : renderers[TYPE_AUDIO] instanceof MediaCodecTrackRenderer
-                ? ((MediaCodecTrackRenderer) renderers[TYPE_AUDIO]).codecCounters : null;
+        this.videoCodecCounters = videoRenderer instanceof MediaCodecTrackRenderer
+                ? ((MediaCodecTrackRenderer) videoRenderer).codecCounters : null;
+        this.audioCodecCounters = audioRenderer instanceof MediaCodecTrackRenderer
+                ? ((MediaCodecTrackRenderer) audioRenderer).codecCounters : null;
+        this.codecCounters = videoCodecCounters != null ? videoCodecCounters : audioCodecCounters;
         this.bandwidthMeter = bandwidthMeter;
+        markStartupPhase(StartupTrace.PHASE_RENDERERS_BUILT);
         pushSurface(false);
         player.prepare(renderers);
         rendererBuildingState = RENDERER_BUILDING_STATE_BUILT;
@@ -340,8 +531,8 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
      * @param e Describes the error.
      */
     protected void onRenderersError(Exception e) {
-        if (internalErrorListener != null) {
-            internalErrorListener.onRendererInitializationError(e);
+        for (InternalErrorListener listener : internalErrorListeners) {
+            listener.onRendererInitializationError(e);
         }
         for (Listener listener : listeners) {
             listener.onError(e);
@@ -355,6 +546,7 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
     }
 
     public void seekTo(long positionMs) {
+        onSeek(positionMs);
         player.seekTo(positionMs);
     }
 
@@ -368,10 +560,16 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
     }
 
     public void release() {
+        mainHandler.removeCallbacks(previewLoopRunnable);
         rendererBuilder.cancel();
         rendererBuildingState = RENDERER_BUILDING_STATE_IDLE;
         surface = null;
         player.release();
+        // The renderers have been released, so the session is no longer in use.
+        if (retainedDrmSessionManager != null) {
+            retainedDrmSessionManager.release();
+            retainedDrmSessionManager = null;
+        }
     }
 
 
@@ -388,9 +586,15 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
         return playerState;
     }
 
-    public void replaceRenderBuilder(RendererBuilder rendererBuilder){
+    /**
+     * Prepares the player with the renderers of another {@link RendererBuilder}, reusing the
+     * underlying {@link ExoPlayer}.
+     */
+    public void replaceRenderBuilder(RendererBuilder rendererBuilder) {
+        // Cancel the current build, and let prepare() stop the player if renderers were built.
+        this.rendererBuilder.cancel();
         this.rendererBuilder = rendererBuilder;
-        rendererBuildingState = RENDERER_BUILDING_STATE_IDLE;
+        sourceSwitch = true;
         prepare();
     }
 
@@ -410,6 +614,20 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
         return codecCounters;
     }
 
+    /**
+     * Returns the codec counters of the video renderer, or null if it does not use a codec.
+     */
+    public CodecCounters getVideoCodecCounters() {
+        return videoCodecCounters;
+    }
+
+    /**
+     * Returns the codec counters of the audio renderer, or null if it does not use a codec.
+     */
+    public CodecCounters getAudioCodecCounters() {
+        return audioCodecCounters;
+    }
+
     @Override
     public long getCurrentPosition() {
         return player.getCurrentPosition();
@@ -423,10 +641,26 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
         return player.getBufferedPercentage();
     }
 
+    /**
+     * Returns the position up to which media is buffered for all enabled renderers, or
+     * {@link ExoPlayer#UNKNOWN_TIME} if it is not known.
+     */
+    public long getBufferedPosition() {
+        return player.getBufferedPosition();
+    }
+
     public boolean getPlayWhenReady() {
         return player.getPlayWhenReady();
     }
 
+    /**
+     * Returns the time between the last {@link #prepare()} and the start of playback, or -1 if
+     * playback has not started since.
+     */
+    public long getStartupLatencyMs() {
+        return startupLatencyMs;
+    }
+
     protected Looper getPlaybackLooper() {
         return player.getPlaybackLooper();
     }
@@ -435,8 +669,122 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
         return mainHandler;
     }
 
+    /**
+     * Stamps a phase of the {@link StartupTrace} of the current {@link #prepare()}. Invoked by the
+     * {@link RendererBuilder} for the phases it goes through.
+     *
+     * @param phase One of the {@link StartupTrace} PHASE_* constants.
+     */
+    protected void markStartupPhase(int phase) {
+        if (startupTrace != null && !startupTraceDispatched) {
+            startupTrace.mark(phase, SystemClock.elapsedRealtime());
+        }
+    }
+
+    /**
+     * Returns the DRM session manager retained for a content, or null if none is retained for it.
+     *
+     * @param contentId The id of the content, for example its manifest URL.
+     */
+    protected RetainedDrmSessionManager getRetainedDrmSessionManager(String contentId) {
+        return retainedDrmSessionManager != null
+                && retainedDrmSessionManager.getContentId().equals(contentId)
+                ? retainedDrmSessionManager : null;
+    }
+
+    /**
+     * Retains a DRM session manager across prepares. A previously retained manager is released
+     * once the renderers using it have been released.
+     *
+     * @param drmSessionManager The manager to retain, or null to retain none.
+     */
+    protected void setRetainedDrmSessionManager(RetainedDrmSessionManager drmSessionManager) {
+        final RetainedDrmSessionManager previousDrmSessionManager = retainedDrmSessionManager;
+        if (previousDrmSessionManager == drmSessionManager) {
+            return;
+        }
+        retainedDrmSessionManager = drmSessionManager;
+        if (previousDrmSessionManager != null) {
+            // Runs on the playback thread after the renderers of the previous prepare are released.
+            new Handler(player.getPlaybackLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    previousDrmSessionManager.release();
+                }
+            });
+        }
+    }
+
+    /**
+     * Invoked by the {@link RendererBuilder} when the manifest or playlist has been loaded. The load
+     * is reported to the {@link InfoListener}s as a {@link #TYPE_MANIFEST} load, with the time since
+     * {@link #prepare()} as its duration. The number of bytes is not known.
+     */
+    protected void onManifestLoaded() {
+        markStartupPhase(StartupTrace.PHASE_MANIFEST_LOADED);
+        long nowMs = SystemClock.elapsedRealtime();
+        long loadDurationMs = startupTrace.getTimeSincePrepareMs(StartupTrace.PHASE_MANIFEST_LOADED);
+        for (InfoListener listener : infoListeners) {
+            listener.onLoadCompleted(TYPE_MANIFEST, C.LENGTH_UNBOUNDED, Chunk.TYPE_MANIFEST,
+                    Chunk.TRIGGER_UNSPECIFIED, null, -1, -1, nowMs, loadDurationMs);
+        }
+    }
+
+    /**
+     * Creates the {@link LoadControl} shared by the sample sources of a {@link RendererBuilder}.
+     *
+     * @param allocator The allocator of the load control.
+     * @return A load control configured by the {@link PlayerConfiguration} of this player.
+     */
+    protected LoadControl createLoadControl(Allocator allocator) {
+        LoadControl loadControl = configuration.createLoadControl(allocator, null, null);
+        if (loadControl instanceof StartupLoadControl) {
+            startupLoadControl = (StartupLoadControl) loadControl;
+        }
+        setAllocator(allocator);
+        return loadControl;
+    }
+
+    /**
+     * Sets the allocator holding the buffers of the renderers, for {@link #getAllocatedBytes()}.
+     * Invoked by {@link RendererBuilder}s that do not use {@link #createLoadControl(Allocator)}.
+     */
+    /* package */ void setAllocator(Allocator allocator) {
+        this.allocator = allocator;
+    }
+
+    /**
+     * Returns the number of bytes currently allocated for the buffers of the renderers.
+     */
+    public int getAllocatedBytes() {
+        Allocator allocator = this.allocator;
+        return allocator == null ? 0 : allocator.getTotalBytesAllocated();
+    }
+
     @Override
     public void onPlayerStateChanged(boolean playWhenReady, int state) {
+        if (downloadScheduler != null) {
+            // Only rebuffers are critical. While joining or after a seek, every stream is needed.
+            downloadScheduler.setBufferCritical(state == STATE_BUFFERING && !seeking
+                    && startupLatencyMs != -1);
+        }
+        if (state == STATE_READY) {
+            markStartupPhase(StartupTrace.PHASE_READY);
+            maybeDispatchStartupTrace();
+            seeking = false;
+        }
+        if (startupLatencyMs == -1) {
+            if (playWhenReady && state == STATE_READY && startupTrace != null) {
+                startupLatencyMs = SystemClock.elapsedRealtime()
+                        - startupTrace.getTimestampMs(StartupTrace.PHASE_PREPARE);
+                if (startupLoadControl != null) {
+                    startupLoadControl.onPlaybackStarted(startupLatencyMs);
+                }
+            }
+        } else if (state == STATE_BUFFERING && !seeking && startupLoadControl != null) {
+            startupLoadControl.onRebuffer();
+        }
+        updatePreviewLoop();
         maybeReportPlayerState();
     }
 
@@ -458,91 +806,95 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
 
     @Override
     public void onDroppedFrames(int count, long elapsed) {
-        if (infoListener != null) {
-            infoListener.onDroppedFrames(count, elapsed);
+        for (InfoListener listener : infoListeners) {
+            listener.onDroppedFrames(count, elapsed);
         }
     }
 
     @Override
     public void onBandwidthSample(int elapsedMs, long bytes, long bitrateEstimate) {
-        if (infoListener != null) {
-            infoListener.onBandwidthSample(elapsedMs, bytes, bitrateEstimate);
+        for (InfoListener listener : infoListeners) {
+            listener.onBandwidthSample(elapsedMs, bytes, bitrateEstimate);
         }
     }
 
     @Override
     public void onDownstreamFormatChanged(int sourceId, Format format, int trigger,
                                           long mediaTimeMs) {
-        if (infoListener == null) {
-            return;
-        }
         if (sourceId == TYPE_VIDEO) {
             videoFormat = format;
-            infoListener.onVideoFormatEnabled(format, trigger, mediaTimeMs);
+            for (InfoListener listener : infoListeners) {
+                listener.onVideoFormatEnabled(format, trigger, mediaTimeMs);
+            }
         } else if (sourceId == TYPE_AUDIO) {
-            infoListener.onAudioFormatEnabled(format, trigger, mediaTimeMs);
+            for (InfoListener listener : infoListeners) {
+                listener.onAudioFormatEnabled(format, trigger, mediaTimeMs);
+            }
         }
     }
 
     @Override
     public void onDrmKeysLoaded() {
-
+        markStartupPhase(StartupTrace.PHASE_DRM_KEYS_LOADED);
     }
 
     @Override
     public void onDrmSessionManagerError(Exception e) {
-        if (internalErrorListener != null) {
-            internalErrorListener.onDrmSessionManagerError(e);
+        for (InternalErrorListener listener : internalErrorListeners) {
+            listener.onDrmSessionManagerError(e);
         }
     }
 
     @Override
     public void onDecoderInitializationError(MediaCodecTrackRenderer.DecoderInitializationException e) {
-        if (internalErrorListener != null) {
-            internalErrorListener.onDecoderInitializationError(e);
+        for (InternalErrorListener listener : internalErrorListeners) {
+            listener.onDecoderInitializationError(e);
         }
     }
 
     @Override
     public void onAudioTrackInitializationError(AudioTrack.InitializationException e) {
-        if (internalErrorListener != null) {
-            internalErrorListener.onAudioTrackInitializationError(e);
+        for (InternalErrorListener listener : internalErrorListeners) {
+            listener.onAudioTrackInitializationError(e);
         }
     }
 
     @Override
     public void onAudioTrackWriteError(AudioTrack.WriteException e) {
-        if (internalErrorListener != null) {
-            internalErrorListener.onAudioTrackWriteError(e);
+        for (InternalErrorListener listener : internalErrorListeners) {
+            listener.onAudioTrackWriteError(e);
         }
     }
 
     @Override
     public void onAudioTrackUnderrun(int bufferSize, long bufferSizeMs, long elapsedSinceLastFeedMs) {
-        if (internalErrorListener != null) {
-            internalErrorListener.onAudioTrackUnderrun(bufferSize, bufferSizeMs, elapsedSinceLastFeedMs);
+        for (InternalErrorListener listener : internalErrorListeners) {
+            listener.onAudioTrackUnderrun(bufferSize, bufferSizeMs, elapsedSinceLastFeedMs);
         }
     }
 
     @Override
     public void onCryptoError(MediaCodec.CryptoException e) {
-        if (internalErrorListener != null) {
-            internalErrorListener.onCryptoError(e);
+        for (InternalErrorListener listener : internalErrorListeners) {
+            listener.onCryptoError(e);
         }
     }
 
     @Override
     public void onDecoderInitialized(String decoderName, long elapsedRealtimeMs,
                                      long initializationDurationMs) {
-        if (infoListener != null) {
-            infoListener.onDecoderInitialized(decoderName, elapsedRealtimeMs, initializationDurationMs);
+        if (startupTrace != null && !startupTraceDispatched) {
+            startupTrace.onDecoderInitialized(elapsedRealtimeMs, initializationDurationMs);
+        }
+        for (InfoListener listener : infoListeners) {
+            listener.onDecoderInitialized(decoderName, elapsedRealtimeMs, initializationDurationMs);
         }
     }
 
     @Override
     public void onLoadError(int sourceId, IOException e) {
-        if (internalErrorListener != null) {
-            internalErrorListener.onLoadError(sourceId, e);
+        for (InternalErrorListener listener : internalErrorListeners) {
+            listener.onLoadError(sourceId, e);
         }
     }
 
@@ -562,8 +914,8 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
 
     @Override
     public void onAvailableRangeChanged(int sourceId, TimeRange availableRange) {
-        if (infoListener != null) {
-            infoListener.onAvailableRangeChanged(sourceId, availableRange);
+        for (InfoListener listener : infoListeners) {
+            listener.onAvailableRangeChanged(sourceId, availableRange);
         }
     }
 
@@ -574,14 +926,19 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
 
     @Override
     public void onDrawnToSurface(Surface surface) {
-        // Do nothing.
+        markStartupPhase(StartupTrace.PHASE_FIRST_FRAME);
+        maybeDispatchStartupTrace();
     }
 
     @Override
     public void onLoadStarted(int sourceId, long length, int type, int trigger, Format format,
                               long mediaStartTimeMs, long mediaEndTimeMs) {
-        if (infoListener != null) {
-            infoListener.onLoadStarted(sourceId, length, type, trigger, format, mediaStartTimeMs,
+        if (downloadScheduler != null && mediaStartTimeMs != -1) {
+            downloadScheduler.setTimeUntilNeeded(sourceId,
+                    mediaStartTimeMs - player.getCurrentPosition());
+        }
+        for (InfoListener listener : infoListeners) {
+            listener.onLoadStarted(sourceId, length, type, trigger, format, mediaStartTimeMs,
                     mediaEndTimeMs);
         }
     }
@@ -590,8 +947,11 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
     public void onLoadCompleted(int sourceId, long bytesLoaded, int type, int trigger,
                                 Format format, long mediaStartTimeMs, long mediaEndTimeMs,
                                 long elapsedRealtimeMs, long loadDurationMs) {
-        if (infoListener != null) {
-            infoListener.onLoadCompleted(sourceId, bytesLoaded, type, trigger, format,
+        if (downloadScheduler != null) {
+            downloadScheduler.clearTimeUntilNeeded(sourceId);
+        }
+        for (InfoListener listener : infoListeners) {
+            listener.onLoadCompleted(sourceId, bytesLoaded, type, trigger, format,
                     mediaStartTimeMs, mediaEndTimeMs, elapsedRealtimeMs, loadDurationMs);
         }
     }
@@ -599,14 +959,47 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
 
     @Override
     public void onLoadCanceled(int sourceId, long bytesLoaded) {
-        // Do nothing.
+        if (downloadScheduler != null) {
+            downloadScheduler.clearTimeUntilNeeded(sourceId);
+        }
     }
 
     @Override
     public void onUpstreamDiscarded(int sourceId, long mediaStartTimeMs, long mediaEndTimeMs) {
-        // Do nothing.
+        for (BufferListener listener : bufferListeners) {
+            listener.onUpstreamDiscarded(sourceId, mediaStartTimeMs, mediaEndTimeMs);
+        }
+    }
+
+
+    private void onSeek(long positionMs) {
+        seeking = true;
+        for (SeekListener listener : seekListeners) {
+            listener.onSeek(positionMs);
+        }
     }
 
+    /**
+     * Seeks a preview player back to the start once it has played the preview window, or has
+     * ended before it.
+     */
+    private void updatePreviewLoop() {
+        mainHandler.removeCallbacks(previewLoopRunnable);
+        if (!configuration.isPreview()) {
+            return;
+        }
+        int playbackState = player.getPlaybackState();
+        if (playbackState == STATE_ENDED) {
+            seekTo(0);
+        } else if (playbackState == STATE_READY && player.getPlayWhenReady()) {
+            long remainingMs = configuration.previewDurationMs - player.getCurrentPosition();
+            if (remainingMs <= 0) {
+                seekTo(0);
+            } else {
+                mainHandler.postDelayed(previewLoopRunnable, remainingMs);
+            }
+        }
+    }
 
     private void maybeReportPlayerState() {
         boolean playWhenReady = player.getPlayWhenReady();
@@ -620,21 +1013,26 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
         }
     }
 
-    private void pushSurface(boolean blockForSurfacePush) {
-        if (videoRenderer == null) {
+    /**
+     * Dispatches the {@link StartupTrace} of the current {@link #prepare()} once it is complete.
+     * Playbacks without video, or without a surface, complete when the player is ready.
+     */
+    private void maybeDispatchStartupTrace() {
+        if (startupTrace == null || startupTraceDispatched) {
             return;
         }
-
-        if (blockForSurfacePush) {
-            player.blockingSendMessage(
-                    videoRenderer, MediaCodecVideoTrackRenderer.MSG_SET_SURFACE, surface);
-        } else {
-            player.sendMessage(
-                    videoRenderer, MediaCodecVideoTrackRenderer.MSG_SET_SURFACE, surface);
+        boolean rendersVideo = surface != null
+                && videoRenderer instanceof MediaCodecVideoTrackRenderer
+                && getSelectedTrackIndex(TYPE_VIDEO) != DISABLED_TRACK;
+        if (startupTrace.isComplete(rendersVideo)) {
+            startupTraceDispatched = true;
+            for (StartupListener listener : startupListeners) {
+                listener.onStartupTrace(startupTrace);
+            }
         }
     }
 
-    private void pushTrackSelection(boolean blockForSurfacePush) {
+    private void pushSurface(boolean blockForSurfacePush) {
         if (videoRenderer == null) {
             return;
         }
@@ -6,17 +6,18 @@ import android.media.MediaCodec;
 import android.net.Uri;
 
 import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
-import com.google.android.exoplayer.MediaCodecSelector;
 import com.google.android.exoplayer.MediaCodecVideoTrackRenderer;
 import com.google.android.exoplayer.TrackRenderer;
-import com.google.android.exoplayer.audio.AudioCapabilities;
 import com.google.android.exoplayer.extractor.ExtractorSampleSource;
 import com.google.android.exoplayer.text.TextTrackRenderer;
 import com.google.android.exoplayer.upstream.Allocator;
 import com.google.android.exoplayer.upstream.DataSource;
 import com.google.android.exoplayer.upstream.DefaultAllocator;
 import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
-import com.google.android.exoplayer.upstream.DefaultUriDataSource;
+
+import co.klar.android.exoplayerwrapper.upstream.DataSourceFactory;
+import co.klar.android.exoplayerwrapper.upstream.PooledDataSourceFactory;
+import co.klar.android.exoplayerwrapper.util.PlayerInitializer;
 
 /**
  * Created by cklar on 22.09.15.
@@ -25,39 +26,58 @@ public class ExtractorRendererBuilder implements ExoPlayerWrapper.RendererBuilde
 
     private static final int BUFFER_SEGMENT_SIZE = 64 * 1024;
     private static final int BUFFER_SEGMENT_COUNT = 256;
+    private static final int PREVIEW_BUFFER_SEGMENT_COUNT = 32;
 
     private final Context context;
-    private final String userAgent;
+    private final DataSourceFactory dataSourceFactory;
     private final Uri uri;
 
     public ExtractorRendererBuilder(Context context, String userAgent, Uri uri) {
+        this(context, new PooledDataSourceFactory(context, userAgent), uri);
+    }
+
+    public ExtractorRendererBuilder(Context context, DataSourceFactory dataSourceFactory, Uri uri) {
         this.context = context;
-        this.userAgent = userAgent;
+        this.dataSourceFactory = dataSourceFactory;
         this.uri = uri;
     }
 
     @Override
     public void buildRenderers(ExoPlayerWrapper player) {
+        PlayerConfiguration configuration = player.getConfiguration();
         Allocator allocator = new DefaultAllocator(BUFFER_SEGMENT_SIZE);
+        player.setAllocator(allocator);
 
         // Build the video and audio renderers.
+        boolean preview = configuration.isPreview();
         DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(player.getMainHandler(),
                 null);
-        DataSource dataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+        DataSource dataSource = dataSourceFactory.createDataSource(ExoPlayerWrapper.TYPE_VIDEO,
+                bandwidthMeter);
         ExtractorSampleSource sampleSource = new ExtractorSampleSource(uri, dataSource, allocator,
-                BUFFER_SEGMENT_COUNT * BUFFER_SEGMENT_SIZE);
+                (preview ? PREVIEW_BUFFER_SEGMENT_COUNT : BUFFER_SEGMENT_COUNT) * BUFFER_SEGMENT_SIZE);
         MediaCodecVideoTrackRenderer videoRenderer = new MediaCodecVideoTrackRenderer(context,
-                sampleSource, MediaCodecSelector.DEFAULT, MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT, 5000,
-                player.getMainHandler(), player, 50);
+                sampleSource, DecoderCache.getDefault(), MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT,
+                configuration.allowedJoiningTimeMs, player.getMainHandler(), player,
+                configuration.maxDroppedFrameCountToNotify);
+
+        // The content is not protected, so no DRM session needs to be retained.
+        player.setRetainedDrmSessionManager(null);
+        TrackRenderer[] renderers = new TrackRenderer[ExoPlayerWrapper.RENDERER_COUNT];
+        renderers[ExoPlayerWrapper.TYPE_VIDEO] = videoRenderer;
+        if (preview) {
+            // Previews are muted and have no captions. The audio samples are skipped.
+            player.onRenderers(renderers, bandwidthMeter);
+            return;
+        }
+
         MediaCodecAudioTrackRenderer audioRenderer = new MediaCodecAudioTrackRenderer(sampleSource,
-                MediaCodecSelector.DEFAULT, null, true, player.getMainHandler(), player,
-                AudioCapabilities.getCapabilities(context), AudioManager.STREAM_MUSIC);
+                DecoderCache.getDefault(), null, true, player.getMainHandler(), player,
+                PlayerInitializer.getAudioCapabilities(context), AudioManager.STREAM_MUSIC);
         TrackRenderer textRenderer = new TextTrackRenderer(sampleSource, player,
                 player.getMainHandler().getLooper());
 
         // Invoke the callback.
-        TrackRenderer[] renderers = new TrackRenderer[ExoPlayerWrapper.RENDERER_COUNT];
-        renderers[ExoPlayerWrapper.TYPE_VIDEO] = videoRenderer;
         renderers[ExoPlayerWrapper.TYPE_AUDIO] = audioRenderer;
         renderers[ExoPlayerWrapper.TYPE_TEXT] = textRenderer;
         player.onRenderers(renderers, bandwidthMeter);
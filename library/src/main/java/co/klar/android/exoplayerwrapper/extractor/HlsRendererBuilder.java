@@ -5,14 +5,11 @@ import android.media.AudioManager;
 import android.media.MediaCodec;
 import android.os.Handler;
 
-import com.google.android.exoplayer.DefaultLoadControl;
 import com.google.android.exoplayer.LoadControl;
 import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
-import com.google.android.exoplayer.MediaCodecSelector;
 import com.google.android.exoplayer.MediaCodecUtil;
 import com.google.android.exoplayer.MediaCodecVideoTrackRenderer;
 import com.google.android.exoplayer.TrackRenderer;
-import com.google.android.exoplayer.audio.AudioCapabilities;
 import com.google.android.exoplayer.chunk.VideoFormatSelectorUtil;
 import com.google.android.exoplayer.hls.DefaultHlsTrackSelector;
 import com.google.android.exoplayer.hls.HlsChunkSource;
@@ -20,7 +17,9 @@ import com.google.android.exoplayer.hls.HlsMasterPlaylist;
 import com.google.android.exoplayer.hls.HlsPlaylist;
 import com.google.android.exoplayer.hls.HlsPlaylistParser;
 import com.google.android.exoplayer.hls.HlsSampleSource;
+import com.google.android.exoplayer.hls.HlsTrackSelector;
 import com.google.android.exoplayer.hls.PtsTimestampAdjusterProvider;
+import com.google.android.exoplayer.hls.Variant;
 import com.google.android.exoplayer.metadata.id3.Id3Frame;
 import com.google.android.exoplayer.metadata.id3.Id3Parser;
 import com.google.android.exoplayer.metadata.MetadataTrackRenderer;
@@ -29,13 +28,17 @@ import com.google.android.exoplayer.text.eia608.Eia608TrackRenderer;
 import com.google.android.exoplayer.upstream.DataSource;
 import com.google.android.exoplayer.upstream.DefaultAllocator;
 import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
-import com.google.android.exoplayer.upstream.DefaultUriDataSource;
 import com.google.android.exoplayer.util.ManifestFetcher;
 
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
+import co.klar.android.exoplayerwrapper.upstream.DataSourceFactory;
+import co.klar.android.exoplayerwrapper.upstream.LazyDataSource;
+import co.klar.android.exoplayerwrapper.upstream.PooledDataSourceFactory;
+import co.klar.android.exoplayerwrapper.util.PlayerInitializer;
+
 /**
  * Created by cklar on 22.09.15.
  */
@@ -44,22 +47,27 @@ public class HlsRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
     private static final int BUFFER_SEGMENT_SIZE = 64 * 1024;
     private static final int MAIN_BUFFER_SEGMENTS = 256;
     private static final int TEXT_BUFFER_SEGMENTS = 2;
+    private static final int PREVIEW_BUFFER_SEGMENTS = 32;
 
     private final Context context;
-    private final String userAgent;
+    private final DataSourceFactory dataSourceFactory;
     private final String url;
 
     private AsyncRendererBuilder currentAsyncBuilder;
 
     public HlsRendererBuilder(Context context, String userAgent, String url) {
+        this(context, new PooledDataSourceFactory(context, userAgent), url);
+    }
+
+    public HlsRendererBuilder(Context context, DataSourceFactory dataSourceFactory, String url) {
         this.context = context;
-        this.userAgent = userAgent;
+        this.dataSourceFactory = dataSourceFactory;
         this.url = url;
     }
 
     @Override
     public void buildRenderers(ExoPlayerWrapper player) {
-        currentAsyncBuilder = new AsyncRendererBuilder(context, userAgent, url, player);
+        currentAsyncBuilder = new AsyncRendererBuilder(context, dataSourceFactory, url, player);
         currentAsyncBuilder.init();
     }
 
@@ -74,21 +82,22 @@ public class HlsRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
     private static final class AsyncRendererBuilder implements ManifestFetcher.ManifestCallback<HlsPlaylist> {
 
         private final Context context;
-        private final String userAgent;
+        private final DataSourceFactory dataSourceFactory;
         private final String url;
         private final ExoPlayerWrapper player;
         private final ManifestFetcher<HlsPlaylist> playlistFetcher;
 
         private boolean canceled;
 
-        public AsyncRendererBuilder(Context context, String userAgent, String url, ExoPlayerWrapper player) {
+        public AsyncRendererBuilder(Context context, DataSourceFactory dataSourceFactory, String url,
+                                    ExoPlayerWrapper player) {
             this.context = context;
-            this.userAgent = userAgent;
+            this.dataSourceFactory = dataSourceFactory;
             this.url = url;
             this.player = player;
             HlsPlaylistParser parser = new HlsPlaylistParser();
-            playlistFetcher = new ManifestFetcher<>(url, new DefaultUriDataSource(context, userAgent),
-                    parser);
+            playlistFetcher = new ManifestFetcher<>(url,
+                    dataSourceFactory.createDataSource(ExoPlayerWrapper.TYPE_MANIFEST, null), parser);
         }
 
         public void init() {
@@ -113,25 +122,46 @@ public class HlsRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
             if (canceled) {
                 return;
             }
+            player.onManifestLoaded();
 
             Handler mainHandler = player.getMainHandler();
-            LoadControl loadControl = new DefaultLoadControl(new DefaultAllocator(BUFFER_SEGMENT_SIZE));
+            PlayerConfiguration configuration = player.getConfiguration();
+            LoadControl loadControl = player.createLoadControl(new DefaultAllocator(BUFFER_SEGMENT_SIZE));
             DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter();
             PtsTimestampAdjusterProvider timestampAdjusterProvider = new PtsTimestampAdjusterProvider();
 
             // Build the video/audio/metadata renderers.
-            DataSource dataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+            boolean preview = configuration.isPreview();
+            DataSource dataSource = dataSourceFactory.createDataSource(ExoPlayerWrapper.TYPE_VIDEO,
+                    bandwidthMeter);
+            HlsTrackSelector trackSelector = DefaultHlsTrackSelector.newDefaultInstance(context);
+            if (preview) {
+                trackSelector = new LowestVariantTrackSelector(trackSelector);
+            }
             HlsChunkSource chunkSource = new HlsChunkSource(true /* isMaster */, dataSource, url,
-                    manifest, DefaultHlsTrackSelector.newDefaultInstance(context), bandwidthMeter,
-                    timestampAdjusterProvider, HlsChunkSource.ADAPTIVE_MODE_SPLICE);
+                    manifest, trackSelector, bandwidthMeter, timestampAdjusterProvider,
+                    HlsChunkSource.ADAPTIVE_MODE_SPLICE);
             HlsSampleSource sampleSource = new HlsSampleSource(chunkSource, loadControl,
-                    MAIN_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player, ExoPlayerWrapper.TYPE_VIDEO);
+                    (preview ? PREVIEW_BUFFER_SEGMENTS : MAIN_BUFFER_SEGMENTS) * BUFFER_SEGMENT_SIZE,
+                    mainHandler, player, ExoPlayerWrapper.TYPE_VIDEO);
             MediaCodecVideoTrackRenderer videoRenderer = new MediaCodecVideoTrackRenderer(context,
-                    sampleSource, MediaCodecSelector.DEFAULT, MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT,
-                    5000, mainHandler, player, 50);
+                    sampleSource, DecoderCache.getDefault(), MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT,
+                    configuration.allowedJoiningTimeMs, mainHandler, player,
+                    configuration.maxDroppedFrameCountToNotify);
+
+            // The content is not protected, so no DRM session needs to be retained.
+            player.setRetainedDrmSessionManager(null);
+            TrackRenderer[] renderers = new TrackRenderer[ExoPlayerWrapper.RENDERER_COUNT];
+            renderers[ExoPlayerWrapper.TYPE_VIDEO] = videoRenderer;
+            if (preview) {
+                // Previews are muted and have no captions or metadata.
+                player.onRenderers(renderers, bandwidthMeter);
+                return;
+            }
+
             MediaCodecAudioTrackRenderer audioRenderer = new MediaCodecAudioTrackRenderer(sampleSource,
-                    MediaCodecSelector.DEFAULT, null, true, player.getMainHandler(), player,
-                    AudioCapabilities.getCapabilities(context), AudioManager.STREAM_MUSIC);
+                    DecoderCache.getDefault(), null, true, player.getMainHandler(), player,
+                    PlayerInitializer.getAudioCapabilities(context), AudioManager.STREAM_MUSIC);
             MetadataTrackRenderer<List<Id3Frame>> id3Renderer = new MetadataTrackRenderer<>(
                     sampleSource, new Id3Parser(), player, mainHandler.getLooper());
 
@@ -142,7 +172,9 @@ public class HlsRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
             }
             TrackRenderer textRenderer;
             if (preferWebvtt) {
-                DataSource textDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+                // Text is disabled until selected, so the data source is created on the first load.
+                DataSource textDataSource = new LazyDataSource(dataSourceFactory,
+                        ExoPlayerWrapper.TYPE_TEXT, bandwidthMeter);
                 HlsChunkSource textChunkSource = new HlsChunkSource(false /* isMaster */, textDataSource,
                         url, manifest, DefaultHlsTrackSelector.newVttInstance(), bandwidthMeter,
                         timestampAdjusterProvider, HlsChunkSource.ADAPTIVE_MODE_SPLICE);
@@ -153,8 +185,6 @@ public class HlsRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
                 textRenderer = new Eia608TrackRenderer(sampleSource, player, mainHandler.getLooper());
             }
 
-            TrackRenderer[] renderers = new TrackRenderer[ExoPlayerWrapper.RENDERER_COUNT];
-            renderers[ExoPlayerWrapper.TYPE_VIDEO] = videoRenderer;
             renderers[ExoPlayerWrapper.TYPE_AUDIO] = audioRenderer;
             renderers[ExoPlayerWrapper.TYPE_METADATA] = id3Renderer;
             renderers[ExoPlayerWrapper.TYPE_TEXT] = textRenderer;
@@ -163,4 +193,40 @@ public class HlsRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
 
     }
 
+    /**
+     * Exposes the variant with the lowest bitrate of each adaptive track selected by another
+     * selector as a fixed track, used by preview players.
+     */
+    private static final class LowestVariantTrackSelector implements HlsTrackSelector {
+
+        private final HlsTrackSelector trackSelector;
+
+        public LowestVariantTrackSelector(HlsTrackSelector trackSelector) {
+            this.trackSelector = trackSelector;
+        }
+
+        @Override
+        public void selectTracks(HlsMasterPlaylist playlist, final Output output)
+                throws IOException {
+            trackSelector.selectTracks(playlist, new Output() {
+                @Override
+                public void adaptiveTrack(HlsMasterPlaylist playlist, Variant[] variants) {
+                    Variant lowestVariant = variants[0];
+                    for (int i = 1; i < variants.length; i++) {
+                        if (variants[i].format.bitrate < lowestVariant.format.bitrate) {
+                            lowestVariant = variants[i];
+                        }
+                    }
+                    output.fixedTrack(playlist, lowestVariant);
+                }
+
+                @Override
+                public void fixedTrack(HlsMasterPlaylist playlist, Variant variant) {
+                    output.fixedTrack(playlist, variant);
+                }
+            });
+        }
+
+    }
+
 }
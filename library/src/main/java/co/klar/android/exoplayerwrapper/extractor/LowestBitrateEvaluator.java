@@ -0,0 +1,37 @@
+package co.klar.android.exoplayerwrapper.extractor;
+
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.chunk.FormatEvaluator;
+import com.google.android.exoplayer.chunk.MediaChunk;
+
+import java.util.List;
+
+/**
+ * A {@link FormatEvaluator} that always selects the format with the lowest bitrate, used by
+ * preview players.
+ */
+/* package */ final class LowestBitrateEvaluator implements FormatEvaluator {
+
+    @Override
+    public void enable() {
+        // Do nothing.
+    }
+
+    @Override
+    public void disable() {
+        // Do nothing.
+    }
+
+    @Override
+    public void evaluate(List<? extends MediaChunk> queue, long playbackPositionUs,
+                         Format[] formats, Evaluation evaluation) {
+        Format lowestFormat = formats[0];
+        for (int i = 1; i < formats.length; i++) {
+            if (formats[i].bitrate < lowestFormat.bitrate) {
+                lowestFormat = formats[i];
+            }
+        }
+        evaluation.format = lowestFormat;
+    }
+
+}
@@ -0,0 +1,208 @@
+package co.klar.android.exoplayerwrapper.extractor;
+
+import android.os.Handler;
+
+import com.google.android.exoplayer.DefaultLoadControl;
+import com.google.android.exoplayer.LoadControl;
+import com.google.android.exoplayer.upstream.Allocator;
+
+/**
+ * The buffering and rendering parameters of an {@link ExoPlayerWrapper}, shared with the
+ * {@link ExoPlayerWrapper.RendererBuilder} building its renderers.
+ */
+public final class PlayerConfiguration {
+
+    /**
+     * The parameters the player has always been using.
+     */
+    public static final PlayerConfiguration DEFAULT = new PlayerConfiguration(
+            DefaultLoadControl.DEFAULT_LOW_WATERMARK_MS, DefaultLoadControl.DEFAULT_HIGH_WATERMARK_MS,
+            1000, 5000, 5000, 50);
+
+    /**
+     * Starts playback as soon as possible and keeps a short buffer, for short clips in feeds.
+     */
+    public static final PlayerConfiguration FAST_START = new PlayerConfiguration(
+            5000, 15000, 500, 2500, 2000, 50);
+
+    /**
+     * Keeps a deep buffer to ride out throughput drops, for long-form VOD.
+     */
+    public static final PlayerConfiguration DEEP_BUFFER = new PlayerConfiguration(
+            30000, 60000, 2500, 5000, 5000, 50);
+
+    /**
+     * Starts playback after a very small buffer and ramps the buffer targets up to those of
+     * {@link #DEEP_BUFFER} over the first ten seconds of playback. Resuming after a rebuffer
+     * requires a conservative buffer.
+     */
+    public static final PlayerConfiguration STARTUP_OPTIMIZED = new PlayerConfiguration(
+            30000, 60000, 250, 5000, 2000, 50, 4000, 10000);
+
+    /**
+     * Plays a muted inline preview: only the video renderer is built, the lowest bitrate is
+     * selected, the buffer is kept small and the first five seconds are looped.
+     */
+    public static final PlayerConfiguration PREVIEW = new PlayerConfiguration(
+            1000, 3000, 250, 1000, 0, 50, 3000, 0, 5000);
+
+    /**
+     * The buffered duration below which the load control always keeps loading.
+     */
+    public final int minBufferMs;
+
+    /**
+     * The buffered duration above which the load control stops loading.
+     */
+    public final int maxBufferMs;
+
+    /**
+     * The buffered duration required to start playback.
+     */
+    public final int bufferForPlaybackMs;
+
+    /**
+     * The buffered duration required to resume playback after a rebuffer.
+     */
+    public final int bufferForPlaybackAfterRebufferMs;
+
+    /**
+     * The maximum duration for which the video renderer may drop frames to join playback.
+     */
+    public final long allowedJoiningTimeMs;
+
+    /**
+     * The number of dropped frames after which the video renderer reports them.
+     */
+    public final int maxDroppedFrameCountToNotify;
+
+    /**
+     * The buffered duration above which the load control stops loading until playback has started.
+     */
+    public final int startupMaxBufferMs;
+
+    /**
+     * The time over which the buffer targets ramp up from the startup values to
+     * {@link #minBufferMs} and {@link #maxBufferMs} once playback has started. 0 if the targets
+     * apply from the start.
+     */
+    public final long startupRampMs;
+
+    /**
+     * The duration of the window looped by a preview player, or 0 if the player is not a preview
+     * player. Renderer builders only build the video renderer of a preview player, and select its
+     * lowest bitrate.
+     */
+    public final long previewDurationMs;
+
+    /**
+     * @param minBufferMs                      The buffered duration below which the load control
+     *                                         always keeps loading.
+     * @param maxBufferMs                      The buffered duration above which the load control
+     *                                         stops loading.
+     * @param bufferForPlaybackMs              The buffered duration required to start playback.
+     * @param bufferForPlaybackAfterRebufferMs The buffered duration required to resume playback
+     *                                         after a rebuffer.
+     * @param allowedJoiningTimeMs             The maximum duration for which the video renderer
+     *                                         may drop frames to join playback.
+     * @param maxDroppedFrameCountToNotify     The number of dropped frames after which the video
+     *                                         renderer reports them.
+     */
+    public PlayerConfiguration(int minBufferMs, int maxBufferMs, int bufferForPlaybackMs,
+                               int bufferForPlaybackAfterRebufferMs, long allowedJoiningTimeMs,
+                               int maxDroppedFrameCountToNotify) {
+        this(minBufferMs, maxBufferMs, bufferForPlaybackMs, bufferForPlaybackAfterRebufferMs,
+                allowedJoiningTimeMs, maxDroppedFrameCountToNotify, maxBufferMs, 0);
+    }
+
+    /**
+     * @param minBufferMs                      The buffered duration below which the load control
+     *                                         always keeps loading.
+     * @param maxBufferMs                      The buffered duration above which the load control
+     *                                         stops loading.
+     * @param bufferForPlaybackMs              The buffered duration required to start playback.
+     * @param bufferForPlaybackAfterRebufferMs The buffered duration required to resume playback
+     *                                         after a rebuffer.
+     * @param allowedJoiningTimeMs             The maximum duration for which the video renderer
+     *                                         may drop frames to join playback.
+     * @param maxDroppedFrameCountToNotify     The number of dropped frames after which the video
+     *                                         renderer reports them.
+     * @param startupMaxBufferMs               The buffered duration above which the load control
+     *                                         stops loading until playback has started.
+     * @param startupRampMs                    The time over which the buffer targets ramp up once
+     *                                         playback has started, or 0.
+     */
+    public PlayerConfiguration(int minBufferMs, int maxBufferMs, int bufferForPlaybackMs,
+                               int bufferForPlaybackAfterRebufferMs, long allowedJoiningTimeMs,
+                               int maxDroppedFrameCountToNotify, int startupMaxBufferMs,
+                               long startupRampMs) {
+        this(minBufferMs, maxBufferMs, bufferForPlaybackMs, bufferForPlaybackAfterRebufferMs,
+                allowedJoiningTimeMs, maxDroppedFrameCountToNotify, startupMaxBufferMs,
+                startupRampMs, 0);
+    }
+
+    /**
+     * @param minBufferMs                      The buffered duration below which the load control
+     *                                         always keeps loading.
+     * @param maxBufferMs                      The buffered duration above which the load control
+     *                                         stops loading.
+     * @param bufferForPlaybackMs              The buffered duration required to start playback.
+     * @param bufferForPlaybackAfterRebufferMs The buffered duration required to resume playback
+     *                                         after a rebuffer.
+     * @param allowedJoiningTimeMs             The maximum duration for which the video renderer
+     *                                         may drop frames to join playback.
+     * @param maxDroppedFrameCountToNotify     The number of dropped frames after which the video
+     *                                         renderer reports them.
+     * @param startupMaxBufferMs               The buffered duration above which the load control
+     *                                         stops loading until playback has started.
+     * @param startupRampMs                    The time over which the buffer targets ramp up once
+     *                                         playback has started, or 0.
+     * @param previewDurationMs                The duration of the window looped by a preview
+     *                                         player, or 0 if the player is not a preview player.
+     */
+    public PlayerConfiguration(int minBufferMs, int maxBufferMs, int bufferForPlaybackMs,
+                               int bufferForPlaybackAfterRebufferMs, long allowedJoiningTimeMs,
+                               int maxDroppedFrameCountToNotify, int startupMaxBufferMs,
+                               long startupRampMs, long previewDurationMs) {
+        if (minBufferMs > maxBufferMs) {
+            throw new IllegalArgumentException("minBufferMs > maxBufferMs");
+        }
+        this.minBufferMs = minBufferMs;
+        this.maxBufferMs = maxBufferMs;
+        this.bufferForPlaybackMs = bufferForPlaybackMs;
+        this.bufferForPlaybackAfterRebufferMs = bufferForPlaybackAfterRebufferMs;
+        this.allowedJoiningTimeMs = allowedJoiningTimeMs;
+        this.maxDroppedFrameCountToNotify = maxDroppedFrameCountToNotify;
+        this.startupMaxBufferMs = startupMaxBufferMs;
+        this.startupRampMs = startupRampMs;
+        this.previewDurationMs = previewDurationMs;
+    }
+
+    /**
+     * Returns whether the player plays a muted, looping preview.
+     */
+    public boolean isPreview() {
+        return previewDurationMs > 0;
+    }
+
+    /**
+     * Creates a {@link LoadControl} using the buffer watermarks of this configuration. This is a
+     * {@link StartupLoadControl} if {@link #startupRampMs} is set.
+     *
+     * @param allocator     The allocator of the load control.
+     * @param eventHandler  A handler to use when delivering events to {@code eventListener}. May be
+     *                      null if delivery of events is not required.
+     * @param eventListener A listener of events. May be null if delivery of events is not required.
+     * @return The load control.
+     */
+    public LoadControl createLoadControl(Allocator allocator, Handler eventHandler,
+                                         DefaultLoadControl.EventListener eventListener) {
+        if (startupRampMs > 0) {
+            return new StartupLoadControl(allocator, this, eventHandler, eventListener);
+        }
+        return new DefaultLoadControl(allocator, eventHandler, eventListener, minBufferMs,
+                maxBufferMs, DefaultLoadControl.DEFAULT_LOW_BUFFER_LOAD,
+                DefaultLoadControl.DEFAULT_HIGH_BUFFER_LOAD);
+    }
+
+}
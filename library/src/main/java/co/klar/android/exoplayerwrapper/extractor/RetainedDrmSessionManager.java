@@ -0,0 +1,121 @@
+package co.klar.android.exoplayerwrapper.extractor;
+
+import android.annotation.TargetApi;
+import android.media.MediaCrypto;
+
+import com.google.android.exoplayer.drm.DrmInitData;
+import com.google.android.exoplayer.drm.DrmSessionManager;
+import com.google.android.exoplayer.drm.StreamingDrmSessionManager;
+
+/**
+ * A {@link DrmSessionManager} that keeps the session of a {@link StreamingDrmSessionManager} open
+ * when the renderers using it are released, so that the session and its keys can be reused by the
+ * renderers of the next {@link ExoPlayerWrapper#prepare()} of the same content.
+ * <p/>
+ * The renderer builders retain the manager in the player with
+ * {@link ExoPlayerWrapper#setRetainedDrmSessionManager}, keyed by the manifest URL, and reuse it
+ * when they build renderers for the same URL again. A re-prepare then skips the license request.
+ * The session is closed when the manager is replaced or the player is released. A session that
+ * failed is opened again by the next renderer.
+ */
+@TargetApi(18)
+public final class RetainedDrmSessionManager implements DrmSessionManager {
+
+    private final String contentId;
+    private final StreamingDrmSessionManager streamingSessionManager;
+    private final DrmSessionManager sessionManager;
+
+    private boolean sessionOpen;
+    private int openCount;
+    private int reuseCount;
+
+    /**
+     * @param contentId      Identifies the content whose keys the session holds, for example the
+     *                       manifest URL.
+     * @param sessionManager The session manager requesting the keys.
+     */
+    public RetainedDrmSessionManager(String contentId, StreamingDrmSessionManager sessionManager) {
+        this(contentId, sessionManager, sessionManager);
+    }
+
+    /* package */ RetainedDrmSessionManager(String contentId, DrmSessionManager sessionManager) {
+        this(contentId, null, sessionManager);
+    }
+
+    private RetainedDrmSessionManager(String contentId,
+                                      StreamingDrmSessionManager streamingSessionManager,
+                                      DrmSessionManager sessionManager) {
+        this.contentId = contentId;
+        this.streamingSessionManager = streamingSessionManager;
+        this.sessionManager = sessionManager;
+    }
+
+    public String getContentId() {
+        return contentId;
+    }
+
+    public StreamingDrmSessionManager getSessionManager() {
+        return streamingSessionManager;
+    }
+
+    /**
+     * Returns the number of times a renderer opened the session while it was already open, each of
+     * which saved a license request.
+     */
+    public synchronized int getReuseCount() {
+        return reuseCount;
+    }
+
+    /**
+     * Closes the session. Must only be called once no renderer uses the session anymore.
+     */
+    public synchronized void release() {
+        if (sessionOpen) {
+            sessionManager.close();
+            sessionOpen = false;
+        }
+    }
+
+    @Override
+    public synchronized void open(DrmInitData drmInitData) {
+        if (sessionOpen && openCount == 0 && sessionManager.getState() == STATE_ERROR) {
+            // Do not retain a failed session.
+            sessionManager.close();
+            sessionOpen = false;
+        }
+        openCount++;
+        if (sessionOpen) {
+            reuseCount++;
+        } else {
+            sessionManager.open(drmInitData);
+            sessionOpen = true;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        // Keep the session open for the next renderers until release().
+        openCount--;
+    }
+
+    @Override
+    public int getState() {
+        return sessionManager.getState();
+    }
+
+    @Override
+    public MediaCrypto getMediaCrypto() {
+        return sessionManager.getMediaCrypto();
+    }
+
+    @Override
+    public boolean requiresSecureDecoderComponent(String mimeType) {
+        return sessionManager.requiresSecureDecoderComponent(mimeType);
+    }
+
+    @Override
+    public Exception getError() {
+        return sessionManager.getError();
+    }
+
+}
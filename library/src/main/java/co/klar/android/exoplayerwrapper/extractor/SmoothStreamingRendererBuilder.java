@@ -5,17 +5,13 @@ import android.media.AudioManager;
 import android.media.MediaCodec;
 import android.os.Handler;
 
-import com.google.android.exoplayer.DefaultLoadControl;
 import com.google.android.exoplayer.LoadControl;
 import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
-import com.google.android.exoplayer.MediaCodecSelector;
 import com.google.android.exoplayer.MediaCodecVideoTrackRenderer;
 import com.google.android.exoplayer.TrackRenderer;
-import com.google.android.exoplayer.audio.AudioCapabilities;
 import com.google.android.exoplayer.chunk.ChunkSampleSource;
 import com.google.android.exoplayer.chunk.ChunkSource;
 import com.google.android.exoplayer.chunk.FormatEvaluator;
-import com.google.android.exoplayer.drm.DrmSessionManager;
 import com.google.android.exoplayer.drm.MediaDrmCallback;
 import com.google.android.exoplayer.drm.StreamingDrmSessionManager;
 import com.google.android.exoplayer.drm.UnsupportedDrmException;
@@ -27,13 +23,16 @@ import com.google.android.exoplayer.text.TextTrackRenderer;
 import com.google.android.exoplayer.upstream.DataSource;
 import com.google.android.exoplayer.upstream.DefaultAllocator;
 import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
-import com.google.android.exoplayer.upstream.DefaultHttpDataSource;
-import com.google.android.exoplayer.upstream.DefaultUriDataSource;
 import com.google.android.exoplayer.util.ManifestFetcher;
 import com.google.android.exoplayer.util.Util;
 
 import java.io.IOException;
 
+import co.klar.android.exoplayerwrapper.upstream.DataSourceFactory;
+import co.klar.android.exoplayerwrapper.upstream.LazyDataSource;
+import co.klar.android.exoplayerwrapper.upstream.PooledDataSourceFactory;
+import co.klar.android.exoplayerwrapper.util.PlayerInitializer;
+
 /**
  * Created by cklar on 22.09.15.
  */
@@ -43,10 +42,11 @@ public class SmoothStreamingRendererBuilder implements ExoPlayerWrapper.Renderer
     private static final int VIDEO_BUFFER_SEGMENTS = 200;
     private static final int AUDIO_BUFFER_SEGMENTS = 54;
     private static final int TEXT_BUFFER_SEGMENTS = 2;
+    private static final int PREVIEW_VIDEO_BUFFER_SEGMENTS = 16;
     private static final int LIVE_EDGE_LATENCY_MS = 30000;
 
     private final Context context;
-    private final String userAgent;
+    private final DataSourceFactory dataSourceFactory;
     private final String url;
     private final MediaDrmCallback drmCallback;
 
@@ -54,15 +54,21 @@ public class SmoothStreamingRendererBuilder implements ExoPlayerWrapper.Renderer
 
     public SmoothStreamingRendererBuilder(Context context, String userAgent, String url,
                                           MediaDrmCallback drmCallback) {
+        this(context, new PooledDataSourceFactory(context, userAgent), url, drmCallback);
+    }
+
+    public SmoothStreamingRendererBuilder(Context context, DataSourceFactory dataSourceFactory,
+                                          String url, MediaDrmCallback drmCallback) {
         this.context = context;
-        this.userAgent = userAgent;
+        this.dataSourceFactory = dataSourceFactory;
         this.url = Util.toLowerInvariant(url).endsWith("/manifest") ? url : url + "/Manifest";
         this.drmCallback = drmCallback;
     }
 
     @Override
     public void buildRenderers(ExoPlayerWrapper player) {
-        currentAsyncBuilder = new AsyncRendererBuilder(context, userAgent, url, drmCallback, player);
+        currentAsyncBuilder = new AsyncRendererBuilder(context, dataSourceFactory, url, drmCallback,
+                player);
         currentAsyncBuilder.init();
     }
 
@@ -78,22 +84,24 @@ public class SmoothStreamingRendererBuilder implements ExoPlayerWrapper.Renderer
             implements ManifestFetcher.ManifestCallback<SmoothStreamingManifest> {
 
         private final Context context;
-        private final String userAgent;
+        private final DataSourceFactory dataSourceFactory;
+        private final String url;
         private final MediaDrmCallback drmCallback;
         private final ExoPlayerWrapper player;
         private final ManifestFetcher<SmoothStreamingManifest> manifestFetcher;
 
         private boolean canceled;
 
-        public AsyncRendererBuilder(Context context, String userAgent, String url,
+        public AsyncRendererBuilder(Context context, DataSourceFactory dataSourceFactory, String url,
                                     MediaDrmCallback drmCallback, ExoPlayerWrapper player) {
             this.context = context;
-            this.userAgent = userAgent;
+            this.dataSourceFactory = dataSourceFactory;
+            this.url = url;
             this.drmCallback = drmCallback;
             this.player = player;
             SmoothStreamingManifestParser parser = new SmoothStreamingManifestParser();
-            manifestFetcher = new ManifestFetcher<>(url, new DefaultHttpDataSource(userAgent, null),
-                    parser);
+            manifestFetcher = new ManifestFetcher<>(url,
+                    dataSourceFactory.createDataSource(ExoPlayerWrapper.TYPE_MANIFEST, null), parser);
         }
 
         public void init() {
@@ -118,42 +126,64 @@ public class SmoothStreamingRendererBuilder implements ExoPlayerWrapper.Renderer
             if (canceled) {
                 return;
             }
+            player.onManifestLoaded();
 
             Handler mainHandler = player.getMainHandler();
-            LoadControl loadControl = new DefaultLoadControl(new DefaultAllocator(BUFFER_SEGMENT_SIZE));
+            PlayerConfiguration configuration = player.getConfiguration();
+            LoadControl loadControl = player.createLoadControl(new DefaultAllocator(BUFFER_SEGMENT_SIZE));
             DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(mainHandler, player);
 
-            // Check drm support if necessary.
-            DrmSessionManager drmSessionManager = null;
+            // Check drm support if necessary, reusing the session of a previous prepare.
+            RetainedDrmSessionManager drmSessionManager = null;
             if (manifest.protectionElement != null) {
                 if (Util.SDK_INT < 18) {
                     player.onRenderersError(
                             new UnsupportedDrmException(UnsupportedDrmException.REASON_UNSUPPORTED_SCHEME));
                     return;
                 }
-                try {
-                    drmSessionManager = new StreamingDrmSessionManager(manifest.protectionElement.uuid,
-                            player.getPlaybackLooper(), drmCallback, null, player.getMainHandler(), player);
-                } catch (UnsupportedDrmException e) {
-                    player.onRenderersError(e);
-                    return;
+                drmSessionManager = player.getRetainedDrmSessionManager(url);
+                if (drmSessionManager == null) {
+                    try {
+                        drmSessionManager = new RetainedDrmSessionManager(url,
+                                new StreamingDrmSessionManager(manifest.protectionElement.uuid,
+                                        player.getPlaybackLooper(), drmCallback, null,
+                                        player.getMainHandler(), player));
+                    } catch (UnsupportedDrmException e) {
+                        player.onRenderersError(e);
+                        return;
+                    }
                 }
             }
+            player.setRetainedDrmSessionManager(drmSessionManager);
 
             // Build the video renderer.
-            DataSource videoDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+            boolean preview = configuration.isPreview();
+            DataSource videoDataSource = dataSourceFactory.createDataSource(ExoPlayerWrapper.TYPE_VIDEO,
+                    bandwidthMeter);
+            FormatEvaluator videoFormatEvaluator = preview ? new LowestBitrateEvaluator()
+                    : new FormatEvaluator.AdaptiveEvaluator(bandwidthMeter);
             ChunkSource videoChunkSource = new SmoothStreamingChunkSource(manifestFetcher,
                     DefaultSmoothStreamingTrackSelector.newVideoInstance(context, true, false),
-                    videoDataSource, new FormatEvaluator.AdaptiveEvaluator(bandwidthMeter), LIVE_EDGE_LATENCY_MS);
+                    videoDataSource, videoFormatEvaluator, LIVE_EDGE_LATENCY_MS);
             ChunkSampleSource videoSampleSource = new ChunkSampleSource(videoChunkSource, loadControl,
-                    VIDEO_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
-                    ExoPlayerWrapper.TYPE_VIDEO);
+                    (preview ? PREVIEW_VIDEO_BUFFER_SEGMENTS : VIDEO_BUFFER_SEGMENTS)
+                            * BUFFER_SEGMENT_SIZE, mainHandler, player, ExoPlayerWrapper.TYPE_VIDEO);
             TrackRenderer videoRenderer = new MediaCodecVideoTrackRenderer(context, videoSampleSource,
-                    MediaCodecSelector.DEFAULT, MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT, 5000,
-                    drmSessionManager, true, mainHandler, player, 50);
+                    DecoderCache.getDefault(), MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT,
+                    configuration.allowedJoiningTimeMs, drmSessionManager, true, mainHandler, player,
+                    configuration.maxDroppedFrameCountToNotify);
+
+            TrackRenderer[] renderers = new TrackRenderer[ExoPlayerWrapper.RENDERER_COUNT];
+            renderers[ExoPlayerWrapper.TYPE_VIDEO] = videoRenderer;
+            if (preview) {
+                // Previews are muted and have no captions.
+                player.onRenderers(renderers, bandwidthMeter);
+                return;
+            }
 
             // Build the audio renderer.
-            DataSource audioDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+            DataSource audioDataSource = dataSourceFactory.createDataSource(ExoPlayerWrapper.TYPE_AUDIO,
+                    bandwidthMeter);
             ChunkSource audioChunkSource = new SmoothStreamingChunkSource(manifestFetcher,
                     DefaultSmoothStreamingTrackSelector.newAudioInstance(),
                     audioDataSource, null, LIVE_EDGE_LATENCY_MS);
@@ -161,28 +191,40 @@ public class SmoothStreamingRendererBuilder implements ExoPlayerWrapper.Renderer
                     AUDIO_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
                     ExoPlayerWrapper.TYPE_AUDIO);
             TrackRenderer audioRenderer = new MediaCodecAudioTrackRenderer(audioSampleSource,
-                    MediaCodecSelector.DEFAULT, drmSessionManager, true, mainHandler, player,
-                    AudioCapabilities.getCapabilities(context), AudioManager.STREAM_MUSIC);
-
-            // Build the text renderer.
-            DataSource textDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
-            ChunkSource textChunkSource = new SmoothStreamingChunkSource(manifestFetcher,
-                    DefaultSmoothStreamingTrackSelector.newTextInstance(),
-                    textDataSource, null, LIVE_EDGE_LATENCY_MS);
-            ChunkSampleSource textSampleSource = new ChunkSampleSource(textChunkSource, loadControl,
-                    TEXT_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
-                    ExoPlayerWrapper.TYPE_TEXT);
-            TrackRenderer textRenderer = new TextTrackRenderer(textSampleSource, player,
-                    mainHandler.getLooper());
+                    DecoderCache.getDefault(), drmSessionManager, true, mainHandler, player,
+                    PlayerInitializer.getAudioCapabilities(context), AudioManager.STREAM_MUSIC);
+
+            // Build the text renderer, only if the manifest has text streams. Text is disabled
+            // until selected, so its data source is only created on the first text load.
+            TrackRenderer textRenderer = null;
+            if (hasTextStream(manifest)) {
+                DataSource textDataSource = new LazyDataSource(dataSourceFactory,
+                        ExoPlayerWrapper.TYPE_TEXT, bandwidthMeter);
+                ChunkSource textChunkSource = new SmoothStreamingChunkSource(manifestFetcher,
+                        DefaultSmoothStreamingTrackSelector.newTextInstance(),
+                        textDataSource, null, LIVE_EDGE_LATENCY_MS);
+                ChunkSampleSource textSampleSource = new ChunkSampleSource(textChunkSource,
+                        loadControl, TEXT_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
+                        ExoPlayerWrapper.TYPE_TEXT);
+                textRenderer = new TextTrackRenderer(textSampleSource, player,
+                        mainHandler.getLooper());
+            }
 
             // Invoke the callback.
-            TrackRenderer[] renderers = new TrackRenderer[ExoPlayerWrapper.RENDERER_COUNT];
-            renderers[ExoPlayerWrapper.TYPE_VIDEO] = videoRenderer;
             renderers[ExoPlayerWrapper.TYPE_AUDIO] = audioRenderer;
             renderers[ExoPlayerWrapper.TYPE_TEXT] = textRenderer;
             player.onRenderers(renderers, bandwidthMeter);
         }
 
+        private static boolean hasTextStream(SmoothStreamingManifest manifest) {
+            for (SmoothStreamingManifest.StreamElement streamElement : manifest.streamElements) {
+                if (streamElement.type == SmoothStreamingManifest.StreamElement.TYPE_TEXT) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,270 @@
+package co.klar.android.exoplayerwrapper.extractor;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer.DefaultLoadControl;
+import com.google.android.exoplayer.LoadControl;
+import com.google.android.exoplayer.upstream.Allocator;
+import com.google.android.exoplayer.upstream.NetworkLock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A {@link LoadControl} that behaves like {@link DefaultLoadControl}, except that its buffer
+ * watermarks start small and ramp up to their targets over the first seconds of playback.
+ * <p/>
+ * Until playback has started the startup watermarks are used, so that loading is focused on the
+ * media needed to start. Once {@link #onPlaybackStarted(long)} is invoked the watermarks grow
+ * linearly to the targets of the {@link PlayerConfiguration}. After {@link #onRebuffer()} the
+ * targets are used right away for the rest of the session.
+ */
+public final class StartupLoadControl implements LoadControl {
+
+    private static final int ABOVE_HIGH_WATERMARK = 0;
+    private static final int BETWEEN_WATERMARKS = 1;
+    private static final int BELOW_LOW_WATERMARK = 2;
+
+    private final Allocator allocator;
+    private final List<Object> loaders;
+    private final HashMap<Object, LoaderState> loaderStates;
+    private final Handler eventHandler;
+    private final DefaultLoadControl.EventListener eventListener;
+
+    private final long startupLowWatermarkUs;
+    private final long startupHighWatermarkUs;
+    private final long lowWatermarkUs;
+    private final long highWatermarkUs;
+    private final long rampDurationMs;
+
+    private int targetBufferSize;
+    private long maxLoadStartPositionUs;
+    private int bufferState;
+    private boolean fillingBuffers;
+    private boolean streamingPrioritySet;
+
+    private volatile long rampStartTimeMs;
+    private volatile boolean rebuffered;
+    private volatile long startupLatencyMs;
+
+    /**
+     * @param allocator     The allocator of the load control.
+     * @param configuration The configuration providing the startup and the target watermarks.
+     * @param eventHandler  A handler to use when delivering events to {@code eventListener}. May be
+     *                      null if delivery of events is not required.
+     * @param eventListener A listener of events. May be null if delivery of events is not required.
+     */
+    public StartupLoadControl(Allocator allocator, PlayerConfiguration configuration,
+                              Handler eventHandler, DefaultLoadControl.EventListener eventListener) {
+        this.allocator = allocator;
+        this.eventHandler = eventHandler;
+        this.eventListener = eventListener;
+        loaders = new ArrayList<>();
+        loaderStates = new HashMap<>();
+        highWatermarkUs = configuration.maxBufferMs * 1000L;
+        lowWatermarkUs = configuration.minBufferMs * 1000L;
+        startupHighWatermarkUs = Math.min(configuration.startupMaxBufferMs * 1000L,
+                highWatermarkUs);
+        startupLowWatermarkUs = Math.min(startupHighWatermarkUs / 2, lowWatermarkUs);
+        rampDurationMs = configuration.startupRampMs;
+        rampStartTimeMs = -1;
+        startupLatencyMs = -1;
+    }
+
+    /**
+     * Invoked when playback starts for the first time, to start ramping up the watermarks.
+     *
+     * @param startupLatencyMs The time between preparing the player and the start of playback.
+     */
+    public void onPlaybackStarted(long startupLatencyMs) {
+        if (rampStartTimeMs == -1) {
+            this.startupLatencyMs = startupLatencyMs;
+            rampStartTimeMs = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * Invoked when playback stalls after it has started, to switch to the target watermarks.
+     */
+    public void onRebuffer() {
+        rebuffered = true;
+    }
+
+    /**
+     * Returns the startup latency passed to {@link #onPlaybackStarted(long)}, or -1 if playback has
+     * not started yet.
+     */
+    public long getStartupLatencyMs() {
+        return startupLatencyMs;
+    }
+
+    /**
+     * Returns whether the target watermarks are in effect.
+     */
+    public boolean isRampCompleted() {
+        return getRampProgress() == 1f;
+    }
+
+    @Override
+    public void register(Object loader, int bufferSizeContribution) {
+        loaders.add(loader);
+        loaderStates.put(loader, new LoaderState(bufferSizeContribution));
+        targetBufferSize += bufferSizeContribution;
+    }
+
+    @Override
+    public void unregister(Object loader) {
+        loaders.remove(loader);
+        LoaderState state = loaderStates.remove(loader);
+        targetBufferSize -= state.bufferSizeContribution;
+        updateControlState();
+    }
+
+    @Override
+    public void trimAllocator() {
+        allocator.trim(targetBufferSize);
+    }
+
+    @Override
+    public Allocator getAllocator() {
+        return allocator;
+    }
+
+    @Override
+    public boolean update(Object loader, long playbackPositionUs, long nextLoadPositionUs,
+                          boolean loading) {
+        // Update the loader state.
+        int loaderBufferState = getLoaderBufferState(playbackPositionUs, nextLoadPositionUs);
+        LoaderState loaderState = loaderStates.get(loader);
+        boolean loaderStateChanged = loaderState.bufferState != loaderBufferState
+                || loaderState.nextLoadPositionUs != nextLoadPositionUs
+                || loaderState.loading != loading;
+        if (loaderStateChanged) {
+            loaderState.bufferState = loaderBufferState;
+            loaderState.nextLoadPositionUs = nextLoadPositionUs;
+            loaderState.loading = loading;
+        }
+
+        // Update the buffer state.
+        int allocatedSize = allocator.getTotalBytesAllocated();
+        int bufferPoolState = getBufferPoolState(allocatedSize);
+        boolean bufferPoolStateChanged = bufferState != bufferPoolState;
+        if (bufferPoolStateChanged) {
+            bufferState = bufferPoolState;
+        }
+
+        // If either of the individual states have changed, update the shared control state.
+        if (loaderStateChanged || bufferPoolStateChanged) {
+            updateControlState();
+        }
+
+        return allocatedSize < targetBufferSize && nextLoadPositionUs != -1
+                && nextLoadPositionUs <= maxLoadStartPositionUs;
+    }
+
+    private float getRampProgress() {
+        if (rebuffered) {
+            return 1f;
+        }
+        long rampStartTimeMs = this.rampStartTimeMs;
+        if (rampStartTimeMs == -1) {
+            return 0f;
+        }
+        if (rampDurationMs <= 0) {
+            return 1f;
+        }
+        long elapsedMs = SystemClock.elapsedRealtime() - rampStartTimeMs;
+        return elapsedMs >= rampDurationMs ? 1f : (float) elapsedMs / rampDurationMs;
+    }
+
+    private int getLoaderBufferState(long playbackPositionUs, long nextLoadPositionUs) {
+        if (nextLoadPositionUs == -1) {
+            return ABOVE_HIGH_WATERMARK;
+        }
+        float rampProgress = getRampProgress();
+        long lowWatermarkUs = startupLowWatermarkUs
+                + (long) ((this.lowWatermarkUs - startupLowWatermarkUs) * rampProgress);
+        long highWatermarkUs = startupHighWatermarkUs
+                + (long) ((this.highWatermarkUs - startupHighWatermarkUs) * rampProgress);
+        long timeUntilNextLoadPosition = nextLoadPositionUs - playbackPositionUs;
+        return timeUntilNextLoadPosition > highWatermarkUs ? ABOVE_HIGH_WATERMARK
+                : timeUntilNextLoadPosition < lowWatermarkUs ? BELOW_LOW_WATERMARK
+                : BETWEEN_WATERMARKS;
+    }
+
+    private int getBufferPoolState(int allocatedSize) {
+        float bufferLoad = (float) allocatedSize / targetBufferSize;
+        return bufferLoad > DefaultLoadControl.DEFAULT_HIGH_BUFFER_LOAD ? ABOVE_HIGH_WATERMARK
+                : bufferLoad < DefaultLoadControl.DEFAULT_LOW_BUFFER_LOAD ? BELOW_LOW_WATERMARK
+                : BETWEEN_WATERMARKS;
+    }
+
+    private void updateControlState() {
+        boolean loading = false;
+        boolean haveNextLoadPosition = false;
+        int highestState = bufferState;
+        for (int i = 0; i < loaders.size(); i++) {
+            LoaderState loaderState = loaderStates.get(loaders.get(i));
+            loading |= loaderState.loading;
+            haveNextLoadPosition |= loaderState.nextLoadPositionUs != -1;
+            highestState = Math.max(highestState, loaderState.bufferState);
+        }
+
+        fillingBuffers = !loaders.isEmpty() && (loading || haveNextLoadPosition)
+                && (highestState == BELOW_LOW_WATERMARK
+                || (highestState == BETWEEN_WATERMARKS && fillingBuffers));
+        if (fillingBuffers && !streamingPrioritySet) {
+            NetworkLock.instance.add(NetworkLock.STREAMING_PRIORITY);
+            streamingPrioritySet = true;
+            notifyLoadingChanged(true);
+        } else if (!fillingBuffers && streamingPrioritySet && !loading) {
+            NetworkLock.instance.remove(NetworkLock.STREAMING_PRIORITY);
+            streamingPrioritySet = false;
+            notifyLoadingChanged(false);
+        }
+
+        maxLoadStartPositionUs = -1;
+        if (fillingBuffers) {
+            for (int i = 0; i < loaders.size(); i++) {
+                Object loader = loaders.get(i);
+                LoaderState loaderState = loaderStates.get(loader);
+                long loaderTime = loaderState.nextLoadPositionUs;
+                if (loaderTime != -1
+                        && (maxLoadStartPositionUs == -1 || loaderTime < maxLoadStartPositionUs)) {
+                    maxLoadStartPositionUs = loaderTime;
+                }
+            }
+        }
+    }
+
+    private void notifyLoadingChanged(final boolean loading) {
+        if (eventHandler != null && eventListener != null) {
+            eventHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    eventListener.onLoadingChanged(loading);
+                }
+            });
+        }
+    }
+
+    private static class LoaderState {
+
+        public final int bufferSizeContribution;
+
+        public int bufferState;
+        public boolean loading;
+        public long nextLoadPositionUs;
+
+        public LoaderState(int bufferSizeContribution) {
+            this.bufferSizeContribution = bufferSizeContribution;
+            bufferState = ABOVE_HIGH_WATERMARK;
+            loading = false;
+            nextLoadPositionUs = -1;
+        }
+
+    }
+
+}
@@ -0,0 +1,316 @@
+package co.klar.android.exoplayerwrapper.upstream;
+
+import com.google.android.exoplayer.TimeRange;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.util.Clock;
+import com.google.android.exoplayer.util.SystemClock;
+
+import co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+
+/**
+ * An in-memory store of recently loaded media segments, bounded by age and by size.
+ * <p/>
+ * The sample sources discard media behind the playhead as soon as it has been played, so a
+ * backward seek or a replay loads the same segments again. With a back-buffer, those requests are
+ * served by {@link BackBufferDataSource} from memory instead of from the network.
+ * <p/>
+ * Segments are retained for the retention duration behind the playhead. To know where a segment
+ * ends, the back-buffer must be added as an {@link ExoPlayerWrapper.InfoListener} of the player
+ * and given the player's position with {@link #setPositionProvider(PositionProvider)}. The end of
+ * a segment is then taken from the load completion reported by the player, which is matched to
+ * the retained data by its source and size. Segments whose end is not known, such as
+ * initialization segments, and all segments without a position provider, expire once the
+ * retention duration has passed since they were loaded.
+ */
+public final class BackBuffer implements ExoPlayerWrapper.InfoListener {
+
+    /**
+     * Provides the playback position segments are retained behind.
+     */
+    public interface PositionProvider {
+
+        /**
+         * Returns the current playback position in milliseconds. Invoked on the loading threads.
+         */
+        long getCurrentPosition();
+
+    }
+
+    public static final long DEFAULT_RETENTION_MS = 60000;
+    public static final int DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    private final long retentionMs;
+    private final int maxBytes;
+    private final Clock clock;
+    private final LinkedHashMap<String, Entry> entries;
+    // Entries whose end is not known yet, in the order in which they were retained.
+    private final LinkedList<Entry> pendingEntries;
+
+    private PositionProvider positionProvider;
+    private int totalBytes;
+    private int hitCount;
+    private int missCount;
+    private long bytesServed;
+    private long memoryLoadTimeMs;
+    private int memoryLoadCount;
+    private long networkLoadTimeMs;
+    private int networkLoadCount;
+
+    public BackBuffer() {
+        this(DEFAULT_RETENTION_MS, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param retentionMs The duration of media retained behind the playback position.
+     * @param maxBytes    The maximum number of bytes retained. The least recently used segments are
+     *                    evicted first.
+     */
+    public BackBuffer(long retentionMs, int maxBytes) {
+        this(retentionMs, maxBytes, new SystemClock());
+    }
+
+    /**
+     * @param retentionMs The duration of media retained behind the playback position.
+     * @param maxBytes    The maximum number of bytes retained. The least recently used segments are
+     *                    evicted first.
+     * @param clock       The clock measuring the age of segments whose end is not known.
+     */
+    public BackBuffer(long retentionMs, int maxBytes, Clock clock) {
+        this.retentionMs = retentionMs;
+        this.maxBytes = maxBytes;
+        this.clock = clock;
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+        pendingEntries = new LinkedList<>();
+    }
+
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Sets the provider of the playback position, or null if there is no player. The retention of
+     * segments retained for a previous player restarts from now, as their media times refer to
+     * the previous playback.
+     */
+    public synchronized void setPositionProvider(PositionProvider positionProvider) {
+        if (this.positionProvider == positionProvider) {
+            return;
+        }
+        this.positionProvider = positionProvider;
+        long nowMs = clock.elapsedRealtime();
+        for (Entry entry : entries.values()) {
+            entry.mediaEndTimeMs = -1;
+            entry.storedAtMs = nowMs;
+        }
+        pendingEntries.clear();
+    }
+
+    /**
+     * Returns the retained data for a key, or null if there is none.
+     */
+    public synchronized byte[] get(String key) {
+        evictExpired();
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        bytesServed += entry.data.length;
+        return entry.data;
+    }
+
+    /**
+     * Retains data for a key. Data larger than the size limit is ignored.
+     *
+     * @param key      The key of the data.
+     * @param sourceId The {@link ExoPlayerWrapper} TYPE_* constant of the source that loaded the
+     *                 data, or -1 if unknown.
+     * @param data     The data.
+     */
+    public synchronized void put(String key, int sourceId, byte[] data) {
+        if (data.length > maxBytes) {
+            return;
+        }
+        Entry entry = new Entry(sourceId, data, clock.elapsedRealtime());
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            totalBytes -= previous.data.length;
+            pendingEntries.remove(previous);
+        }
+        totalBytes += data.length;
+        if (sourceId != -1 && positionProvider != null) {
+            pendingEntries.add(entry);
+        }
+        evictExpired();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            remove(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Drops all retained data.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        pendingEntries.clear();
+        totalBytes = 0;
+    }
+
+    /**
+     * Returns the time measured by the clock of the back-buffer.
+     */
+    /* package */ long elapsedRealtime() {
+        return clock.elapsedRealtime();
+    }
+
+    /**
+     * Invoked by {@link BackBufferDataSource} when a load has completed.
+     *
+     * @param fromMemory Whether the load was served from this back-buffer.
+     * @param loadTimeMs The time between opening and closing the data source.
+     */
+    /* package */ synchronized void onLoadCompleted(boolean fromMemory, long loadTimeMs) {
+        if (fromMemory) {
+            memoryLoadTimeMs += loadTimeMs;
+            memoryLoadCount++;
+        } else {
+            networkLoadTimeMs += loadTimeMs;
+            networkLoadCount++;
+        }
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getBytesServed() {
+        return bytesServed;
+    }
+
+    public synchronized int getRetainedBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Returns the average duration of the loads served from memory, or -1 if there were none.
+     */
+    public synchronized long getAverageMemoryLoadTimeMs() {
+        return memoryLoadCount == 0 ? -1 : memoryLoadTimeMs / memoryLoadCount;
+    }
+
+    /**
+     * Returns the average duration of the loads served from the network, or -1 if there were none.
+     */
+    public synchronized long getAverageNetworkLoadTimeMs() {
+        return networkLoadCount == 0 ? -1 : networkLoadTimeMs / networkLoadCount;
+    }
+
+    // ExoPlayerWrapper.InfoListener
+
+    @Override
+    public synchronized void onLoadCompleted(int sourceId, long bytesLoaded, int type, int trigger,
+                                             Format format, long mediaStartTimeMs,
+                                             long mediaEndTimeMs, long elapsedRealtimeMs,
+                                             long loadDurationMs) {
+        // The data is retained when the data source is closed, which precedes this callback.
+        Iterator<Entry> iterator = pendingEntries.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.sourceId == sourceId && entry.data.length == bytesLoaded) {
+                iterator.remove();
+                entry.mediaEndTimeMs = mediaEndTimeMs;
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void onVideoFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onAudioFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onDroppedFrames(int count, long elapsed) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onBandwidthSample(int elapsedMs, long bytes, long bitrateEstimate) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onLoadStarted(int sourceId, long length, int type, int trigger, Format format,
+                              long mediaStartTimeMs, long mediaEndTimeMs) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onDecoderInitialized(String decoderName, long elapsedRealtimeMs,
+                                     long initializationDurationMs) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onAvailableRangeChanged(int sourceId, TimeRange availableRange) {
+        // Do nothing.
+    }
+
+    private void evictExpired() {
+        long nowMs = clock.elapsedRealtime();
+        long positionMs = positionProvider == null ? -1 : positionProvider.getCurrentPosition();
+        // Entries are in access order, so expired entries are not necessarily at the head.
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            boolean expired = entry.mediaEndTimeMs == -1 || positionMs == -1
+                    ? nowMs - entry.storedAtMs > retentionMs
+                    : positionMs - entry.mediaEndTimeMs > retentionMs;
+            if (expired) {
+                remove(entry);
+                iterator.remove();
+            }
+        }
+    }
+
+    private void remove(Entry entry) {
+        totalBytes -= entry.data.length;
+        if (entry.mediaEndTimeMs == -1) {
+            pendingEntries.remove(entry);
+        }
+    }
+
+    private static final class Entry {
+
+        public final int sourceId;
+        public final byte[] data;
+
+        public long storedAtMs;
+        public long mediaEndTimeMs;
+
+        public Entry(int sourceId, byte[] data, long storedAtMs) {
+            this.sourceId = sourceId;
+            this.data = data;
+            this.storedAtMs = storedAtMs;
+            mediaEndTimeMs = -1;
+        }
+
+    }
+
+}
@@ -0,0 +1,122 @@
+package co.klar.android.exoplayerwrapper.upstream;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * A {@link UriDataSource} that serves repeated requests from a {@link BackBuffer} and retains the
+ * data of completed requests in it.
+ */
+public final class BackBufferDataSource implements UriDataSource {
+
+    private final BackBuffer backBuffer;
+    private final int sourceId;
+    private final UriDataSource dataSource;
+
+    private String key;
+    private Uri uri;
+    private byte[] retainedData;
+    private int readPosition;
+    private ByteArrayOutputStream output;
+    private long bytesRemaining;
+    private boolean endOfInput;
+    private long openTimeMs;
+
+    /**
+     * @param backBuffer The back-buffer to serve requests from.
+     * @param sourceId   The {@link co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper}
+     *                   TYPE_* constant of the source the data source loads for, or -1 if unknown.
+     * @param dataSource The data source used if a request is not retained.
+     */
+    public BackBufferDataSource(BackBuffer backBuffer, int sourceId, UriDataSource dataSource) {
+        this.backBuffer = backBuffer;
+        this.sourceId = sourceId;
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        openTimeMs = backBuffer.elapsedRealtime();
+        uri = dataSpec.uri;
+        key = uri + "@" + dataSpec.absoluteStreamPosition + '+' + dataSpec.length;
+        endOfInput = false;
+        retainedData = backBuffer.get(key);
+        if (retainedData != null) {
+            readPosition = 0;
+            return retainedData.length;
+        }
+        bytesRemaining = dataSource.open(dataSpec);
+        if (bytesRemaining == C.LENGTH_UNBOUNDED) {
+            output = new ByteArrayOutputStream();
+        } else if (bytesRemaining <= backBuffer.getMaxBytes()) {
+            output = new ByteArrayOutputStream((int) bytesRemaining);
+        } else {
+            // Too large to be retained.
+            output = null;
+        }
+        return bytesRemaining;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (retainedData != null) {
+            if (readPosition == retainedData.length) {
+                return C.RESULT_END_OF_INPUT;
+            }
+            int bytesToRead = Math.min(readLength, retainedData.length - readPosition);
+            System.arraycopy(retainedData, readPosition, buffer, offset, bytesToRead);
+            readPosition += bytesToRead;
+            return bytesToRead;
+        }
+        int bytesRead = dataSource.read(buffer, offset, readLength);
+        if (bytesRead == C.RESULT_END_OF_INPUT) {
+            endOfInput = true;
+            return bytesRead;
+        }
+        if (output != null) {
+            output.write(buffer, offset, bytesRead);
+            if (output.size() > backBuffer.getMaxBytes()) {
+                // Too large to be retained.
+                output = null;
+            }
+        }
+        if (bytesRemaining != C.LENGTH_UNBOUNDED) {
+            bytesRemaining -= bytesRead;
+            endOfInput = bytesRemaining == 0;
+        }
+        return bytesRead;
+    }
+
+    @Override
+    public String getUri() {
+        return retainedData != null ? uri.toString() : dataSource.getUri();
+    }
+
+    @Override
+    public void close() throws IOException {
+        boolean fromMemory = retainedData != null;
+        retainedData = null;
+        try {
+            if (!fromMemory) {
+                dataSource.close();
+            }
+        } finally {
+            if (!fromMemory && endOfInput && output != null) {
+                backBuffer.put(key, sourceId, output.toByteArray());
+            }
+            output = null;
+            if (key != null && (fromMemory || endOfInput)) {
+                backBuffer.onLoadCompleted(fromMemory,
+                        backBuffer.elapsedRealtime() - openTimeMs);
+            }
+            key = null;
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+package co.klar.android.exoplayerwrapper.upstream;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.TransferListener;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import java.io.IOException;
+
+import co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper;
+
+/**
+ * A {@link DataSourceFactory} that puts a {@link BackBuffer} in front of the media data sources of
+ * another factory. Manifests and HLS playlists are never retained, since they change over time
+ * for live streams.
+ */
+public class BackBufferDataSourceFactory implements DataSourceFactory {
+
+    private final DataSourceFactory dataSourceFactory;
+    private final BackBuffer backBuffer;
+
+    /**
+     * @param dataSourceFactory The factory creating the underlying data sources.
+     * @param backBuffer        The back-buffer shared by all created data sources.
+     */
+    public BackBufferDataSourceFactory(DataSourceFactory dataSourceFactory, BackBuffer backBuffer) {
+        this.dataSourceFactory = dataSourceFactory;
+        this.backBuffer = backBuffer;
+    }
+
+    @Override
+    public UriDataSource createDataSource(int sourceId, TransferListener listener) {
+        UriDataSource dataSource = dataSourceFactory.createDataSource(sourceId, listener);
+        if (sourceId == ExoPlayerWrapper.TYPE_MANIFEST) {
+            return dataSource;
+        }
+        return new PlaylistBypassingDataSource(new BackBufferDataSource(backBuffer, sourceId, dataSource),
+                dataSource);
+    }
+
+    public BackBuffer getBackBuffer() {
+        return backBuffer;
+    }
+
+    /**
+     * Sends HLS media playlist refreshes, which go through the same data source as the segments,
+     * around the back-buffer.
+     */
+    private static final class PlaylistBypassingDataSource implements UriDataSource {
+
+        private final UriDataSource backBufferDataSource;
+        private final UriDataSource dataSource;
+
+        private UriDataSource openedDataSource;
+
+        public PlaylistBypassingDataSource(UriDataSource backBufferDataSource,
+                                           UriDataSource dataSource) {
+            this.backBufferDataSource = backBufferDataSource;
+            this.dataSource = dataSource;
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            openedDataSource = isPlaylist(dataSpec.uri) ? dataSource : backBufferDataSource;
+            return openedDataSource.open(dataSpec);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            return openedDataSource.read(buffer, offset, readLength);
+        }
+
+        @Override
+        public String getUri() {
+            return openedDataSource == null ? null : openedDataSource.getUri();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (openedDataSource != null) {
+                try {
+                    openedDataSource.close();
+                } finally {
+                    openedDataSource = null;
+                }
+            }
+        }
+
+        private static boolean isPlaylist(Uri uri) {
+            String path = uri.getPath();
+            return path != null && path.endsWith(".m3u8");
+        }
+
+    }
+
+}
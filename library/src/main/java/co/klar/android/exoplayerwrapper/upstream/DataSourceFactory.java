@@ -0,0 +1,27 @@
+package co.klar.android.exoplayerwrapper.upstream;
+
+import com.google.android.exoplayer.upstream.TransferListener;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper;
+
+/**
+ * Creates the {@link UriDataSource}s used by the renderer builders for manifests and media.
+ * <p/>
+ * A single factory is meant to be shared by all builders, so that every stream type goes through
+ * the same connection policy.
+ */
+public interface DataSourceFactory {
+
+    /**
+     * Creates a new data source.
+     *
+     * @param sourceId The {@link ExoPlayerWrapper} TYPE_* constant of the stream that will be loaded
+     *                 through the data source, or {@link ExoPlayerWrapper#TYPE_MANIFEST} for
+     *                 manifests and playlists.
+     * @param listener An optional listener to be notified of transfers, typically the bandwidth
+     *                 meter. May be null.
+     * @return The data source.
+     */
+    UriDataSource createDataSource(int sourceId, TransferListener listener);
+}
@@ -0,0 +1,276 @@
+package co.klar.android.exoplayerwrapper.upstream;
+
+import java.io.InterruptedIOException;
+
+import co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper;
+
+/**
+ * Arbitrates the bandwidth between the concurrent video, audio, text and manifest loads of a
+ * player.
+ * <p/>
+ * Every stream has a priority. Audio and manifests are preferred over video, text and metadata
+ * are deferred, and a load whose media is needed within {@link #DEFAULT_NEAR_DEADLINE_MS} is
+ * promoted to {@link #PRIORITY_URGENT}. While a load of higher priority is in progress, lower
+ * priority loads are throttled to a fixed rate, and while the player rebuffers they are paused.
+ * A throttled or paused load resumes as soon as the higher priority loads end. Waits are bounded,
+ * so a low priority load is never starved indefinitely.
+ * <p/>
+ * Loads report to the scheduler through {@link ScheduledDataSource}. The scheduler is fed with
+ * the player state through {@link #setBufferCritical(boolean)} and
+ * {@link #setTimeUntilNeeded(int, long)}, which {@link ExoPlayerWrapper} does when a scheduler
+ * is set on it.
+ * <p/>
+ * Times are measured with {@link System#nanoTime()}, so the scheduler has no dependency on the
+ * Android framework.
+ */
+public final class DownloadScheduler {
+
+    public static final int PRIORITY_URGENT = 0;
+    public static final int PRIORITY_HIGH = 1;
+    public static final int PRIORITY_NORMAL = 2;
+    public static final int PRIORITY_LOW = 3;
+
+    public static final long DEFAULT_NEAR_DEADLINE_MS = 2000;
+    public static final long DEFAULT_MAX_WAIT_MS = 4000;
+    // 4 Mbit/s, which leaves most of the bandwidth to the higher priority load without starving
+    // the video of common bitrates.
+    public static final int DEFAULT_THROTTLED_BYTES_PER_SECOND = 512 * 1024;
+
+    private static final int SOURCE_COUNT = ExoPlayerWrapper.TYPE_MANIFEST + 1;
+    private static final long TIME_UNSET = Long.MAX_VALUE;
+
+    private final long nearDeadlineMs;
+    private final long maxWaitMs;
+    private final int throttledBytesPerSecond;
+    private final int[] activeTransferCounts;
+    private final long[] timeUntilNeededMs;
+
+    private boolean bufferCritical;
+
+    public DownloadScheduler() {
+        this(DEFAULT_NEAR_DEADLINE_MS, DEFAULT_MAX_WAIT_MS, DEFAULT_THROTTLED_BYTES_PER_SECOND);
+    }
+
+    /**
+     * @param nearDeadlineMs          Loads whose media is needed within this time are promoted to
+     *                                {@link #PRIORITY_URGENT}.
+     * @param maxWaitMs               The maximum time a load is deferred or paused at once.
+     * @param throttledBytesPerSecond The rate lower priority loads are limited to while a higher
+     *                                priority load is in progress.
+     */
+    public DownloadScheduler(long nearDeadlineMs, long maxWaitMs, int throttledBytesPerSecond) {
+        this.nearDeadlineMs = nearDeadlineMs;
+        this.maxWaitMs = maxWaitMs;
+        this.throttledBytesPerSecond = throttledBytesPerSecond;
+        activeTransferCounts = new int[SOURCE_COUNT];
+        timeUntilNeededMs = new long[SOURCE_COUNT];
+        for (int i = 0; i < SOURCE_COUNT; i++) {
+            timeUntilNeededMs[i] = TIME_UNSET;
+        }
+    }
+
+    /**
+     * Sets whether the playback buffer is critically low, in which case lower priority loads are
+     * paused rather than throttled. {@link ExoPlayerWrapper} sets it while the player rebuffers,
+     * but not while it buffers to start playback or after a seek, when all streams are needed.
+     */
+    public synchronized void setBufferCritical(boolean bufferCritical) {
+        if (this.bufferCritical != bufferCritical) {
+            this.bufferCritical = bufferCritical;
+            notifyAll();
+        }
+    }
+
+    public synchronized boolean isBufferCritical() {
+        return bufferCritical;
+    }
+
+    /**
+     * Sets how soon the media currently being loaded for a source is needed for playback.
+     *
+     * @param sourceId          The {@link ExoPlayerWrapper} TYPE_* constant of the source.
+     * @param timeUntilNeededMs The time until the media is needed, in milliseconds.
+     */
+    public synchronized void setTimeUntilNeeded(int sourceId, long timeUntilNeededMs) {
+        this.timeUntilNeededMs[sourceId] = timeUntilNeededMs;
+        notifyAll();
+    }
+
+    /**
+     * Clears the deadline set through {@link #setTimeUntilNeeded(int, long)}.
+     */
+    public synchronized void clearTimeUntilNeeded(int sourceId) {
+        timeUntilNeededMs[sourceId] = TIME_UNSET;
+        notifyAll();
+    }
+
+    /**
+     * Returns the current priority of a source.
+     *
+     * @param sourceId The {@link ExoPlayerWrapper} TYPE_* constant of the source.
+     * @return One of the PRIORITY_* constants.
+     */
+    public synchronized int getPriority(int sourceId) {
+        if (timeUntilNeededMs[sourceId] < nearDeadlineMs) {
+            return PRIORITY_URGENT;
+        }
+        switch (sourceId) {
+            case ExoPlayerWrapper.TYPE_AUDIO:
+            case ExoPlayerWrapper.TYPE_MANIFEST:
+                return PRIORITY_HIGH;
+            case ExoPlayerWrapper.TYPE_VIDEO:
+                return PRIORITY_NORMAL;
+            default:
+                return PRIORITY_LOW;
+        }
+    }
+
+    /**
+     * Invoked before a load is opened. Blocks while the load should be deferred.
+     *
+     * @param sourceId The {@link ExoPlayerWrapper} TYPE_* constant of the source.
+     * @return A token to pass to subsequent calls for the same load.
+     * @throws InterruptedIOException If the loading thread is interrupted while waiting.
+     */
+    public Transfer startTransfer(int sourceId) throws InterruptedIOException {
+        awaitTurn(sourceId);
+        synchronized (this) {
+            activeTransferCounts[sourceId]++;
+        }
+        return new Transfer(sourceId);
+    }
+
+    /**
+     * Invoked after data has been read for a load. Blocks while the load should be paused or
+     * throttled.
+     *
+     * @param transfer         The token returned by {@link #startTransfer(int)}.
+     * @param bytesTransferred The number of bytes read.
+     * @throws InterruptedIOException If the loading thread is interrupted while waiting.
+     */
+    public void onBytesTransferred(Transfer transfer, int bytesTransferred)
+            throws InterruptedIOException {
+        long nowMs = elapsedRealtime();
+        if (!isThrottled(transfer.sourceId)) {
+            transfer.windowStartMs = nowMs;
+            transfer.windowBytes = 0;
+            return;
+        }
+        if (isPaused(transfer.sourceId)) {
+            synchronized (this) {
+                activeTransferCounts[transfer.sourceId]--;
+            }
+            try {
+                awaitTurn(transfer.sourceId);
+            } finally {
+                synchronized (this) {
+                    activeTransferCounts[transfer.sourceId]++;
+                }
+            }
+            transfer.windowStartMs = elapsedRealtime();
+            transfer.windowBytes = 0;
+            return;
+        }
+        transfer.windowBytes += bytesTransferred;
+        long allowedElapsedMs = (transfer.windowBytes * 1000) / throttledBytesPerSecond;
+        long delayMs = Math.min(transfer.windowStartMs + allowedElapsedMs - nowMs, maxWaitMs);
+        if (delayMs > 0) {
+            awaitUnthrottled(transfer, delayMs);
+        }
+    }
+
+    /**
+     * Invoked when a load is closed.
+     *
+     * @param transfer The token returned by {@link #startTransfer(int)}.
+     */
+    public synchronized void endTransfer(Transfer transfer) {
+        activeTransferCounts[transfer.sourceId]--;
+        notifyAll();
+    }
+
+    /**
+     * Returns whether a load for the given source would currently be paused.
+     */
+    public synchronized boolean isPaused(int sourceId) {
+        int priority = getPriority(sourceId);
+        return isHigherPriorityActive(sourceId, priority)
+                && (bufferCritical || priority == PRIORITY_LOW);
+    }
+
+    /**
+     * Returns whether a load for the given source would currently be paused or throttled.
+     */
+    public synchronized boolean isThrottled(int sourceId) {
+        return isHigherPriorityActive(sourceId, getPriority(sourceId));
+    }
+
+    /**
+     * Waits for up to the given time, or until the load is no longer throttled, which
+     * {@link #endTransfer(Transfer)} of the higher priority load signals.
+     */
+    private synchronized void awaitUnthrottled(Transfer transfer, long delayMs)
+            throws InterruptedIOException {
+        long endTimeMs = elapsedRealtime() + delayMs;
+        long remainingMs = delayMs;
+        while (remainingMs > 0 && isThrottled(transfer.sourceId)) {
+            try {
+                wait(remainingMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            remainingMs = endTimeMs - elapsedRealtime();
+        }
+        if (!isThrottled(transfer.sourceId)) {
+            // Start a new window, so the load is not throttled for the bytes read until now.
+            transfer.windowStartMs = elapsedRealtime();
+            transfer.windowBytes = 0;
+        }
+    }
+
+    private synchronized void awaitTurn(int sourceId) throws InterruptedIOException {
+        long endTimeMs = elapsedRealtime() + maxWaitMs;
+        long remainingMs = maxWaitMs;
+        while (remainingMs > 0 && isPaused(sourceId)) {
+            try {
+                wait(remainingMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            remainingMs = endTimeMs - elapsedRealtime();
+        }
+    }
+
+    private static long elapsedRealtime() {
+        return System.nanoTime() / 1000000;
+    }
+
+    private boolean isHigherPriorityActive(int sourceId, int priority) {
+        for (int i = 0; i < SOURCE_COUNT; i++) {
+            if (i != sourceId && activeTransferCounts[i] > 0 && getPriority(i) < priority) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The state of a single load, as returned by {@link #startTransfer(int)}.
+     */
+    public static final class Transfer {
+
+        private final int sourceId;
+
+        private long windowStartMs;
+        private long windowBytes;
+
+        private Transfer(int sourceId) {
+            this.sourceId = sourceId;
+            windowStartMs = elapsedRealtime();
+        }
+
+    }
+
+}
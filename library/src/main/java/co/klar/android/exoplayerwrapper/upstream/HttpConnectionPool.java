@@ -0,0 +1,449 @@
+package co.klar.android.exoplayerwrapper.upstream;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.google.android.exoplayer.util.Clock;
+import com.google.android.exoplayer.util.SystemClock;
+
+import co.klar.android.exoplayerwrapper.util.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded pool of keep-alive HTTP connections shared by all {@link PooledHttpDataSource}s.
+ * <p/>
+ * The sockets themselves are pooled by the platform's {@link HttpURLConnection} implementation,
+ * which this class configures through the {@code http.keepAlive}, {@code http.maxConnections}
+ * and {@code http.keepAliveDuration} system properties. {@code http.maxConnections} limits the
+ * idle connections of the whole process, not of a single host. On top of that this class mirrors
+ * the platform pool's bookkeeping, so that every request can be classified as using a new or a
+ * reused connection, and it allows connections to be opened ahead of time through
+ * {@link #preconnect(String, String)}.
+ * <p/>
+ * The mirror cannot observe the platform pool, which may also close connections that the server
+ * closed, or pool connections of requests made outside this class. The connection counts are
+ * therefore estimates.
+ * <p/>
+ * {@link #hint(String, String)} preconnects for content that is likely to be requested soon. Hints
+ * are kept in a bounded table and expire, and the time to first byte of the first request to a
+ * hinted host is tracked separately from that of requests on new connections, so the benefit of
+ * hinting can be measured.
+ */
+public final class HttpConnectionPool {
+
+    /**
+     * Interface definition for a callback to be notified of {@link HttpConnectionPool} events.
+     * <p/>
+     * Callbacks are invoked on the thread performing the request, which is generally not the main
+     * thread.
+     */
+    public interface EventListener {
+
+        /**
+         * Invoked when the response headers of a request have been received.
+         *
+         * @param host               The host the request was sent to.
+         * @param connectionReused   Whether the request was sent on a pooled keep-alive connection.
+         * @param timeToFirstByteMs  The time between issuing the request and receiving the response
+         *                           headers, in milliseconds.
+         */
+        void onRequestOpened(String host, boolean connectionReused, long timeToFirstByteMs);
+
+        /**
+         * Invoked when a request made by a {@link PooledHttpDataSource} has been closed, whether it
+         * completed or failed.
+         *
+         * @param record The details of the request.
+         */
+        void onRequestCompleted(HttpRequestRecord record);
+    }
+
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 4;
+    public static final long DEFAULT_KEEP_ALIVE_MS = 5 * 60 * 1000;
+    /**
+     * The time for which a hint is valid, unless the keep-alive duration is shorter.
+     */
+    public static final long HINT_TTL_MS = 30 * 1000;
+
+    private static final String TAG = "HttpConnectionPool";
+    private static final int PRECONNECT_TIMEOUT_MS = 8000;
+    private static final int MAX_HINTS = 16;
+    // The preconnect thread exits once it has been idle for this long.
+    private static final long PRECONNECT_THREAD_KEEP_ALIVE_MS = 10 * 1000;
+
+    private static HttpConnectionPool defaultInstance;
+
+    private final int maxIdleConnections;
+    private final long keepAliveMs;
+    private final Clock clock;
+    private final HashMap<String, HostState> hostStates;
+    private final CopyOnWriteArrayList<EventListener> listeners;
+    private final LinkedHashMap<String, Long> hintExpiryTimesMs;
+    private final LatencyHistogram hintedTimeToFirstByteHistogram;
+    private final LatencyHistogram coldTimeToFirstByteHistogram;
+
+    private ThreadPoolExecutor preconnectExecutor;
+    private boolean released;
+    private int idleConnectionCount;
+    private int newConnectionCount;
+    private int reusedConnectionCount;
+    private int preconnectCount;
+
+    /**
+     * Returns the process wide pool, creating and installing it with default parameters if
+     * necessary.
+     */
+    public static synchronized HttpConnectionPool getDefault() {
+        if (defaultInstance == null) {
+            defaultInstance = new HttpConnectionPool(DEFAULT_MAX_IDLE_CONNECTIONS,
+                    DEFAULT_KEEP_ALIVE_MS);
+            defaultInstance.install();
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * @param maxIdleConnections The maximum number of idle keep-alive connections kept, across all
+     *                           hosts.
+     * @param keepAliveMs        The time an idle connection is kept open before it is evicted.
+     */
+    public HttpConnectionPool(int maxIdleConnections, long keepAliveMs) {
+        this(maxIdleConnections, keepAliveMs, new SystemClock());
+    }
+
+    /**
+     * @param maxIdleConnections The maximum number of idle keep-alive connections kept, across all
+     *                           hosts.
+     * @param keepAliveMs        The time an idle connection is kept open before it is evicted.
+     * @param clock              The clock used to expire idle connections and hints.
+     */
+    public HttpConnectionPool(int maxIdleConnections, long keepAliveMs, Clock clock) {
+        this.maxIdleConnections = maxIdleConnections;
+        this.keepAliveMs = keepAliveMs;
+        this.clock = clock;
+        hostStates = new HashMap<>();
+        listeners = new CopyOnWriteArrayList<>();
+        hintExpiryTimesMs = new LinkedHashMap<String, Long>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > MAX_HINTS;
+            }
+        };
+        hintedTimeToFirstByteHistogram = new LatencyHistogram();
+        coldTimeToFirstByteHistogram = new LatencyHistogram();
+    }
+
+    /**
+     * Applies the keep-alive policy of this pool to the platform {@link HttpURLConnection}
+     * implementation. Only has an effect if invoked before the first HTTP request of the process.
+     */
+    public void install() {
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", Integer.toString(maxIdleConnections));
+        System.setProperty("http.keepAliveDuration", Long.toString(keepAliveMs));
+    }
+
+    /**
+     * Stops the preconnect thread. Preconnects and hints made afterwards are ignored. The default
+     * pool lives as long as the process and should not be released.
+     */
+    public synchronized void release() {
+        released = true;
+        if (preconnectExecutor != null) {
+            preconnectExecutor.shutdown();
+            preconnectExecutor = null;
+        }
+    }
+
+    public void addEventListener(EventListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeEventListener(EventListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the estimated number of requests that had to open a new connection. Preconnects are
+     * not included.
+     */
+    public synchronized int getNewConnectionCount() {
+        return newConnectionCount;
+    }
+
+    /**
+     * Returns the estimated number of requests that were sent on a pooled keep-alive connection.
+     * Preconnects are not included.
+     */
+    public synchronized int getReusedConnectionCount() {
+        return reusedConnectionCount;
+    }
+
+    /**
+     * Returns the number of preconnect requests sent, including those made for hints.
+     */
+    public synchronized int getPreconnectCount() {
+        return preconnectCount;
+    }
+
+    /**
+     * Returns the estimated number of idle keep-alive connections currently held for the given
+     * host.
+     */
+    public synchronized int getIdleConnectionCount(String host) {
+        evictExpired(clock.elapsedRealtime());
+        HostState hostState = hostStates.get(host);
+        return hostState == null ? 0 : hostState.idleSinceMs.size();
+    }
+
+    /**
+     * Returns the histogram of the time to first byte of the first request to each hinted host,
+     * made while the hint was valid.
+     */
+    public LatencyHistogram getHintedTimeToFirstByteHistogram() {
+        return hintedTimeToFirstByteHistogram;
+    }
+
+    /**
+     * Returns the histogram of the time to first byte of requests to hosts that were not hinted
+     * and that had to open a new connection.
+     */
+    public LatencyHistogram getColdTimeToFirstByteHistogram() {
+        return coldTimeToFirstByteHistogram;
+    }
+
+    /**
+     * Hints that the given URL is likely to be requested soon, for example because the thumbnail
+     * of a video became visible. Preconnects to its host, unless the host has been hinted less
+     * than {@link #HINT_TTL_MS} ago. Only http(s) URLs are hinted.
+     *
+     * @param url       The URL likely to be requested.
+     * @param userAgent The user agent to send with the preconnect request.
+     */
+    public void hint(String url, String userAgent) {
+        Uri uri = Uri.parse(url);
+        String scheme = uri.getScheme();
+        String host = uri.getHost();
+        if (host == null || !("http".equals(scheme) || "https".equals(scheme))) {
+            return;
+        }
+        long nowMs = clock.elapsedRealtime();
+        synchronized (this) {
+            Long expiryTimeMs = hintExpiryTimesMs.get(host);
+            if (expiryTimeMs != null && expiryTimeMs > nowMs) {
+                return;
+            }
+            // A preconnected connection is evicted after the keep-alive duration.
+            hintExpiryTimesMs.put(host, nowMs + Math.min(HINT_TTL_MS, keepAliveMs));
+        }
+        preconnect(url, userAgent);
+    }
+
+    /**
+     * Opens a keep-alive connection to the host of the given URL on a background thread, so that
+     * the DNS lookup, TCP and TLS handshakes are done by the time the first real request is sent.
+     * Does nothing if an idle connection to the host is already available, or if the pool has
+     * been released.
+     *
+     * @param url       Any URL on the host to connect to.
+     * @param userAgent The user agent to send with the request.
+     */
+    public void preconnect(final String url, final String userAgent) {
+        ThreadPoolExecutor preconnectExecutor = getPreconnectExecutor();
+        if (preconnectExecutor == null) {
+            return;
+        }
+        final String host = Uri.parse(url).getHost();
+        if (host == null || getIdleConnectionCount(host) > 0) {
+            return;
+        }
+        preconnectExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean reused = acquirePreconnect(host);
+                boolean keepAlive = false;
+                HttpURLConnection connection = null;
+                long startTimeMs = clock.elapsedRealtime();
+                try {
+                    connection = (HttpURLConnection) new URL(url).openConnection();
+                    connection.setRequestMethod("HEAD");
+                    connection.setRequestProperty("User-Agent", userAgent);
+                    connection.setConnectTimeout(PRECONNECT_TIMEOUT_MS);
+                    connection.setReadTimeout(PRECONNECT_TIMEOUT_MS);
+                    connection.getResponseCode();
+                    // Drain the (empty) body so the connection is returned to the platform pool.
+                    InputStream inputStream = connection.getInputStream();
+                    while (inputStream.read() != -1) {
+                        // Do nothing.
+                    }
+                    inputStream.close();
+                    keepAlive = true;
+                    dispatchRequestOpened(host, reused,
+                            clock.elapsedRealtime() - startTimeMs);
+                } catch (IOException e) {
+                    Log.w(TAG, "Preconnect to " + host + " failed", e);
+                } finally {
+                    release(host, keepAlive);
+                }
+            }
+        });
+    }
+
+    /**
+     * Invoked before a request to the given host is sent.
+     *
+     * @param host The host of the request.
+     * @return Whether the request will be sent on a pooled keep-alive connection.
+     */
+    /* package */ synchronized boolean acquire(String host) {
+        boolean reused = acquireConnection(host);
+        if (reused) {
+            reusedConnectionCount++;
+        } else {
+            newConnectionCount++;
+        }
+        return reused;
+    }
+
+    private synchronized boolean acquirePreconnect(String host) {
+        preconnectCount++;
+        return acquireConnection(host);
+    }
+
+    private boolean acquireConnection(String host) {
+        evictExpired(clock.elapsedRealtime());
+        HostState hostState = hostStates.get(host);
+        if (hostState == null) {
+            hostState = new HostState();
+            hostStates.put(host, hostState);
+        }
+        hostState.activeCount++;
+        if (!hostState.idleSinceMs.isEmpty()) {
+            // The platform reuses the most recently used connection.
+            hostState.idleSinceMs.removeLast();
+            idleConnectionCount--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Invoked once a request to the given host has finished.
+     *
+     * @param host      The host of the request.
+     * @param keepAlive Whether the response was fully consumed, in which case the platform returns
+     *                  the connection to its pool.
+     */
+    /* package */ synchronized void release(String host, boolean keepAlive) {
+        HostState hostState = hostStates.get(host);
+        if (hostState == null) {
+            return;
+        }
+        hostState.activeCount--;
+        if (keepAlive) {
+            if (idleConnectionCount == maxIdleConnections) {
+                evictOldest();
+            }
+            hostState.idleSinceMs.addLast(clock.elapsedRealtime());
+            idleConnectionCount++;
+        }
+    }
+
+    /* package */ void onRequestOpened(String host, boolean connectionReused,
+                                       long timeToFirstByteMs) {
+        if (consumeHint(host)) {
+            hintedTimeToFirstByteHistogram.record(timeToFirstByteMs);
+        } else if (!connectionReused) {
+            coldTimeToFirstByteHistogram.record(timeToFirstByteMs);
+        }
+        dispatchRequestOpened(host, connectionReused, timeToFirstByteMs);
+    }
+
+    private void dispatchRequestOpened(String host, boolean connectionReused,
+                                       long timeToFirstByteMs) {
+        for (EventListener listener : listeners) {
+            listener.onRequestOpened(host, connectionReused, timeToFirstByteMs);
+        }
+    }
+
+    /* package */ boolean hasEventListeners() {
+        return !listeners.isEmpty();
+    }
+
+    /* package */ void onRequestCompleted(HttpRequestRecord record) {
+        for (EventListener listener : listeners) {
+            listener.onRequestCompleted(record);
+        }
+    }
+
+    private synchronized boolean consumeHint(String host) {
+        if (hintExpiryTimesMs.isEmpty()) {
+            return false;
+        }
+        Long expiryTimeMs = hintExpiryTimesMs.remove(host);
+        return expiryTimeMs != null && expiryTimeMs > clock.elapsedRealtime();
+    }
+
+    private void evictExpired(long nowMs) {
+        for (HostState hostState : hostStates.values()) {
+            while (!hostState.idleSinceMs.isEmpty()
+                    && nowMs - hostState.idleSinceMs.getFirst() >= keepAliveMs) {
+                hostState.idleSinceMs.removeFirst();
+                idleConnectionCount--;
+            }
+        }
+    }
+
+    private void evictOldest() {
+        // The platform pool evicts the connection idle for the longest time, whatever its host.
+        HostState oldestHostState = null;
+        for (HostState hostState : hostStates.values()) {
+            if (!hostState.idleSinceMs.isEmpty() && (oldestHostState == null
+                    || hostState.idleSinceMs.getFirst() < oldestHostState.idleSinceMs.getFirst())) {
+                oldestHostState = hostState;
+            }
+        }
+        if (oldestHostState != null) {
+            oldestHostState.idleSinceMs.removeFirst();
+            idleConnectionCount--;
+        }
+    }
+
+    /**
+     * Returns the executor running the preconnects, or null if the pool has been released.
+     */
+    private synchronized ThreadPoolExecutor getPreconnectExecutor() {
+        if (preconnectExecutor == null && !released) {
+            preconnectExecutor = new ThreadPoolExecutor(1, 1, PRECONNECT_THREAD_KEEP_ALIVE_MS,
+                    TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+            preconnectExecutor.allowCoreThreadTimeOut(true);
+        }
+        return preconnectExecutor;
+    }
+
+    private static final class HostState {
+
+        // The times at which the idle connections were returned, oldest first.
+        public final ArrayDeque<Long> idleSinceMs;
+
+        public int activeCount;
+
+        public HostState() {
+            idleSinceMs = new ArrayDeque<>();
+        }
+
+    }
+
+}
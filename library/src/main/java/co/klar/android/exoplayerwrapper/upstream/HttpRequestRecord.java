@@ -0,0 +1,79 @@
+package co.klar.android.exoplayerwrapper.upstream;
+
+import com.google.android.exoplayer.C;
+
+/**
+ * The details of a single http(s) request made by a {@link PooledHttpDataSource}.
+ */
+public final class HttpRequestRecord {
+
+    /**
+     * The source id of the data source that made the request, or -1 if unknown.
+     */
+    public final int sourceId;
+    /**
+     * The requested URL.
+     */
+    public final String url;
+    /**
+     * The URL the response was received from, which differs from {@link #url} if the request was
+     * redirected. Null if no response was received.
+     */
+    public final String responseUrl;
+    /**
+     * The offset of the first requested byte.
+     */
+    public final long position;
+    /**
+     * The number of requested bytes, or {@link C#LENGTH_UNBOUNDED} if the request was open ended.
+     */
+    public final long length;
+    /**
+     * The wall-clock time at which the request was started.
+     */
+    public final long startTimeMs;
+    /**
+     * The time until the response headers were received, or -1 if they were not.
+     */
+    public final long timeToFirstByteMs;
+    /**
+     * The time until the request was closed.
+     */
+    public final long totalTimeMs;
+    public final long bytesTransferred;
+    public final boolean connectionReused;
+    /**
+     * The http status code, or -1 if unknown.
+     */
+    public final int statusCode;
+    /**
+     * The error with which the request failed, or null.
+     */
+    public final String error;
+
+    public HttpRequestRecord(int sourceId, String url, String responseUrl, long position,
+                             long length, long startTimeMs, long timeToFirstByteMs,
+                             long totalTimeMs, long bytesTransferred, boolean connectionReused,
+                             int statusCode, String error) {
+        this.sourceId = sourceId;
+        this.url = url;
+        this.responseUrl = responseUrl;
+        this.position = position;
+        this.length = length;
+        this.startTimeMs = startTimeMs;
+        this.timeToFirstByteMs = timeToFirstByteMs;
+        this.totalTimeMs = totalTimeMs;
+        this.bytesTransferred = bytesTransferred;
+        this.connectionReused = connectionReused;
+        this.statusCode = statusCode;
+        this.error = error;
+    }
+
+    /**
+     * Returns whether the request was redirected.
+     */
+    public boolean isRedirected() {
+        return responseUrl != null && !responseUrl.equals(url);
+    }
+
+}
@@ -0,0 +1,68 @@
+package co.klar.android.exoplayerwrapper.upstream;
+
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.TransferListener;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import java.io.IOException;
+
+/**
+ * A {@link UriDataSource} that creates its underlying data source with a
+ * {@link DataSourceFactory} when it is first opened.
+ * <p/>
+ * Used for streams that are rarely loaded, such as text tracks that are disabled unless the user
+ * enables captions, so that sessions which never load them do not create their data sources.
+ */
+public final class LazyDataSource implements UriDataSource {
+
+    private final DataSourceFactory dataSourceFactory;
+    private final int sourceId;
+    private final TransferListener listener;
+
+    private UriDataSource dataSource;
+
+    /**
+     * @param dataSourceFactory The factory creating the underlying data source.
+     * @param sourceId          The source id passed to the factory.
+     * @param listener          The listener passed to the factory. May be null.
+     */
+    public LazyDataSource(DataSourceFactory dataSourceFactory, int sourceId,
+                          TransferListener listener) {
+        this.dataSourceFactory = dataSourceFactory;
+        this.sourceId = sourceId;
+        this.listener = listener;
+    }
+
+    /**
+     * Returns whether the underlying data source has been created.
+     */
+    public boolean isCreated() {
+        return dataSource != null;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        if (dataSource == null) {
+            dataSource = dataSourceFactory.createDataSource(sourceId, listener);
+        }
+        return dataSource.open(dataSpec);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        return dataSource.read(buffer, offset, readLength);
+    }
+
+    @Override
+    public String getUri() {
+        return dataSource == null ? null : dataSource.getUri();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+package co.klar.android.exoplayerwrapper.upstream;
+
+import android.content.Context;
+
+import com.google.android.exoplayer.upstream.DefaultHttpDataSource;
+import com.google.android.exoplayer.upstream.DefaultUriDataSource;
+import com.google.android.exoplayer.upstream.TransferListener;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+/**
+ * A {@link DataSourceFactory} whose http(s) requests all go through one shared
+ * {@link HttpConnectionPool}. Other URI schemes are handled as by {@link DefaultUriDataSource}.
+ */
+public class PooledDataSourceFactory implements DataSourceFactory {
+
+    private final Context context;
+    private final String userAgent;
+    private final HttpConnectionPool connectionPool;
+
+    /**
+     * Creates a factory backed by the {@link HttpConnectionPool#getDefault() default pool}.
+     *
+     * @param context   A context.
+     * @param userAgent The user agent sent with http(s) requests.
+     */
+    public PooledDataSourceFactory(Context context, String userAgent) {
+        this(context, userAgent, HttpConnectionPool.getDefault());
+    }
+
+    /**
+     * @param context        A context.
+     * @param userAgent      The user agent sent with http(s) requests.
+     * @param connectionPool The pool shared by all data sources created by this factory.
+     */
+    public PooledDataSourceFactory(Context context, String userAgent,
+                                   HttpConnectionPool connectionPool) {
+        this.context = context.getApplicationContext();
+        this.userAgent = userAgent;
+        this.connectionPool = connectionPool;
+    }
+
+    @Override
+    public UriDataSource createDataSource(int sourceId, TransferListener listener) {
+        UriDataSource httpDataSource = new PooledHttpDataSource(connectionPool,
+                new DefaultHttpDataSource(userAgent, null, listener,
+                        DefaultHttpDataSource.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                        DefaultHttpDataSource.DEFAULT_READ_TIMEOUT_MILLIS, false), sourceId);
+        return new DefaultUriDataSource(context, listener, httpDataSource);
+    }
+
+    public String getUserAgent() {
+        return userAgent;
+    }
+
+    public HttpConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * Opens a keep-alive connection to the host of the given URL ahead of the first request.
+     *
+     * @see HttpConnectionPool#preconnect(String, String)
+     */
+    public void preconnect(String url) {
+        connectionPool.preconnect(url, userAgent);
+    }
+
+}
@@ -0,0 +1,177 @@
+package co.klar.android.exoplayerwrapper.upstream;
+
+import android.os.SystemClock;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link UriDataSource} that wraps an http(s) data source and accounts each of its requests
+ * against an {@link HttpConnectionPool}.
+ * <p/>
+ * If the pool has event listeners, an {@link HttpRequestRecord} of each request is reported to
+ * them when the request is closed.
+ */
+public final class PooledHttpDataSource implements UriDataSource {
+
+    private final HttpConnectionPool connectionPool;
+    private final UriDataSource httpDataSource;
+    private final int sourceId;
+
+    private String host;
+    private long bytesRemaining;
+    private boolean endOfInput;
+
+    // Details of the current request, kept only if the pool has event listeners.
+    private boolean recording;
+    private String url;
+    private String responseUrl;
+    private long position;
+    private long length;
+    private long startTimeMs;
+    private long startElapsedTimeMs;
+    private long timeToFirstByteMs;
+    private long bytesTransferred;
+    private boolean connectionReused;
+    private int statusCode;
+    private String error;
+
+    /**
+     * @param connectionPool The pool the requests are accounted against.
+     * @param httpDataSource The data source performing the http(s) requests.
+     */
+    public PooledHttpDataSource(HttpConnectionPool connectionPool, UriDataSource httpDataSource) {
+        this(connectionPool, httpDataSource, -1);
+    }
+
+    /**
+     * @param connectionPool The pool the requests are accounted against.
+     * @param httpDataSource The data source performing the http(s) requests.
+     * @param sourceId       The source id reported in the {@link HttpRequestRecord}s.
+     */
+    public PooledHttpDataSource(HttpConnectionPool connectionPool, UriDataSource httpDataSource,
+                                int sourceId) {
+        this.connectionPool = connectionPool;
+        this.httpDataSource = httpDataSource;
+        this.sourceId = sourceId;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        host = dataSpec.uri.getHost();
+        endOfInput = false;
+        connectionReused = connectionPool.acquire(host);
+        recording = connectionPool.hasEventListeners();
+        if (recording) {
+            url = dataSpec.uri.toString();
+            responseUrl = null;
+            position = dataSpec.absoluteStreamPosition;
+            length = dataSpec.length;
+            startTimeMs = System.currentTimeMillis();
+            timeToFirstByteMs = -1;
+            bytesTransferred = 0;
+            statusCode = -1;
+            error = null;
+        }
+        startElapsedTimeMs = SystemClock.elapsedRealtime();
+        try {
+            bytesRemaining = httpDataSource.open(dataSpec);
+        } catch (IOException e) {
+            connectionPool.release(host, false);
+            host = null;
+            if (recording) {
+                if (e instanceof HttpDataSource.InvalidResponseCodeException) {
+                    statusCode = ((HttpDataSource.InvalidResponseCodeException) e).responseCode;
+                }
+                error = e.toString();
+                reportRequest();
+            }
+            throw e;
+        }
+        long elapsedMs = SystemClock.elapsedRealtime() - startElapsedTimeMs;
+        connectionPool.onRequestOpened(host, connectionReused, elapsedMs);
+        if (recording) {
+            timeToFirstByteMs = elapsedMs;
+            responseUrl = httpDataSource.getUri();
+            statusCode = getStatusCode();
+        }
+        return bytesRemaining;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        int bytesRead;
+        try {
+            bytesRead = httpDataSource.read(buffer, offset, readLength);
+        } catch (IOException e) {
+            if (recording) {
+                error = e.toString();
+            }
+            throw e;
+        }
+        if (bytesRead == C.RESULT_END_OF_INPUT) {
+            endOfInput = true;
+        } else {
+            bytesTransferred += bytesRead;
+            if (bytesRemaining != C.LENGTH_UNBOUNDED) {
+                bytesRemaining -= bytesRead;
+                endOfInput = bytesRemaining == 0;
+            }
+        }
+        return bytesRead;
+    }
+
+    @Override
+    public String getUri() {
+        return httpDataSource.getUri();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            httpDataSource.close();
+        } finally {
+            if (host != null) {
+                // The platform only keeps the connection alive if the response was fully consumed.
+                connectionPool.release(host, endOfInput);
+                host = null;
+                if (recording) {
+                    reportRequest();
+                }
+            }
+        }
+    }
+
+    private void reportRequest() {
+        recording = false;
+        connectionPool.onRequestCompleted(new HttpRequestRecord(sourceId, url, responseUrl,
+                position, length, startTimeMs, timeToFirstByteMs,
+                SystemClock.elapsedRealtime() - startElapsedTimeMs, bytesTransferred,
+                connectionReused, statusCode, error));
+    }
+
+    private int getStatusCode() {
+        if (!(httpDataSource instanceof HttpDataSource)) {
+            return -1;
+        }
+        Map<String, List<String>> headers = ((HttpDataSource) httpDataSource).getResponseHeaders();
+        // HttpURLConnection reports the status line under the null key, e.g. "HTTP/1.1 200 OK".
+        List<String> statusLine = headers == null ? null : headers.get(null);
+        if (statusLine == null || statusLine.isEmpty()) {
+            return -1;
+        }
+        String[] parts = statusLine.get(0).split(" ");
+        try {
+            return parts.length > 1 ? Integer.parseInt(parts[1]) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+}
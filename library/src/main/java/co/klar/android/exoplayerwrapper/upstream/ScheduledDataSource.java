@@ -0,0 +1,64 @@
+package co.klar.android.exoplayerwrapper.upstream;
+
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import java.io.IOException;
+
+/**
+ * A {@link UriDataSource} whose loads are deferred, throttled and paused by a
+ * {@link DownloadScheduler}.
+ */
+public final class ScheduledDataSource implements UriDataSource {
+
+    private final DownloadScheduler scheduler;
+    private final UriDataSource dataSource;
+    private final int sourceId;
+
+    private DownloadScheduler.Transfer transfer;
+
+    /**
+     * @param scheduler  The scheduler arbitrating the loads.
+     * @param dataSource The data source performing the loads.
+     * @param sourceId   The {@link co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper}
+     *                   TYPE_* constant of the stream loaded through this data source.
+     */
+    public ScheduledDataSource(DownloadScheduler scheduler, UriDataSource dataSource, int sourceId) {
+        this.scheduler = scheduler;
+        this.dataSource = dataSource;
+        this.sourceId = sourceId;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        transfer = scheduler.startTransfer(sourceId);
+        return dataSource.open(dataSpec);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        int bytesRead = dataSource.read(buffer, offset, readLength);
+        if (bytesRead > 0) {
+            scheduler.onBytesTransferred(transfer, bytesRead);
+        }
+        return bytesRead;
+    }
+
+    @Override
+    public String getUri() {
+        return dataSource.getUri();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            dataSource.close();
+        } finally {
+            if (transfer != null) {
+                scheduler.endTransfer(transfer);
+                transfer = null;
+            }
+        }
+    }
+
+}
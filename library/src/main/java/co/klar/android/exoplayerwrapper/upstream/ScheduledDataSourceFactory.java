@@ -0,0 +1,35 @@
+package co.klar.android.exoplayerwrapper.upstream;
+
+import com.google.android.exoplayer.upstream.TransferListener;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+/**
+ * A {@link DataSourceFactory} that puts the data sources of another factory under the control of
+ * a {@link DownloadScheduler}.
+ */
+public class ScheduledDataSourceFactory implements DataSourceFactory {
+
+    private final DataSourceFactory dataSourceFactory;
+    private final DownloadScheduler scheduler;
+
+    /**
+     * @param dataSourceFactory The factory creating the underlying data sources.
+     * @param scheduler         The scheduler arbitrating the loads of all created data sources.
+     */
+    public ScheduledDataSourceFactory(DataSourceFactory dataSourceFactory,
+                                      DownloadScheduler scheduler) {
+        this.dataSourceFactory = dataSourceFactory;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public UriDataSource createDataSource(int sourceId, TransferListener listener) {
+        return new ScheduledDataSource(scheduler,
+                dataSourceFactory.createDataSource(sourceId, listener), sourceId);
+    }
+
+    public DownloadScheduler getScheduler() {
+        return scheduler;
+    }
+
+}
@@ -0,0 +1,258 @@
+package co.klar.android.exoplayerwrapper.util;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer.ExoPlayer;
+import com.google.android.exoplayer.TimeRange;
+import com.google.android.exoplayer.chunk.Format;
+
+import co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper;
+
+/**
+ * Samples how much media is buffered ahead of the playback position, for video and for audio, at a
+ * fixed interval.
+ * <p/>
+ * The buffered-ahead duration of a source is derived from the end of the last media chunk it
+ * loaded. Sources that do not report loads, such as extractor based playbacks, fall back to the
+ * player's buffered position, which covers all renderers. Samples are kept in primitive ring
+ * buffers, so sampling does not allocate, and the current value, the range over a window and the
+ * slope can be read cheaply by the UI, adaptation logic and metrics. The sampler is reset when the
+ * player is prepared again, and follows media discarded from the end of the buffer.
+ * <p/>
+ * Must be used on the thread on which the player's listeners are invoked.
+ */
+public final class BufferHealthSampler implements ExoPlayerWrapper.InfoListener,
+        ExoPlayerWrapper.SeekListener, ExoPlayerWrapper.BufferListener, Runnable {
+
+    public static final int DEFAULT_INTERVAL_MS = 250;
+    public static final int DEFAULT_CAPACITY = 240;
+
+    private final ExoPlayerWrapper player;
+    private final Handler handler;
+    private final int intervalMs;
+    private final BufferHealthWindow window;
+    private final long[] loadedEndTimesMs;
+
+    private boolean started;
+
+    public BufferHealthSampler(ExoPlayerWrapper player) {
+        this(player, DEFAULT_INTERVAL_MS, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param player     The player to sample.
+     * @param intervalMs The interval between samples.
+     * @param capacity   The number of samples retained, which bounds the window over which
+     *                   statistics can be computed.
+     */
+    public BufferHealthSampler(ExoPlayerWrapper player, int intervalMs, int capacity) {
+        this.player = player;
+        this.intervalMs = intervalMs;
+        handler = new Handler();
+        window = new BufferHealthWindow(capacity);
+        loadedEndTimesMs = new long[ExoPlayerWrapper.RENDERER_COUNT];
+        resetLoadedEndTimes();
+    }
+
+    /**
+     * Starts sampling, and registers the sampler as a listener of the player.
+     */
+    public void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        player.addInfoListener(this);
+        player.addSeekListener(this);
+        player.addBufferListener(this);
+        handler.post(this);
+    }
+
+    /**
+     * Stops sampling. Retained samples remain available.
+     */
+    public void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        player.removeInfoListener(this);
+        player.removeSeekListener(this);
+        player.removeBufferListener(this);
+        handler.removeCallbacks(this);
+    }
+
+    /**
+     * Discards all samples and loads seen so far. Invoked when the player is prepared again.
+     */
+    public void reset() {
+        window.clear();
+        resetLoadedEndTimes();
+    }
+
+    public int getIntervalMs() {
+        return intervalMs;
+    }
+
+    /**
+     * Returns the buffered-ahead duration of the most recent sample, or -1 if there is none.
+     *
+     * @param type {@link ExoPlayerWrapper#TYPE_VIDEO} or {@link ExoPlayerWrapper#TYPE_AUDIO}.
+     */
+    public int getBufferedAheadMs(int type) {
+        return window.getBufferedAheadMs(type);
+    }
+
+    /**
+     * Returns the smallest buffered-ahead duration sampled within a window, or -1 if there are no
+     * samples in the window.
+     *
+     * @param type     {@link ExoPlayerWrapper#TYPE_VIDEO} or {@link ExoPlayerWrapper#TYPE_AUDIO}.
+     * @param windowMs The duration of the window, ending with the most recent sample.
+     */
+    public int getMinBufferedAheadMs(int type, long windowMs) {
+        return window.getMinBufferedAheadMs(type, windowMs);
+    }
+
+    /**
+     * Returns the largest buffered-ahead duration sampled within a window, or -1 if there are no
+     * samples in the window.
+     *
+     * @param type     {@link ExoPlayerWrapper#TYPE_VIDEO} or {@link ExoPlayerWrapper#TYPE_AUDIO}.
+     * @param windowMs The duration of the window, ending with the most recent sample.
+     */
+    public int getMaxBufferedAheadMs(int type, long windowMs) {
+        return window.getMaxBufferedAheadMs(type, windowMs);
+    }
+
+    /**
+     * Returns the rate at which the buffered-ahead duration changed within a window, as the least
+     * squares slope of the samples. A negative value means the buffer is draining: during playback
+     * without any loads, the slope is about -1000 milliseconds per second.
+     *
+     * @param type     {@link ExoPlayerWrapper#TYPE_VIDEO} or {@link ExoPlayerWrapper#TYPE_AUDIO}.
+     * @param windowMs The duration of the window, ending with the most recent sample.
+     * @return The slope in milliseconds of media per second, or 0 if there are fewer than two
+     * samples in the window.
+     */
+    public float getSlope(int type, long windowMs) {
+        return window.getSlope(type, windowMs);
+    }
+
+    /**
+     * Returns an estimate of the time until the buffer of a source runs dry, extrapolating the
+     * slope over a window, or -1 if the buffer is not draining.
+     *
+     * @param type     {@link ExoPlayerWrapper#TYPE_VIDEO} or {@link ExoPlayerWrapper#TYPE_AUDIO}.
+     * @param windowMs The duration of the window, ending with the most recent sample.
+     */
+    public long getTimeUntilStallMs(int type, long windowMs) {
+        return window.getTimeUntilStallMs(type, windowMs);
+    }
+
+    // Runnable
+
+    @Override
+    public void run() {
+        sample(SystemClock.elapsedRealtime());
+        if (started) {
+            handler.postDelayed(this, intervalMs);
+        }
+    }
+
+    // ExoPlayerWrapper.InfoListener
+
+    @Override
+    public void onLoadCompleted(int sourceId, long bytesLoaded, int type, int trigger, Format format,
+                                long mediaStartTimeMs, long mediaEndTimeMs, long elapsedRealtimeMs,
+                                long loadDurationMs) {
+        if ((sourceId == ExoPlayerWrapper.TYPE_VIDEO || sourceId == ExoPlayerWrapper.TYPE_AUDIO)
+                && mediaEndTimeMs > loadedEndTimesMs[sourceId]) {
+            loadedEndTimesMs[sourceId] = mediaEndTimeMs;
+        }
+    }
+
+    @Override
+    public void onVideoFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onAudioFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onDroppedFrames(int count, long elapsed) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onBandwidthSample(int elapsedMs, long bytes, long bitrateEstimate) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onLoadStarted(int sourceId, long length, int type, int trigger, Format format,
+                              long mediaStartTimeMs, long mediaEndTimeMs) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onDecoderInitialized(String decoderName, long elapsedRealtimeMs,
+                                     long initializationDurationMs) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onAvailableRangeChanged(int sourceId, TimeRange availableRange) {
+        // Do nothing.
+    }
+
+    // ExoPlayerWrapper.SeekListener
+
+    @Override
+    public void onSeek(long positionMs) {
+        resetLoadedEndTimes();
+    }
+
+    // ExoPlayerWrapper.BufferListener
+
+    @Override
+    public void onBufferReset() {
+        reset();
+    }
+
+    @Override
+    public void onUpstreamDiscarded(int sourceId, long mediaStartTimeMs, long mediaEndTimeMs) {
+        if ((sourceId == ExoPlayerWrapper.TYPE_VIDEO || sourceId == ExoPlayerWrapper.TYPE_AUDIO)
+                && loadedEndTimesMs[sourceId] > mediaStartTimeMs) {
+            // The buffer now ends where the discarded media started.
+            loadedEndTimesMs[sourceId] = mediaStartTimeMs;
+        }
+    }
+
+    private void sample(long nowMs) {
+        long positionMs = player.getCurrentPosition();
+        long bufferedPositionMs = player.getBufferedPosition();
+        int fallbackAheadMs = bufferedPositionMs == ExoPlayer.UNKNOWN_TIME ? 0
+                : (int) Math.max(0, bufferedPositionMs - positionMs);
+        window.add(nowMs,
+                getBufferedAheadMs(ExoPlayerWrapper.TYPE_VIDEO, positionMs, fallbackAheadMs),
+                getBufferedAheadMs(ExoPlayerWrapper.TYPE_AUDIO, positionMs, fallbackAheadMs));
+    }
+
+    private int getBufferedAheadMs(int type, long positionMs, int fallbackAheadMs) {
+        long loadedEndTimeMs = loadedEndTimesMs[type];
+        return loadedEndTimeMs == -1 ? fallbackAheadMs
+                : (int) Math.max(0, loadedEndTimeMs - positionMs);
+    }
+
+    private void resetLoadedEndTimes() {
+        for (int i = 0; i < loadedEndTimesMs.length; i++) {
+            loadedEndTimesMs[i] = -1;
+        }
+    }
+
+}
@@ -0,0 +1,152 @@
+package co.klar.android.exoplayerwrapper.util;
+
+import co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper;
+
+/**
+ * The samples of a {@link BufferHealthSampler}: a ring buffer of buffered-ahead durations for
+ * video and for audio, and the statistics computed over a window of the most recent samples.
+ */
+/* package */ final class BufferHealthWindow {
+
+    private final int capacity;
+    private final long[] sampleTimesMs;
+    private final int[] videoBufferedAheadMs;
+    private final int[] audioBufferedAheadMs;
+
+    private int writeIndex;
+    private int sampleCount;
+
+    /**
+     * @param capacity The number of samples retained.
+     */
+    public BufferHealthWindow(int capacity) {
+        this.capacity = capacity;
+        sampleTimesMs = new long[capacity];
+        videoBufferedAheadMs = new int[capacity];
+        audioBufferedAheadMs = new int[capacity];
+    }
+
+    /**
+     * Adds a sample, overwriting the oldest one if the window is full.
+     */
+    public void add(long timeMs, int videoBufferedAheadMs, int audioBufferedAheadMs) {
+        sampleTimesMs[writeIndex] = timeMs;
+        this.videoBufferedAheadMs[writeIndex] = videoBufferedAheadMs;
+        this.audioBufferedAheadMs[writeIndex] = audioBufferedAheadMs;
+        writeIndex = (writeIndex + 1) % capacity;
+        sampleCount = Math.min(sampleCount + 1, capacity);
+    }
+
+    /**
+     * Discards all samples.
+     */
+    public void clear() {
+        writeIndex = 0;
+        sampleCount = 0;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Returns the buffered-ahead duration of the most recent sample, or -1 if there is none.
+     */
+    public int getBufferedAheadMs(int type) {
+        return sampleCount == 0 ? -1 : getSamples(type)[(writeIndex - 1 + capacity) % capacity];
+    }
+
+    /**
+     * Returns the smallest buffered-ahead duration sampled within a window, or -1 if there are no
+     * samples in the window.
+     */
+    public int getMinBufferedAheadMs(int type, long windowMs) {
+        int[] samples = getSamples(type);
+        int count = getWindowSampleCount(windowMs);
+        int min = -1;
+        for (int i = 0; i < count; i++) {
+            int value = samples[(writeIndex - 1 - i + capacity) % capacity];
+            if (min == -1 || value < min) {
+                min = value;
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Returns the largest buffered-ahead duration sampled within a window, or -1 if there are no
+     * samples in the window.
+     */
+    public int getMaxBufferedAheadMs(int type, long windowMs) {
+        int[] samples = getSamples(type);
+        int count = getWindowSampleCount(windowMs);
+        int max = -1;
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, samples[(writeIndex - 1 - i + capacity) % capacity]);
+        }
+        return max;
+    }
+
+    /**
+     * Returns the least squares slope of the samples within a window, in milliseconds of media per
+     * second, or 0 if there are fewer than two samples in the window.
+     */
+    public float getSlope(int type, long windowMs) {
+        int[] samples = getSamples(type);
+        int count = getWindowSampleCount(windowMs);
+        if (count < 2) {
+            return 0;
+        }
+        long baseTimeMs = sampleTimesMs[(writeIndex - 1 + capacity) % capacity];
+        double sumT = 0;
+        double sumV = 0;
+        double sumTT = 0;
+        double sumTV = 0;
+        for (int i = 0; i < count; i++) {
+            int index = (writeIndex - 1 - i + capacity) % capacity;
+            double t = (sampleTimesMs[index] - baseTimeMs) / 1000d;
+            double v = samples[index];
+            sumT += t;
+            sumV += v;
+            sumTT += t * t;
+            sumTV += t * v;
+        }
+        double denominator = count * sumTT - sumT * sumT;
+        return denominator == 0 ? 0 : (float) ((count * sumTV - sumT * sumV) / denominator);
+    }
+
+    /**
+     * Returns an estimate of the time until the buffer runs dry, extrapolating the slope over a
+     * window, or -1 if the buffer is not draining.
+     */
+    public long getTimeUntilStallMs(int type, long windowMs) {
+        float slope = getSlope(type, windowMs);
+        int bufferedAheadMs = getBufferedAheadMs(type);
+        if (slope >= 0 || bufferedAheadMs == -1) {
+            return -1;
+        }
+        return (long) (bufferedAheadMs * 1000 / -slope);
+    }
+
+    /**
+     * Returns the number of samples taken at most a window before the most recent sample.
+     */
+    public int getWindowSampleCount(long windowMs) {
+        if (sampleCount == 0) {
+            return 0;
+        }
+        long newestTimeMs = sampleTimesMs[(writeIndex - 1 + capacity) % capacity];
+        int count = 0;
+        while (count < sampleCount
+                && newestTimeMs - sampleTimesMs[(writeIndex - 1 - count + capacity) % capacity]
+                <= windowMs) {
+            count++;
+        }
+        return count;
+    }
+
+    private int[] getSamples(int type) {
+        return type == ExoPlayerWrapper.TYPE_AUDIO ? audioBufferedAheadMs : videoBufferedAheadMs;
+    }
+
+}
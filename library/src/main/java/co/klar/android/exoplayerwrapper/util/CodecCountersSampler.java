@@ -0,0 +1,223 @@
+package co.klar.android.exoplayerwrapper.util;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer.CodecCounters;
+
+import co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper;
+
+/**
+ * Snapshots the {@link CodecCounters} of the video and audio renderers of a player at a fixed
+ * interval, and computes the change of each counter over the last interval, from which the render
+ * rate and the decoder throughput are derived.
+ * <p/>
+ * Snapshots are copied into preallocated arrays, so sampling does not allocate. If the renderers
+ * are rebuilt, the baseline of the new counters is taken on the next sample.
+ * <p/>
+ * Must be used on the thread on which the player's listeners are invoked.
+ */
+public final class CodecCountersSampler implements Runnable {
+
+    /**
+     * Receives the result of each sample.
+     */
+    public interface Listener {
+
+        /**
+         * Invoked for each renderer with codec counters, each time the counters are sampled.
+         *
+         * @param type                  {@link ExoPlayerWrapper#TYPE_VIDEO} or
+         *                              {@link ExoPlayerWrapper#TYPE_AUDIO}.
+         * @param elapsedMs             The duration of the interval.
+         * @param renderedOutputBuffers The number of output buffers rendered during the interval.
+         * @param inputBuffers          The number of input buffers queued during the interval.
+         */
+        void onCodecCountersSampled(int type, long elapsedMs, int renderedOutputBuffers,
+                                    int inputBuffers);
+
+    }
+
+    public static final int COUNTER_CODEC_INIT = 0;
+    public static final int COUNTER_CODEC_RELEASE = 1;
+    public static final int COUNTER_INPUT_BUFFER = 2;
+    public static final int COUNTER_OUTPUT_FORMAT_CHANGED = 3;
+    public static final int COUNTER_OUTPUT_BUFFERS_CHANGED = 4;
+    public static final int COUNTER_RENDERED_OUTPUT_BUFFER = 5;
+    public static final int COUNTER_SKIPPED_OUTPUT_BUFFER = 6;
+    public static final int COUNTER_DROPPED_OUTPUT_BUFFER = 7;
+    public static final int COUNTER_COUNT = 8;
+
+    public static final int DEFAULT_INTERVAL_MS = 1000;
+
+    private static final int TYPE_COUNT = ExoPlayerWrapper.TYPE_AUDIO + 1;
+
+    private final ExoPlayerWrapper player;
+    private final Handler handler;
+    private final int intervalMs;
+    private final CodecCounters[] sampledCounters;
+    private final int[][] lastValues;
+    private final int[][] deltas;
+    private final long[] lastSampleTimesMs;
+    private final long[] elapsedMs;
+
+    private Listener listener;
+    private boolean started;
+
+    public CodecCountersSampler(ExoPlayerWrapper player) {
+        this(player, DEFAULT_INTERVAL_MS);
+    }
+
+    /**
+     * @param player     The player to sample.
+     * @param intervalMs The interval between samples.
+     */
+    public CodecCountersSampler(ExoPlayerWrapper player, int intervalMs) {
+        this.player = player;
+        this.intervalMs = intervalMs;
+        handler = new Handler();
+        sampledCounters = new CodecCounters[TYPE_COUNT];
+        lastValues = new int[TYPE_COUNT][COUNTER_COUNT];
+        deltas = new int[TYPE_COUNT][COUNTER_COUNT];
+        lastSampleTimesMs = new long[TYPE_COUNT];
+        elapsedMs = new long[TYPE_COUNT];
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts sampling.
+     */
+    public void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        handler.post(this);
+    }
+
+    /**
+     * Stops sampling. The results of the last sample remain available.
+     */
+    public void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        handler.removeCallbacks(this);
+    }
+
+    public int getIntervalMs() {
+        return intervalMs;
+    }
+
+    /**
+     * Returns the change of a counter over the last sampled interval.
+     *
+     * @param type    {@link ExoPlayerWrapper#TYPE_VIDEO} or {@link ExoPlayerWrapper#TYPE_AUDIO}.
+     * @param counter One of the COUNTER_* constants.
+     */
+    public int getDelta(int type, int counter) {
+        return deltas[type][counter];
+    }
+
+    /**
+     * Returns the value of a counter at the last sample.
+     *
+     * @param type    {@link ExoPlayerWrapper#TYPE_VIDEO} or {@link ExoPlayerWrapper#TYPE_AUDIO}.
+     * @param counter One of the COUNTER_* constants.
+     */
+    public int getValue(int type, int counter) {
+        return lastValues[type][counter];
+    }
+
+    /**
+     * Returns the number of output buffers rendered per second over the last sampled interval,
+     * which for video is the render frame rate.
+     *
+     * @param type {@link ExoPlayerWrapper#TYPE_VIDEO} or {@link ExoPlayerWrapper#TYPE_AUDIO}.
+     */
+    public float getRenderedPerSecond(int type) {
+        return getRate(type, COUNTER_RENDERED_OUTPUT_BUFFER);
+    }
+
+    /**
+     * Returns the number of input buffers queued to the decoder per second over the last sampled
+     * interval.
+     *
+     * @param type {@link ExoPlayerWrapper#TYPE_VIDEO} or {@link ExoPlayerWrapper#TYPE_AUDIO}.
+     */
+    public float getInputBuffersPerSecond(int type) {
+        return getRate(type, COUNTER_INPUT_BUFFER);
+    }
+
+    // Runnable
+
+    @Override
+    public void run() {
+        long nowMs = SystemClock.elapsedRealtime();
+        sample(ExoPlayerWrapper.TYPE_VIDEO, player.getVideoCodecCounters(), nowMs);
+        sample(ExoPlayerWrapper.TYPE_AUDIO, player.getAudioCodecCounters(), nowMs);
+        if (started) {
+            handler.postDelayed(this, intervalMs);
+        }
+    }
+
+    private void sample(int type, CodecCounters counters, long nowMs) {
+        int[] values = lastValues[type];
+        int[] typeDeltas = deltas[type];
+        if (counters == null) {
+            sampledCounters[type] = null;
+            elapsedMs[type] = 0;
+            for (int i = 0; i < COUNTER_COUNT; i++) {
+                typeDeltas[i] = 0;
+            }
+            return;
+        }
+        counters.ensureUpdated();
+        boolean baseline = counters != sampledCounters[type];
+        sampledCounters[type] = counters;
+        for (int i = 0; i < COUNTER_COUNT; i++) {
+            int value = getCounter(counters, i);
+            typeDeltas[i] = baseline ? 0 : value - values[i];
+            values[i] = value;
+        }
+        elapsedMs[type] = baseline ? 0 : nowMs - lastSampleTimesMs[type];
+        lastSampleTimesMs[type] = nowMs;
+        if (!baseline && listener != null) {
+            listener.onCodecCountersSampled(type, elapsedMs[type],
+                    typeDeltas[COUNTER_RENDERED_OUTPUT_BUFFER], typeDeltas[COUNTER_INPUT_BUFFER]);
+        }
+    }
+
+    private float getRate(int type, int counter) {
+        long elapsed = elapsedMs[type];
+        return elapsed == 0 ? 0 : deltas[type][counter] * 1000f / elapsed;
+    }
+
+    private static int getCounter(CodecCounters counters, int counter) {
+        switch (counter) {
+            case COUNTER_CODEC_INIT:
+                return counters.codecInitCount;
+            case COUNTER_CODEC_RELEASE:
+                return counters.codecReleaseCount;
+            case COUNTER_INPUT_BUFFER:
+                return counters.inputBufferCount;
+            case COUNTER_OUTPUT_FORMAT_CHANGED:
+                return counters.outputFormatChangedCount;
+            case COUNTER_OUTPUT_BUFFERS_CHANGED:
+                return counters.outputBuffersChangedCount;
+            case COUNTER_RENDERED_OUTPUT_BUFFER:
+                return counters.renderedOutputBufferCount;
+            case COUNTER_SKIPPED_OUTPUT_BUFFER:
+                return counters.skippedOutputBufferCount;
+            case COUNTER_DROPPED_OUTPUT_BUFFER:
+                return counters.droppedOutputBufferCount;
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+}
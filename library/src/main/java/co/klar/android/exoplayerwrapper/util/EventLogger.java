@@ -4,14 +4,14 @@ import android.media.MediaCodec;
 import android.os.SystemClock;
 import android.util.Log;
 
-import com.google.android.exoplayer.ExoPlayer;
 import com.google.android.exoplayer.MediaCodecTrackRenderer;
 import com.google.android.exoplayer.TimeRange;
 import com.google.android.exoplayer.audio.AudioTrack;
 import com.google.android.exoplayer.chunk.Format;
-import com.google.android.exoplayer.util.VerboseLogUtil;
 
 import co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper;
+import co.klar.android.exoplayerwrapper.upstream.HttpConnectionPool;
+import co.klar.android.exoplayerwrapper.upstream.HttpRequestRecord;
 
 import java.io.IOException;
 import java.text.NumberFormat;
@@ -21,7 +21,9 @@ import java.util.Locale;
  * Created by cklar on 23.09.15.
  */
 public class EventLogger implements ExoPlayerWrapper.Listener, ExoPlayerWrapper.InfoListener,
-        ExoPlayerWrapper.InternalErrorListener {
+        ExoPlayerWrapper.InternalErrorListener, ExoPlayerWrapper.StartupListener,
+        ExoPlayerWrapper.SeekListener, StallClassifier.Listener, HttpConnectionPool.EventListener,
+        CodecCountersSampler.Listener, JankMonitor.Listener {
 
     private static final String TAG = "EventLogger";
     private static final NumberFormat TIME_FORMAT;
@@ -32,29 +34,56 @@ public class EventLogger implements ExoPlayerWrapper.Listener, ExoPlayerWrapper.
         TIME_FORMAT.setMaximumFractionDigits(2);
     }
 
+    private final EventRecorder recorder;
+
     private long sessionStartTimeMs;
-    private long[] loadStartTimeMs;
     private long[] availableRangeValuesUs;
 
     public EventLogger() {
-        loadStartTimeMs = new long[ExoPlayerWrapper.RENDERER_COUNT];
+        this(new EventRecorder());
+    }
+
+    /**
+     * @param recorder The recorder to which frequent events are written. They are only formatted
+     *                 and logged when the session ends, to avoid creating garbage on every chunk
+     *                 load.
+     */
+    public EventLogger(EventRecorder recorder) {
+        this.recorder = recorder;
     }
 
     public void startSession() {
         sessionStartTimeMs = SystemClock.elapsedRealtime();
+        recorder.clear();
         Log.d(TAG, "start [0]");
     }
 
     public void endSession() {
+        for (String line : dump().split("\n")) {
+            Log.d(TAG, line);
+        }
         Log.d(TAG, "end [" + getSessionTimeString() + "]");
     }
 
+    /**
+     * Returns the recorded events of the current session as text, one line per event.
+     */
+    public String dump() {
+        StringBuilder builder = new StringBuilder();
+        recorder.dump(builder, sessionStartTimeMs);
+        return builder.toString();
+    }
+
+    public EventRecorder getRecorder() {
+        return recorder;
+    }
+
     // DemoPlayer.Listener
 
     @Override
     public void onStateChanged(boolean playWhenReady, int state) {
-        Log.d(TAG, "state [" + getSessionTimeString() + ", " + playWhenReady + ", "
-                + getStateString(state) + "]");
+        recorder.record(EventRecorder.EVENT_STATE_CHANGED, SystemClock.elapsedRealtime(), -1,
+                EventRecorder.NO_LABEL, state, playWhenReady ? 1 : 0);
     }
 
     @Override
@@ -73,45 +102,48 @@ public class EventLogger implements ExoPlayerWrapper.Listener, ExoPlayerWrapper.
 
     @Override
     public void onBandwidthSample(int elapsedMs, long bytes, long bitrateEstimate) {
-        Log.d(TAG, "bandwidth [" + getSessionTimeString() + ", " + bytes + ", "
-                + getTimeString(elapsedMs) + ", " + bitrateEstimate + "]");
+        recorder.record(EventRecorder.EVENT_BANDWIDTH_SAMPLE, SystemClock.elapsedRealtime(), -1,
+                EventRecorder.NO_LABEL, bytes, elapsedMs);
     }
 
     @Override
     public void onDroppedFrames(int count, long elapsed) {
-        Log.d(TAG, "droppedFrames [" + getSessionTimeString() + ", " + count + "]");
+        recorder.record(EventRecorder.EVENT_DROPPED_FRAMES, SystemClock.elapsedRealtime(), -1,
+                EventRecorder.NO_LABEL, count, elapsed);
     }
 
     @Override
     public void onLoadStarted(int sourceId, long length, int type, int trigger, Format format,
                               long mediaStartTimeMs, long mediaEndTimeMs) {
-        loadStartTimeMs[sourceId] = SystemClock.elapsedRealtime();
-        if (VerboseLogUtil.isTagEnabled(TAG)) {
-            Log.v(TAG, "loadStart [" + getSessionTimeString() + ", " + sourceId + ", " + type
-                    + ", " + mediaStartTimeMs + ", " + mediaEndTimeMs + "]");
-        }
+        recorder.record(EventRecorder.EVENT_LOAD_STARTED, SystemClock.elapsedRealtime(), sourceId,
+                getFormatLabelIndex(format), length, mediaStartTimeMs);
     }
 
     @Override
     public void onLoadCompleted(int sourceId, long bytesLoaded, int type, int trigger, Format format,
                                 long mediaStartTimeMs, long mediaEndTimeMs, long elapsedRealtimeMs, long loadDurationMs) {
-        if (VerboseLogUtil.isTagEnabled(TAG)) {
-            long downloadTime = SystemClock.elapsedRealtime() - loadStartTimeMs[sourceId];
-            Log.v(TAG, "loadEnd [" + getSessionTimeString() + ", " + sourceId + ", " + downloadTime
-                    + "]");
-        }
+        recorder.record(EventRecorder.EVENT_LOAD_COMPLETED, elapsedRealtimeMs, sourceId,
+                getFormatLabelIndex(format), bytesLoaded, loadDurationMs);
     }
 
     @Override
     public void onVideoFormatEnabled(Format format, int trigger, long mediaTimeMs) {
-        Log.d(TAG, "videoFormat [" + getSessionTimeString() + ", " + format.id + ", "
-                + Integer.toString(trigger) + "]");
+        recorder.record(EventRecorder.EVENT_VIDEO_FORMAT, SystemClock.elapsedRealtime(),
+                ExoPlayerWrapper.TYPE_VIDEO, getFormatLabelIndex(format), trigger, mediaTimeMs);
     }
 
     @Override
     public void onAudioFormatEnabled(Format format, int trigger, long mediaTimeMs) {
-        Log.d(TAG, "audioFormat [" + getSessionTimeString() + ", " + format.id + ", "
-                + Integer.toString(trigger) + "]");
+        recorder.record(EventRecorder.EVENT_AUDIO_FORMAT, SystemClock.elapsedRealtime(),
+                ExoPlayerWrapper.TYPE_AUDIO, getFormatLabelIndex(format), trigger, mediaTimeMs);
+    }
+
+    // ExoPlayerWrapper.SeekListener
+
+    @Override
+    public void onSeek(long positionMs) {
+        recorder.record(EventRecorder.EVENT_SEEK, SystemClock.elapsedRealtime(), -1,
+                EventRecorder.NO_LABEL, positionMs, 0);
     }
 
     // DemoPlayer.InternalErrorListener
@@ -160,35 +192,78 @@ public class EventLogger implements ExoPlayerWrapper.Listener, ExoPlayerWrapper.
     @Override
     public void onDecoderInitialized(String decoderName, long elapsedRealtimeMs,
                                      long initializationDurationMs) {
-        Log.d(TAG, "decoderInitialized [" + getSessionTimeString() + ", " + decoderName + "]");
+        recorder.record(EventRecorder.EVENT_DECODER_INITIALIZED, elapsedRealtimeMs, -1,
+                recorder.getLabelIndex(decoderName), 0, initializationDurationMs);
     }
 
     @Override
     public void onAvailableRangeChanged(int sourceId, TimeRange availableRange) {
         availableRangeValuesUs = availableRange.getCurrentBoundsUs(availableRangeValuesUs);
-        Log.d(TAG, "availableRange [" + availableRange.isStatic() + ", " + availableRangeValuesUs[0]
-                + ", " + availableRangeValuesUs[1] + "]");
+        recorder.record(EventRecorder.EVENT_AVAILABLE_RANGE, SystemClock.elapsedRealtime(),
+                sourceId, EventRecorder.NO_LABEL, availableRangeValuesUs[0],
+                availableRangeValuesUs[1]);
     }
 
-    private void printInternalError(String type, Exception e) {
-        Log.e(TAG, "internalError [" + getSessionTimeString() + ", " + type + "]", e);
+    // DemoPlayer.StartupListener
+
+    @Override
+    public void onStartupTrace(StartupTrace trace) {
+        Log.d(TAG, "startup [" + getSessionTimeString() + ", " + trace + "]");
     }
 
-    private String getStateString(int state) {
-        switch (state) {
-            case ExoPlayer.STATE_BUFFERING:
-                return "B";
-            case ExoPlayer.STATE_ENDED:
-                return "E";
-            case ExoPlayer.STATE_IDLE:
-                return "I";
-            case ExoPlayer.STATE_PREPARING:
-                return "P";
-            case ExoPlayer.STATE_READY:
-                return "R";
-            default:
-                return "?";
+    // StallClassifier.Listener
+
+    @Override
+    public void onStall(int cause, float confidence, long stallDurationMs) {
+        Log.d(TAG, "stall [" + getSessionTimeString() + ", " + StallClassifier.getCauseName(cause)
+                + ", " + confidence + ", " + stallDurationMs + "]");
+    }
+
+    // HttpConnectionPool.EventListener
+
+    @Override
+    public void onRequestOpened(String host, boolean connectionReused, long timeToFirstByteMs) {
+        recorder.record(EventRecorder.EVENT_REQUEST_OPENED, SystemClock.elapsedRealtime(), -1,
+                recorder.getLabelIndex(host), connectionReused ? 1 : 0, timeToFirstByteMs);
+    }
+
+    @Override
+    public void onRequestCompleted(HttpRequestRecord record) {
+        // Do nothing. Requests are exported by HarRecorder.
+    }
+
+    // CodecCountersSampler.Listener
+
+    @Override
+    public void onCodecCountersSampled(int type, long elapsedMs, int renderedOutputBuffers,
+                                       int inputBuffers) {
+        recorder.record(EventRecorder.EVENT_CODEC_COUNTERS, SystemClock.elapsedRealtime(), type,
+                EventRecorder.NO_LABEL, ((long) inputBuffers << 32) | renderedOutputBuffers,
+                elapsedMs);
+    }
+
+    // JankMonitor.Listener
+
+    @Override
+    public void onJankyFrame(long frameDurationMs, int[] eventCounts) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("jank [").append(getSessionTimeString()).append(", ")
+                .append(frameDurationMs).append(" ms");
+        for (int i = 0; i < eventCounts.length; i++) {
+            if (eventCounts[i] != 0) {
+                builder.append(", ").append(EventRecorder.getEventName(i)).append(" x")
+                        .append(eventCounts[i]);
+            }
         }
+        Log.w(TAG, builder.append(']').toString());
+    }
+
+    private int getFormatLabelIndex(Format format) {
+        return format == null ? EventRecorder.NO_LABEL : recorder.getLabelIndex(format.id);
+    }
+
+    private void printInternalError(String type, Exception e) {
+        Log.e(TAG, "internalError [" + getSessionTimeString() + ", " + type + "]", e);
     }
 
     private String getSessionTimeString() {
@@ -0,0 +1,299 @@
+package co.klar.android.exoplayerwrapper.util;
+
+import com.google.android.exoplayer.ExoPlayer;
+
+import java.util.Locale;
+
+/**
+ * A fixed-size ring buffer of binary player events.
+ * <p/>
+ * Each event is stored as a record of {@link #RECORD_SIZE} longs in a single preallocated array:
+ * the timestamp, the event type, the source id and a label index packed into one long, and two
+ * event specific values, such as a byte count and a duration. Strings, such as format ids,
+ * decoder names and hosts, are stored once in a bounded label table and referenced by index.
+ * Recording an event therefore does not allocate, and the events are only turned into text when
+ * the buffer is dumped. Once the buffer is full, the oldest events are overwritten.
+ * <p/>
+ * Timestamps are supplied by the caller, so the recorder does not depend on the Android clock.
+ */
+public final class EventRecorder {
+
+    public static final int EVENT_STATE_CHANGED = 1;
+    public static final int EVENT_LOAD_STARTED = 2;
+    public static final int EVENT_LOAD_COMPLETED = 3;
+    public static final int EVENT_BANDWIDTH_SAMPLE = 4;
+    public static final int EVENT_VIDEO_FORMAT = 5;
+    public static final int EVENT_AUDIO_FORMAT = 6;
+    public static final int EVENT_DROPPED_FRAMES = 7;
+    public static final int EVENT_DECODER_INITIALIZED = 8;
+    public static final int EVENT_AVAILABLE_RANGE = 9;
+    public static final int EVENT_SEEK = 10;
+    public static final int EVENT_REQUEST_OPENED = 11;
+    public static final int EVENT_AUDIO_UNDERRUN = 12;
+    public static final int EVENT_ERROR = 13;
+    public static final int EVENT_INTERNAL_ERROR = 14;
+    public static final int EVENT_SESSION_START = 15;
+    public static final int EVENT_CODEC_COUNTERS = 16;
+    public static final int EVENT_VIDEO_SIZE_CHANGED = 17;
+    public static final int EVENT_CUES = 18;
+
+    /**
+     * The number of longs in each record.
+     */
+    public static final int RECORD_SIZE = 4;
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final int DEFAULT_MAX_LABELS = 64;
+
+    /**
+     * The label index of events without a label, or whose label did not fit in the label table.
+     */
+    public static final int NO_LABEL = -1;
+
+    private final long[] records;
+    private final int capacity;
+    private final String[] labels;
+
+    private int labelCount;
+    private int writeIndex;
+    private long eventCount;
+
+    public EventRecorder() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_LABELS);
+    }
+
+    /**
+     * @param capacity  The number of events retained.
+     * @param maxLabels The number of distinct labels that can be referenced.
+     */
+    public EventRecorder(int capacity, int maxLabels) {
+        this.capacity = capacity;
+        records = new long[capacity * RECORD_SIZE];
+        labels = new String[maxLabels];
+    }
+
+    /**
+     * Returns the index of a label, adding it to the label table if necessary.
+     *
+     * @param label The label, or null.
+     * @return The index of the label, or {@link #NO_LABEL} if the label is null or the table is
+     * full.
+     */
+    public synchronized int getLabelIndex(String label) {
+        if (label == null) {
+            return NO_LABEL;
+        }
+        for (int i = 0; i < labelCount; i++) {
+            if (labels[i].equals(label)) {
+                return i;
+            }
+        }
+        if (labelCount == labels.length) {
+            return NO_LABEL;
+        }
+        labels[labelCount] = label;
+        return labelCount++;
+    }
+
+    /**
+     * Records an event.
+     *
+     * @param type       One of the EVENT_* constants.
+     * @param timeMs     The time of the event.
+     * @param sourceId   The source id of the event, or -1.
+     * @param labelIndex An index returned by {@link #getLabelIndex(String)}, or {@link #NO_LABEL}.
+     * @param value1     The first event specific value, typically a byte count.
+     * @param value2     The second event specific value, typically a duration in milliseconds.
+     */
+    public synchronized void record(int type, long timeMs, int sourceId, int labelIndex,
+                                    long value1, long value2) {
+        int offset = writeIndex * RECORD_SIZE;
+        records[offset] = timeMs;
+        records[offset + 1] = ((long) (type & 0xFFFF) << 48)
+                | ((long) (sourceId & 0xFFFF) << 32) | (labelIndex & 0xFFFFFFFFL);
+        records[offset + 2] = value1;
+        records[offset + 3] = value2;
+        writeIndex = (writeIndex + 1) % capacity;
+        eventCount++;
+    }
+
+    /**
+     * Returns the number of events recorded since the recorder was created or cleared, including
+     * events that have since been overwritten.
+     */
+    public synchronized long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Discards all recorded events. Labels are retained.
+     */
+    public synchronized void clear() {
+        writeIndex = 0;
+        eventCount = 0;
+    }
+
+    /**
+     * Appends the retained events to a {@link StringBuilder}, oldest first, one line per event.
+     *
+     * @param builder    The builder to append to.
+     * @param baseTimeMs A time subtracted from the event timestamps, such as the start of the
+     *                   session.
+     */
+    public synchronized void dump(StringBuilder builder, long baseTimeMs) {
+        int retainedCount = (int) Math.min(eventCount, capacity);
+        int index = (writeIndex - retainedCount + capacity) % capacity;
+        for (int i = 0; i < retainedCount; i++) {
+            int offset = index * RECORD_SIZE;
+            builder.append(String.format(Locale.US, "%.2f", (records[offset] - baseTimeMs) / 1000f))
+                    .append(' ');
+            appendRecord(builder, records[offset + 1], records[offset + 2], records[offset + 3],
+                    labels);
+            builder.append('\n');
+            index = (index + 1) % capacity;
+        }
+    }
+
+    /**
+     * Formats a single record, without its timestamp.
+     *
+     * @param builder The builder to append to.
+     * @param header  The packed type, source id and label index.
+     * @param value1  The first event specific value.
+     * @param value2  The second event specific value.
+     * @param labels  The label table. Indices outside the table are printed as "?".
+     */
+    public static void appendRecord(StringBuilder builder, long header, long value1, long value2,
+                                    String[] labels) {
+        int type = (int) (header >>> 48);
+        int sourceId = (short) (header >>> 32);
+        int labelIndex = (int) header;
+        String label = labelIndex >= 0 && labelIndex < labels.length && labels[labelIndex] != null
+                ? labels[labelIndex] : "?";
+        builder.append(getEventName(type)).append(" [");
+        switch (type) {
+            case EVENT_STATE_CHANGED:
+                builder.append(value2 != 0).append(", ").append(getStateString((int) value1));
+                break;
+            case EVENT_LOAD_STARTED:
+                builder.append(sourceId).append(", ").append(label).append(", ").append(value1)
+                        .append(" bytes, media ").append(value2);
+                break;
+            case EVENT_LOAD_COMPLETED:
+                builder.append(sourceId).append(", ").append(label).append(", ").append(value1)
+                        .append(" bytes, ").append(value2).append(" ms");
+                break;
+            case EVENT_BANDWIDTH_SAMPLE:
+                builder.append(value1).append(" bytes, ").append(value2).append(" ms, ")
+                        .append(value2 == 0 ? 0 : value1 * 8000 / value2).append(" bps");
+                break;
+            case EVENT_VIDEO_FORMAT:
+            case EVENT_AUDIO_FORMAT:
+                builder.append(label).append(", trigger ").append(value1).append(", media ")
+                        .append(value2);
+                break;
+            case EVENT_DROPPED_FRAMES:
+                builder.append(value1).append(", ").append(value2).append(" ms");
+                break;
+            case EVENT_DECODER_INITIALIZED:
+                builder.append(label).append(", ").append(value2).append(" ms");
+                break;
+            case EVENT_AVAILABLE_RANGE:
+                builder.append(sourceId).append(", ").append(value1).append(", ").append(value2);
+                break;
+            case EVENT_SEEK:
+                builder.append(value1);
+                break;
+            case EVENT_REQUEST_OPENED:
+                builder.append(label).append(", ").append(value1 != 0 ? "reused" : "new")
+                        .append(", ").append(value2).append(" ms");
+                break;
+            case EVENT_AUDIO_UNDERRUN:
+                builder.append(value1).append(" ms buffered, ").append(value2)
+                        .append(" ms since last feed");
+                break;
+            case EVENT_ERROR:
+            case EVENT_INTERNAL_ERROR:
+                builder.append(label);
+                if (sourceId != -1) {
+                    builder.append(", ").append(sourceId);
+                }
+                break;
+            case EVENT_SESSION_START:
+                builder.append(value1);
+                break;
+            case EVENT_CODEC_COUNTERS:
+                // value1 packs the number of input buffers in its high and rendered buffers in its
+                // low 32 bits.
+                builder.append(sourceId).append(", ").append((int) value1).append(" rendered, ")
+                        .append((int) (value1 >>> 32)).append(" input, ").append(value2)
+                        .append(" ms");
+                break;
+            default:
+                builder.append(sourceId).append(", ").append(label).append(", ").append(value1)
+                        .append(", ").append(value2);
+                break;
+        }
+        builder.append(']');
+    }
+
+    public static String getEventName(int type) {
+        switch (type) {
+            case EVENT_STATE_CHANGED:
+                return "state";
+            case EVENT_LOAD_STARTED:
+                return "loadStart";
+            case EVENT_LOAD_COMPLETED:
+                return "loadEnd";
+            case EVENT_BANDWIDTH_SAMPLE:
+                return "bandwidth";
+            case EVENT_VIDEO_FORMAT:
+                return "videoFormat";
+            case EVENT_AUDIO_FORMAT:
+                return "audioFormat";
+            case EVENT_DROPPED_FRAMES:
+                return "droppedFrames";
+            case EVENT_DECODER_INITIALIZED:
+                return "decoderInitialized";
+            case EVENT_AVAILABLE_RANGE:
+                return "availableRange";
+            case EVENT_SEEK:
+                return "seek";
+            case EVENT_REQUEST_OPENED:
+                return "requestOpened";
+            case EVENT_AUDIO_UNDERRUN:
+                return "audioUnderrun";
+            case EVENT_ERROR:
+                return "playerFailed";
+            case EVENT_INTERNAL_ERROR:
+                return "internalError";
+            case EVENT_SESSION_START:
+                return "sessionStart";
+            case EVENT_CODEC_COUNTERS:
+                return "codecCounters";
+            case EVENT_VIDEO_SIZE_CHANGED:
+                return "videoSize";
+            case EVENT_CUES:
+                return "cues";
+            default:
+                return "event" + type;
+        }
+    }
+
+    private static String getStateString(int state) {
+        switch (state) {
+            case ExoPlayer.STATE_BUFFERING:
+                return "B";
+            case ExoPlayer.STATE_ENDED:
+                return "E";
+            case ExoPlayer.STATE_IDLE:
+                return "I";
+            case ExoPlayer.STATE_PREPARING:
+                return "P";
+            case ExoPlayer.STATE_READY:
+                return "R";
+            default:
+                return "?";
+        }
+    }
+
+}
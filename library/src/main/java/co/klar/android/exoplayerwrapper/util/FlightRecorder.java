@@ -0,0 +1,312 @@
+package co.klar.android.exoplayerwrapper.util;
+
+import android.media.MediaCodec;
+
+import com.google.android.exoplayer.MediaCodecTrackRenderer;
+import com.google.android.exoplayer.TimeRange;
+import com.google.android.exoplayer.audio.AudioTrack;
+import com.google.android.exoplayer.chunk.Format;
+
+import co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Continuously records player events into a fixed-size memory-mapped file, so that the last events
+ * before a stall, a crash or a kill of the process can be inspected afterwards.
+ * <p/>
+ * Records have the layout of {@link EventRecorder} records, with wall-clock timestamps, and are
+ * written into a ring buffer in the mapped file. The write cost of an event is bounded: five
+ * absolute puts into the mapping, with no allocation and no system call. The pages are written
+ * back by the kernel, so the data survives the death of the process, although not necessarily a
+ * power loss; {@link #flush()} forces it to the storage device.
+ * <p/>
+ * Reopening an existing file appends to it, so the events of the previous session are still
+ * there after a restart. {@link FlightRecorderDecoder} turns the file into a timeline.
+ * <p/>
+ * At the rate of events of a typical adaptive stream, the default capacity holds the last few
+ * minutes of playback.
+ */
+public final class FlightRecorder implements ExoPlayerWrapper.Listener,
+        ExoPlayerWrapper.InfoListener, ExoPlayerWrapper.InternalErrorListener,
+        ExoPlayerWrapper.SeekListener {
+
+    public static final int DEFAULT_CAPACITY = 8192;
+    public static final int DEFAULT_MAX_LABELS = 64;
+
+    /* package */ static final int MAGIC = 0x45584652;
+    /* package */ static final int VERSION = 1;
+    /* package */ static final int HEADER_SIZE = 64;
+    /* package */ static final int LABEL_SIZE = 64;
+    /* package */ static final int RECORD_BYTES = EventRecorder.RECORD_SIZE * 8;
+
+    // Header field offsets.
+    /* package */ static final int OFFSET_MAGIC = 0;
+    /* package */ static final int OFFSET_VERSION = 4;
+    /* package */ static final int OFFSET_CAPACITY = 8;
+    /* package */ static final int OFFSET_MAX_LABELS = 12;
+    /* package */ static final int OFFSET_LABEL_COUNT = 16;
+    /* package */ static final int OFFSET_EVENT_COUNT = 24;
+
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int maxLabels;
+    private final int recordsOffset;
+    private final String[] labels;
+
+    private int labelCount;
+    private long eventCount;
+    private long[] availableRangeValuesUs;
+
+    /**
+     * Opens a flight recorder with the default geometry.
+     *
+     * @see #open(File, int, int)
+     */
+    public static FlightRecorder open(File file) throws IOException {
+        return open(file, DEFAULT_CAPACITY, DEFAULT_MAX_LABELS);
+    }
+
+    /**
+     * Opens a flight recorder. If the file holds a recording with the same geometry, new events
+     * are appended to it. Otherwise it is reinitialized.
+     *
+     * @param file      The file to record into.
+     * @param capacity  The number of events retained.
+     * @param maxLabels The number of distinct labels, such as format ids, that can be referenced.
+     * @throws IOException If the file cannot be mapped.
+     */
+    public static FlightRecorder open(File file, int capacity, int maxLabels) throws IOException {
+        int size = HEADER_SIZE + maxLabels * LABEL_SIZE + capacity * RECORD_BYTES;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(size);
+            MappedByteBuffer buffer = randomAccessFile.getChannel()
+                    .map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new FlightRecorder(buffer, capacity, maxLabels);
+        } finally {
+            // The mapping remains valid after the file is closed.
+            randomAccessFile.close();
+        }
+    }
+
+    private FlightRecorder(MappedByteBuffer buffer, int capacity, int maxLabels) {
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.maxLabels = maxLabels;
+        recordsOffset = HEADER_SIZE + maxLabels * LABEL_SIZE;
+        labels = new String[maxLabels];
+        if (buffer.getInt(OFFSET_MAGIC) == MAGIC && buffer.getInt(OFFSET_VERSION) == VERSION
+                && buffer.getInt(OFFSET_CAPACITY) == capacity
+                && buffer.getInt(OFFSET_MAX_LABELS) == maxLabels) {
+            labelCount = Math.min(buffer.getInt(OFFSET_LABEL_COUNT), maxLabels);
+            for (int i = 0; i < labelCount; i++) {
+                labels[i] = FlightRecorderDecoder.readLabel(buffer, HEADER_SIZE + i * LABEL_SIZE);
+            }
+            eventCount = buffer.getLong(OFFSET_EVENT_COUNT);
+        } else {
+            buffer.putInt(OFFSET_MAGIC, MAGIC);
+            buffer.putInt(OFFSET_VERSION, VERSION);
+            buffer.putInt(OFFSET_CAPACITY, capacity);
+            buffer.putInt(OFFSET_MAX_LABELS, maxLabels);
+            buffer.putInt(OFFSET_LABEL_COUNT, 0);
+            buffer.putLong(OFFSET_EVENT_COUNT, 0);
+        }
+    }
+
+    /**
+     * Marks the start of a playback session in the recording.
+     */
+    public void startSession() {
+        record(EventRecorder.EVENT_SESSION_START, -1, EventRecorder.NO_LABEL,
+                System.currentTimeMillis(), 0);
+    }
+
+    /**
+     * Returns the index of a label, adding it to the label table of the file if necessary.
+     *
+     * @see EventRecorder#getLabelIndex(String)
+     */
+    public synchronized int getLabelIndex(String label) {
+        if (label == null) {
+            return EventRecorder.NO_LABEL;
+        }
+        for (int i = 0; i < labelCount; i++) {
+            if (labels[i].equals(label)) {
+                return i;
+            }
+        }
+        if (labelCount == maxLabels) {
+            return EventRecorder.NO_LABEL;
+        }
+        byte[] bytes = label.getBytes(FlightRecorderDecoder.UTF_8);
+        int length = Math.min(bytes.length, LABEL_SIZE - 2);
+        int offset = HEADER_SIZE + labelCount * LABEL_SIZE;
+        buffer.putShort(offset, (short) length);
+        for (int i = 0; i < length; i++) {
+            buffer.put(offset + 2 + i, bytes[i]);
+        }
+        labels[labelCount] = label;
+        buffer.putInt(OFFSET_LABEL_COUNT, labelCount + 1);
+        return labelCount++;
+    }
+
+    /**
+     * Records an event, timestamped with the wall-clock time.
+     *
+     * @see EventRecorder#record(int, long, int, int, long, long)
+     */
+    public synchronized void record(int type, int sourceId, int labelIndex, long value1,
+                                    long value2) {
+        int offset = recordsOffset + (int) (eventCount % capacity) * RECORD_BYTES;
+        buffer.putLong(offset, System.currentTimeMillis());
+        buffer.putLong(offset + 8, ((long) (type & 0xFFFF) << 48)
+                | ((long) (sourceId & 0xFFFF) << 32) | (labelIndex & 0xFFFFFFFFL));
+        buffer.putLong(offset + 16, value1);
+        buffer.putLong(offset + 24, value2);
+        // The count is published last. A record torn by the death of the process is in the slot
+        // after the newest published record, which the decoder skips.
+        buffer.putLong(OFFSET_EVENT_COUNT, ++eventCount);
+    }
+
+    /**
+     * Forces the recording to the storage device. This blocks, so it should not be called on the
+     * main thread.
+     */
+    public void flush() {
+        buffer.force();
+    }
+
+    // ExoPlayerWrapper.Listener
+
+    @Override
+    public void onStateChanged(boolean playWhenReady, int playbackState) {
+        record(EventRecorder.EVENT_STATE_CHANGED, -1, EventRecorder.NO_LABEL, playbackState,
+                playWhenReady ? 1 : 0);
+    }
+
+    @Override
+    public void onError(Exception e) {
+        record(EventRecorder.EVENT_ERROR, -1, getLabelIndex(e.getClass().getName()), 0, 0);
+    }
+
+    @Override
+    public void onVideoSizeChanged(int width, int height, int unappliedRotationDegrees,
+                                   float pixelWidthHeightRatio) {
+        // Do nothing.
+    }
+
+    // ExoPlayerWrapper.InfoListener
+
+    @Override
+    public void onVideoFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+        record(EventRecorder.EVENT_VIDEO_FORMAT, ExoPlayerWrapper.TYPE_VIDEO,
+                getLabelIndex(format.id), trigger, mediaTimeMs);
+    }
+
+    @Override
+    public void onAudioFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+        record(EventRecorder.EVENT_AUDIO_FORMAT, ExoPlayerWrapper.TYPE_AUDIO,
+                getLabelIndex(format.id), trigger, mediaTimeMs);
+    }
+
+    @Override
+    public void onDroppedFrames(int count, long elapsed) {
+        record(EventRecorder.EVENT_DROPPED_FRAMES, -1, EventRecorder.NO_LABEL, count, elapsed);
+    }
+
+    @Override
+    public void onBandwidthSample(int elapsedMs, long bytes, long bitrateEstimate) {
+        record(EventRecorder.EVENT_BANDWIDTH_SAMPLE, -1, EventRecorder.NO_LABEL, bytes, elapsedMs);
+    }
+
+    @Override
+    public void onLoadStarted(int sourceId, long length, int type, int trigger, Format format,
+                              long mediaStartTimeMs, long mediaEndTimeMs) {
+        record(EventRecorder.EVENT_LOAD_STARTED, sourceId,
+                format == null ? EventRecorder.NO_LABEL : getLabelIndex(format.id), length,
+                mediaStartTimeMs);
+    }
+
+    @Override
+    public void onLoadCompleted(int sourceId, long bytesLoaded, int type, int trigger, Format format,
+                                long mediaStartTimeMs, long mediaEndTimeMs, long elapsedRealtimeMs,
+                                long loadDurationMs) {
+        record(EventRecorder.EVENT_LOAD_COMPLETED, sourceId,
+                format == null ? EventRecorder.NO_LABEL : getLabelIndex(format.id), bytesLoaded,
+                loadDurationMs);
+    }
+
+    @Override
+    public void onDecoderInitialized(String decoderName, long elapsedRealtimeMs,
+                                     long initializationDurationMs) {
+        record(EventRecorder.EVENT_DECODER_INITIALIZED, -1, getLabelIndex(decoderName), 0,
+                initializationDurationMs);
+    }
+
+    @Override
+    public void onAvailableRangeChanged(int sourceId, TimeRange availableRange) {
+        availableRangeValuesUs = availableRange.getCurrentBoundsUs(availableRangeValuesUs);
+        record(EventRecorder.EVENT_AVAILABLE_RANGE, sourceId, EventRecorder.NO_LABEL,
+                availableRangeValuesUs[0], availableRangeValuesUs[1]);
+    }
+
+    // ExoPlayerWrapper.SeekListener
+
+    @Override
+    public void onSeek(long positionMs) {
+        record(EventRecorder.EVENT_SEEK, -1, EventRecorder.NO_LABEL, positionMs, 0);
+    }
+
+    // ExoPlayerWrapper.InternalErrorListener
+
+    @Override
+    public void onRendererInitializationError(Exception e) {
+        recordInternalError("rendererInitError", -1);
+    }
+
+    @Override
+    public void onAudioTrackInitializationError(AudioTrack.InitializationException e) {
+        recordInternalError("audioTrackInitializationError", -1);
+    }
+
+    @Override
+    public void onAudioTrackWriteError(AudioTrack.WriteException e) {
+        recordInternalError("audioTrackWriteError", -1);
+    }
+
+    @Override
+    public void onAudioTrackUnderrun(int bufferSize, long bufferSizeMs, long elapsedSinceLastFeedMs) {
+        record(EventRecorder.EVENT_AUDIO_UNDERRUN, ExoPlayerWrapper.TYPE_AUDIO,
+                EventRecorder.NO_LABEL, bufferSizeMs, elapsedSinceLastFeedMs);
+    }
+
+    @Override
+    public void onDecoderInitializationError(MediaCodecTrackRenderer.DecoderInitializationException e) {
+        recordInternalError("decoderInitializationError", -1);
+    }
+
+    @Override
+    public void onCryptoError(MediaCodec.CryptoException e) {
+        recordInternalError("cryptoError", -1);
+    }
+
+    @Override
+    public void onLoadError(int sourceId, IOException e) {
+        recordInternalError("loadError", sourceId);
+    }
+
+    @Override
+    public void onDrmSessionManagerError(Exception e) {
+        recordInternalError("drmSessionManagerError", -1);
+    }
+
+    private void recordInternalError(String type, int sourceId) {
+        record(EventRecorder.EVENT_INTERNAL_ERROR, sourceId, getLabelIndex(type), 0, 0);
+    }
+
+}
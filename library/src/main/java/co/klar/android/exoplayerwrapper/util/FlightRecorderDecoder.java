@@ -0,0 +1,112 @@
+package co.klar.android.exoplayerwrapper.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Turns the file written by a {@link FlightRecorder} into a timeline, one line per event.
+ * <p/>
+ * The decoder shares the file layout constants of {@link FlightRecorder} and the record format of
+ * {@link EventRecorder}. At runtime it needs no Android or ExoPlayer classes, only these library
+ * classes, so it can run on a development machine on a file pulled from a device:
+ * <pre>
+ * adb pull /data/data/&lt;package&gt;/cache/flight_recorder
+ * java -cp &lt;classes&gt; co.klar.android.exoplayerwrapper.util.FlightRecorderDecoder flight_recorder
+ * </pre>
+ */
+public final class FlightRecorderDecoder {
+
+    /* package */ static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private FlightRecorderDecoder() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: FlightRecorderDecoder <file>");
+            System.exit(1);
+        }
+        System.out.print(decode(new File(args[0])));
+    }
+
+    /**
+     * Decodes a flight recorder file.
+     *
+     * @throws IOException If the file cannot be read or is not a flight recorder file.
+     */
+    public static String decode(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) randomAccessFile.length()];
+            randomAccessFile.readFully(data);
+            return decode(ByteBuffer.wrap(data));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Decodes the contents of a flight recorder file.
+     *
+     * @throws IOException If the data is not a flight recorder file.
+     */
+    public static String decode(ByteBuffer buffer) throws IOException {
+        if (buffer.limit() < FlightRecorder.HEADER_SIZE
+                || buffer.getInt(FlightRecorder.OFFSET_MAGIC) != FlightRecorder.MAGIC) {
+            throw new IOException("Not a flight recorder file");
+        }
+        if (buffer.getInt(FlightRecorder.OFFSET_VERSION) != FlightRecorder.VERSION) {
+            throw new IOException("Unsupported version: "
+                    + buffer.getInt(FlightRecorder.OFFSET_VERSION));
+        }
+        int capacity = buffer.getInt(FlightRecorder.OFFSET_CAPACITY);
+        int maxLabels = buffer.getInt(FlightRecorder.OFFSET_MAX_LABELS);
+        int recordsOffset = FlightRecorder.HEADER_SIZE + maxLabels * FlightRecorder.LABEL_SIZE;
+        if (capacity <= 0 || maxLabels < 0
+                || buffer.limit() < recordsOffset + (long) capacity * FlightRecorder.RECORD_BYTES) {
+            throw new IOException("Truncated flight recorder file");
+        }
+        int labelCount = Math.min(buffer.getInt(FlightRecorder.OFFSET_LABEL_COUNT), maxLabels);
+        String[] labels = new String[maxLabels];
+        for (int i = 0; i < labelCount; i++) {
+            labels[i] = readLabel(buffer, FlightRecorder.HEADER_SIZE + i * FlightRecorder.LABEL_SIZE);
+        }
+        long eventCount = buffer.getLong(FlightRecorder.OFFSET_EVENT_COUNT);
+        // The slot after the newest record may hold a torn write once the ring has wrapped.
+        int retainedCount = (int) Math.min(eventCount, capacity - 1);
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        StringBuilder builder = new StringBuilder();
+        builder.append("events=").append(eventCount).append(", retained=").append(retainedCount)
+                .append('\n');
+        long previousTimeMs = -1;
+        for (long i = eventCount - retainedCount; i < eventCount; i++) {
+            int offset = recordsOffset + (int) (i % capacity) * FlightRecorder.RECORD_BYTES;
+            long timeMs = buffer.getLong(offset);
+            builder.append(dateFormat.format(new Date(timeMs)));
+            builder.append(String.format(Locale.US, " %+7d ",
+                    previousTimeMs == -1 ? 0 : timeMs - previousTimeMs));
+            EventRecorder.appendRecord(builder, buffer.getLong(offset + 8),
+                    buffer.getLong(offset + 16), buffer.getLong(offset + 24), labels);
+            builder.append('\n');
+            previousTimeMs = timeMs;
+        }
+        return builder.toString();
+    }
+
+    /* package */ static String readLabel(ByteBuffer buffer, int offset) {
+        int length = Math.max(0, Math.min(buffer.getShort(offset), FlightRecorder.LABEL_SIZE - 2));
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + 2 + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+}
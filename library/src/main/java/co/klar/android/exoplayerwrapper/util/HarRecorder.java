@@ -0,0 +1,176 @@
+package co.klar.android.exoplayerwrapper.util;
+
+import com.google.android.exoplayer.C;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import co.klar.android.exoplayerwrapper.upstream.HttpConnectionPool;
+import co.klar.android.exoplayerwrapper.upstream.HttpRequestRecord;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Records the http(s) requests made through an {@link HttpConnectionPool} and exports them in the
+ * HTTP Archive (HAR) 1.2 format, so that CDN performance can be analysed offline with standard
+ * tools.
+ * <p/>
+ * Only the details known to the data source layer are exported: the URL, the requested byte range,
+ * the status code, redirects, the time to first byte (as the HAR wait time), the total time and
+ * the number of bytes received. Whether the connection was reused, the source id and errors are
+ * exported as the custom fields {@code _connectionReused}, {@code _sourceId} and {@code _error}.
+ * The number of retained requests is bounded, the oldest being dropped first.
+ */
+public final class HarRecorder implements HttpConnectionPool.EventListener {
+
+    public static final int DEFAULT_MAX_ENTRIES = 2000;
+
+    private static final String CREATOR_NAME = "ExoPlayerWrapper";
+    private static final String CREATOR_VERSION = "1.0";
+
+    private final int maxEntries;
+    private final LinkedList<HttpRequestRecord> records;
+
+    public HarRecorder() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries The maximum number of requests retained.
+     */
+    public HarRecorder(int maxEntries) {
+        this.maxEntries = maxEntries;
+        records = new LinkedList<>();
+    }
+
+    /**
+     * Discards all recorded requests.
+     */
+    public synchronized void clear() {
+        records.clear();
+    }
+
+    /**
+     * Returns the recorded requests, oldest first.
+     */
+    public synchronized List<HttpRequestRecord> getRecords() {
+        return new ArrayList<>(records);
+    }
+
+    /**
+     * Writes the recorded requests to a file in the HAR format.
+     */
+    public void writeTo(File file) throws IOException {
+        String har;
+        try {
+            har = toJson().toString();
+        } catch (JSONException e) {
+            throw new IOException(e.toString());
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(har);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Returns the recorded requests as a HAR document.
+     */
+    public JSONObject toJson() throws JSONException {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'",
+                Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        JSONArray entries = new JSONArray();
+        for (HttpRequestRecord record : getRecords()) {
+            entries.put(toEntry(record, dateFormat));
+        }
+        JSONObject creator = new JSONObject()
+                .put("name", CREATOR_NAME)
+                .put("version", CREATOR_VERSION);
+        JSONObject log = new JSONObject()
+                .put("version", "1.2")
+                .put("creator", creator)
+                .put("entries", entries);
+        return new JSONObject().put("log", log);
+    }
+
+    // HttpConnectionPool.EventListener
+
+    @Override
+    public void onRequestOpened(String host, boolean connectionReused, long timeToFirstByteMs) {
+        // Do nothing.
+    }
+
+    @Override
+    public synchronized void onRequestCompleted(HttpRequestRecord record) {
+        records.add(record);
+        if (records.size() > maxEntries) {
+            records.removeFirst();
+        }
+    }
+
+    private static JSONObject toEntry(HttpRequestRecord record, SimpleDateFormat dateFormat)
+            throws JSONException {
+        JSONArray requestHeaders = new JSONArray();
+        if (record.position != 0 || record.length != C.LENGTH_UNBOUNDED) {
+            String range = "bytes=" + record.position + "-"
+                    + (record.length == C.LENGTH_UNBOUNDED ? "" : record.position + record.length - 1);
+            requestHeaders.put(new JSONObject().put("name", "Range").put("value", range));
+        }
+        JSONObject request = new JSONObject()
+                .put("method", "GET")
+                .put("url", record.url)
+                .put("httpVersion", "HTTP/1.1")
+                .put("cookies", new JSONArray())
+                .put("headers", requestHeaders)
+                .put("queryString", new JSONArray())
+                .put("headersSize", -1)
+                .put("bodySize", 0);
+        JSONObject content = new JSONObject()
+                .put("size", record.bytesTransferred)
+                .put("mimeType", "");
+        JSONObject response = new JSONObject()
+                .put("status", record.statusCode == -1 ? 0 : record.statusCode)
+                .put("statusText", "")
+                .put("httpVersion", "HTTP/1.1")
+                .put("cookies", new JSONArray())
+                .put("headers", new JSONArray())
+                .put("content", content)
+                .put("redirectURL", record.isRedirected() ? record.responseUrl : "")
+                .put("headersSize", -1)
+                .put("bodySize", record.bytesTransferred);
+        long waitMs = record.timeToFirstByteMs == -1 ? record.totalTimeMs : record.timeToFirstByteMs;
+        JSONObject timings = new JSONObject()
+                .put("send", 0)
+                .put("wait", waitMs)
+                .put("receive", Math.max(0, record.totalTimeMs - waitMs));
+        JSONObject entry = new JSONObject()
+                .put("startedDateTime", dateFormat.format(new Date(record.startTimeMs)))
+                .put("time", record.totalTimeMs)
+                .put("request", request)
+                .put("response", response)
+                .put("cache", new JSONObject())
+                .put("timings", timings)
+                .put("_sourceId", record.sourceId)
+                .put("_connectionReused", record.connectionReused);
+        if (record.error != null) {
+            entry.put("_error", record.error);
+        }
+        return entry;
+    }
+
+}
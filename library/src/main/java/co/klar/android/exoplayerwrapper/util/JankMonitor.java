@@ -0,0 +1,297 @@
+package co.klar.android.exoplayerwrapper.util;
+
+import android.view.Choreographer;
+
+import com.google.android.exoplayer.TimeRange;
+import com.google.android.exoplayer.chunk.Format;
+
+import co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper;
+
+/**
+ * Detects long frames on the main thread while a player is active, and attributes each of them to
+ * the player events that were delivered on the main thread during the frame.
+ * <p/>
+ * A frame is janky if the time between two consecutive {@link Choreographer} frame callbacks
+ * exceeds a threshold. Player events are counted per {@link EventRecorder} EVENT_* type as they
+ * are delivered, and the counts are attributed to the frame in which they were delivered. Events
+ * not delivered through the player's listeners, such as cue updates, can be reported with
+ * {@link #onEvent(int)}. Besides reporting janky frames to a {@link Listener}, the monitor keeps,
+ * for each event type, how many frames contained it and how many of those were janky, which shows
+ * which callbacks are expensive.
+ * <p/>
+ * Counting does not allocate. Must be used on the main thread.
+ */
+public final class JankMonitor implements Choreographer.FrameCallback, ExoPlayerWrapper.Listener,
+        ExoPlayerWrapper.InfoListener, ExoPlayerWrapper.SeekListener {
+
+    /**
+     * Receives janky frames.
+     */
+    public interface Listener {
+
+        /**
+         * Invoked when a janky frame has been detected.
+         *
+         * @param frameDurationMs The duration of the frame.
+         * @param eventCounts     The number of events delivered during the frame, indexed by
+         *                        {@link EventRecorder} EVENT_* type. The array is reused, and is
+         *                        only valid during the call.
+         */
+        void onJankyFrame(long frameDurationMs, int[] eventCounts);
+
+    }
+
+    /**
+     * The default threshold, about two frames at 60 fps.
+     */
+    public static final int DEFAULT_THRESHOLD_MS = 32;
+
+    /**
+     * The size of the arrays indexed by event type.
+     */
+    public static final int EVENT_TYPE_COUNT = EventRecorder.EVENT_CUES + 1;
+
+    private final long thresholdNs;
+    private final int[] frameEventCounts;
+    private final int[] framesWithEvent;
+    private final int[] jankyFramesWithEvent;
+
+    private Listener listener;
+    private boolean started;
+    private long lastFrameTimeNs;
+    private int frameCount;
+    private int jankyFrameCount;
+    private long jankyTimeMs;
+    private long maxFrameDurationMs;
+
+    public JankMonitor() {
+        this(DEFAULT_THRESHOLD_MS);
+    }
+
+    /**
+     * @param thresholdMs The duration above which a frame is considered janky.
+     */
+    public JankMonitor(int thresholdMs) {
+        thresholdNs = thresholdMs * 1000000L;
+        frameEventCounts = new int[EVENT_TYPE_COUNT];
+        framesWithEvent = new int[EVENT_TYPE_COUNT];
+        jankyFramesWithEvent = new int[EVENT_TYPE_COUNT];
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts monitoring frames.
+     */
+    public void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        lastFrameTimeNs = 0;
+        clearFrameEventCounts();
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * Stops monitoring frames. Collected statistics remain available.
+     */
+    public void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    /**
+     * Discards all collected statistics.
+     */
+    public void reset() {
+        frameCount = 0;
+        jankyFrameCount = 0;
+        jankyTimeMs = 0;
+        maxFrameDurationMs = 0;
+        for (int i = 0; i < EVENT_TYPE_COUNT; i++) {
+            framesWithEvent[i] = 0;
+            jankyFramesWithEvent[i] = 0;
+        }
+        clearFrameEventCounts();
+    }
+
+    /**
+     * Reports an event delivered on the main thread that the monitor does not observe itself.
+     *
+     * @param type One of the {@link EventRecorder} EVENT_* constants.
+     */
+    public void onEvent(int type) {
+        if (started && type >= 0 && type < EVENT_TYPE_COUNT) {
+            frameEventCounts[type]++;
+        }
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getJankyFrameCount() {
+        return jankyFrameCount;
+    }
+
+    /**
+     * Returns the total duration of janky frames.
+     */
+    public long getJankyTimeMs() {
+        return jankyTimeMs;
+    }
+
+    public long getMaxFrameDurationMs() {
+        return maxFrameDurationMs;
+    }
+
+    /**
+     * Returns the number of frames during which at least one event of a type was delivered.
+     *
+     * @param type One of the {@link EventRecorder} EVENT_* constants.
+     */
+    public int getFramesWithEvent(int type) {
+        return framesWithEvent[type];
+    }
+
+    /**
+     * Returns the number of janky frames during which at least one event of a type was delivered.
+     *
+     * @param type One of the {@link EventRecorder} EVENT_* constants.
+     */
+    public int getJankyFramesWithEvent(int type) {
+        return jankyFramesWithEvent[type];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(jankyFrameCount).append('/').append(frameCount).append(" janky, ")
+                .append(jankyTimeMs).append(" ms, max ").append(maxFrameDurationMs).append(" ms");
+        for (int i = 0; i < EVENT_TYPE_COUNT; i++) {
+            if (framesWithEvent[i] != 0) {
+                builder.append(", ").append(EventRecorder.getEventName(i)).append(' ')
+                        .append(jankyFramesWithEvent[i]).append('/').append(framesWithEvent[i]);
+            }
+        }
+        return builder.toString();
+    }
+
+    // Choreographer.FrameCallback
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!started) {
+            return;
+        }
+        if (lastFrameTimeNs != 0) {
+            long frameDurationNs = frameTimeNanos - lastFrameTimeNs;
+            boolean janky = frameDurationNs > thresholdNs;
+            long frameDurationMs = frameDurationNs / 1000000;
+            frameCount++;
+            maxFrameDurationMs = Math.max(maxFrameDurationMs, frameDurationMs);
+            if (janky) {
+                jankyFrameCount++;
+                jankyTimeMs += frameDurationMs;
+            }
+            for (int i = 0; i < EVENT_TYPE_COUNT; i++) {
+                if (frameEventCounts[i] != 0) {
+                    framesWithEvent[i]++;
+                    if (janky) {
+                        jankyFramesWithEvent[i]++;
+                    }
+                }
+            }
+            if (janky && listener != null) {
+                listener.onJankyFrame(frameDurationMs, frameEventCounts);
+            }
+        }
+        clearFrameEventCounts();
+        lastFrameTimeNs = frameTimeNanos;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    // ExoPlayerWrapper.Listener
+
+    @Override
+    public void onStateChanged(boolean playWhenReady, int playbackState) {
+        onEvent(EventRecorder.EVENT_STATE_CHANGED);
+    }
+
+    @Override
+    public void onError(Exception e) {
+        onEvent(EventRecorder.EVENT_ERROR);
+    }
+
+    @Override
+    public void onVideoSizeChanged(int width, int height, int unappliedRotationDegrees,
+                                   float pixelWidthHeightRatio) {
+        onEvent(EventRecorder.EVENT_VIDEO_SIZE_CHANGED);
+    }
+
+    // ExoPlayerWrapper.InfoListener
+
+    @Override
+    public void onVideoFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+        onEvent(EventRecorder.EVENT_VIDEO_FORMAT);
+    }
+
+    @Override
+    public void onAudioFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+        onEvent(EventRecorder.EVENT_AUDIO_FORMAT);
+    }
+
+    @Override
+    public void onDroppedFrames(int count, long elapsed) {
+        onEvent(EventRecorder.EVENT_DROPPED_FRAMES);
+    }
+
+    @Override
+    public void onBandwidthSample(int elapsedMs, long bytes, long bitrateEstimate) {
+        onEvent(EventRecorder.EVENT_BANDWIDTH_SAMPLE);
+    }
+
+    @Override
+    public void onLoadStarted(int sourceId, long length, int type, int trigger, Format format,
+                              long mediaStartTimeMs, long mediaEndTimeMs) {
+        onEvent(EventRecorder.EVENT_LOAD_STARTED);
+    }
+
+    @Override
+    public void onLoadCompleted(int sourceId, long bytesLoaded, int type, int trigger, Format format,
+                                long mediaStartTimeMs, long mediaEndTimeMs, long elapsedRealtimeMs,
+                                long loadDurationMs) {
+        onEvent(EventRecorder.EVENT_LOAD_COMPLETED);
+    }
+
+    @Override
+    public void onDecoderInitialized(String decoderName, long elapsedRealtimeMs,
+                                     long initializationDurationMs) {
+        onEvent(EventRecorder.EVENT_DECODER_INITIALIZED);
+    }
+
+    @Override
+    public void onAvailableRangeChanged(int sourceId, TimeRange availableRange) {
+        onEvent(EventRecorder.EVENT_AVAILABLE_RANGE);
+    }
+
+    // ExoPlayerWrapper.SeekListener
+
+    @Override
+    public void onSeek(long positionMs) {
+        onEvent(EventRecorder.EVENT_SEEK);
+    }
+
+    private void clearFrameEventCounts() {
+        for (int i = 0; i < EVENT_TYPE_COUNT; i++) {
+            frameEventCounts[i] = 0;
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+package co.klar.android.exoplayerwrapper.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size histogram of non-negative values, such as latencies in milliseconds.
+ * <p/>
+ * Values below 16 are counted exactly. Larger values are counted in logarithmic buckets, eight per
+ * power of two, so percentiles are accurate to within 12.5%. Recording is lock-free and does not
+ * allocate, so it can be done from any thread, including player callbacks. Histograms can be
+ * copied with {@link #snapshot()} and combined with {@link #merge(LatencyHistogram)}, for example
+ * to aggregate several sessions.
+ */
+public final class LatencyHistogram {
+
+    private static final int LINEAR_BUCKET_COUNT = 16;
+    private static final int LINEAR_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT = LINEAR_BUCKET_COUNT
+            + (MAX_EXPONENT - LINEAR_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong totalCount;
+    private final AtomicLong sum;
+    private final AtomicLong min;
+    private final AtomicLong max;
+
+    public LatencyHistogram() {
+        counts = new AtomicLongArray(BUCKET_COUNT);
+        totalCount = new AtomicLong();
+        sum = new AtomicLong();
+        min = new AtomicLong(Long.MAX_VALUE);
+        max = new AtomicLong(Long.MIN_VALUE);
+    }
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(getBucketIndex(value));
+        totalCount.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMin = min.get();
+        while (value < currentMin && !min.compareAndSet(currentMin, value)) {
+            currentMin = min.get();
+        }
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Adds all values recorded by another histogram to this one.
+     */
+    public void merge(LatencyHistogram other) {
+        long otherCount = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long bucketCount = other.counts.get(i);
+            if (bucketCount != 0) {
+                counts.addAndGet(i, bucketCount);
+                otherCount += bucketCount;
+            }
+        }
+        if (otherCount == 0) {
+            return;
+        }
+        totalCount.addAndGet(otherCount);
+        sum.addAndGet(other.sum.get());
+        long otherMin = other.min.get();
+        long currentMin = min.get();
+        while (otherMin < currentMin && !min.compareAndSet(currentMin, otherMin)) {
+            currentMin = min.get();
+        }
+        long otherMax = other.max.get();
+        long currentMax = max.get();
+        while (otherMax > currentMax && !max.compareAndSet(currentMax, otherMax)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Returns a copy of this histogram. Values recorded concurrently may or may not be included.
+     */
+    public LatencyHistogram snapshot() {
+        LatencyHistogram snapshot = new LatencyHistogram();
+        snapshot.merge(this);
+        return snapshot;
+    }
+
+    /**
+     * Discards all recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        sum.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * Returns the smallest recorded value, or -1 if no values have been recorded.
+     */
+    public long getMin() {
+        return getCount() == 0 ? -1 : min.get();
+    }
+
+    /**
+     * Returns the largest recorded value, or -1 if no values have been recorded.
+     */
+    public long getMax() {
+        return getCount() == 0 ? -1 : max.get();
+    }
+
+    /**
+     * Returns the mean of the recorded values, or -1 if no values have been recorded.
+     */
+    public long getMean() {
+        long count = getCount();
+        return count == 0 ? -1 : sum.get() / count;
+    }
+
+    /**
+     * Returns an approximation of a percentile of the recorded values.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The approximate value, or -1 if no values have been recorded.
+     */
+    public long getPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * count);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long cumulativeCount = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulativeCount += counts.get(i);
+            if (cumulativeCount >= rank) {
+                return Math.min(Math.max(getBucketMidpoint(i), getMin()), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", p50=" + getPercentile(50) + ", p95=" + getPercentile(95)
+                + ", p99=" + getPercentile(99) + ", max=" + getMax();
+    }
+
+    private static int getBucketIndex(long value) {
+        if (value < LINEAR_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1));
+        return LINEAR_BUCKET_COUNT + (exponent - LINEAR_BUCKET_BITS) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    private static long getBucketMidpoint(int index) {
+        if (index < LINEAR_BUCKET_COUNT) {
+            return index;
+        }
+        int exponent = LINEAR_BUCKET_BITS + (index - LINEAR_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        int subBucket = (index - LINEAR_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (SUB_BUCKET_COUNT + subBucket) * width + width / 2;
+    }
+
+}
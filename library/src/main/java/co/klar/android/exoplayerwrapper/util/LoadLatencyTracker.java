@@ -0,0 +1,313 @@
+package co.klar.android.exoplayerwrapper.util;
+
+import com.google.android.exoplayer.TimeRange;
+import com.google.android.exoplayer.chunk.Format;
+
+import co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper;
+
+/**
+ * Tracks the latency and throughput of loads in {@link LatencyHistogram}s, per source
+ * ({@link ExoPlayerWrapper#TYPE_VIDEO}, {@link ExoPlayerWrapper#TYPE_AUDIO},
+ * {@link ExoPlayerWrapper#TYPE_TEXT}, {@link ExoPlayerWrapper#TYPE_METADATA} and
+ * {@link ExoPlayerWrapper#TYPE_MANIFEST}) and per format of each source.
+ * <p/>
+ * Latencies are in milliseconds and throughputs in kilobits per second. Memory is fixed: the
+ * number of formats tracked is bounded, and loads of further formats are only counted per source.
+ * Recording is lock-free, except for the first load of each format. Trackers can be copied with
+ * {@link #snapshot()} and combined with {@link #merge(LoadLatencyTracker)}.
+ * <p/>
+ * Format ids are only unique within a piece of content, so the per format histograms of a tracker
+ * are only meaningful for a single session. To aggregate sessions, the trackers of the sessions
+ * are merged into {@link #getDefault()} with {@link #mergeSources(LoadLatencyTracker)}, which only
+ * combines the per source histograms.
+ */
+public final class LoadLatencyTracker implements ExoPlayerWrapper.InfoListener {
+
+    public static final int SOURCE_COUNT = ExoPlayerWrapper.TYPE_MANIFEST + 1;
+    public static final int DEFAULT_MAX_FORMATS = 32;
+
+    private static LoadLatencyTracker defaultInstance;
+
+    private final LatencyHistogram[] sourceLatencies;
+    private final LatencyHistogram[] sourceThroughputs;
+    private final int[] formatSourceIds;
+    private final String[] formatIds;
+    private final LatencyHistogram[] formatLatencies;
+    private final LatencyHistogram[] formatThroughputs;
+
+    // Entries below formatCount are fully initialized, so they can be read without locking.
+    private volatile int formatCount;
+
+    /**
+     * Returns the process wide tracker, into which the per source histograms of sessions can be
+     * merged with {@link #mergeSources(LoadLatencyTracker)}.
+     */
+    public static synchronized LoadLatencyTracker getDefault() {
+        if (defaultInstance == null) {
+            defaultInstance = new LoadLatencyTracker();
+        }
+        return defaultInstance;
+    }
+
+    public LoadLatencyTracker() {
+        this(DEFAULT_MAX_FORMATS);
+    }
+
+    /**
+     * @param maxFormats The number of distinct formats tracked individually.
+     */
+    public LoadLatencyTracker(int maxFormats) {
+        sourceLatencies = new LatencyHistogram[SOURCE_COUNT];
+        sourceThroughputs = new LatencyHistogram[SOURCE_COUNT];
+        for (int i = 0; i < SOURCE_COUNT; i++) {
+            sourceLatencies[i] = new LatencyHistogram();
+            sourceThroughputs[i] = new LatencyHistogram();
+        }
+        formatSourceIds = new int[maxFormats];
+        formatIds = new String[maxFormats];
+        formatLatencies = new LatencyHistogram[maxFormats];
+        formatThroughputs = new LatencyHistogram[maxFormats];
+    }
+
+    /**
+     * Records a completed load.
+     *
+     * @param sourceId       The source of the load, one of the {@link ExoPlayerWrapper} TYPE_*
+     *                       constants.
+     * @param formatId       The id of the format of the load, or null.
+     * @param bytesLoaded    The number of bytes loaded, or a negative value if unknown.
+     * @param loadDurationMs The duration of the load.
+     */
+    public void record(int sourceId, String formatId, long bytesLoaded, long loadDurationMs) {
+        if (sourceId < 0 || sourceId >= SOURCE_COUNT) {
+            return;
+        }
+        long throughputKbps = bytesLoaded < 0 || loadDurationMs <= 0 ? -1
+                : bytesLoaded * 8 / loadDurationMs;
+        sourceLatencies[sourceId].record(loadDurationMs);
+        if (throughputKbps != -1) {
+            sourceThroughputs[sourceId].record(throughputKbps);
+        }
+        int formatIndex = formatId == null ? -1 : getOrAddFormatIndex(sourceId, formatId);
+        if (formatIndex != -1) {
+            formatLatencies[formatIndex].record(loadDurationMs);
+            if (throughputKbps != -1) {
+                formatThroughputs[formatIndex].record(throughputKbps);
+            }
+        }
+    }
+
+    /**
+     * Returns the latency histogram of a source.
+     *
+     * @param sourceId One of the {@link ExoPlayerWrapper} TYPE_* constants.
+     */
+    public LatencyHistogram getLatencyHistogram(int sourceId) {
+        return sourceLatencies[sourceId];
+    }
+
+    /**
+     * Returns the throughput histogram of a source.
+     *
+     * @param sourceId One of the {@link ExoPlayerWrapper} TYPE_* constants.
+     */
+    public LatencyHistogram getThroughputHistogram(int sourceId) {
+        return sourceThroughputs[sourceId];
+    }
+
+    /**
+     * Returns the latency histogram of a format of a source, or null if the format is not tracked.
+     *
+     * @param sourceId One of the {@link ExoPlayerWrapper} TYPE_* constants.
+     * @param formatId The id of the format.
+     */
+    public LatencyHistogram getFormatLatencyHistogram(int sourceId, String formatId) {
+        int index = getFormatIndex(sourceId, formatId);
+        return index == -1 ? null : formatLatencies[index];
+    }
+
+    /**
+     * Returns the throughput histogram of a format of a source, or null if the format is not
+     * tracked.
+     *
+     * @param sourceId One of the {@link ExoPlayerWrapper} TYPE_* constants.
+     * @param formatId The id of the format.
+     */
+    public LatencyHistogram getFormatThroughputHistogram(int sourceId, String formatId) {
+        int index = getFormatIndex(sourceId, formatId);
+        return index == -1 ? null : formatThroughputs[index];
+    }
+
+    /**
+     * Returns the ids of the tracked formats of a source.
+     *
+     * @param sourceId One of the {@link ExoPlayerWrapper} TYPE_* constants.
+     */
+    public String[] getFormatIds(int sourceId) {
+        int count = formatCount;
+        int sourceFormatCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (formatSourceIds[i] == sourceId) {
+                sourceFormatCount++;
+            }
+        }
+        String[] ids = new String[sourceFormatCount];
+        int index = 0;
+        for (int i = 0; i < count; i++) {
+            if (formatSourceIds[i] == sourceId) {
+                ids[index++] = formatIds[i];
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Adds the per source histograms of another tracker to this one. Use this to aggregate the
+     * trackers of sessions of different content, whose format ids are unrelated.
+     */
+    public void mergeSources(LoadLatencyTracker other) {
+        for (int i = 0; i < SOURCE_COUNT; i++) {
+            sourceLatencies[i].merge(other.sourceLatencies[i]);
+            sourceThroughputs[i].merge(other.sourceThroughputs[i]);
+        }
+    }
+
+    /**
+     * Adds all loads recorded by another tracker of the same content to this one, including the
+     * per format histograms.
+     */
+    public void merge(LoadLatencyTracker other) {
+        mergeSources(other);
+        int otherFormatCount = other.formatCount;
+        for (int i = 0; i < otherFormatCount; i++) {
+            int index = getOrAddFormatIndex(other.formatSourceIds[i], other.formatIds[i]);
+            if (index != -1) {
+                formatLatencies[index].merge(other.formatLatencies[i]);
+                formatThroughputs[index].merge(other.formatThroughputs[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of this tracker.
+     */
+    public LoadLatencyTracker snapshot() {
+        LoadLatencyTracker snapshot = new LoadLatencyTracker(formatIds.length);
+        snapshot.merge(this);
+        return snapshot;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < SOURCE_COUNT; i++) {
+            if (sourceLatencies[i].getCount() == 0) {
+                continue;
+            }
+            builder.append(getSourceName(i)).append(" latency [").append(sourceLatencies[i])
+                    .append("] kbps [").append(sourceThroughputs[i]).append("]\n");
+        }
+        int count = formatCount;
+        for (int i = 0; i < count; i++) {
+            builder.append(getSourceName(formatSourceIds[i])).append(' ').append(formatIds[i])
+                    .append(" latency [").append(formatLatencies[i])
+                    .append("] kbps [").append(formatThroughputs[i]).append("]\n");
+        }
+        return builder.toString();
+    }
+
+    // ExoPlayerWrapper.InfoListener
+
+    @Override
+    public void onLoadCompleted(int sourceId, long bytesLoaded, int type, int trigger, Format format,
+                                long mediaStartTimeMs, long mediaEndTimeMs, long elapsedRealtimeMs,
+                                long loadDurationMs) {
+        record(sourceId, format == null ? null : format.id, bytesLoaded, loadDurationMs);
+    }
+
+    @Override
+    public void onVideoFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onAudioFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onDroppedFrames(int count, long elapsed) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onBandwidthSample(int elapsedMs, long bytes, long bitrateEstimate) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onLoadStarted(int sourceId, long length, int type, int trigger, Format format,
+                              long mediaStartTimeMs, long mediaEndTimeMs) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onDecoderInitialized(String decoderName, long elapsedRealtimeMs,
+                                     long initializationDurationMs) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onAvailableRangeChanged(int sourceId, TimeRange availableRange) {
+        // Do nothing.
+    }
+
+    private int getFormatIndex(int sourceId, String formatId) {
+        int count = formatCount;
+        for (int i = 0; i < count; i++) {
+            if (formatSourceIds[i] == sourceId && formatIds[i].equals(formatId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int getOrAddFormatIndex(int sourceId, String formatId) {
+        int index = getFormatIndex(sourceId, formatId);
+        if (index != -1) {
+            return index;
+        }
+        synchronized (this) {
+            // Check again, in case the format was added concurrently.
+            index = getFormatIndex(sourceId, formatId);
+            int count = formatCount;
+            if (index != -1 || count == formatIds.length) {
+                return index;
+            }
+            formatSourceIds[count] = sourceId;
+            formatIds[count] = formatId;
+            formatLatencies[count] = new LatencyHistogram();
+            formatThroughputs[count] = new LatencyHistogram();
+            formatCount = count + 1;
+            return count;
+        }
+    }
+
+    private static String getSourceName(int sourceId) {
+        switch (sourceId) {
+            case ExoPlayerWrapper.TYPE_VIDEO:
+                return "video";
+            case ExoPlayerWrapper.TYPE_AUDIO:
+                return "audio";
+            case ExoPlayerWrapper.TYPE_TEXT:
+                return "text";
+            case ExoPlayerWrapper.TYPE_METADATA:
+                return "metadata";
+            case ExoPlayerWrapper.TYPE_MANIFEST:
+                return "manifest";
+            default:
+                return "?";
+        }
+    }
+
+}
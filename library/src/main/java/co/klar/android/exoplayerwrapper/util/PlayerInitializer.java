@@ -0,0 +1,168 @@
+package co.klar.android.exoplayerwrapper.util;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer.ExoPlayer;
+import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
+import com.google.android.exoplayer.MediaCodecVideoTrackRenderer;
+import com.google.android.exoplayer.audio.AudioCapabilities;
+import com.google.android.exoplayer.chunk.ChunkSampleSource;
+import com.google.android.exoplayer.dash.DashChunkSource;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescriptionParser;
+import com.google.android.exoplayer.extractor.ExtractorSampleSource;
+import com.google.android.exoplayer.extractor.mp4.FragmentedMp4Extractor;
+import com.google.android.exoplayer.extractor.ts.TsExtractor;
+import com.google.android.exoplayer.hls.HlsChunkSource;
+import com.google.android.exoplayer.hls.HlsPlaylistParser;
+import com.google.android.exoplayer.hls.HlsSampleSource;
+import com.google.android.exoplayer.smoothstreaming.SmoothStreamingChunkSource;
+import com.google.android.exoplayer.smoothstreaming.SmoothStreamingManifestParser;
+import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
+import com.google.android.exoplayer.upstream.DefaultHttpDataSource;
+import com.google.android.exoplayer.util.MimeTypes;
+import com.google.android.exoplayer.util.Util;
+
+import co.klar.android.exoplayerwrapper.extractor.DecoderCache;
+import co.klar.android.exoplayerwrapper.upstream.HttpConnectionPool;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Moves the one-off costs of the first playback of a process off its critical path.
+ * <p/>
+ * {@link #initialize(Context, String[])} is meant to be called from
+ * {@code Application.onCreate()}. On a background thread it loads and initializes the classes of
+ * the player stack, warms up the {@link DecoderCache} for H.264 and AAC, which also primes the
+ * decoder queries of the track selectors, resolves the given CDN hosts and opens a keep-alive
+ * connection to each of them in the {@link HttpConnectionPool#getDefault() default pool}. The user agent and the audio capabilities are computed once and cached for the renderer
+ * builders. Without initialization they are computed on first use, as before.
+ * <p/>
+ * The effect on startup is visible in the {@link StartupTraceAggregator}, which the players of
+ * {@code SimpleVideoPlayer} report to when their metrics are enabled, by comparing the time to
+ * first frame with and without initialization.
+ */
+public final class PlayerInitializer {
+
+    private static final String TAG = "PlayerInitializer";
+    private static final String APPLICATION_NAME = "ExoPlayerDemo";
+
+    private static String userAgent;
+    private static AudioCapabilities audioCapabilities;
+    private static volatile long initializationTimeMs = -1;
+
+    private PlayerInitializer() {
+    }
+
+    /**
+     * Starts initializing the player stack on a background thread. Does nothing if called before.
+     *
+     * @param context A context.
+     * @param cdnUrls URLs on the hosts media will be loaded from, to which connections are opened.
+     *                May be null.
+     */
+    public static void initialize(Context context, final String[] cdnUrls) {
+        final Context applicationContext = context.getApplicationContext();
+        synchronized (PlayerInitializer.class) {
+            if (initializationTimeMs != -1) {
+                return;
+            }
+            initializationTimeMs = 0;
+        }
+        new Thread(TAG) {
+            @Override
+            public void run() {
+                long startTimeMs = SystemClock.elapsedRealtime();
+                loadClasses();
+                String userAgent = getUserAgent(applicationContext);
+                getAudioCapabilities(applicationContext);
+                DecoderCache.getDefault().blockingWarmUp(applicationContext,
+                        new String[] {MimeTypes.VIDEO_H264, MimeTypes.AUDIO_AAC}, false);
+                if (cdnUrls != null) {
+                    for (String url : cdnUrls) {
+                        resolve(Uri.parse(url).getHost());
+                        HttpConnectionPool.getDefault().preconnect(url, userAgent);
+                    }
+                }
+                initializationTimeMs = Math.max(1, SystemClock.elapsedRealtime() - startTimeMs);
+                Log.d(TAG, "Initialized in " + initializationTimeMs + " ms");
+            }
+        }.start();
+    }
+
+    /**
+     * Returns whether {@link #initialize(Context, String[])} has completed.
+     */
+    public static boolean isInitialized() {
+        return initializationTimeMs > 0;
+    }
+
+    /**
+     * Returns the duration of the initialization, or -1 if it has not completed.
+     */
+    public static long getInitializationTimeMs() {
+        return initializationTimeMs > 0 ? initializationTimeMs : -1;
+    }
+
+    /**
+     * Returns the user agent of the player, computing it on first use.
+     */
+    public static synchronized String getUserAgent(Context context) {
+        if (userAgent == null) {
+            userAgent = Util.getUserAgent(context, APPLICATION_NAME);
+        }
+        return userAgent;
+    }
+
+    /**
+     * Returns the audio capabilities of the device, querying them on first use.
+     */
+    public static synchronized AudioCapabilities getAudioCapabilities(Context context) {
+        if (audioCapabilities == null) {
+            audioCapabilities = AudioCapabilities.getCapabilities(context);
+        }
+        return audioCapabilities;
+    }
+
+    /**
+     * Updates the cached audio capabilities, for example when an HDMI receiver is connected.
+     */
+    public static synchronized void onAudioCapabilitiesChanged(AudioCapabilities capabilities) {
+        audioCapabilities = capabilities;
+    }
+
+    private static void loadClasses() {
+        Class<?>[] classes = new Class<?>[] {
+                ExoPlayer.Factory.class, MediaCodecVideoTrackRenderer.class,
+                MediaCodecAudioTrackRenderer.class, ChunkSampleSource.class, DashChunkSource.class,
+                MediaPresentationDescriptionParser.class, HlsChunkSource.class,
+                HlsPlaylistParser.class, HlsSampleSource.class, SmoothStreamingChunkSource.class,
+                SmoothStreamingManifestParser.class, ExtractorSampleSource.class,
+                FragmentedMp4Extractor.class, TsExtractor.class, DefaultHttpDataSource.class,
+                DefaultBandwidthMeter.class};
+        ClassLoader classLoader = PlayerInitializer.class.getClassLoader();
+        for (Class<?> clazz : classes) {
+            try {
+                // Runs the static initializers, which loading the class literal does not.
+                Class.forName(clazz.getName(), true, classLoader);
+            } catch (ClassNotFoundException e) {
+                // Cannot happen, the class has just been loaded.
+            }
+        }
+    }
+
+    private static void resolve(String host) {
+        if (host == null) {
+            return;
+        }
+        try {
+            InetAddress.getAllByName(host);
+        } catch (UnknownHostException e) {
+            Log.w(TAG, "Failed to resolve " + host, e);
+        }
+    }
+
+}
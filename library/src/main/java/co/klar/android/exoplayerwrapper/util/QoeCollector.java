@@ -0,0 +1,268 @@
+package co.klar.android.exoplayerwrapper.util;
+
+import android.media.MediaCodec;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer.MediaCodecTrackRenderer;
+import com.google.android.exoplayer.TimeRange;
+import com.google.android.exoplayer.audio.AudioTrack;
+import com.google.android.exoplayer.chunk.Format;
+
+import co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper;
+
+import java.io.IOException;
+
+/**
+ * Collects quality of experience metrics for a playback session: join time, rebuffers, the time
+ * weighted video bitrate, format switches, dropped frames and errors.
+ * <p/>
+ * The collector only updates primitive counters as events arrive, so it can stay attached in
+ * production. A {@link QoeSummary} is only created when {@link #getSummary()} is called. All
+ * methods must be called on the thread on which the player's listeners are invoked.
+ * <p/>
+ * Buffering that follows a seek is accounted as seek time rather than as a rebuffer, as is any
+ * buffering before playback first starts.
+ */
+public class QoeCollector implements ExoPlayerWrapper.Listener, ExoPlayerWrapper.InfoListener,
+        ExoPlayerWrapper.InternalErrorListener, ExoPlayerWrapper.SeekListener {
+
+    private long sessionStartTimeMs;
+    private long lastUpdateTimeMs;
+
+    private boolean playWhenReady;
+    private int playbackState;
+    private boolean seeking;
+    private boolean rebuffering;
+
+    private long joinTimeMs;
+    private long playingTimeMs;
+    private int rebufferCount;
+    private long rebufferTimeMs;
+    private int seekCount;
+    private long seekTimeMs;
+
+    private int videoBitrate;
+    private long bitrateTimeProduct;
+    private long bitrateTimeMs;
+    private int videoFormatSwitchCount;
+    private int videoUpSwitchCount;
+    private int videoDownSwitchCount;
+    private int audioBitrate;
+    private int audioFormatSwitchCount;
+
+    private int droppedFrameCount;
+    private int fatalErrorCount;
+    private int internalErrorCount;
+
+    public QoeCollector() {
+        startSession();
+    }
+
+    /**
+     * Discards all collected metrics and starts a new session.
+     */
+    public void startSession() {
+        sessionStartTimeMs = SystemClock.elapsedRealtime();
+        lastUpdateTimeMs = sessionStartTimeMs;
+        playWhenReady = false;
+        playbackState = ExoPlayerWrapper.STATE_IDLE;
+        seeking = false;
+        rebuffering = false;
+        joinTimeMs = -1;
+        playingTimeMs = 0;
+        rebufferCount = 0;
+        rebufferTimeMs = 0;
+        seekCount = 0;
+        seekTimeMs = 0;
+        videoBitrate = -1;
+        bitrateTimeProduct = 0;
+        bitrateTimeMs = 0;
+        videoFormatSwitchCount = 0;
+        videoUpSwitchCount = 0;
+        videoDownSwitchCount = 0;
+        audioBitrate = -1;
+        audioFormatSwitchCount = 0;
+        droppedFrameCount = 0;
+        fatalErrorCount = 0;
+        internalErrorCount = 0;
+    }
+
+    /**
+     * Returns a summary of the metrics collected since the session was started.
+     */
+    public QoeSummary getSummary() {
+        long nowMs = SystemClock.elapsedRealtime();
+        updateTimes(nowMs);
+        int averageVideoBitrate = bitrateTimeMs == 0 ? videoBitrate
+                : (int) (bitrateTimeProduct / bitrateTimeMs);
+        return new QoeSummary(nowMs - sessionStartTimeMs, joinTimeMs, playingTimeMs,
+                rebufferCount, rebufferTimeMs, seekCount, seekTimeMs, averageVideoBitrate,
+                videoFormatSwitchCount, videoUpSwitchCount, videoDownSwitchCount,
+                audioFormatSwitchCount, droppedFrameCount, fatalErrorCount, internalErrorCount);
+    }
+
+    // ExoPlayerWrapper.Listener
+
+    @Override
+    public void onStateChanged(boolean playWhenReady, int playbackState) {
+        long nowMs = SystemClock.elapsedRealtime();
+        updateTimes(nowMs);
+        this.playWhenReady = playWhenReady;
+        this.playbackState = playbackState;
+        if (playbackState == ExoPlayerWrapper.STATE_BUFFERING) {
+            if (joinTimeMs != -1 && !seeking && !rebuffering && playWhenReady) {
+                rebuffering = true;
+                rebufferCount++;
+            }
+        } else {
+            seeking = false;
+            rebuffering = false;
+        }
+        if (joinTimeMs == -1 && playWhenReady && playbackState == ExoPlayerWrapper.STATE_READY) {
+            joinTimeMs = nowMs - sessionStartTimeMs;
+        }
+    }
+
+    @Override
+    public void onError(Exception e) {
+        fatalErrorCount++;
+    }
+
+    @Override
+    public void onVideoSizeChanged(int width, int height, int unappliedRotationDegrees,
+                                   float pixelWidthHeightRatio) {
+        // Do nothing.
+    }
+
+    // ExoPlayerWrapper.InfoListener
+
+    @Override
+    public void onVideoFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+        updateTimes(SystemClock.elapsedRealtime());
+        if (videoBitrate != -1 && format.bitrate != videoBitrate) {
+            videoFormatSwitchCount++;
+            if (format.bitrate > videoBitrate) {
+                videoUpSwitchCount++;
+            } else {
+                videoDownSwitchCount++;
+            }
+        }
+        videoBitrate = format.bitrate;
+    }
+
+    @Override
+    public void onAudioFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+        if (audioBitrate != -1 && format.bitrate != audioBitrate) {
+            audioFormatSwitchCount++;
+        }
+        audioBitrate = format.bitrate;
+    }
+
+    @Override
+    public void onDroppedFrames(int count, long elapsed) {
+        droppedFrameCount += count;
+    }
+
+    @Override
+    public void onBandwidthSample(int elapsedMs, long bytes, long bitrateEstimate) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onLoadStarted(int sourceId, long length, int type, int trigger, Format format,
+                              long mediaStartTimeMs, long mediaEndTimeMs) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onLoadCompleted(int sourceId, long bytesLoaded, int type, int trigger, Format format,
+                                long mediaStartTimeMs, long mediaEndTimeMs, long elapsedRealtimeMs,
+                                long loadDurationMs) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onDecoderInitialized(String decoderName, long elapsedRealtimeMs,
+                                     long initializationDurationMs) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onAvailableRangeChanged(int sourceId, TimeRange availableRange) {
+        // Do nothing.
+    }
+
+    // ExoPlayerWrapper.SeekListener
+
+    @Override
+    public void onSeek(long positionMs) {
+        updateTimes(SystemClock.elapsedRealtime());
+        seekCount++;
+        seeking = true;
+        rebuffering = false;
+    }
+
+    // ExoPlayerWrapper.InternalErrorListener
+
+    @Override
+    public void onRendererInitializationError(Exception e) {
+        internalErrorCount++;
+    }
+
+    @Override
+    public void onAudioTrackInitializationError(AudioTrack.InitializationException e) {
+        internalErrorCount++;
+    }
+
+    @Override
+    public void onAudioTrackWriteError(AudioTrack.WriteException e) {
+        internalErrorCount++;
+    }
+
+    @Override
+    public void onAudioTrackUnderrun(int bufferSize, long bufferSizeMs, long elapsedSinceLastFeedMs) {
+        internalErrorCount++;
+    }
+
+    @Override
+    public void onDecoderInitializationError(MediaCodecTrackRenderer.DecoderInitializationException e) {
+        internalErrorCount++;
+    }
+
+    @Override
+    public void onCryptoError(MediaCodec.CryptoException e) {
+        internalErrorCount++;
+    }
+
+    @Override
+    public void onLoadError(int sourceId, IOException e) {
+        internalErrorCount++;
+    }
+
+    @Override
+    public void onDrmSessionManagerError(Exception e) {
+        internalErrorCount++;
+    }
+
+    private void updateTimes(long nowMs) {
+        long elapsedMs = nowMs - lastUpdateTimeMs;
+        lastUpdateTimeMs = nowMs;
+        if (!playWhenReady) {
+            return;
+        }
+        if (playbackState == ExoPlayerWrapper.STATE_READY) {
+            playingTimeMs += elapsedMs;
+            if (videoBitrate > 0) {
+                bitrateTimeProduct += (long) videoBitrate * elapsedMs;
+                bitrateTimeMs += elapsedMs;
+            }
+        } else if (playbackState == ExoPlayerWrapper.STATE_BUFFERING) {
+            if (rebuffering) {
+                rebufferTimeMs += elapsedMs;
+            } else if (seeking) {
+                seekTimeMs += elapsedMs;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+package co.klar.android.exoplayerwrapper.util;
+
+/**
+ * The quality of experience of a playback session, as collected by {@link QoeCollector}.
+ * <p/>
+ * Durations are in milliseconds of wall-clock time, bitrates in bits per second.
+ */
+public final class QoeSummary {
+
+    public final long sessionDurationMs;
+    /**
+     * The time from the start of the session until playback first started, or -1 if it did not.
+     */
+    public final long joinTimeMs;
+    public final long playingTimeMs;
+    public final int rebufferCount;
+    public final long rebufferTimeMs;
+    public final int seekCount;
+    public final long seekTimeMs;
+    /**
+     * The average video bitrate, weighted by the time each format was played, or -1 if unknown.
+     */
+    public final int averageVideoBitrate;
+    public final int videoFormatSwitchCount;
+    public final int videoUpSwitchCount;
+    public final int videoDownSwitchCount;
+    public final int audioFormatSwitchCount;
+    public final int droppedFrameCount;
+    public final int fatalErrorCount;
+    public final int internalErrorCount;
+
+    public QoeSummary(long sessionDurationMs, long joinTimeMs, long playingTimeMs,
+                      int rebufferCount, long rebufferTimeMs, int seekCount, long seekTimeMs,
+                      int averageVideoBitrate, int videoFormatSwitchCount, int videoUpSwitchCount,
+                      int videoDownSwitchCount, int audioFormatSwitchCount,
+                      int droppedFrameCount, int fatalErrorCount, int internalErrorCount) {
+        this.sessionDurationMs = sessionDurationMs;
+        this.joinTimeMs = joinTimeMs;
+        this.playingTimeMs = playingTimeMs;
+        this.rebufferCount = rebufferCount;
+        this.rebufferTimeMs = rebufferTimeMs;
+        this.seekCount = seekCount;
+        this.seekTimeMs = seekTimeMs;
+        this.averageVideoBitrate = averageVideoBitrate;
+        this.videoFormatSwitchCount = videoFormatSwitchCount;
+        this.videoUpSwitchCount = videoUpSwitchCount;
+        this.videoDownSwitchCount = videoDownSwitchCount;
+        this.audioFormatSwitchCount = audioFormatSwitchCount;
+        this.droppedFrameCount = droppedFrameCount;
+        this.fatalErrorCount = fatalErrorCount;
+        this.internalErrorCount = internalErrorCount;
+    }
+
+    /**
+     * Returns the fraction of the time playback was intended to progress that was spent
+     * rebuffering, between 0 and 1.
+     */
+    public float getRebufferRatio() {
+        long totalTimeMs = playingTimeMs + rebufferTimeMs;
+        return totalTimeMs == 0 ? 0 : (float) rebufferTimeMs / totalTimeMs;
+    }
+
+    public float getDroppedFramesPerMinute() {
+        return playingTimeMs == 0 ? 0 : droppedFrameCount * 60000f / playingTimeMs;
+    }
+
+    @Override
+    public String toString() {
+        return "duration=" + sessionDurationMs + ", join=" + joinTimeMs + ", playing="
+                + playingTimeMs + ", rebuffers=" + rebufferCount + "/" + rebufferTimeMs
+                + ", rebufferRatio=" + getRebufferRatio() + ", seeks=" + seekCount + "/"
+                + seekTimeMs + ", bitrate=" + averageVideoBitrate + ", videoSwitches="
+                + videoFormatSwitchCount + " (+" + videoUpSwitchCount + "/-"
+                + videoDownSwitchCount + "), audioSwitches=" + audioFormatSwitchCount
+                + ", droppedPerMinute=" + getDroppedFramesPerMinute() + ", errors="
+                + fatalErrorCount + "/" + internalErrorCount;
+    }
+
+}
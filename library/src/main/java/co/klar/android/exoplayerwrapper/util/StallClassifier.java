@@ -0,0 +1,455 @@
+package co.klar.android.exoplayerwrapper.util;
+
+import android.media.MediaCodec;
+
+import com.google.android.exoplayer.MediaCodecTrackRenderer;
+import com.google.android.exoplayer.TimeRange;
+import com.google.android.exoplayer.audio.AudioTrack;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.util.Clock;
+import com.google.android.exoplayer.util.SystemClock;
+
+import co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper;
+
+import java.io.IOException;
+
+/**
+ * Classifies the cause of each stall, that is each time playback goes from playing to buffering,
+ * by correlating the events that preceded it and that occurred while it lasted.
+ * <p/>
+ * The considered causes are insufficient throughput (slow loads or a bandwidth estimate below the
+ * bitrate being played), load errors and retries, decoder stalls (dropped frames while media is
+ * buffered), audio underruns and seeks. The first two point at the network or the CDN, the next
+ * two at the client. Each cause is scored from the evidence, and the highest scoring cause is
+ * reported with a confidence between 0 and 1 when the stall ends.
+ * <p/>
+ * Evidence is kept in small preallocated windows, so the classifier does not allocate per event.
+ * Must be used on the thread on which the player's listeners are invoked.
+ */
+public final class StallClassifier implements ExoPlayerWrapper.Listener,
+        ExoPlayerWrapper.InfoListener, ExoPlayerWrapper.InternalErrorListener,
+        ExoPlayerWrapper.SeekListener {
+
+    /**
+     * Receives classified stalls.
+     */
+    public interface Listener {
+        /**
+         * Invoked when a stall ends.
+         *
+         * @param cause           One of the {@link StallClassifier} CAUSE_* constants.
+         * @param confidence      The confidence in the cause, between 0 and 1.
+         * @param stallDurationMs The duration of the stall.
+         */
+        void onStall(int cause, float confidence, long stallDurationMs);
+    }
+
+    public static final int CAUSE_UNKNOWN = 0;
+    public static final int CAUSE_THROUGHPUT = 1;
+    public static final int CAUSE_LOAD_ERROR = 2;
+    public static final int CAUSE_DECODER = 3;
+    public static final int CAUSE_AUDIO_UNDERRUN = 4;
+    public static final int CAUSE_SEEK = 5;
+    public static final int CAUSE_COUNT = 6;
+
+    /**
+     * The time before a stall from which evidence is considered.
+     */
+    public static final long LOOKBACK_MS = 10000;
+
+    // A stall with more media than this buffered ahead is unlikely to be caused by the network.
+    private static final long HEALTHY_BUFFER_MS = 2000;
+    private static final int WINDOW_SIZE = 16;
+
+    // The factor applied to the network causes when the buffer was healthy.
+    private static final float HEALTHY_BUFFER_NETWORK_FACTOR = 0.5f;
+    // The score added to the client causes when the buffer was healthy.
+    private static final float HEALTHY_BUFFER_CLIENT_BONUS = 0.3f;
+    // The score of a single load error, and the score added by each further error.
+    private static final float LOAD_ERROR_SCORE = 0.6f;
+    private static final float LOAD_ERROR_REPEAT_SCORE = 0.2f;
+    // The number of dropped frames that point at the decoder with full confidence.
+    private static final float DROPPED_FRAMES_FULL_SCORE = 25;
+    private static final float UNDERRUN_SCORE = 0.7f;
+    // The throughput score is 0 from this ratio of throughput to the bitrate being played.
+    private static final float THROUGHPUT_HEADROOM = 1.2f;
+    // The throughput score is 0 for loads up to this fraction of the media duration they load.
+    private static final float LOAD_DURATION_RATIO_OFFSET = 0.5f;
+
+    private final ExoPlayerWrapper player;
+    private final Clock clock;
+    private final EventWindow loadErrors;
+    private final EventWindow droppedFrames;
+    private final EventWindow underruns;
+    private final EventWindow bandwidthSamples;
+    // Load durations in thousandths of the media duration they loaded.
+    private final EventWindow loadDurationRatios;
+    private final long[] loadedEndTimesMs;
+    private final int[] causeCounts;
+    private final float[] scores;
+
+    private Listener listener;
+    private boolean joined;
+    private boolean seeking;
+    private boolean stalled;
+    private boolean stallAfterSeek;
+    private long stallStartTimeMs;
+    private long stallBufferedAheadMs;
+    private long bitrateEstimate;
+    private int videoBitrate;
+    private int audioBitrate;
+
+    /**
+     * @param player The player, used to read the playback position when a stall starts.
+     */
+    public StallClassifier(ExoPlayerWrapper player) {
+        this(player, new SystemClock());
+    }
+
+    /**
+     * @param player The player, used to read the playback position when a stall starts.
+     * @param clock  The clock timing the evidence and the stalls.
+     */
+    public StallClassifier(ExoPlayerWrapper player, Clock clock) {
+        this.player = player;
+        this.clock = clock;
+        loadErrors = new EventWindow(WINDOW_SIZE);
+        droppedFrames = new EventWindow(WINDOW_SIZE);
+        underruns = new EventWindow(WINDOW_SIZE);
+        bandwidthSamples = new EventWindow(WINDOW_SIZE);
+        loadDurationRatios = new EventWindow(WINDOW_SIZE);
+        loadedEndTimesMs = new long[ExoPlayerWrapper.RENDERER_COUNT];
+        causeCounts = new int[CAUSE_COUNT];
+        scores = new float[CAUSE_COUNT];
+        resetLoadedEndTimes();
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the number of stalls attributed to a cause.
+     *
+     * @param cause One of the CAUSE_* constants.
+     */
+    public int getCauseCount(int cause) {
+        return causeCounts[cause];
+    }
+
+    /**
+     * Returns whether a cause lies with the network or the CDN rather than with the client.
+     */
+    public static boolean isNetworkCause(int cause) {
+        return cause == CAUSE_THROUGHPUT || cause == CAUSE_LOAD_ERROR;
+    }
+
+    public static String getCauseName(int cause) {
+        switch (cause) {
+            case CAUSE_THROUGHPUT:
+                return "throughput";
+            case CAUSE_LOAD_ERROR:
+                return "loadError";
+            case CAUSE_DECODER:
+                return "decoder";
+            case CAUSE_AUDIO_UNDERRUN:
+                return "audioUnderrun";
+            case CAUSE_SEEK:
+                return "seek";
+            default:
+                return "unknown";
+        }
+    }
+
+    // ExoPlayerWrapper.Listener
+
+    @Override
+    public void onStateChanged(boolean playWhenReady, int playbackState) {
+        onStateChanged(playWhenReady, playbackState, player.getCurrentPosition());
+    }
+
+    /**
+     * Handles a state change of the player at a given playback position.
+     */
+    /* package */ void onStateChanged(boolean playWhenReady, int playbackState, long positionMs) {
+        long nowMs = clock.elapsedRealtime();
+        if (playbackState == ExoPlayerWrapper.STATE_BUFFERING) {
+            if (joined && playWhenReady && !stalled) {
+                stalled = true;
+                stallAfterSeek = seeking;
+                stallStartTimeMs = nowMs;
+                stallBufferedAheadMs = getBufferedAheadMs(positionMs);
+            }
+            return;
+        }
+        if (stalled) {
+            stalled = false;
+            classifyStall(nowMs);
+        }
+        seeking = false;
+        if (playWhenReady && playbackState == ExoPlayerWrapper.STATE_READY) {
+            joined = true;
+        }
+    }
+
+    @Override
+    public void onError(Exception e) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onVideoSizeChanged(int width, int height, int unappliedRotationDegrees,
+                                   float pixelWidthHeightRatio) {
+        // Do nothing.
+    }
+
+    // ExoPlayerWrapper.InfoListener
+
+    @Override
+    public void onVideoFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+        videoBitrate = format.bitrate;
+    }
+
+    @Override
+    public void onAudioFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+        audioBitrate = format.bitrate;
+    }
+
+    @Override
+    public void onDroppedFrames(int count, long elapsed) {
+        droppedFrames.add(clock.elapsedRealtime(), count);
+    }
+
+    @Override
+    public void onBandwidthSample(int elapsedMs, long bytes, long bitrateEstimate) {
+        this.bitrateEstimate = bitrateEstimate;
+        if (elapsedMs > 0) {
+            bandwidthSamples.add(clock.elapsedRealtime(), bytes * 8000 / elapsedMs);
+        }
+    }
+
+    @Override
+    public void onLoadStarted(int sourceId, long length, int type, int trigger, Format format,
+                              long mediaStartTimeMs, long mediaEndTimeMs) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onLoadCompleted(int sourceId, long bytesLoaded, int type, int trigger, Format format,
+                                long mediaStartTimeMs, long mediaEndTimeMs, long elapsedRealtimeMs,
+                                long loadDurationMs) {
+        if (sourceId != ExoPlayerWrapper.TYPE_VIDEO && sourceId != ExoPlayerWrapper.TYPE_AUDIO) {
+            return;
+        }
+        if (mediaEndTimeMs > loadedEndTimesMs[sourceId]) {
+            loadedEndTimesMs[sourceId] = mediaEndTimeMs;
+        }
+        long mediaDurationMs = mediaEndTimeMs - mediaStartTimeMs;
+        if (mediaStartTimeMs != -1 && mediaDurationMs > 0) {
+            loadDurationRatios.add(elapsedRealtimeMs, loadDurationMs * 1000 / mediaDurationMs);
+        }
+    }
+
+    @Override
+    public void onDecoderInitialized(String decoderName, long elapsedRealtimeMs,
+                                     long initializationDurationMs) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onAvailableRangeChanged(int sourceId, TimeRange availableRange) {
+        // Do nothing.
+    }
+
+    // ExoPlayerWrapper.SeekListener
+
+    @Override
+    public void onSeek(long positionMs) {
+        seeking = true;
+        resetLoadedEndTimes();
+    }
+
+    // ExoPlayerWrapper.InternalErrorListener
+
+    @Override
+    public void onLoadError(int sourceId, IOException e) {
+        loadErrors.add(clock.elapsedRealtime(), 1);
+    }
+
+    @Override
+    public void onAudioTrackUnderrun(int bufferSize, long bufferSizeMs, long elapsedSinceLastFeedMs) {
+        underruns.add(clock.elapsedRealtime(), 1);
+    }
+
+    @Override
+    public void onRendererInitializationError(Exception e) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onAudioTrackInitializationError(AudioTrack.InitializationException e) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onAudioTrackWriteError(AudioTrack.WriteException e) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onDecoderInitializationError(MediaCodecTrackRenderer.DecoderInitializationException e) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onCryptoError(MediaCodec.CryptoException e) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onDrmSessionManagerError(Exception e) {
+        // Do nothing.
+    }
+
+    // Internal methods.
+
+    private void classifyStall(long nowMs) {
+        long stallDurationMs = nowMs - stallStartTimeMs;
+        int cause;
+        float confidence;
+        if (stallAfterSeek) {
+            cause = CAUSE_SEEK;
+            confidence = 1;
+        } else {
+            long sinceMs = stallStartTimeMs - LOOKBACK_MS;
+            boolean bufferHealthy = stallBufferedAheadMs > HEALTHY_BUFFER_MS;
+            float networkFactor = bufferHealthy ? HEALTHY_BUFFER_NETWORK_FACTOR : 1;
+            float clientBonus = bufferHealthy ? HEALTHY_BUFFER_CLIENT_BONUS : 0;
+            scores[CAUSE_THROUGHPUT] = networkFactor * getThroughputScore(sinceMs);
+            int errorCount = (int) loadErrors.sum(sinceMs);
+            scores[CAUSE_LOAD_ERROR] = errorCount == 0 ? 0 : networkFactor
+                    * clamp(LOAD_ERROR_SCORE + LOAD_ERROR_REPEAT_SCORE * (errorCount - 1));
+            long droppedFrameCount = droppedFrames.sum(sinceMs);
+            scores[CAUSE_DECODER] = droppedFrameCount == 0 ? 0
+                    : clamp(droppedFrameCount / DROPPED_FRAMES_FULL_SCORE + clientBonus);
+            scores[CAUSE_AUDIO_UNDERRUN] = underruns.sum(sinceMs) == 0 ? 0
+                    : clamp(UNDERRUN_SCORE + clientBonus);
+            cause = CAUSE_UNKNOWN;
+            float total = 0;
+            for (int i = 0; i < CAUSE_COUNT; i++) {
+                total += scores[i];
+                if (scores[i] > scores[cause]) {
+                    cause = i;
+                }
+            }
+            // Weigh the strength of the evidence by how clearly it points at a single cause.
+            confidence = total == 0 ? 0 : scores[cause] * scores[cause] / total;
+        }
+        causeCounts[cause]++;
+        if (listener != null) {
+            listener.onStall(cause, confidence, stallDurationMs);
+        }
+    }
+
+    private float getThroughputScore(long sinceMs) {
+        float score = 0;
+        long requiredBitrate = Math.max(0, videoBitrate) + Math.max(0, audioBitrate);
+        if (requiredBitrate > 0) {
+            long bitrate = bandwidthSamples.count(sinceMs) > 0 ? bandwidthSamples.min(sinceMs)
+                    : bitrateEstimate;
+            if (bitrate > 0) {
+                score = clamp(THROUGHPUT_HEADROOM - (float) bitrate / requiredBitrate);
+            }
+        }
+        if (loadDurationRatios.count(sinceMs) > 0) {
+            // Loads that take longer than the media they contain cannot keep the buffer filled.
+            score = Math.max(score, clamp(loadDurationRatios.max(sinceMs) / 1000f
+                    - LOAD_DURATION_RATIO_OFFSET));
+        }
+        return score;
+    }
+
+    private long getBufferedAheadMs(long positionMs) {
+        long videoEndMs = loadedEndTimesMs[ExoPlayerWrapper.TYPE_VIDEO];
+        long audioEndMs = loadedEndTimesMs[ExoPlayerWrapper.TYPE_AUDIO];
+        long endMs = videoEndMs == -1 ? audioEndMs
+                : audioEndMs == -1 ? videoEndMs : Math.min(videoEndMs, audioEndMs);
+        return endMs == -1 ? 0 : Math.max(0, endMs - positionMs);
+    }
+
+    private void resetLoadedEndTimes() {
+        for (int i = 0; i < loadedEndTimesMs.length; i++) {
+            loadedEndTimesMs[i] = -1;
+        }
+    }
+
+    private static float clamp(float value) {
+        return Math.max(0, Math.min(1, value));
+    }
+
+    /**
+     * A fixed-size window of timestamped values.
+     */
+    private static final class EventWindow {
+
+        private final long[] timesMs;
+        private final long[] values;
+
+        private int writeIndex;
+        private int size;
+
+        public EventWindow(int capacity) {
+            timesMs = new long[capacity];
+            values = new long[capacity];
+        }
+
+        public void add(long timeMs, long value) {
+            timesMs[writeIndex] = timeMs;
+            values[writeIndex] = value;
+            writeIndex = (writeIndex + 1) % timesMs.length;
+            size = Math.min(size + 1, timesMs.length);
+        }
+
+        public int count(long sinceMs) {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (timesMs[i] >= sinceMs) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        public long sum(long sinceMs) {
+            long sum = 0;
+            for (int i = 0; i < size; i++) {
+                if (timesMs[i] >= sinceMs) {
+                    sum += values[i];
+                }
+            }
+            return sum;
+        }
+
+        public long min(long sinceMs) {
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                if (timesMs[i] >= sinceMs) {
+                    min = Math.min(min, values[i]);
+                }
+            }
+            return min;
+        }
+
+        public long max(long sinceMs) {
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < size; i++) {
+                if (timesMs[i] >= sinceMs) {
+                    max = Math.max(max, values[i]);
+                }
+            }
+            return max;
+        }
+
+    }
+
+}
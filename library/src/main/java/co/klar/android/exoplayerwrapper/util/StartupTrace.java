@@ -0,0 +1,150 @@
+package co.klar.android.exoplayerwrapper.util;
+
+import co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper;
+
+/**
+ * The timeline of a single {@link ExoPlayerWrapper#prepare()}, from the call itself until the
+ * player is ready and, if it renders video to a surface, the first frame has been drawn.
+ * <p/>
+ * Each phase is stamped once, with {@link android.os.SystemClock#elapsedRealtime()}, when it is
+ * first reached. Phases that do not apply to a stream, such as UTC timing resolution for anything
+ * but live DASH, are never stamped.
+ */
+public final class StartupTrace {
+
+    public static final int PHASE_PREPARE = 0;
+    public static final int PHASE_MANIFEST_LOADED = 1;
+    public static final int PHASE_TIMING_RESOLVED = 2;
+    public static final int PHASE_RENDERERS_BUILT = 3;
+    public static final int PHASE_DECODERS_INITIALIZED = 4;
+    public static final int PHASE_READY = 5;
+    public static final int PHASE_FIRST_FRAME = 6;
+    // Not stamped if the keys of a retained DRM session are reused.
+    public static final int PHASE_DRM_KEYS_LOADED = 7;
+    public static final int PHASE_COUNT = 8;
+
+    private final boolean sourceSwitch;
+    private final long[] timestampsMs;
+
+    private long decoderInitializationTimeMs;
+
+    public StartupTrace() {
+        this(false);
+    }
+
+    /**
+     * @param sourceSwitch Whether the prepare switched from another source that was played just
+     *                     before, as opposed to a cold startup.
+     */
+    public StartupTrace(boolean sourceSwitch) {
+        this.sourceSwitch = sourceSwitch;
+        timestampsMs = new long[PHASE_COUNT];
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            timestampsMs[i] = -1;
+        }
+    }
+
+    /**
+     * Stamps a phase, unless it has been stamped already.
+     *
+     * @param phase         One of the PHASE_* constants.
+     * @param elapsedTimeMs The time at which the phase was reached.
+     */
+    public void mark(int phase, long elapsedTimeMs) {
+        if (timestampsMs[phase] == -1) {
+            timestampsMs[phase] = elapsedTimeMs;
+        }
+    }
+
+    /**
+     * Records the initialization of a decoder. {@link #PHASE_DECODERS_INITIALIZED} is the time at
+     * which the last decoder initialized before the first frame became ready.
+     *
+     * @param elapsedTimeMs            The time at which initialization completed.
+     * @param initializationDurationMs The time the initialization took.
+     */
+    public void onDecoderInitialized(long elapsedTimeMs, long initializationDurationMs) {
+        if (timestampsMs[PHASE_FIRST_FRAME] == -1) {
+            timestampsMs[PHASE_DECODERS_INITIALIZED] = elapsedTimeMs;
+            decoderInitializationTimeMs += initializationDurationMs;
+        }
+    }
+
+    /**
+     * Returns the time at which a phase was reached, or -1 if it was not reached.
+     */
+    public long getTimestampMs(int phase) {
+        return timestampsMs[phase];
+    }
+
+    /**
+     * Returns the time between {@link #PHASE_PREPARE} and a phase, or -1 if it was not reached.
+     */
+    public long getTimeSincePrepareMs(int phase) {
+        return timestampsMs[phase] == -1 || timestampsMs[PHASE_PREPARE] == -1 ? -1
+                : timestampsMs[phase] - timestampsMs[PHASE_PREPARE];
+    }
+
+    /**
+     * Returns whether the prepare switched from another source that was played just before.
+     */
+    public boolean isSourceSwitch() {
+        return sourceSwitch;
+    }
+
+    /**
+     * Returns the total time spent initializing decoders before the first frame.
+     */
+    public long getDecoderInitializationTimeMs() {
+        return decoderInitializationTimeMs;
+    }
+
+    /**
+     * Returns whether the startup is complete: the player is ready and, if it renders video to a
+     * surface, the first frame has been drawn. The first frame is usually drawn before the player
+     * reports that it is ready.
+     *
+     * @param rendersVideo Whether the player renders video to a surface.
+     */
+    public boolean isComplete(boolean rendersVideo) {
+        return timestampsMs[PHASE_READY] != -1
+                && (!rendersVideo || timestampsMs[PHASE_FIRST_FRAME] != -1);
+    }
+
+    public static String getPhaseName(int phase) {
+        switch (phase) {
+            case PHASE_PREPARE:
+                return "prepare";
+            case PHASE_MANIFEST_LOADED:
+                return "manifest";
+            case PHASE_TIMING_RESOLVED:
+                return "timing";
+            case PHASE_RENDERERS_BUILT:
+                return "renderers";
+            case PHASE_DECODERS_INITIALIZED:
+                return "decoders";
+            case PHASE_READY:
+                return "ready";
+            case PHASE_FIRST_FRAME:
+                return "firstFrame";
+            case PHASE_DRM_KEYS_LOADED:
+                return "drmKeys";
+            default:
+                return "?";
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(getPhaseName(i)).append('=').append(getTimeSincePrepareMs(i));
+        }
+        return builder.append(", decoderInit=").append(decoderInitializationTimeMs)
+                .append(", switch=").append(sourceSwitch).toString();
+    }
+
+}
@@ -0,0 +1,98 @@
+package co.klar.android.exoplayerwrapper.util;
+
+import co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper;
+
+/**
+ * Aggregates {@link StartupTrace}s into one {@link LatencyHistogram} per phase, holding the time
+ * from {@link StartupTrace#PHASE_PREPARE} to that phase, and the total decoder initialization time
+ * of each startup. The decoder initialization time is also split into source switches and cold
+ * startups, which shows what a switch costs in decoder initialization, as decoders are not
+ * reused across sources.
+ */
+public final class StartupTraceAggregator implements ExoPlayerWrapper.StartupListener {
+
+    private static StartupTraceAggregator defaultInstance;
+
+    private final LatencyHistogram[] histograms;
+    private final LatencyHistogram decoderInitializationHistogram;
+    private final LatencyHistogram switchDecoderInitializationHistogram;
+    private final LatencyHistogram coldDecoderInitializationHistogram;
+
+    /**
+     * Returns the process wide aggregator.
+     */
+    public static synchronized StartupTraceAggregator getDefault() {
+        if (defaultInstance == null) {
+            defaultInstance = new StartupTraceAggregator();
+        }
+        return defaultInstance;
+    }
+
+    public StartupTraceAggregator() {
+        histograms = new LatencyHistogram[StartupTrace.PHASE_COUNT];
+        for (int i = 0; i < StartupTrace.PHASE_COUNT; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        decoderInitializationHistogram = new LatencyHistogram();
+        switchDecoderInitializationHistogram = new LatencyHistogram();
+        coldDecoderInitializationHistogram = new LatencyHistogram();
+    }
+
+    @Override
+    public void onStartupTrace(StartupTrace trace) {
+        for (int i = 0; i < StartupTrace.PHASE_COUNT; i++) {
+            long timeSincePrepareMs = trace.getTimeSincePrepareMs(i);
+            if (timeSincePrepareMs != -1) {
+                histograms[i].record(timeSincePrepareMs);
+            }
+        }
+        long decoderInitializationTimeMs = trace.getDecoderInitializationTimeMs();
+        decoderInitializationHistogram.record(decoderInitializationTimeMs);
+        (trace.isSourceSwitch() ? switchDecoderInitializationHistogram
+                : coldDecoderInitializationHistogram).record(decoderInitializationTimeMs);
+    }
+
+    /**
+     * Returns the histogram of the time from prepare to a phase.
+     *
+     * @param phase One of the {@link StartupTrace} PHASE_* constants.
+     */
+    public LatencyHistogram getHistogram(int phase) {
+        return histograms[phase];
+    }
+
+    /**
+     * Returns the histogram of the total decoder initialization time per startup.
+     */
+    public LatencyHistogram getDecoderInitializationHistogram() {
+        return decoderInitializationHistogram;
+    }
+
+    /**
+     * Returns the histogram of the total decoder initialization time per source switch.
+     */
+    public LatencyHistogram getSwitchDecoderInitializationHistogram() {
+        return switchDecoderInitializationHistogram;
+    }
+
+    /**
+     * Returns the histogram of the total decoder initialization time per cold startup.
+     */
+    public LatencyHistogram getColdDecoderInitializationHistogram() {
+        return coldDecoderInitializationHistogram;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < StartupTrace.PHASE_COUNT; i++) {
+            builder.append(StartupTrace.getPhaseName(i)).append(" [").append(histograms[i])
+                    .append("]\n");
+        }
+        return builder.append("decoderInit [").append(decoderInitializationHistogram)
+                .append("]\nswitchDecoderInit [").append(switchDecoderInitializationHistogram)
+                .append("]\ncoldDecoderInit [").append(coldDecoderInitializationHistogram)
+                .append(']').toString();
+    }
+
+}
@@ -0,0 +1,285 @@
+package co.klar.android.exoplayerwrapper.widget;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.View;
+
+import com.google.android.exoplayer.CodecCounters;
+import com.google.android.exoplayer.ExoPlayer;
+import com.google.android.exoplayer.TimeRange;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+
+import co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper;
+
+/**
+ * A performance overlay showing the video format, the bandwidth estimate, the buffered-ahead
+ * duration, the number of dropped frames and the names of the decoders of a player.
+ * <p/>
+ * The values are read from the player's {@link
+ * com.google.android.exoplayer.util.DebugTextViewHelper.Provider} methods once per refresh
+ * interval. The view has a fixed size, so a refresh only invalidates it and never triggers a
+ * layout pass, and the text is formatted into preallocated character buffers, so a refresh does
+ * not allocate. The overlay can therefore stay enabled during field tests.
+ */
+public class DebugOverlayView extends View implements Runnable, ExoPlayerWrapper.InfoListener {
+
+    public static final int REFRESH_INTERVAL_MS = 1000;
+
+    private static final int LINE_COUNT = 5;
+    private static final int MAX_LINE_LENGTH = 64;
+    private static final int TEXT_SIZE_SP = 12;
+    private static final int PADDING_DP = 4;
+    private static final int DECODER_COUNT = 2;
+
+    private final Paint textPaint;
+    private final Paint backgroundPaint;
+    private final char[][] lines;
+    private final int[] lineLengths;
+    private final String[] decoderNames;
+    private final int padding;
+
+    private ExoPlayerWrapper player;
+    private int lineIndex;
+
+    public DebugOverlayView(Context context) {
+        this(context, null);
+    }
+
+    public DebugOverlayView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        textPaint.setColor(Color.WHITE);
+        textPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, TEXT_SIZE_SP,
+                getResources().getDisplayMetrics()));
+        backgroundPaint = new Paint();
+        backgroundPaint.setColor(0x99000000);
+        padding = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, PADDING_DP,
+                getResources().getDisplayMetrics());
+        lines = new char[LINE_COUNT][MAX_LINE_LENGTH];
+        lineLengths = new int[LINE_COUNT];
+        decoderNames = new String[DECODER_COUNT];
+    }
+
+    /**
+     * Sets the player whose state is shown, or null to show nothing.
+     */
+    public void setPlayer(ExoPlayerWrapper player) {
+        if (this.player != null) {
+            this.player.removeInfoListener(this);
+        }
+        this.player = player;
+        for (int i = 0; i < DECODER_COUNT; i++) {
+            decoderNames[i] = null;
+        }
+        if (player != null) {
+            player.addInfoListener(this);
+        }
+        removeCallbacks(this);
+        if (player != null) {
+            post(this);
+        }
+        invalidate();
+    }
+
+    // Runnable
+
+    @Override
+    public void run() {
+        invalidate();
+        if (player != null) {
+            postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        removeCallbacks(this);
+        if (player != null) {
+            post(this);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        removeCallbacks(this);
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        // The size only depends on the text size, so that refreshes never require a layout pass.
+        Paint.FontMetricsInt fontMetrics = textPaint.getFontMetricsInt();
+        int lineHeight = fontMetrics.descent - fontMetrics.ascent;
+        int width = (int) (textPaint.measureText("m") * MAX_LINE_LENGTH / 2) + 2 * padding;
+        int height = lineHeight * LINE_COUNT + 2 * padding;
+        setMeasuredDimension(resolveSize(width, widthMeasureSpec),
+                resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (player == null) {
+            return;
+        }
+        updateLines();
+        canvas.drawRect(0, 0, getWidth(), getHeight(), backgroundPaint);
+        Paint.FontMetricsInt fontMetrics = textPaint.getFontMetricsInt();
+        int lineHeight = fontMetrics.descent - fontMetrics.ascent;
+        int y = padding - fontMetrics.ascent;
+        for (int i = 0; i < LINE_COUNT; i++) {
+            canvas.drawText(lines[i], 0, lineLengths[i], padding, y, textPaint);
+            y += lineHeight;
+        }
+    }
+
+    // ExoPlayerWrapper.InfoListener
+
+    @Override
+    public void onDecoderInitialized(String decoderName, long elapsedRealtimeMs,
+                                     long initializationDurationMs) {
+        for (int i = 0; i < DECODER_COUNT; i++) {
+            if (decoderName.equals(decoderNames[i])) {
+                return;
+            }
+        }
+        // Keep the most recently initialized decoders, which are the video and the audio decoder.
+        System.arraycopy(decoderNames, 0, decoderNames, 1, DECODER_COUNT - 1);
+        decoderNames[0] = decoderName;
+    }
+
+    @Override
+    public void onVideoFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onAudioFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onDroppedFrames(int count, long elapsed) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onBandwidthSample(int elapsedMs, long bytes, long bitrateEstimate) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onLoadStarted(int sourceId, long length, int type, int trigger, Format format,
+                              long mediaStartTimeMs, long mediaEndTimeMs) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onLoadCompleted(int sourceId, long bytesLoaded, int type, int trigger, Format format,
+                                long mediaStartTimeMs, long mediaEndTimeMs, long elapsedRealtimeMs,
+                                long loadDurationMs) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onAvailableRangeChanged(int sourceId, TimeRange availableRange) {
+        // Do nothing.
+    }
+
+    private void updateLines() {
+        Format format = player.getFormat();
+        startLine(0);
+        append("video ");
+        if (format == null) {
+            append("-");
+        } else {
+            append(format.width).append('x').append(format.height).append(' ')
+                    .append(format.bitrate / 1000).append(" kbps");
+        }
+
+        BandwidthMeter bandwidthMeter = player.getBandwidthMeter();
+        long bitrateEstimate = bandwidthMeter == null ? BandwidthMeter.NO_ESTIMATE
+                : bandwidthMeter.getBitrateEstimate();
+        startLine(1);
+        append("bandwidth ");
+        if (bitrateEstimate == BandwidthMeter.NO_ESTIMATE) {
+            append("-");
+        } else {
+            append(bitrateEstimate / 1000).append(" kbps");
+        }
+
+        long bufferedPositionMs = player.getBufferedPosition();
+        startLine(2);
+        append("buffer ");
+        if (bufferedPositionMs == ExoPlayer.UNKNOWN_TIME) {
+            append("-");
+        } else {
+            append(Math.max(0, bufferedPositionMs - player.getCurrentPosition())).append(" ms");
+        }
+
+        CodecCounters codecCounters = player.getVideoCodecCounters();
+        startLine(3);
+        append("dropped ");
+        if (codecCounters == null) {
+            append("-");
+        } else {
+            codecCounters.ensureUpdated();
+            append(codecCounters.droppedOutputBufferCount).append(" / ")
+                    .append(codecCounters.renderedOutputBufferCount);
+        }
+
+        startLine(4);
+        append("decoders ");
+        if (decoderNames[0] == null) {
+            append("-");
+        } else {
+            append(decoderNames[0]);
+            if (decoderNames[1] != null) {
+                append(", ").append(decoderNames[1]);
+            }
+        }
+    }
+
+    private void startLine(int index) {
+        lineIndex = index;
+        lineLengths[index] = 0;
+    }
+
+    private DebugOverlayView append(char c) {
+        int length = lineLengths[lineIndex];
+        if (length < MAX_LINE_LENGTH) {
+            lines[lineIndex][length] = c;
+            lineLengths[lineIndex] = length + 1;
+        }
+        return this;
+    }
+
+    private DebugOverlayView append(String string) {
+        int length = Math.min(string.length(), MAX_LINE_LENGTH - lineLengths[lineIndex]);
+        string.getChars(0, length, lines[lineIndex], lineLengths[lineIndex]);
+        lineLengths[lineIndex] += length;
+        return this;
+    }
+
+    private DebugOverlayView append(long value) {
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (divisor <= value / 10) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            append((char) ('0' + (value / divisor) % 10));
+            divisor /= 10;
+        }
+        return this;
+    }
+
+}
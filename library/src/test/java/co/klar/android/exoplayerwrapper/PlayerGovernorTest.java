@@ -0,0 +1,199 @@
+package co.klar.android.exoplayerwrapper;
+
+import com.google.android.exoplayer.util.Clock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PlayerGovernorTest {
+
+    private static final long MAX_BUFFER_BYTES = 100;
+
+    private FakeClock clock;
+    private PlayerGovernor governor;
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        governor = new PlayerGovernor(2, MAX_BUFFER_BYTES, clock);
+    }
+
+    @Test
+    public void grantsVisiblePlayersByPriorityThenVisibleFraction() {
+        FakePlayer invisible = register(0, 0);
+        FakePlayer halfVisible = register(0.5f, 0);
+        FakePlayer fullyVisible = register(1, 0);
+        FakePlayer prioritized = register(0.1f, 1);
+
+        assertTrue(governor.isGranted(prioritized));
+        assertTrue(governor.isGranted(fullyVisible));
+        assertFalse(governor.isGranted(halfVisible));
+        assertFalse(governor.isGranted(invisible));
+        assertSame(governor, fullyVisible.governor);
+    }
+
+    @Test
+    public void capsGrantedPlayers() {
+        FakePlayer first = register(1, 0);
+        FakePlayer second = register(1, 0);
+        FakePlayer third = register(1, 0);
+
+        assertTrue(governor.isGranted(first));
+        assertTrue(governor.isGranted(second));
+        assertFalse(governor.isGranted(third));
+        assertEquals(1, third.releaseCount);
+
+        governor.setVisibility(first, 0);
+        assertFalse(governor.isGranted(first));
+        assertTrue(governor.isGranted(third));
+        assertEquals(1, third.acquireCount);
+    }
+
+    @Test
+    public void countsDemotionsOfGrantedPlayersOnly() {
+        // Players are demoted when registered, until their visibility is set.
+        FakePlayer visible = register(1, 0);
+        FakePlayer invisible = register(0, 0);
+        assertEquals(1, invisible.releaseCount);
+        assertEquals(0, governor.getDemotionCount());
+
+        governor.setVisibility(visible, 0);
+        assertEquals(1, governor.getDemotionCount());
+        assertEquals(2, visible.releaseCount);
+    }
+
+    @Test
+    public void unregisterRestoresDecoders() {
+        FakePlayer player = register(0, 0);
+        governor.unregister(player);
+
+        assertEquals(1, player.acquireCount);
+        assertEquals(null, player.governor);
+        assertFalse(governor.isGranted(player));
+    }
+
+    @Test
+    public void evictsLowestRankedPlayersWithoutDecodersFirst() {
+        FakePlayer granted = register(1, 0);
+        FakePlayer higher = register(0, 1);
+        FakePlayer lower = register(0, 0);
+        granted.allocatedBytes = 60;
+        higher.allocatedBytes = 30;
+        lower.allocatedBytes = 30;
+
+        governor.onPlayerReady(granted);
+
+        assertTrue(lower.evicted);
+        assertFalse(higher.evicted);
+        assertFalse(granted.evicted);
+        assertEquals(1, governor.getEvictionCount());
+    }
+
+    @Test
+    public void doesNotEvictPlayersDemotedInSamePass() {
+        FakePlayer first = register(1, 0);
+        FakePlayer second = register(1, 0);
+        first.allocatedBytes = 60;
+        second.allocatedBytes = 60;
+
+        // The allocation of the demoted player is only trimmed by its playback thread later.
+        governor.setVisibility(second, 0);
+        assertFalse(second.evicted);
+        assertEquals(0, governor.getEvictionCount());
+
+        // The text buffer of the demoted player still exceeds the budget on the next change.
+        second.allocatedBytes = 50;
+        governor.onPlayerReady(first);
+        assertTrue(second.evicted);
+        assertEquals(1, governor.getEvictionCount());
+    }
+
+    @Test
+    public void keepsDemotedPlayerOnceItsBuffersAreTrimmed() {
+        FakePlayer first = register(1, 0);
+        FakePlayer second = register(1, 0);
+        first.allocatedBytes = 60;
+        second.allocatedBytes = 60;
+
+        governor.setVisibility(second, 0);
+        second.allocatedBytes = 10;
+        governor.onPlayerReady(first);
+
+        assertFalse(second.evicted);
+        assertEquals(0, governor.getEvictionCount());
+    }
+
+    @Test
+    public void recordsReacquisitionLatency() {
+        FakePlayer player = register(0, 0);
+        clock.timeMs = 1000;
+        governor.setVisibility(player, 1);
+        clock.timeMs = 1250;
+        governor.onPlayerReady(player);
+        governor.onPlayerReady(player);
+
+        assertEquals(1, governor.getReacquisitionLatencyHistogram().getCount());
+        assertEquals(250, governor.getReacquisitionLatencyHistogram().getMax());
+    }
+
+    private FakePlayer register(float visibleFraction, int priority) {
+        FakePlayer player = new FakePlayer();
+        governor.register(player);
+        governor.setPriority(player, priority);
+        governor.setVisibility(player, visibleFraction);
+        return player;
+    }
+
+    private static final class FakeClock implements Clock {
+
+        public long timeMs;
+
+        @Override
+        public long elapsedRealtime() {
+            return timeMs;
+        }
+
+    }
+
+    private static final class FakePlayer implements PlayerGovernor.GovernedPlayer {
+
+        public PlayerGovernor governor;
+        public long allocatedBytes;
+        public int releaseCount;
+        public int acquireCount;
+        public boolean evicted;
+
+        @Override
+        public void setGovernor(PlayerGovernor governor) {
+            this.governor = governor;
+        }
+
+        @Override
+        public void releaseDecoders() {
+            releaseCount++;
+        }
+
+        @Override
+        public void acquireDecoders() {
+            acquireCount++;
+        }
+
+        @Override
+        public void evict() {
+            evicted = true;
+            allocatedBytes = 0;
+        }
+
+        @Override
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+    }
+
+}
@@ -0,0 +1,111 @@
+package co.klar.android.exoplayerwrapper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PreloadWindowTest {
+
+    @Test
+    public void hasSlotsForActiveItemAndNeighbors() {
+        assertEquals(1, new PreloadWindow(0).getSlotCount());
+        assertEquals(3, new PreloadWindow(1).getSlotCount());
+        assertEquals(5, new PreloadWindow(2).getSlotCount());
+    }
+
+    @Test
+    public void bindsItemsToFreeSlots() {
+        PreloadWindow window = new PreloadWindow(1);
+        assertEquals(0, window.bind(7));
+        assertEquals(1, window.bind(8));
+        assertEquals(0, window.getSlot(7));
+        assertEquals(8, window.getIndex(1));
+        assertEquals(-1, window.getSlot(9));
+        assertEquals(-1, window.getIndex(2));
+
+        window.unbind(0);
+        assertEquals(-1, window.getSlot(7));
+        assertEquals(0, window.bind(9));
+    }
+
+    @Test
+    public void failsToBindWithoutFreeSlot() {
+        PreloadWindow window = new PreloadWindow(0);
+        window.bind(0);
+        try {
+            window.bind(1);
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void clampsWindowToFeed() {
+        PreloadWindow window = new PreloadWindow(2);
+        assertEquals(0, window.getFirstIndex(1));
+        assertEquals(3, window.getFirstIndex(5));
+        assertEquals(7, window.getLastIndex(5, 10));
+        assertEquals(9, window.getLastIndex(8, 10));
+        assertTrue(window.contains(5, 3));
+        assertTrue(window.contains(5, 7));
+        assertFalse(window.contains(5, 2));
+        assertFalse(window.contains(5, 8));
+    }
+
+    @Test
+    public void reusesSlotsWhileScrolling() {
+        PreloadWindow window = new PreloadWindow(1);
+        activate(window, 0, 10);
+        assertBound(window, 0, 1);
+
+        activate(window, 1, 10);
+        assertBound(window, 0, 1, 2);
+
+        activate(window, 3, 10);
+        assertBound(window, 2, 3, 4);
+        assertEquals(-1, window.getSlot(1));
+
+        // Jumping away frees every slot before binding the new window.
+        activate(window, 9, 10);
+        assertBound(window, 8, 9);
+
+        window.clear();
+        assertBound(window);
+    }
+
+    /**
+     * Mirrors how {@link FeedPlayer#setActiveItem} updates the slots.
+     */
+    private static void activate(PreloadWindow window, int activeIndex, int itemCount) {
+        for (int i = 0; i < window.getSlotCount(); i++) {
+            int index = window.getIndex(i);
+            if (index != -1 && !window.contains(activeIndex, index)) {
+                window.unbind(i);
+            }
+        }
+        for (int i = window.getFirstIndex(activeIndex);
+             i <= window.getLastIndex(activeIndex, itemCount); i++) {
+            if (window.getSlot(i) == -1) {
+                window.bind(i);
+            }
+        }
+    }
+
+    private static void assertBound(PreloadWindow window, int... indices) {
+        int boundCount = 0;
+        for (int i = 0; i < window.getSlotCount(); i++) {
+            if (window.getIndex(i) != -1) {
+                boundCount++;
+            }
+        }
+        assertEquals(indices.length, boundCount);
+        for (int index : indices) {
+            assertTrue(window.getSlot(index) != -1);
+        }
+    }
+
+}
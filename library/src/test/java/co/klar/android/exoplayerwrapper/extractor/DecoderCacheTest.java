@@ -0,0 +1,42 @@
+package co.klar.android.exoplayerwrapper.extractor;
+
+import com.google.android.exoplayer.DecoderInfo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DecoderCacheTest {
+
+    @Test
+    public void roundTripsDecoderInfo() {
+        DecoderInfo adaptive = roundTrip(new DecoderInfo("OMX.qcom.video.decoder.avc", true));
+        assertEquals("OMX.qcom.video.decoder.avc", adaptive.name);
+        assertTrue(adaptive.adaptive);
+
+        DecoderInfo nonAdaptive = roundTrip(new DecoderInfo("OMX.google.aac.decoder", false));
+        assertEquals("OMX.google.aac.decoder", nonAdaptive.name);
+        assertFalse(nonAdaptive.adaptive);
+    }
+
+    @Test
+    public void roundTripsMissingDecoder() {
+        assertEquals("", DecoderCache.formatDecoderInfo(null));
+        assertNull(roundTrip(null));
+    }
+
+    @Test
+    public void parsesNameContainingSeparator() {
+        DecoderInfo decoderInfo = roundTrip(new DecoderInfo("OMX.vendor|avc", true));
+        assertEquals("OMX.vendor|avc", decoderInfo.name);
+        assertTrue(decoderInfo.adaptive);
+    }
+
+    private static DecoderInfo roundTrip(DecoderInfo decoderInfo) {
+        return DecoderCache.parseDecoderInfo(DecoderCache.formatDecoderInfo(decoderInfo));
+    }
+
+}
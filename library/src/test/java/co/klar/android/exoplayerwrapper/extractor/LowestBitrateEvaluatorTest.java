@@ -0,0 +1,50 @@
+package co.klar.android.exoplayerwrapper.extractor;
+
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.chunk.FormatEvaluator;
+import com.google.android.exoplayer.chunk.MediaChunk;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertSame;
+
+public class LowestBitrateEvaluatorTest {
+
+    private static final Format FORMAT_360P = createFormat("360p", 640, 360, 800000);
+    private static final Format FORMAT_720P = createFormat("720p", 1280, 720, 2500000);
+    private static final Format FORMAT_240P = createFormat("240p", 426, 240, 400000);
+
+    @Test
+    public void selectsLowestBitrateRegardlessOfOrder() {
+        assertSame(FORMAT_240P, evaluate(FORMAT_720P, FORMAT_240P, FORMAT_360P));
+        assertSame(FORMAT_240P, evaluate(FORMAT_240P, FORMAT_720P, FORMAT_360P));
+        assertSame(FORMAT_240P, evaluate(FORMAT_360P, FORMAT_720P, FORMAT_240P));
+    }
+
+    @Test
+    public void selectsSingleFormat() {
+        assertSame(FORMAT_720P, evaluate(FORMAT_720P));
+    }
+
+    @Test
+    public void selectsFirstOfEqualBitrates() {
+        Format other240p = createFormat("240p-2", 426, 240, 400000);
+        assertSame(FORMAT_240P, evaluate(FORMAT_720P, FORMAT_240P, other240p));
+    }
+
+    private static Format evaluate(Format... formats) {
+        LowestBitrateEvaluator evaluator = new LowestBitrateEvaluator();
+        FormatEvaluator.Evaluation evaluation = new FormatEvaluator.Evaluation();
+        evaluator.enable();
+        evaluator.evaluate(Collections.<MediaChunk>emptyList(), 0, formats, evaluation);
+        evaluator.disable();
+        return evaluation.format;
+    }
+
+    private static Format createFormat(String id, int width, int height, int bitrate) {
+        return new Format(id, "video/mp4", width, height, 30, -1, -1, bitrate);
+    }
+
+}
@@ -0,0 +1,117 @@
+package co.klar.android.exoplayerwrapper.extractor;
+
+import android.media.MediaCrypto;
+
+import com.google.android.exoplayer.drm.DrmInitData;
+import com.google.android.exoplayer.drm.DrmSessionManager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RetainedDrmSessionManagerTest {
+
+    private FakeDrmSessionManager sessionManager;
+    private RetainedDrmSessionManager retainedSessionManager;
+
+    @Before
+    public void setUp() {
+        sessionManager = new FakeDrmSessionManager();
+        retainedSessionManager = new RetainedDrmSessionManager("manifest", sessionManager);
+    }
+
+    @Test
+    public void keepsSessionOpenAcrossRenderers() {
+        // The video and audio renderers of the first prepare.
+        retainedSessionManager.open(null);
+        retainedSessionManager.open(null);
+        retainedSessionManager.close();
+        retainedSessionManager.close();
+        // The renderers of the next prepare.
+        retainedSessionManager.open(null);
+        retainedSessionManager.open(null);
+
+        assertEquals(1, sessionManager.openCount);
+        assertEquals(0, sessionManager.closeCount);
+        assertEquals(3, retainedSessionManager.getReuseCount());
+    }
+
+    @Test
+    public void reopensFailedSession() {
+        retainedSessionManager.open(null);
+        retainedSessionManager.close();
+        sessionManager.state = DrmSessionManager.STATE_ERROR;
+
+        retainedSessionManager.open(null);
+
+        assertEquals(2, sessionManager.openCount);
+        assertEquals(1, sessionManager.closeCount);
+        assertEquals(0, retainedSessionManager.getReuseCount());
+    }
+
+    @Test
+    public void doesNotReopenFailedSessionInUse() {
+        retainedSessionManager.open(null);
+        sessionManager.state = DrmSessionManager.STATE_ERROR;
+
+        retainedSessionManager.open(null);
+
+        assertEquals(1, sessionManager.openCount);
+        assertEquals(0, sessionManager.closeCount);
+    }
+
+    @Test
+    public void releaseClosesSessionOnce() {
+        retainedSessionManager.release();
+        assertEquals(0, sessionManager.closeCount);
+
+        retainedSessionManager.open(null);
+        retainedSessionManager.close();
+        retainedSessionManager.release();
+        retainedSessionManager.release();
+
+        assertEquals(1, sessionManager.closeCount);
+    }
+
+    private static final class FakeDrmSessionManager implements DrmSessionManager {
+
+        public int openCount;
+        public int closeCount;
+        public int state;
+
+        @Override
+        public void open(DrmInitData drmInitData) {
+            openCount++;
+            state = STATE_OPENED_WITH_KEYS;
+        }
+
+        @Override
+        public void close() {
+            closeCount++;
+            state = STATE_CLOSED;
+        }
+
+        @Override
+        public int getState() {
+            return state;
+        }
+
+        @Override
+        public MediaCrypto getMediaCrypto() {
+            return null;
+        }
+
+        @Override
+        public boolean requiresSecureDecoderComponent(String mimeType) {
+            return false;
+        }
+
+        @Override
+        public Exception getError() {
+            return null;
+        }
+
+    }
+
+}
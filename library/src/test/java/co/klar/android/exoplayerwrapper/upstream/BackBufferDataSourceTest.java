@@ -0,0 +1,191 @@
+package co.klar.android.exoplayerwrapper.upstream;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.UriDataSource;
+import com.google.android.exoplayer.util.Clock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BackBufferDataSourceTest {
+
+    // The requests have no URI, as android.net.Uri is not available in local unit tests. They are
+    // told apart by their range.
+
+    private FakeClock clock;
+    private BackBuffer backBuffer;
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        backBuffer = new BackBuffer(BackBuffer.DEFAULT_RETENTION_MS, 1000, clock);
+    }
+
+    @Test
+    public void servesRepeatedRequestFromMemory() throws IOException {
+        FakeDataSource upstream = new FakeDataSource(500);
+        BackBufferDataSource dataSource = new BackBufferDataSource(backBuffer, -1, upstream);
+
+        byte[] first = load(dataSource, new DataSpec(null, 0, 500, null));
+        clock.timeMs = 100;
+        byte[] second = load(dataSource, new DataSpec(null, 0, 500, null));
+
+        assertEquals(1, upstream.openCount);
+        assertEquals(1, upstream.closeCount);
+        assertArrayEquals(first, second);
+        assertEquals(1, backBuffer.getHitCount());
+        assertEquals(1, backBuffer.getMissCount());
+        assertEquals(500, backBuffer.getBytesServed());
+    }
+
+    @Test
+    public void loadsOtherRangeFromUpstream() throws IOException {
+        FakeDataSource upstream = new FakeDataSource(500);
+        BackBufferDataSource dataSource = new BackBufferDataSource(backBuffer, -1, upstream);
+
+        load(dataSource, new DataSpec(null, 0, 500, null));
+        load(dataSource, new DataSpec(null, 500, 500, null));
+
+        assertEquals(2, upstream.openCount);
+        assertEquals(0, backBuffer.getHitCount());
+        assertEquals(2, backBuffer.getMissCount());
+    }
+
+    @Test
+    public void doesNotRetainIncompleteLoad() throws IOException {
+        FakeDataSource upstream = new FakeDataSource(500);
+        BackBufferDataSource dataSource = new BackBufferDataSource(backBuffer, -1, upstream);
+
+        dataSource.open(new DataSpec(null, 0, 500, null));
+        dataSource.read(new byte[100], 0, 100);
+        dataSource.close();
+
+        assertEquals(0, backBuffer.getRetainedBytes());
+        load(dataSource, new DataSpec(null, 0, 500, null));
+        assertEquals(2, upstream.openCount);
+        assertEquals(500, backBuffer.getRetainedBytes());
+    }
+
+    @Test
+    public void doesNotRetainDataLargerThanLimit() throws IOException {
+        FakeDataSource upstream = new FakeDataSource(1001);
+        BackBufferDataSource dataSource = new BackBufferDataSource(backBuffer, -1, upstream);
+
+        load(dataSource, new DataSpec(null, 0, 1001, null));
+        load(dataSource, new DataSpec(null, 0, 1001, null));
+
+        assertEquals(2, upstream.openCount);
+        assertEquals(0, backBuffer.getRetainedBytes());
+    }
+
+    @Test
+    public void doesNotRetainUnboundedDataLargerThanLimit() throws IOException {
+        FakeDataSource upstream = new FakeDataSource(1001);
+        upstream.unbounded = true;
+        BackBufferDataSource dataSource = new BackBufferDataSource(backBuffer, -1, upstream);
+
+        load(dataSource, new DataSpec(null, 0, C.LENGTH_UNBOUNDED, null));
+
+        assertEquals(0, backBuffer.getRetainedBytes());
+    }
+
+    @Test
+    public void measuresLoadTimesWithBackBufferClock() throws IOException {
+        FakeDataSource upstream = new FakeDataSource(500);
+        upstream.clock = clock;
+        upstream.readTimeMs = 40;
+        BackBufferDataSource dataSource = new BackBufferDataSource(backBuffer, -1, upstream);
+
+        load(dataSource, new DataSpec(null, 0, 500, null));
+        load(dataSource, new DataSpec(null, 0, 500, null));
+
+        assertEquals(40, backBuffer.getAverageNetworkLoadTimeMs());
+        assertEquals(0, backBuffer.getAverageMemoryLoadTimeMs());
+    }
+
+    private static byte[] load(BackBufferDataSource dataSource, DataSpec dataSpec)
+            throws IOException {
+        long length = dataSource.open(dataSpec);
+        byte[] data = new byte[length == C.LENGTH_UNBOUNDED ? 2000 : (int) length];
+        int position = 0;
+        try {
+            int bytesRead;
+            while ((bytesRead = dataSource.read(data, position, Math.min(64, data.length - position)))
+                    != C.RESULT_END_OF_INPUT) {
+                position += bytesRead;
+            }
+        } finally {
+            dataSource.close();
+        }
+        return data;
+    }
+
+    private static final class FakeClock implements Clock {
+
+        public long timeMs;
+
+        @Override
+        public long elapsedRealtime() {
+            return timeMs;
+        }
+
+    }
+
+    private static final class FakeDataSource implements UriDataSource {
+
+        private final int length;
+
+        public boolean unbounded;
+        public FakeClock clock;
+        public long readTimeMs;
+        public int openCount;
+        public int closeCount;
+
+        private int position;
+
+        public FakeDataSource(int length) {
+            this.length = length;
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) {
+            openCount++;
+            position = 0;
+            return unbounded ? C.LENGTH_UNBOUNDED : length;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) {
+            if (position == length) {
+                if (clock != null) {
+                    clock.timeMs += readTimeMs;
+                }
+                return C.RESULT_END_OF_INPUT;
+            }
+            int bytesRead = Math.min(readLength, length - position);
+            for (int i = 0; i < bytesRead; i++) {
+                buffer[offset + i] = (byte) (position + i);
+            }
+            position += bytesRead;
+            return bytesRead;
+        }
+
+        @Override
+        public String getUri() {
+            return "http://example.com/segment.m4s";
+        }
+
+        @Override
+        public void close() {
+            closeCount++;
+        }
+
+    }
+
+}
@@ -0,0 +1,152 @@
+package co.klar.android.exoplayerwrapper.upstream;
+
+import com.google.android.exoplayer.util.Clock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class BackBufferTest {
+
+    private static final long RETENTION_MS = 10000;
+    private static final int MAX_BYTES = 300;
+
+    private FakeClock clock;
+    private FakePositionProvider positionProvider;
+    private BackBuffer backBuffer;
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        positionProvider = new FakePositionProvider();
+        backBuffer = new BackBuffer(RETENTION_MS, MAX_BYTES, clock);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        backBuffer.put("a", -1, new byte[100]);
+        backBuffer.put("b", -1, new byte[100]);
+        backBuffer.put("c", -1, new byte[100]);
+        backBuffer.get("a");
+
+        backBuffer.put("d", -1, new byte[100]);
+
+        assertNotNull(backBuffer.get("a"));
+        assertNull(backBuffer.get("b"));
+        assertNotNull(backBuffer.get("c"));
+        assertNotNull(backBuffer.get("d"));
+        assertEquals(300, backBuffer.getRetainedBytes());
+    }
+
+    @Test
+    public void ignoresDataLargerThanLimit() {
+        backBuffer.put("a", -1, new byte[100]);
+
+        backBuffer.put("b", -1, new byte[MAX_BYTES + 1]);
+
+        assertNotNull(backBuffer.get("a"));
+        assertNull(backBuffer.get("b"));
+        assertEquals(100, backBuffer.getRetainedBytes());
+    }
+
+    @Test
+    public void expiresByLoadTimeWithoutPositionProvider() {
+        backBuffer.put("a", -1, new byte[100]);
+        clock.timeMs = RETENTION_MS;
+        assertNotNull(backBuffer.get("a"));
+
+        clock.timeMs = RETENTION_MS + 1;
+
+        assertNull(backBuffer.get("a"));
+        assertEquals(0, backBuffer.getRetainedBytes());
+    }
+
+    @Test
+    public void expiresByMediaEndTimeBehindPlayhead() {
+        backBuffer.setPositionProvider(positionProvider);
+        backBuffer.put("a", ExoPlayerWrapper.TYPE_VIDEO, new byte[100]);
+        backBuffer.onLoadCompleted(ExoPlayerWrapper.TYPE_VIDEO, 100, 0, 0, null, 0, 4000, 0, 0);
+
+        // A paused player keeps the segment regardless of its load time.
+        clock.timeMs = 10 * RETENTION_MS;
+        positionProvider.positionMs = 4000 + RETENTION_MS;
+        assertNotNull(backBuffer.get("a"));
+
+        positionProvider.positionMs = 4000 + RETENTION_MS + 1;
+
+        assertNull(backBuffer.get("a"));
+    }
+
+    @Test
+    public void matchesLoadCompletionBySourceAndSize() {
+        backBuffer.setPositionProvider(positionProvider);
+        backBuffer.put("video", ExoPlayerWrapper.TYPE_VIDEO, new byte[100]);
+        backBuffer.put("audio", ExoPlayerWrapper.TYPE_AUDIO, new byte[100]);
+        backBuffer.onLoadCompleted(ExoPlayerWrapper.TYPE_AUDIO, 100, 0, 0, null, 0, 4000, 0, 0);
+
+        positionProvider.positionMs = 4000 + RETENTION_MS + 1;
+
+        assertNull(backBuffer.get("audio"));
+        // The end of the video segment is not known, so it expires by its load time.
+        assertNotNull(backBuffer.get("video"));
+        clock.timeMs = RETENTION_MS + 1;
+        assertNull(backBuffer.get("video"));
+    }
+
+    @Test
+    public void restartsRetentionForNewPlayer() {
+        backBuffer.setPositionProvider(positionProvider);
+        backBuffer.put("a", ExoPlayerWrapper.TYPE_VIDEO, new byte[100]);
+        backBuffer.onLoadCompleted(ExoPlayerWrapper.TYPE_VIDEO, 100, 0, 0, null, 0, 4000, 0, 0);
+        clock.timeMs = 5000;
+
+        backBuffer.setPositionProvider(new FakePositionProvider());
+        positionProvider.positionMs = 4000 + RETENTION_MS + 1;
+
+        clock.timeMs = 5000 + RETENTION_MS;
+        assertNotNull(backBuffer.get("a"));
+        clock.timeMs = 5000 + RETENTION_MS + 1;
+        assertNull(backBuffer.get("a"));
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        backBuffer.put("a", -1, new byte[100]);
+
+        backBuffer.get("a");
+        backBuffer.get("a");
+        backBuffer.get("b");
+
+        assertEquals(2, backBuffer.getHitCount());
+        assertEquals(1, backBuffer.getMissCount());
+        assertEquals(200, backBuffer.getBytesServed());
+    }
+
+    private static final class FakeClock implements Clock {
+
+        public long timeMs;
+
+        @Override
+        public long elapsedRealtime() {
+            return timeMs;
+        }
+
+    }
+
+    private static final class FakePositionProvider implements BackBuffer.PositionProvider {
+
+        public long positionMs;
+
+        @Override
+        public long getCurrentPosition() {
+            return positionMs;
+        }
+
+    }
+
+}
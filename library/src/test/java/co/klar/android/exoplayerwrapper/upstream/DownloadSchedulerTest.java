@@ -0,0 +1,239 @@
+package co.klar.android.exoplayerwrapper.upstream;
+
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+
+import co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadSchedulerTest {
+
+    private static final int THROTTLED_BYTES_PER_SECOND = 256 * 1024;
+    private static final int RESPONSE_LENGTH = 128 * 1024;
+    private static final long MAX_WAIT_MS = 10000;
+
+    private DownloadScheduler scheduler;
+    private LocalHttpServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        scheduler = new DownloadScheduler(DownloadScheduler.DEFAULT_NEAR_DEADLINE_MS, MAX_WAIT_MS,
+                THROTTLED_BYTES_PER_SECOND);
+        server = new LocalHttpServer(RESPONSE_LENGTH);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void videoIsThrottledButNotPausedWhileAudioLoads() throws IOException {
+        DownloadScheduler.Transfer audio = scheduler.startTransfer(ExoPlayerWrapper.TYPE_AUDIO);
+        assertTrue(scheduler.isThrottled(ExoPlayerWrapper.TYPE_VIDEO));
+        assertFalse(scheduler.isPaused(ExoPlayerWrapper.TYPE_VIDEO));
+        assertTrue(scheduler.isPaused(ExoPlayerWrapper.TYPE_TEXT));
+        scheduler.setBufferCritical(true);
+        assertTrue(scheduler.isPaused(ExoPlayerWrapper.TYPE_VIDEO));
+        scheduler.setBufferCritical(false);
+        scheduler.endTransfer(audio);
+        assertFalse(scheduler.isThrottled(ExoPlayerWrapper.TYPE_VIDEO));
+    }
+
+    @Test
+    public void nearDeadlineVideoIsNotThrottled() throws IOException {
+        scheduler.startTransfer(ExoPlayerWrapper.TYPE_AUDIO);
+        scheduler.setTimeUntilNeeded(ExoPlayerWrapper.TYPE_VIDEO, 500);
+        assertEquals(DownloadScheduler.PRIORITY_URGENT,
+                scheduler.getPriority(ExoPlayerWrapper.TYPE_VIDEO));
+        assertFalse(scheduler.isThrottled(ExoPlayerWrapper.TYPE_VIDEO));
+    }
+
+    @Test
+    public void throttledLoadResumesWhenHigherPriorityLoadEnds() throws Exception {
+        final DownloadScheduler.Transfer audio =
+                scheduler.startTransfer(ExoPlayerWrapper.TYPE_AUDIO);
+        DownloadScheduler.Transfer video = scheduler.startTransfer(ExoPlayerWrapper.TYPE_VIDEO);
+        Thread audioEnd = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                scheduler.endTransfer(audio);
+            }
+        };
+        audioEnd.start();
+        long startTimeMs = elapsedRealtime();
+        // Without the wake-up, reporting 2 seconds worth of bytes blocks for 2 seconds.
+        scheduler.onBytesTransferred(video, 2 * THROTTLED_BYTES_PER_SECOND);
+        long blockedMs = elapsedRealtime() - startTimeMs;
+        audioEnd.join();
+        assertTrue("Blocked for " + blockedMs + " ms", blockedMs < 1000);
+    }
+
+    @Test
+    public void throttledHttpLoadIsLimitedToThrottledRate() throws Exception {
+        long unthrottledMs = download(ExoPlayerWrapper.TYPE_VIDEO);
+
+        DownloadScheduler.Transfer audio = scheduler.startTransfer(ExoPlayerWrapper.TYPE_AUDIO);
+        long throttledMs = download(ExoPlayerWrapper.TYPE_VIDEO);
+        scheduler.endTransfer(audio);
+
+        long expectedMs = (RESPONSE_LENGTH * 1000L) / THROTTLED_BYTES_PER_SECOND;
+        assertTrue("Unthrottled load took " + unthrottledMs + " ms",
+                unthrottledMs < expectedMs / 2);
+        assertTrue("Throttled load took " + throttledMs + " ms, expected " + expectedMs + " ms",
+                throttledMs >= expectedMs * 3 / 4);
+        assertTrue("Throttled load took " + throttledMs + " ms, expected " + expectedMs + " ms",
+                throttledMs < expectedMs * 3);
+    }
+
+    private long download(int sourceId) throws IOException {
+        ScheduledDataSource dataSource = new ScheduledDataSource(scheduler,
+                new HttpUriDataSource(server.getUrl()), sourceId);
+        long startTimeMs = elapsedRealtime();
+        dataSource.open(null);
+        try {
+            byte[] buffer = new byte[4096];
+            long bytesRead = 0;
+            int read;
+            while ((read = dataSource.read(buffer, 0, buffer.length)) != -1) {
+                bytesRead += read;
+            }
+            assertEquals(RESPONSE_LENGTH, bytesRead);
+        } finally {
+            dataSource.close();
+        }
+        return elapsedRealtime() - startTimeMs;
+    }
+
+    private static long elapsedRealtime() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * Loads a fixed URL with {@link HttpURLConnection}, ignoring the {@link DataSpec}.
+     */
+    private static final class HttpUriDataSource implements UriDataSource {
+
+        private final String url;
+
+        private HttpURLConnection connection;
+        private InputStream inputStream;
+
+        public HttpUriDataSource(String url) {
+            this.url = url;
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            inputStream = connection.getInputStream();
+            return connection.getContentLength();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            return inputStream.read(buffer, offset, readLength);
+        }
+
+        @Override
+        public String getUri() {
+            return url;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (inputStream != null) {
+                inputStream.close();
+                inputStream = null;
+            }
+            if (connection != null) {
+                connection.disconnect();
+                connection = null;
+            }
+        }
+
+    }
+
+    /**
+     * Serves a response of a fixed length to every request, as fast as the socket allows.
+     */
+    private static final class LocalHttpServer implements Runnable {
+
+        private final ServerSocket serverSocket;
+        private final int responseLength;
+        private final Thread thread;
+
+        public LocalHttpServer(int responseLength) throws IOException {
+            this.responseLength = responseLength;
+            serverSocket = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+            thread = new Thread(this);
+            thread.start();
+        }
+
+        public String getUrl() {
+            return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/segment";
+        }
+
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+
+        @Override
+        public void run() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    try {
+                        serve(socket);
+                    } finally {
+                        socket.close();
+                    }
+                } catch (IOException e) {
+                    // The server was closed, or the client went away.
+                }
+            }
+        }
+
+        private void serve(Socket socket) throws IOException {
+            InputStream inputStream = socket.getInputStream();
+            // Skip the request headers.
+            int matched = 0;
+            while (matched < 4) {
+                int b = inputStream.read();
+                if (b == -1) {
+                    return;
+                }
+                matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1
+                        : (b == '\r' ? 1 : 0);
+            }
+            OutputStream outputStream = socket.getOutputStream();
+            outputStream.write(("HTTP/1.1 200 OK\r\nContent-Length: " + responseLength
+                    + "\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+            outputStream.write(new byte[responseLength]);
+            outputStream.flush();
+        }
+
+    }
+
+}
@@ -0,0 +1,125 @@
+package co.klar.android.exoplayerwrapper.upstream;
+
+import com.google.android.exoplayer.util.Clock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HttpConnectionPoolTest {
+
+    private static final long KEEP_ALIVE_MS = 5000;
+
+    private FakeClock clock;
+    private HttpConnectionPool pool;
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        pool = new HttpConnectionPool(3, KEEP_ALIVE_MS, clock);
+    }
+
+    @Test
+    public void reusesReleasedConnection() {
+        assertFalse(pool.acquire("a"));
+        pool.release("a", true);
+
+        assertTrue(pool.acquire("a"));
+        assertFalse(pool.acquire("b"));
+
+        assertEquals(1, pool.getReusedConnectionCount());
+        assertEquals(2, pool.getNewConnectionCount());
+    }
+
+    @Test
+    public void doesNotPoolConnectionsNotKeptAlive() {
+        pool.acquire("a");
+        pool.release("a", false);
+
+        assertEquals(0, pool.getIdleConnectionCount("a"));
+        assertFalse(pool.acquire("a"));
+    }
+
+    @Test
+    public void expiresIdleConnectionsAfterKeepAlive() {
+        pool.acquire("a");
+        pool.release("a", true);
+        clock.timeMs = KEEP_ALIVE_MS - 1;
+        assertEquals(1, pool.getIdleConnectionCount("a"));
+
+        clock.timeMs = KEEP_ALIVE_MS;
+
+        assertEquals(0, pool.getIdleConnectionCount("a"));
+        assertFalse(pool.acquire("a"));
+    }
+
+    @Test
+    public void reusesMostRecentlyReleasedConnectionOfHost() {
+        pool.acquire("a");
+        pool.acquire("a");
+        pool.release("a", true);
+        clock.timeMs = 1000;
+        pool.release("a", true);
+
+        // The most recently released connection is reused, so the older one expires first.
+        assertTrue(pool.acquire("a"));
+        clock.timeMs = KEEP_ALIVE_MS;
+
+        assertEquals(0, pool.getIdleConnectionCount("a"));
+    }
+
+    @Test
+    public void capsIdleConnectionsAcrossHosts() {
+        for (String host : new String[] {"a", "b", "c", "a"}) {
+            pool.acquire(host);
+        }
+        pool.release("a", true);
+        clock.timeMs = 1000;
+        pool.release("b", true);
+        clock.timeMs = 2000;
+        pool.release("c", true);
+        clock.timeMs = 3000;
+
+        // The cap is process wide: the connection idle the longest is evicted, whatever its host.
+        pool.release("a", true);
+
+        assertEquals(1, pool.getIdleConnectionCount("a"));
+        assertEquals(1, pool.getIdleConnectionCount("b"));
+        assertEquals(1, pool.getIdleConnectionCount("c"));
+        // The remaining connection of "a" is the recent one, so it outlives that of "b".
+        clock.timeMs = 1000 + KEEP_ALIVE_MS;
+        assertEquals(1, pool.getIdleConnectionCount("a"));
+        assertEquals(0, pool.getIdleConnectionCount("b"));
+    }
+
+    @Test
+    public void ignoresReleaseOfUnknownHost() {
+        pool.release("a", true);
+
+        assertEquals(0, pool.getIdleConnectionCount("a"));
+    }
+
+    @Test
+    public void ignoresPreconnectAfterRelease() {
+        pool.release();
+
+        pool.preconnect("http://example.com/", "userAgent");
+
+        assertEquals(0, pool.getPreconnectCount());
+    }
+
+    private static final class FakeClock implements Clock {
+
+        public long timeMs;
+
+        @Override
+        public long elapsedRealtime() {
+            return timeMs;
+        }
+
+    }
+
+}
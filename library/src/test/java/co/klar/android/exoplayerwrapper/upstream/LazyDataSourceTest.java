@@ -0,0 +1,98 @@
+package co.klar.android.exoplayerwrapper.upstream;
+
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.TransferListener;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LazyDataSourceTest {
+
+    private FakeDataSourceFactory factory;
+    private LazyDataSource dataSource;
+
+    @Before
+    public void setUp() {
+        factory = new FakeDataSourceFactory();
+        dataSource = new LazyDataSource(factory, ExoPlayerWrapper.TYPE_TEXT, null);
+    }
+
+    @Test
+    public void doesNotCreateDataSourceUntilOpened() throws IOException {
+        assertFalse(dataSource.isCreated());
+        assertNull(dataSource.getUri());
+        dataSource.close();
+        assertEquals(0, factory.createdCount);
+    }
+
+    @Test
+    public void createsDataSourceOnceOnFirstOpen() throws IOException {
+        assertEquals(3, dataSource.open(null));
+        byte[] buffer = new byte[3];
+        assertEquals(3, dataSource.read(buffer, 0, buffer.length));
+        dataSource.close();
+        dataSource.open(null);
+        dataSource.close();
+
+        assertTrue(dataSource.isCreated());
+        assertEquals(1, factory.createdCount);
+        assertEquals(ExoPlayerWrapper.TYPE_TEXT, factory.sourceId);
+        assertEquals(FakeDataSource.URI, dataSource.getUri());
+        assertEquals(2, factory.dataSource.closeCount);
+    }
+
+    private static final class FakeDataSourceFactory implements DataSourceFactory {
+
+        public int createdCount;
+        public int sourceId;
+        public FakeDataSource dataSource;
+
+        @Override
+        public UriDataSource createDataSource(int sourceId, TransferListener listener) {
+            createdCount++;
+            this.sourceId = sourceId;
+            dataSource = new FakeDataSource();
+            return dataSource;
+        }
+
+    }
+
+    private static final class FakeDataSource implements UriDataSource {
+
+        public static final String URI = "http://example.com/subtitles.vtt";
+
+        public int closeCount;
+
+        @Override
+        public long open(DataSpec dataSpec) {
+            return 3;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) {
+            return readLength;
+        }
+
+        @Override
+        public String getUri() {
+            return URI;
+        }
+
+        @Override
+        public void close() {
+            closeCount++;
+        }
+
+    }
+
+}
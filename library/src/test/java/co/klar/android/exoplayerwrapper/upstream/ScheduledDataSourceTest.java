@@ -0,0 +1,155 @@
+package co.klar.android.exoplayerwrapper.upstream;
+
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScheduledDataSourceTest {
+
+    private static final long MAX_WAIT_MS = 200;
+
+    private DownloadScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new DownloadScheduler(DownloadScheduler.DEFAULT_NEAR_DEADLINE_MS, MAX_WAIT_MS,
+                DownloadScheduler.DEFAULT_THROTTLED_BYTES_PER_SECOND);
+    }
+
+    @Test
+    public void openLoadThrottlesLowerPrioritySources() throws IOException {
+        FakeDataSource upstream = new FakeDataSource(1024);
+        ScheduledDataSource audio =
+                new ScheduledDataSource(scheduler, upstream, ExoPlayerWrapper.TYPE_AUDIO);
+        assertFalse(scheduler.isThrottled(ExoPlayerWrapper.TYPE_VIDEO));
+
+        assertEquals(1024, audio.open(null));
+        assertTrue(scheduler.isThrottled(ExoPlayerWrapper.TYPE_VIDEO));
+        assertEquals(FakeDataSource.URI, audio.getUri());
+        audio.close();
+
+        assertFalse(scheduler.isThrottled(ExoPlayerWrapper.TYPE_VIDEO));
+        assertEquals(1, upstream.closeCount);
+    }
+
+    @Test
+    public void readsThroughUpstream() throws IOException {
+        ScheduledDataSource video = new ScheduledDataSource(scheduler, new FakeDataSource(10),
+                ExoPlayerWrapper.TYPE_VIDEO);
+        video.open(null);
+        byte[] buffer = new byte[16];
+        assertEquals(10, video.read(buffer, 0, buffer.length));
+        assertEquals(-1, video.read(buffer, 0, buffer.length));
+        video.close();
+    }
+
+    @Test
+    public void closeWithoutOpenDoesNotEndTransfer() throws IOException {
+        ScheduledDataSource audio = new ScheduledDataSource(scheduler, new FakeDataSource(0),
+                ExoPlayerWrapper.TYPE_AUDIO);
+        ScheduledDataSource otherAudio = new ScheduledDataSource(scheduler, new FakeDataSource(0),
+                ExoPlayerWrapper.TYPE_AUDIO);
+        otherAudio.open(null);
+        audio.close();
+        audio.close();
+
+        assertTrue(scheduler.isThrottled(ExoPlayerWrapper.TYPE_VIDEO));
+        otherAudio.close();
+        assertFalse(scheduler.isThrottled(ExoPlayerWrapper.TYPE_VIDEO));
+    }
+
+    @Test
+    public void endsTransferWhenUpstreamCloseFails() throws IOException {
+        FakeDataSource upstream = new FakeDataSource(0);
+        upstream.failClose = true;
+        ScheduledDataSource audio =
+                new ScheduledDataSource(scheduler, upstream, ExoPlayerWrapper.TYPE_AUDIO);
+        audio.open(null);
+        try {
+            audio.close();
+            fail();
+        } catch (IOException e) {
+            // Expected.
+        }
+        assertFalse(scheduler.isThrottled(ExoPlayerWrapper.TYPE_VIDEO));
+    }
+
+    @Test
+    public void defersOpenOfPausedSourceForAtMostMaxWait() throws IOException {
+        ScheduledDataSource audio = new ScheduledDataSource(scheduler, new FakeDataSource(0),
+                ExoPlayerWrapper.TYPE_AUDIO);
+        FakeDataSource textUpstream = new FakeDataSource(0);
+        ScheduledDataSource text =
+                new ScheduledDataSource(scheduler, textUpstream, ExoPlayerWrapper.TYPE_TEXT);
+        audio.open(null);
+
+        long startTimeMs = System.nanoTime() / 1000000;
+        text.open(null);
+        long waitTimeMs = System.nanoTime() / 1000000 - startTimeMs;
+
+        assertTrue(waitTimeMs >= MAX_WAIT_MS);
+        assertEquals(1, textUpstream.openCount);
+        text.close();
+        audio.close();
+    }
+
+    private static final class FakeDataSource implements UriDataSource {
+
+        public static final String URI = "http://example.com/segment.m4s";
+
+        private final int length;
+
+        public int openCount;
+        public int closeCount;
+        public boolean failClose;
+
+        private int position;
+
+        public FakeDataSource(int length) {
+            this.length = length;
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) {
+            openCount++;
+            position = 0;
+            return length;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) {
+            if (position == length) {
+                return -1;
+            }
+            int bytesRead = Math.min(readLength, length - position);
+            position += bytesRead;
+            return bytesRead;
+        }
+
+        @Override
+        public String getUri() {
+            return URI;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closeCount++;
+            if (failClose) {
+                throw new IOException();
+            }
+        }
+
+    }
+
+}
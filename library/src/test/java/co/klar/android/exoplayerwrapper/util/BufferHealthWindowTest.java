@@ -0,0 +1,115 @@
+package co.klar.android.exoplayerwrapper.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BufferHealthWindowTest {
+
+    private static final int VIDEO = ExoPlayerWrapper.TYPE_VIDEO;
+    private static final int AUDIO = ExoPlayerWrapper.TYPE_AUDIO;
+
+    private BufferHealthWindow window;
+
+    @Before
+    public void setUp() {
+        window = new BufferHealthWindow(4);
+    }
+
+    @Test
+    public void reportsNoSamples() {
+        assertEquals(0, window.getWindowSampleCount(1000));
+        assertEquals(-1, window.getBufferedAheadMs(VIDEO));
+        assertEquals(-1, window.getMinBufferedAheadMs(VIDEO, 1000));
+        assertEquals(-1, window.getMaxBufferedAheadMs(VIDEO, 1000));
+        assertEquals(0, window.getSlope(VIDEO, 1000), 0);
+        assertEquals(-1, window.getTimeUntilStallMs(VIDEO, 1000));
+    }
+
+    @Test
+    public void overwritesOldestSamplesWhenFull() {
+        for (int i = 0; i < 6; i++) {
+            window.add(i * 250, i * 100, 0);
+        }
+
+        assertEquals(4, window.getSampleCount());
+        assertEquals(4, window.getWindowSampleCount(Long.MAX_VALUE));
+        assertEquals(500, window.getBufferedAheadMs(VIDEO));
+        assertEquals(200, window.getMinBufferedAheadMs(VIDEO, Long.MAX_VALUE));
+        assertEquals(500, window.getMaxBufferedAheadMs(VIDEO, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void boundsWindowByTimeOfMostRecentSample() {
+        window.add(0, 100, 0);
+        window.add(250, 200, 0);
+        window.add(500, 300, 0);
+        window.add(750, 400, 0);
+
+        // Samples exactly a window before the most recent sample are included.
+        assertEquals(3, window.getWindowSampleCount(500));
+        assertEquals(2, window.getWindowSampleCount(499));
+        assertEquals(1, window.getWindowSampleCount(0));
+        assertEquals(200, window.getMinBufferedAheadMs(VIDEO, 500));
+        assertEquals(300, window.getMinBufferedAheadMs(VIDEO, 499));
+    }
+
+    @Test
+    public void keepsVideoAndAudioSeparate() {
+        window.add(0, 1000, 3000);
+        window.add(1000, 2000, 1000);
+
+        assertEquals(2000, window.getBufferedAheadMs(VIDEO));
+        assertEquals(1000, window.getBufferedAheadMs(AUDIO));
+        assertTrue(window.getSlope(VIDEO, 1000) > 0);
+        assertTrue(window.getSlope(AUDIO, 1000) < 0);
+    }
+
+    @Test
+    public void computesDrainingSlopeAndTimeUntilStall() {
+        // Playing without loads drains a second of media per second.
+        window.add(0, 5000, 0);
+        window.add(1000, 4000, 0);
+        window.add(2000, 3000, 0);
+
+        assertEquals(-1000, window.getSlope(VIDEO, 2000), 0.01);
+        assertEquals(3000, window.getTimeUntilStallMs(VIDEO, 2000));
+    }
+
+    @Test
+    public void reportsNoStallWhileFilling() {
+        window.add(0, 1000, 0);
+        window.add(1000, 1500, 0);
+
+        assertEquals(500, window.getSlope(VIDEO, 1000), 0.01);
+        assertEquals(-1, window.getTimeUntilStallMs(VIDEO, 1000));
+    }
+
+    @Test
+    public void computesSlopeAcrossWrapAround() {
+        for (int i = 0; i < 7; i++) {
+            window.add(i * 1000, 10000 - i * 500, 0);
+        }
+
+        assertEquals(-500, window.getSlope(VIDEO, Long.MAX_VALUE), 0.01);
+    }
+
+    @Test
+    public void clearDiscardsSamples() {
+        window.add(0, 1000, 0);
+        window.add(1000, 2000, 0);
+
+        window.clear();
+
+        assertEquals(0, window.getSampleCount());
+        assertEquals(-1, window.getBufferedAheadMs(VIDEO));
+        window.add(2000, 500, 0);
+        assertEquals(1, window.getWindowSampleCount(Long.MAX_VALUE));
+        assertEquals(500, window.getMaxBufferedAheadMs(VIDEO, Long.MAX_VALUE));
+    }
+
+}
@@ -0,0 +1,112 @@
+package co.klar.android.exoplayerwrapper.util;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventRecorderTest {
+
+    private static final int BENCHMARK_EVENT_COUNT = 1000000;
+
+    @Test
+    public void dumpsRetainedEventsOldestFirstAfterWrapping() {
+        EventRecorder recorder = new EventRecorder(3, 4);
+        for (int i = 1; i <= 5; i++) {
+            recorder.record(EventRecorder.EVENT_SEEK, i * 1000, -1, EventRecorder.NO_LABEL, i, 0);
+        }
+        assertEquals(5, recorder.getEventCount());
+        StringBuilder builder = new StringBuilder();
+        recorder.dump(builder, 0);
+        assertEquals("3.00 seek [3]\n4.00 seek [4]\n5.00 seek [5]\n", builder.toString());
+    }
+
+    @Test
+    public void dumpsPartiallyFilledBuffer() {
+        EventRecorder recorder = new EventRecorder(4, 4);
+        recorder.record(EventRecorder.EVENT_SEEK, 1500, -1, EventRecorder.NO_LABEL, 7, 0);
+        StringBuilder builder = new StringBuilder();
+        recorder.dump(builder, 500);
+        assertEquals("1.00 seek [7]\n", builder.toString());
+    }
+
+    @Test
+    public void clearDiscardsEventsButKeepsLabels() {
+        EventRecorder recorder = new EventRecorder(4, 4);
+        int labelIndex = recorder.getLabelIndex("video-1");
+        recorder.record(EventRecorder.EVENT_DECODER_INITIALIZED, 0, -1, labelIndex, 0, 12);
+        recorder.clear();
+        assertEquals(0, recorder.getEventCount());
+        StringBuilder builder = new StringBuilder();
+        recorder.dump(builder, 0);
+        assertEquals("", builder.toString());
+        assertEquals(labelIndex, recorder.getLabelIndex("video-1"));
+    }
+
+    @Test
+    public void labelTableDeduplicatesAndOverflowsToNoLabel() {
+        EventRecorder recorder = new EventRecorder(4, 2);
+        assertEquals(EventRecorder.NO_LABEL, recorder.getLabelIndex(null));
+        assertEquals(0, recorder.getLabelIndex("a"));
+        assertEquals(1, recorder.getLabelIndex("b"));
+        assertEquals(0, recorder.getLabelIndex(new String("a")));
+        assertEquals(EventRecorder.NO_LABEL, recorder.getLabelIndex("c"));
+        assertEquals(1, recorder.getLabelIndex("b"));
+    }
+
+    @Test
+    public void recordsLabelsAndNegativeSourceIds() {
+        EventRecorder recorder = new EventRecorder(4, 4);
+        int labelIndex = recorder.getLabelIndex("cdn.example.com");
+        recorder.record(EventRecorder.EVENT_REQUEST_OPENED, 0, -1, labelIndex, 1, 25);
+        recorder.record(EventRecorder.EVENT_INTERNAL_ERROR, 0, -1, EventRecorder.NO_LABEL, 0, 0);
+        recorder.record(EventRecorder.EVENT_INTERNAL_ERROR, 0, 1, labelIndex, 0, 0);
+        StringBuilder builder = new StringBuilder();
+        recorder.dump(builder, 0);
+        assertEquals("0.00 requestOpened [cdn.example.com, reused, 25 ms]\n"
+                + "0.00 internalError [?]\n"
+                + "0.00 internalError [cdn.example.com, 1]\n", builder.toString());
+    }
+
+    /**
+     * Records a million events and checks that recording did not allocate, using the allocation
+     * counter of the HotSpot JVM. Prints the cost per event.
+     */
+    @Test
+    public void recordDoesNotAllocate() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+            // Allocation counting is not available on this JVM.
+            return;
+        }
+        com.sun.management.ThreadMXBean allocationCounter =
+                (com.sun.management.ThreadMXBean) threadMXBean;
+        long threadId = Thread.currentThread().getId();
+        EventRecorder recorder = new EventRecorder();
+        int labelIndex = recorder.getLabelIndex("video-1");
+        // Warm up, so that the measured loop runs compiled code.
+        recordEvents(recorder, labelIndex, BENCHMARK_EVENT_COUNT);
+
+        long allocatedBytes = allocationCounter.getThreadAllocatedBytes(threadId);
+        long startTimeNs = System.nanoTime();
+        recordEvents(recorder, labelIndex, BENCHMARK_EVENT_COUNT);
+        long elapsedNs = System.nanoTime() - startTimeNs;
+        allocatedBytes = allocationCounter.getThreadAllocatedBytes(threadId) - allocatedBytes;
+
+        System.out.println("EventRecorder.record: " + (elapsedNs / BENCHMARK_EVENT_COUNT)
+                + " ns/event, " + allocatedBytes + " bytes allocated for " + BENCHMARK_EVENT_COUNT
+                + " events");
+        // Allow for allocations of the measurement itself, which are independent of the count.
+        assertTrue("Allocated " + allocatedBytes + " bytes", allocatedBytes < 1024);
+    }
+
+    private static void recordEvents(EventRecorder recorder, int labelIndex, int count) {
+        for (int i = 0; i < count; i++) {
+            recorder.record(EventRecorder.EVENT_LOAD_COMPLETED, i, 0, labelIndex, 65536, 40);
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+package co.klar.android.exoplayerwrapper.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FlightRecorderTest {
+
+    private static final int CAPACITY = 4;
+    private static final int MAX_LABELS = 4;
+    private static final int BENCHMARK_EVENT_COUNT = 1000000;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("flight_recorder", null);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void decodesRecordedEvents() throws IOException {
+        FlightRecorder recorder = FlightRecorder.open(file, CAPACITY, MAX_LABELS);
+        recorder.onSeek(1000);
+        recorder.onDecoderInitialized("OMX.decoder", 0, 25);
+
+        String timeline = FlightRecorderDecoder.decode(file);
+        assertTrue(timeline, timeline.startsWith("events=2, retained=2\n"));
+        assertTrue(timeline, timeline.contains(" seek [1000]\n"));
+        assertTrue(timeline, timeline.contains(" decoderInitialized [OMX.decoder, 25 ms]\n"));
+    }
+
+    @Test
+    public void skipsTornSlotAfterNewestRecord() throws IOException {
+        FlightRecorder recorder = FlightRecorder.open(file, CAPACITY, MAX_LABELS);
+        for (int i = 1; i <= 6; i++) {
+            recorder.onSeek(i);
+        }
+        // Simulate the process dying while writing the next record: the slot after the newest
+        // record is partially overwritten, but the event count is not published.
+        int slot = 6 % CAPACITY;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.seek(FlightRecorder.HEADER_SIZE + MAX_LABELS * FlightRecorder.LABEL_SIZE
+                    + slot * FlightRecorder.RECORD_BYTES + 16);
+            randomAccessFile.writeLong(999);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        String timeline = FlightRecorderDecoder.decode(file);
+        assertTrue(timeline, timeline.startsWith("events=6, retained=3\n"));
+        assertTrue(timeline, timeline.contains(" seek [4]\n"));
+        assertTrue(timeline, timeline.contains(" seek [5]\n"));
+        assertTrue(timeline, timeline.contains(" seek [6]\n"));
+        assertFalse(timeline, timeline.contains(" seek [3]\n"));
+        assertFalse(timeline, timeline.contains("999"));
+        assertTrue(timeline.indexOf(" seek [4]") < timeline.indexOf(" seek [6]"));
+    }
+
+    @Test
+    public void reopeningAppendsAndKeepsLabels() throws IOException {
+        FlightRecorder recorder = FlightRecorder.open(file, CAPACITY, MAX_LABELS);
+        int labelIndex = recorder.getLabelIndex("video-1");
+        recorder.record(EventRecorder.EVENT_LOAD_COMPLETED, 0, labelIndex, 100, 10);
+
+        FlightRecorder reopened = FlightRecorder.open(file, CAPACITY, MAX_LABELS);
+        assertEquals(labelIndex, reopened.getLabelIndex("video-1"));
+        reopened.record(EventRecorder.EVENT_LOAD_COMPLETED, 0, labelIndex, 200, 20);
+
+        String timeline = FlightRecorderDecoder.decode(file);
+        assertTrue(timeline, timeline.startsWith("events=2, retained=2\n"));
+        assertTrue(timeline, timeline.contains(" loadEnd [0, video-1, 100 bytes, 10 ms]\n"));
+        assertTrue(timeline, timeline.contains(" loadEnd [0, video-1, 200 bytes, 20 ms]\n"));
+    }
+
+    @Test
+    public void reopeningWithOtherGeometryReinitializes() throws IOException {
+        FlightRecorder.open(file, CAPACITY, MAX_LABELS).onSeek(1);
+        FlightRecorder.open(file, CAPACITY * 2, MAX_LABELS);
+        assertTrue(FlightRecorderDecoder.decode(file).startsWith("events=0, retained=0\n"));
+    }
+
+    @Test
+    public void rejectsOtherFiles() {
+        try {
+            FlightRecorderDecoder.decode(ByteBuffer.allocate(FlightRecorder.HEADER_SIZE));
+            fail();
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    /**
+     * Records a million events into a mapped file and prints the cost per event. Checks that
+     * recording did not allocate, using the allocation counter of the HotSpot JVM.
+     */
+    @Test
+    public void recordCost() throws IOException {
+        FlightRecorder recorder = FlightRecorder.open(file);
+        // Warm up, so that the measured loop runs compiled code.
+        recordEvents(recorder, BENCHMARK_EVENT_COUNT);
+
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocationCounter =
+                threadMXBean instanceof com.sun.management.ThreadMXBean
+                        ? (com.sun.management.ThreadMXBean) threadMXBean : null;
+        long threadId = Thread.currentThread().getId();
+        long allocatedBytes = allocationCounter == null ? 0
+                : allocationCounter.getThreadAllocatedBytes(threadId);
+        long startTimeNs = System.nanoTime();
+        recordEvents(recorder, BENCHMARK_EVENT_COUNT);
+        long elapsedNs = System.nanoTime() - startTimeNs;
+        if (allocationCounter != null) {
+            allocatedBytes = allocationCounter.getThreadAllocatedBytes(threadId) - allocatedBytes;
+        }
+
+        System.out.println("FlightRecorder.record: " + (elapsedNs / BENCHMARK_EVENT_COUNT)
+                + " ns/event, " + allocatedBytes + " bytes allocated for " + BENCHMARK_EVENT_COUNT
+                + " events");
+        // Allow for allocations of the measurement itself, which are independent of the count.
+        assertTrue("Allocated " + allocatedBytes + " bytes", allocatedBytes < 1024);
+    }
+
+    private static void recordEvents(FlightRecorder recorder, int count) {
+        for (int i = 0; i < count; i++) {
+            recorder.record(EventRecorder.EVENT_LOAD_COMPLETED, 0, EventRecorder.NO_LABEL, 65536,
+                    40);
+        }
+    }
+
+}
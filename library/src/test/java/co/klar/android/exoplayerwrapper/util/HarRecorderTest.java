@@ -0,0 +1,128 @@
+package co.klar.android.exoplayerwrapper.util;
+
+import com.google.android.exoplayer.C;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import co.klar.android.exoplayerwrapper.upstream.HttpRequestRecord;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HarRecorderTest {
+
+    private static final String URL = "http://example.com/video/1.m4s";
+    private static final String REDIRECT_URL = "http://cdn.example.com/video/1.m4s";
+
+    @Test
+    public void retainsMostRecentRecords() {
+        HarRecorder recorder = new HarRecorder(2);
+        HttpRequestRecord first = createRecord(URL, null, 0, C.LENGTH_UNBOUNDED, 200, null);
+        HttpRequestRecord second = createRecord(URL, null, 0, C.LENGTH_UNBOUNDED, 200, null);
+        HttpRequestRecord third = createRecord(URL, null, 0, C.LENGTH_UNBOUNDED, 200, null);
+        recorder.onRequestCompleted(first);
+        recorder.onRequestCompleted(second);
+        recorder.onRequestCompleted(third);
+
+        List<HttpRequestRecord> records = recorder.getRecords();
+        assertEquals(2, records.size());
+        assertEquals(second, records.get(0));
+        assertEquals(third, records.get(1));
+
+        recorder.clear();
+        assertTrue(recorder.getRecords().isEmpty());
+    }
+
+    @Test
+    public void exportsHarDocument() throws JSONException {
+        HarRecorder recorder = new HarRecorder();
+        recorder.onRequestCompleted(createRecord(URL, URL, 1000, 500, 206, null));
+
+        JSONObject log = recorder.toJson().getJSONObject("log");
+        assertEquals("1.2", log.getString("version"));
+        JSONArray entries = log.getJSONArray("entries");
+        assertEquals(1, entries.length());
+
+        JSONObject entry = entries.getJSONObject(0);
+        assertEquals("1970-01-01T00:00:01.500Z", entry.getString("startedDateTime"));
+        assertEquals(300, entry.getLong("time"));
+        assertEquals(0, entry.getInt("_sourceId"));
+        assertTrue(entry.getBoolean("_connectionReused"));
+        assertFalse(entry.has("_error"));
+
+        JSONObject request = entry.getJSONObject("request");
+        assertEquals(URL, request.getString("url"));
+        JSONObject range = request.getJSONArray("headers").getJSONObject(0);
+        assertEquals("Range", range.getString("name"));
+        assertEquals("bytes=1000-1499", range.getString("value"));
+
+        JSONObject response = entry.getJSONObject("response");
+        assertEquals(206, response.getInt("status"));
+        assertEquals("", response.getString("redirectURL"));
+        assertEquals(4096, response.getJSONObject("content").getLong("size"));
+
+        JSONObject timings = entry.getJSONObject("timings");
+        assertEquals(100, timings.getLong("wait"));
+        assertEquals(200, timings.getLong("receive"));
+    }
+
+    @Test
+    public void exportsOpenEndedRangesAndRedirects() throws JSONException {
+        HarRecorder recorder = new HarRecorder();
+        recorder.onRequestCompleted(createRecord(URL, null, 0, C.LENGTH_UNBOUNDED, 200, null));
+        recorder.onRequestCompleted(
+                createRecord(URL, REDIRECT_URL, 1000, C.LENGTH_UNBOUNDED, 200, null));
+
+        JSONArray entries = recorder.toJson().getJSONObject("log").getJSONArray("entries");
+        JSONObject whole = entries.getJSONObject(0);
+        assertEquals(0, whole.getJSONObject("request").getJSONArray("headers").length());
+        JSONObject redirected = entries.getJSONObject(1);
+        assertEquals("bytes=1000-", redirected.getJSONObject("request").getJSONArray("headers")
+                .getJSONObject(0).getString("value"));
+        assertEquals(REDIRECT_URL,
+                redirected.getJSONObject("response").getString("redirectURL"));
+    }
+
+    @Test
+    public void exportsFailedRequests() throws JSONException {
+        HarRecorder recorder = new HarRecorder();
+        recorder.onRequestCompleted(new HttpRequestRecord(-1, URL, null, 0, C.LENGTH_UNBOUNDED,
+                1500, -1, 300, 0, false, -1, "java.net.SocketTimeoutException"));
+
+        JSONObject entry = recorder.toJson().getJSONObject("log").getJSONArray("entries")
+                .getJSONObject(0);
+        assertEquals("java.net.SocketTimeoutException", entry.getString("_error"));
+        assertEquals(0, entry.getJSONObject("response").getInt("status"));
+        // Without a response, the whole request is exported as wait time.
+        assertEquals(300, entry.getJSONObject("timings").getLong("wait"));
+        assertEquals(0, entry.getJSONObject("timings").getLong("receive"));
+    }
+
+    @Test
+    public void writesHarFile() throws IOException {
+        HarRecorder recorder = new HarRecorder();
+        recorder.onRequestCompleted(createRecord(URL, null, 0, C.LENGTH_UNBOUNDED, 200, null));
+        File file = File.createTempFile("requests", ".har");
+        try {
+            recorder.writeTo(file);
+            assertTrue(file.length() > 0);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static HttpRequestRecord createRecord(String url, String responseUrl, long position,
+                                                  long length, int statusCode, String error) {
+        return new HttpRequestRecord(0, url, responseUrl, position, length, 1500, 100, 300, 4096,
+                true, statusCode, error);
+    }
+
+}
@@ -0,0 +1,142 @@
+package co.klar.android.exoplayerwrapper.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void returnsMinusOneWhenEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(-1, histogram.getMin());
+        assertEquals(-1, histogram.getMax());
+        assertEquals(-1, histogram.getMean());
+        assertEquals(-1, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void countsSmallValuesExactly() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 16; i++) {
+            histogram.record(i);
+        }
+        assertEquals(16, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(15, histogram.getMax());
+        assertEquals(7, histogram.getMean());
+        assertEquals(7, histogram.getPercentile(50));
+        assertEquals(15, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void recordsNegativeValuesAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void approximatesPercentilesWithinBucketWidth() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i);
+        }
+        assertWithinBucket(5000, histogram.getPercentile(50));
+        assertWithinBucket(9500, histogram.getPercentile(95));
+        assertWithinBucket(9900, histogram.getPercentile(99));
+        assertEquals(1, histogram.getPercentile(0));
+        assertWithinBucket(10000, histogram.getPercentile(100));
+        assertEquals(5000, histogram.getMean());
+    }
+
+    @Test
+    public void clampsPercentilesToRecordedRange() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        assertEquals(1000, histogram.getPercentile(1));
+        assertEquals(1000, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void countsValuesBeyondLargestBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE / 2);
+        assertEquals(1, histogram.getCount());
+        assertEquals(Long.MAX_VALUE / 2, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void mergeCombinesCountsAndRange() {
+        LatencyHistogram first = new LatencyHistogram();
+        first.record(10);
+        first.record(20);
+        LatencyHistogram second = new LatencyHistogram();
+        second.record(5);
+        second.record(3000);
+
+        first.merge(second);
+        first.merge(new LatencyHistogram());
+
+        assertEquals(4, first.getCount());
+        assertEquals(5, first.getMin());
+        assertEquals(3000, first.getMax());
+        assertEquals((10 + 20 + 5 + 3000) / 4, first.getMean());
+        assertEquals(2, second.getCount());
+    }
+
+    @Test
+    public void snapshotIsIndependentOfLaterValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(100);
+        LatencyHistogram snapshot = histogram.snapshot();
+        histogram.record(200);
+
+        assertEquals(1, snapshot.getCount());
+        assertEquals(100, snapshot.getMax());
+        assertEquals(2, histogram.getCount());
+    }
+
+    @Test
+    public void resetDiscardsValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(100);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(-1, histogram.getMax());
+        histogram.record(7);
+        assertEquals(7, histogram.getMin());
+        assertEquals(7, histogram.getMax());
+    }
+
+    @Test
+    public void recordsConcurrentlyWithoutLosingValues() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int threadIndex = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        histogram.record(threadIndex * 10000 + j);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(39999, histogram.getMax());
+    }
+
+    private static void assertWithinBucket(long expected, long actual) {
+        assertEquals(expected, actual, expected / 8);
+    }
+
+}
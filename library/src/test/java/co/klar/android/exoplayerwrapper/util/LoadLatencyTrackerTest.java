@@ -0,0 +1,73 @@
+package co.klar.android.exoplayerwrapper.util;
+
+import org.junit.Test;
+
+import co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LoadLatencyTrackerTest {
+
+    @Test
+    public void keysFormatsBySourceAndId() {
+        LoadLatencyTracker tracker = new LoadLatencyTracker();
+        tracker.record(ExoPlayerWrapper.TYPE_VIDEO, "1", 1000, 10);
+        tracker.record(ExoPlayerWrapper.TYPE_AUDIO, "1", 1000, 20);
+        tracker.record(ExoPlayerWrapper.TYPE_AUDIO, "1", 1000, 20);
+
+        assertEquals(1, tracker.getFormatLatencyHistogram(ExoPlayerWrapper.TYPE_VIDEO, "1")
+                .getCount());
+        assertEquals(2, tracker.getFormatLatencyHistogram(ExoPlayerWrapper.TYPE_AUDIO, "1")
+                .getCount());
+        assertNull(tracker.getFormatLatencyHistogram(ExoPlayerWrapper.TYPE_TEXT, "1"));
+        assertArrayEquals(new String[] {"1"}, tracker.getFormatIds(ExoPlayerWrapper.TYPE_VIDEO));
+        assertArrayEquals(new String[0], tracker.getFormatIds(ExoPlayerWrapper.TYPE_TEXT));
+    }
+
+    @Test
+    public void recordsThroughputInKilobitsPerSecond() {
+        LoadLatencyTracker tracker = new LoadLatencyTracker();
+        tracker.record(ExoPlayerWrapper.TYPE_VIDEO, null, 10000, 10);
+        tracker.record(ExoPlayerWrapper.TYPE_VIDEO, null, -1, 10);
+        assertEquals(2, tracker.getLatencyHistogram(ExoPlayerWrapper.TYPE_VIDEO).getCount());
+        LatencyHistogram throughput = tracker.getThroughputHistogram(ExoPlayerWrapper.TYPE_VIDEO);
+        assertEquals(1, throughput.getCount());
+        assertEquals(8000, throughput.getMax(), 8000 / 8);
+    }
+
+    @Test
+    public void boundsTrackedFormats() {
+        LoadLatencyTracker tracker = new LoadLatencyTracker(1);
+        tracker.record(ExoPlayerWrapper.TYPE_VIDEO, "1", 1000, 10);
+        tracker.record(ExoPlayerWrapper.TYPE_VIDEO, "2", 1000, 10);
+        assertNull(tracker.getFormatLatencyHistogram(ExoPlayerWrapper.TYPE_VIDEO, "2"));
+        assertEquals(2, tracker.getLatencyHistogram(ExoPlayerWrapper.TYPE_VIDEO).getCount());
+    }
+
+    @Test
+    public void mergeSourcesDoesNotCombineFormatsOfDifferentContent() {
+        LoadLatencyTracker session = new LoadLatencyTracker();
+        session.record(ExoPlayerWrapper.TYPE_VIDEO, "1", 1000, 10);
+        LoadLatencyTracker aggregate = new LoadLatencyTracker();
+        aggregate.mergeSources(session);
+        aggregate.mergeSources(session);
+
+        assertEquals(2, aggregate.getLatencyHistogram(ExoPlayerWrapper.TYPE_VIDEO).getCount());
+        assertArrayEquals(new String[0], aggregate.getFormatIds(ExoPlayerWrapper.TYPE_VIDEO));
+    }
+
+    @Test
+    public void snapshotCopiesFormats() {
+        LoadLatencyTracker tracker = new LoadLatencyTracker();
+        tracker.record(ExoPlayerWrapper.TYPE_AUDIO, "a", 1000, 10);
+        LoadLatencyTracker snapshot = tracker.snapshot();
+        tracker.record(ExoPlayerWrapper.TYPE_AUDIO, "a", 1000, 10);
+
+        assertEquals(1, snapshot.getFormatLatencyHistogram(ExoPlayerWrapper.TYPE_AUDIO, "a")
+                .getCount());
+        assertEquals(1, snapshot.getLatencyHistogram(ExoPlayerWrapper.TYPE_AUDIO).getCount());
+    }
+
+}
@@ -0,0 +1,167 @@
+package co.klar.android.exoplayerwrapper.util;
+
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.util.Clock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import co.klar.android.exoplayerwrapper.extractor.ExoPlayerWrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StallClassifierTest {
+
+    private FakeClock clock;
+    private FakeListener listener;
+    private StallClassifier classifier;
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        clock.timeMs = 100000;
+        listener = new FakeListener();
+        classifier = new StallClassifier(null, clock);
+        classifier.setListener(listener);
+        classifier.onStateChanged(true, ExoPlayerWrapper.STATE_READY, 0);
+    }
+
+    @Test
+    public void classifiesStallAfterSeek() {
+        // Errors before the seek do not matter.
+        classifier.onLoadError(ExoPlayerWrapper.TYPE_VIDEO, new IOException());
+        classifier.onSeek(30000);
+
+        stall(30000, 1500);
+
+        assertStall(StallClassifier.CAUSE_SEEK);
+        assertEquals(1, listener.confidence, 0);
+        assertEquals(1500, listener.stallDurationMs);
+    }
+
+    @Test
+    public void classifiesLoadErrors() {
+        classifier.onLoadError(ExoPlayerWrapper.TYPE_VIDEO, new IOException());
+        clock.timeMs += 1000;
+        classifier.onLoadError(ExoPlayerWrapper.TYPE_VIDEO, new IOException());
+
+        stall(5000, 2000);
+
+        assertStall(StallClassifier.CAUSE_LOAD_ERROR);
+        assertTrue(StallClassifier.isNetworkCause(listener.cause));
+    }
+
+    @Test
+    public void classifiesDroppedFramesWithHealthyBuffer() {
+        loadCompleted(ExoPlayerWrapper.TYPE_VIDEO, 10000);
+        loadCompleted(ExoPlayerWrapper.TYPE_AUDIO, 10000);
+        classifier.onDroppedFrames(10, 500);
+        // Outweighed by the dropped frames only because the buffer was healthy.
+        classifier.onLoadError(ExoPlayerWrapper.TYPE_VIDEO, new IOException());
+
+        stall(2000, 300);
+
+        assertStall(StallClassifier.CAUSE_DECODER);
+        assertFalse(StallClassifier.isNetworkCause(listener.cause));
+    }
+
+    @Test
+    public void classifiesAudioUnderruns() {
+        classifier.onAudioTrackUnderrun(4096, 20, 50);
+
+        stall(5000, 300);
+
+        assertStall(StallClassifier.CAUSE_AUDIO_UNDERRUN);
+    }
+
+    @Test
+    public void classifiesThroughputShortfall() {
+        classifier.onVideoFormatEnabled(createFormat(2000000), 0, 0);
+        classifier.onAudioFormatEnabled(createFormat(128000), 0, 0);
+        // 1 Mbit/s, half the bitrate being played.
+        classifier.onBandwidthSample(1000, 125000, 1000000);
+
+        stall(5000, 3000);
+
+        assertStall(StallClassifier.CAUSE_THROUGHPUT);
+        assertTrue(StallClassifier.isNetworkCause(listener.cause));
+    }
+
+    @Test
+    public void ignoresEvidenceBeforeLookback() {
+        classifier.onAudioTrackUnderrun(4096, 20, 50);
+        clock.timeMs += StallClassifier.LOOKBACK_MS + 1;
+
+        stall(5000, 300);
+
+        assertStall(StallClassifier.CAUSE_UNKNOWN);
+        assertEquals(0, listener.confidence, 0);
+    }
+
+    @Test
+    public void ignoresBufferingBeforeJoin() {
+        classifier = new StallClassifier(null, clock);
+        classifier.setListener(listener);
+        classifier.onStateChanged(true, ExoPlayerWrapper.STATE_BUFFERING, 0);
+        classifier.onStateChanged(true, ExoPlayerWrapper.STATE_READY, 0);
+
+        assertEquals(0, listener.stallCount);
+    }
+
+    private void stall(long positionMs, long durationMs) {
+        classifier.onStateChanged(true, ExoPlayerWrapper.STATE_BUFFERING, positionMs);
+        clock.timeMs += durationMs;
+        classifier.onStateChanged(true, ExoPlayerWrapper.STATE_READY, positionMs);
+    }
+
+    private void loadCompleted(int sourceId, long mediaEndTimeMs) {
+        // A load taking a small fraction of the media duration it loaded.
+        classifier.onLoadCompleted(sourceId, 100000, 0, 0, null, mediaEndTimeMs - 4000,
+                mediaEndTimeMs, clock.timeMs, 200);
+    }
+
+    private void assertStall(int cause) {
+        assertEquals(1, listener.stallCount);
+        assertEquals(StallClassifier.getCauseName(cause),
+                StallClassifier.getCauseName(listener.cause));
+        assertEquals(1, classifier.getCauseCount(cause));
+        assertTrue(listener.confidence >= 0 && listener.confidence <= 1);
+    }
+
+    private static Format createFormat(int bitrate) {
+        return new Format("id", "video/mp4", -1, -1, -1, -1, -1, bitrate);
+    }
+
+    private static final class FakeClock implements Clock {
+
+        public long timeMs;
+
+        @Override
+        public long elapsedRealtime() {
+            return timeMs;
+        }
+
+    }
+
+    private static final class FakeListener implements StallClassifier.Listener {
+
+        public int stallCount;
+        public int cause;
+        public float confidence;
+        public long stallDurationMs;
+
+        @Override
+        public void onStall(int cause, float confidence, long stallDurationMs) {
+            stallCount++;
+            this.cause = cause;
+            this.confidence = confidence;
+            this.stallDurationMs = stallDurationMs;
+        }
+
+    }
+
+}
@@ -0,0 +1,73 @@
+package co.klar.android.exoplayerwrapper.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class StartupTraceAggregatorTest {
+
+    @Test
+    public void recordsReachedPhasesOnly() {
+        StartupTraceAggregator aggregator = new StartupTraceAggregator();
+        StartupTrace trace = new StartupTrace();
+        trace.mark(StartupTrace.PHASE_PREPARE, 1000);
+        trace.mark(StartupTrace.PHASE_MANIFEST_LOADED, 1100);
+        trace.onDecoderInitialized(1300, 50);
+        trace.mark(StartupTrace.PHASE_FIRST_FRAME, 1400);
+
+        aggregator.onStartupTrace(trace);
+
+        assertEquals(1, aggregator.getHistogram(StartupTrace.PHASE_PREPARE).getCount());
+        assertEquals(100, aggregator.getHistogram(StartupTrace.PHASE_MANIFEST_LOADED).getMax());
+        assertEquals(0, aggregator.getHistogram(StartupTrace.PHASE_TIMING_RESOLVED).getCount());
+        assertEquals(0, aggregator.getHistogram(StartupTrace.PHASE_DRM_KEYS_LOADED).getCount());
+        assertEquals(300,
+                aggregator.getHistogram(StartupTrace.PHASE_DECODERS_INITIALIZED).getMax());
+        assertEquals(400, aggregator.getHistogram(StartupTrace.PHASE_FIRST_FRAME).getMax());
+        assertEquals(50, aggregator.getDecoderInitializationHistogram().getMax());
+    }
+
+    @Test
+    public void aggregatesSeveralStartups() {
+        StartupTraceAggregator aggregator = new StartupTraceAggregator();
+        for (int i = 1; i <= 3; i++) {
+            StartupTrace trace = new StartupTrace();
+            trace.mark(StartupTrace.PHASE_PREPARE, 0);
+            trace.mark(StartupTrace.PHASE_FIRST_FRAME, i * 100);
+            aggregator.onStartupTrace(trace);
+        }
+
+        LatencyHistogram firstFrame = aggregator.getHistogram(StartupTrace.PHASE_FIRST_FRAME);
+        assertEquals(3, firstFrame.getCount());
+        assertEquals(100, firstFrame.getMin());
+        assertEquals(300, firstFrame.getMax());
+        assertEquals(3, aggregator.getDecoderInitializationHistogram().getCount());
+        assertEquals(0, aggregator.getDecoderInitializationHistogram().getMax());
+    }
+
+    @Test
+    public void splitsDecoderInitializationBySourceSwitch() {
+        StartupTraceAggregator aggregator = new StartupTraceAggregator();
+        aggregator.onStartupTrace(createTrace(false, 300));
+        aggregator.onStartupTrace(createTrace(true, 80));
+        aggregator.onStartupTrace(createTrace(true, 120));
+
+        assertEquals(3, aggregator.getDecoderInitializationHistogram().getCount());
+        LatencyHistogram cold = aggregator.getColdDecoderInitializationHistogram();
+        assertEquals(1, cold.getCount());
+        assertEquals(300, cold.getMax());
+        LatencyHistogram switches = aggregator.getSwitchDecoderInitializationHistogram();
+        assertEquals(2, switches.getCount());
+        assertEquals(80, switches.getMin());
+        assertEquals(120, switches.getMax());
+    }
+
+    private static StartupTrace createTrace(boolean sourceSwitch, long decoderInitializationMs) {
+        StartupTrace trace = new StartupTrace(sourceSwitch);
+        trace.mark(StartupTrace.PHASE_PREPARE, 0);
+        trace.onDecoderInitialized(decoderInitializationMs, decoderInitializationMs);
+        trace.mark(StartupTrace.PHASE_READY, 500);
+        return trace;
+    }
+
+}
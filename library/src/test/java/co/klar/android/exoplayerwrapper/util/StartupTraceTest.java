@@ -0,0 +1,84 @@
+package co.klar.android.exoplayerwrapper.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StartupTraceTest {
+
+    @Test
+    public void stampsEachPhaseOnce() {
+        StartupTrace trace = new StartupTrace();
+        trace.mark(StartupTrace.PHASE_PREPARE, 1000);
+        trace.mark(StartupTrace.PHASE_MANIFEST_LOADED, 1200);
+        trace.mark(StartupTrace.PHASE_MANIFEST_LOADED, 1500);
+
+        assertEquals(1200, trace.getTimestampMs(StartupTrace.PHASE_MANIFEST_LOADED));
+        assertEquals(200, trace.getTimeSincePrepareMs(StartupTrace.PHASE_MANIFEST_LOADED));
+        assertEquals(-1, trace.getTimeSincePrepareMs(StartupTrace.PHASE_TIMING_RESOLVED));
+    }
+
+    @Test
+    public void returnsMinusOneWithoutPrepare() {
+        StartupTrace trace = new StartupTrace();
+        trace.mark(StartupTrace.PHASE_READY, 1000);
+        assertEquals(1000, trace.getTimestampMs(StartupTrace.PHASE_READY));
+        assertEquals(-1, trace.getTimeSincePrepareMs(StartupTrace.PHASE_READY));
+    }
+
+    @Test
+    public void countsDecoderInitializationUntilFirstFrame() {
+        StartupTrace trace = new StartupTrace();
+        trace.mark(StartupTrace.PHASE_PREPARE, 0);
+        trace.onDecoderInitialized(300, 40);
+        trace.onDecoderInitialized(350, 60);
+        trace.mark(StartupTrace.PHASE_FIRST_FRAME, 500);
+        // A decoder initialized after the first frame, for example after a format change.
+        trace.onDecoderInitialized(900, 80);
+
+        assertEquals(350, trace.getTimeSincePrepareMs(StartupTrace.PHASE_DECODERS_INITIALIZED));
+        assertEquals(100, trace.getDecoderInitializationTimeMs());
+    }
+
+    @Test
+    public void completesWhenReadyAfterFirstFrame() {
+        StartupTrace trace = new StartupTrace();
+        trace.mark(StartupTrace.PHASE_PREPARE, 0);
+        // The first frame is drawn before the player reports that it is ready.
+        trace.mark(StartupTrace.PHASE_FIRST_FRAME, 400);
+        assertFalse(trace.isComplete(true));
+        trace.mark(StartupTrace.PHASE_READY, 450);
+        assertTrue(trace.isComplete(true));
+    }
+
+    @Test
+    public void completesWhenFirstFrameIsDrawnAfterReady() {
+        StartupTrace trace = new StartupTrace();
+        trace.mark(StartupTrace.PHASE_PREPARE, 0);
+        trace.mark(StartupTrace.PHASE_READY, 400);
+        assertFalse(trace.isComplete(true));
+        trace.mark(StartupTrace.PHASE_FIRST_FRAME, 450);
+        assertTrue(trace.isComplete(true));
+    }
+
+    @Test
+    public void completesWhenReadyWithoutVideo() {
+        StartupTrace trace = new StartupTrace();
+        trace.mark(StartupTrace.PHASE_PREPARE, 0);
+        assertFalse(trace.isComplete(false));
+        trace.mark(StartupTrace.PHASE_READY, 400);
+        assertTrue(trace.isComplete(false));
+        assertEquals(-1, trace.getTimeSincePrepareMs(StartupTrace.PHASE_FIRST_FRAME));
+    }
+
+    @Test
+    public void namesEveryPhase() {
+        for (int i = 0; i < StartupTrace.PHASE_COUNT; i++) {
+            assertFalse("?".equals(StartupTrace.getPhaseName(i)));
+        }
+        assertEquals("?", StartupTrace.getPhaseName(StartupTrace.PHASE_COUNT));
+    }
+
+}